@@ -0,0 +1,583 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.http.server;
+
+import static javax.servlet.http.HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+import static org.eclipse.jgit.http.server.ServletUtils.getRepository;
+import static org.eclipse.jgit.util.HttpSupport.ENCODING_GZIP;
+import static org.eclipse.jgit.util.HttpSupport.HDR_CONTENT_ENCODING;
+import static org.eclipse.jgit.util.HttpSupport.HDR_RETRY_AFTER;
+import static org.eclipse.jgit.util.HttpSupport.METHOD_POST;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.util.IO;
+
+/**
+ * Limits the number of smart service requests executing at once.
+ * <p>
+ * Install this filter in a {@link GitServlet} through
+ * {@link GitServlet#setAdmissionFilter(AdmissionFilter)} to place it in front
+ * of the {@code git-upload-pack} and {@code git-receive-pack} servlets.
+ * <p>
+ * Each request is assigned a cost by {@link #estimateCost}, and must obtain
+ * that many permits from the repository's limit and then the global limit
+ * before it may execute. A request that cannot obtain its permits within the
+ * configured wait time is answered with {@code 503 Service Unavailable} and a
+ * {@code Retry-After} header, allowing the client to try again later instead
+ * of having the server thrash under the load.
+ * <p>
+ * Requests are classified by their path, the same way {@link GitServlet}
+ * dispatches them. POST requests for any other path are passed through
+ * without being limited.
+ * <p>
+ * Before any permits are obtained, a prefix of an upload-pack request body, at
+ * most {@link #getMaxBufferedBody()} bytes, is buffered to count the
+ * {@code want} and {@code have} lines sent by the client. At most
+ * {@link #getMaxBufferedRequests()} bodies are read at once, and reading
+ * stops after {@link #getMaxBodyReadTime()}, so slow clients cannot hold up
+ * requests which were already admitted. Once the cost is known the request
+ * obtains all its repository permits, and then all its global permits, in one
+ * step each. The service reads the buffered prefix followed by the rest of
+ * the body. Lines beyond the prefix are not counted. Receive-pack bodies carry
+ * the pack being pushed, so they are never buffered.
+ */
+public class AdmissionFilter implements Filter {
+	private static final String UPLOAD_PACK = "git-upload-pack";
+
+	private static final String RECEIVE_PACK = "git-receive-pack";
+
+	private static final String UPLOAD_PACK_REQUEST_TYPE = "application/x-git-upload-pack-request";
+
+	/** Stands in for the limit of a repository if there is none. */
+	private static final Semaphore UNLIMITED = new Semaphore(0);
+
+	private final int maxConcurrent;
+
+	private final int maxPerRepository;
+
+	private final Semaphore global;
+
+	/** Limits of repositories with requests executing; guarded by itself. */
+	private final Map<String, Semaphore> perRepository;
+
+	private final AtomicInteger waiting = new AtomicInteger();
+
+	private long maxWait;
+
+	private int retryAfter = 5;
+
+	private int maxBufferedBody = 256 * 1024;
+
+	private volatile Semaphore bodyReaders = new Semaphore(8, true);
+
+	private int maxBufferedRequests = 8;
+
+	private long maxBodyReadTime = 10 * 1000;
+
+	/**
+	 * Create a new admission filter.
+	 *
+	 * @param maxConcurrent
+	 *            total cost of requests allowed to execute at once across all
+	 *            repositories. 0 or a negative value disables the limit.
+	 * @param maxPerRepository
+	 *            total cost of requests allowed to execute at once against any
+	 *            single repository. 0 or a negative value disables the limit.
+	 */
+	public AdmissionFilter(int maxConcurrent, int maxPerRepository) {
+		this.maxConcurrent = Math.max(0, maxConcurrent);
+		this.maxPerRepository = Math.max(0, maxPerRepository);
+		this.global = 0 < maxConcurrent ? new Semaphore(maxConcurrent, true)
+				: null;
+		this.perRepository = new HashMap<String, Semaphore>();
+	}
+
+	/** @return total cost permitted to execute at once; 0 if unlimited. */
+	public int getMaxConcurrent() {
+		return maxConcurrent;
+	}
+
+	/** @return cost permitted to execute at once per repository. */
+	public int getMaxPerRepository() {
+		return maxPerRepository;
+	}
+
+	/** @return milliseconds a request may wait for its permits. */
+	public long getMaxWait() {
+		return maxWait;
+	}
+
+	/**
+	 * @param millis
+	 *            number of milliseconds a request may wait for other requests
+	 *            to finish before it is rejected. 0 (the default) rejects a
+	 *            request immediately if the limits are reached.
+	 */
+	public void setMaxWait(long millis) {
+		maxWait = Math.max(0, millis);
+	}
+
+	/** @return seconds the client is asked to wait before retrying. */
+	public int getRetryAfter() {
+		return retryAfter;
+	}
+
+	/**
+	 * @param seconds
+	 *            value of the {@code Retry-After} header sent on a rejected
+	 *            request. 0 or a negative value omits the header.
+	 */
+	public void setRetryAfter(int seconds) {
+		retryAfter = seconds;
+	}
+
+	/** @return maximum number of request body bytes examined. */
+	public int getMaxBufferedBody() {
+		return maxBufferedBody;
+	}
+
+	/**
+	 * @param bytes
+	 *            maximum number of bytes of an upload-pack request body, and
+	 *            of the body after decompression, to examine when estimating
+	 *            the cost of the request. The default is 256 KiB.
+	 */
+	public void setMaxBufferedBody(int bytes) {
+		maxBufferedBody = Math.max(0, bytes);
+	}
+
+	/** @return maximum number of request bodies examined at once. */
+	public int getMaxBufferedRequests() {
+		return maxBufferedRequests;
+	}
+
+	/**
+	 * @param requests
+	 *            maximum number of upload-pack request bodies to examine at
+	 *            once. Further requests wait for their turn as they wait for
+	 *            permits. 0 or a negative value disables the limit. The
+	 *            default is 8.
+	 */
+	public void setMaxBufferedRequests(int requests) {
+		maxBufferedRequests = Math.max(0, requests);
+		bodyReaders = 0 < requests ? new Semaphore(requests, true) : null;
+	}
+
+	/** @return milliseconds spent reading a request body prefix at most. */
+	public long getMaxBodyReadTime() {
+		return maxBodyReadTime;
+	}
+
+	/**
+	 * @param millis
+	 *            number of milliseconds after which buffering of a request
+	 *            body stops, even if fewer than {@link #getMaxBufferedBody()}
+	 *            bytes were received. The cost is then estimated from the
+	 *            bytes read so far. The default is 10 seconds.
+	 */
+	public void setMaxBodyReadTime(long millis) {
+		maxBodyReadTime = Math.max(0, millis);
+	}
+
+	/** @return number of repositories with requests currently executing. */
+	public int getActiveRepositories() {
+		synchronized (perRepository) {
+			return perRepository.size();
+		}
+	}
+
+	/** @return number of requests currently waiting for their permits. */
+	public int getWaitingRequests() {
+		return waiting.get();
+	}
+
+	public void init(FilterConfig config) throws ServletException {
+		// Do nothing.
+	}
+
+	public void destroy() {
+		// Do nothing.
+	}
+
+	public void doFilter(ServletRequest request, ServletResponse response,
+			FilterChain chain) throws IOException, ServletException {
+		final HttpServletRequest req = (HttpServletRequest) request;
+		final HttpServletResponse rsp = (HttpServletResponse) response;
+		final String service = getService(req);
+		if (!METHOD_POST.equals(req.getMethod()) || service == null) {
+			chain.doFilter(request, response);
+			return;
+		}
+
+		final Repository db = getRepository(req);
+		final int cost;
+		if (UPLOAD_PACK.equals(service) && isUploadPackRequest(req)) {
+			// Examine the body before holding any permits, so a slow client
+			// only delays the other requests waiting to be examined.
+			final Semaphore readers = bodyReaders;
+			if (!acquire(readers, 1, System.currentTimeMillis() + maxWait)) {
+				overloaded(rsp);
+				return;
+			}
+			final long until = System.currentTimeMillis() + maxBodyReadTime;
+			final byte[] prefix;
+			try {
+				prefix = readPrefix(req, maxBufferedBody, until);
+			} finally {
+				release(readers, 1);
+			}
+			final int[] cnt = countWantsHaves(req, prefix, maxBufferedBody);
+			request = new BufferedRequest(req, prefix);
+			cost = estimateCost(req, db, UPLOAD_PACK, cnt[0], cnt[1]);
+		} else
+			cost = estimateCost(req, db, service, 0, 0);
+
+		// Always take the repository permits before the global ones, and
+		// all permits of a limit at once, so requests never hold a part of
+		// their permits while waiting for others.
+		final long deadline = System.currentTimeMillis() + maxWait;
+		final String key = repositoryKey(db);
+		final int repoCost = Math.max(1, Math.min(cost, maxPerRepository));
+		final Semaphore repo = acquireRepository(key, repoCost, deadline);
+		if (repo == null) {
+			overloaded(rsp);
+			return;
+		}
+		try {
+			final int globalCost = Math.max(1, Math.min(cost, maxConcurrent));
+			if (!acquire(global, globalCost, deadline)) {
+				overloaded(rsp);
+				return;
+			}
+			try {
+				chain.doFilter(request, response);
+			} finally {
+				release(global, globalCost);
+			}
+		} finally {
+			releaseRepository(key, repo, repoCost);
+		}
+	}
+
+	/**
+	 * Estimate the relative cost of executing a request.
+	 * <p>
+	 * The default implementation charges 1 for a push and for a typical fetch
+	 * negotiation round, adding 1 for every 256 {@code want} or {@code have}
+	 * lines sent by the client, as large numbers of either require more work
+	 * from the object walk. Subclasses may override this method to apply
+	 * their own policy, for example to charge more for a clone.
+	 *
+	 * @param req
+	 *            the current request.
+	 * @param db
+	 *            the repository the request will execute against.
+	 * @param service
+	 *            name of the service; {@code git-upload-pack} or
+	 *            {@code git-receive-pack}.
+	 * @param wants
+	 *            number of {@code want} lines in an upload-pack request; 0
+	 *            for receive-pack.
+	 * @param haves
+	 *            number of {@code have} lines in an upload-pack request; 0
+	 *            for receive-pack.
+	 * @return number of permits the request must obtain before executing.
+	 *         Values are clamped to be at least 1, and at most the configured
+	 *         limits.
+	 */
+	protected int estimateCost(HttpServletRequest req, Repository db,
+			String service, int wants, int haves) {
+		return 1 + (wants + haves) / 256;
+	}
+
+	private static String getService(HttpServletRequest req) {
+		final String uri = req.getRequestURI();
+		if (uri == null)
+			return null;
+		if (uri.endsWith("/" + UPLOAD_PACK))
+			return UPLOAD_PACK;
+		if (uri.endsWith("/" + RECEIVE_PACK))
+			return RECEIVE_PACK;
+		return null;
+	}
+
+	private static boolean isUploadPackRequest(HttpServletRequest req) {
+		String type = req.getContentType();
+		if (type == null)
+			return false;
+		final int semi = type.indexOf(';');
+		if (0 <= semi)
+			type = type.substring(0, semi);
+		return UPLOAD_PACK_REQUEST_TYPE.equalsIgnoreCase(type.trim());
+	}
+
+	private String repositoryKey(Repository db) {
+		if (maxPerRepository <= 0)
+			return null;
+		return db.getDirectory() != null ? db.getDirectory().getPath()
+				: String.valueOf(System.identityHashCode(db));
+	}
+
+	/**
+	 * Obtain permits from the limit of a repository.
+	 *
+	 * @return the limit the permits were obtained from; {@link #UNLIMITED}
+	 *         if repositories are not limited; null if the permits could not
+	 *         be obtained in time.
+	 */
+	private Semaphore acquireRepository(String key, int cost, long deadline) {
+		if (key == null)
+			return UNLIMITED;
+		for (;;) {
+			Semaphore s;
+			synchronized (perRepository) {
+				s = perRepository.get(key);
+				if (s == null) {
+					s = new Semaphore(maxPerRepository, true);
+					perRepository.put(key, s);
+				}
+			}
+			if (!acquire(s, cost, deadline))
+				return null;
+
+			// The limit may have been dropped by the last request to leave
+			// before the permits were obtained. A new one is in use then.
+			synchronized (perRepository) {
+				if (perRepository.get(key) == s)
+					return s;
+			}
+			s.release(cost);
+		}
+	}
+
+	private void releaseRepository(String key, Semaphore s, int cost) {
+		if (s == UNLIMITED)
+			return;
+		s.release(cost);
+		synchronized (perRepository) {
+			if (s.availablePermits() == maxPerRepository
+					&& perRepository.get(key) == s)
+				perRepository.remove(key);
+		}
+	}
+
+	private boolean acquire(Semaphore s, int cost, long deadline) {
+		if (s == null || cost <= 0)
+			return true;
+		if (s.tryAcquire(cost))
+			return true;
+
+		waiting.incrementAndGet();
+		try {
+			final long wait = deadline - System.currentTimeMillis();
+			return 0 < wait && s.tryAcquire(cost, wait, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			waiting.decrementAndGet();
+		}
+	}
+
+	private static void release(Semaphore s, int cost) {
+		if (s != null && 0 < cost)
+			s.release(cost);
+	}
+
+	private void overloaded(HttpServletResponse rsp) throws IOException {
+		if (0 < retryAfter)
+			rsp.setHeader(HDR_RETRY_AFTER, String.valueOf(retryAfter));
+		rsp.sendError(SC_SERVICE_UNAVAILABLE);
+	}
+
+	private static byte[] readPrefix(HttpServletRequest req, int limit,
+			long until) throws IOException {
+		final int len = req.getContentLength();
+		byte[] buf = new byte[0 <= len && len < limit ? len : Math.min(limit,
+				8192)];
+		final InputStream in = req.getInputStream();
+		int cnt = 0;
+		while (cnt < limit && System.currentTimeMillis() < until) {
+			if (cnt == buf.length) {
+				final byte[] n = new byte[Math.min(limit, buf.length * 2)];
+				System.arraycopy(buf, 0, n, 0, cnt);
+				buf = n;
+			}
+			final int r = in.read(buf, cnt, buf.length - cnt);
+			if (r <= 0)
+				break;
+			cnt += r;
+		}
+		if (cnt == buf.length)
+			return buf;
+		final byte[] r = new byte[cnt];
+		System.arraycopy(buf, 0, r, 0, cnt);
+		return r;
+	}
+
+	private static int[] countWantsHaves(HttpServletRequest req, byte[] body,
+			int limit) {
+		final int[] cnt = new int[2];
+		try {
+			InputStream in = new ByteArrayInputStream(body);
+			final String enc = req.getHeader(HDR_CONTENT_ENCODING);
+			if (ENCODING_GZIP.equals(enc) || "x-gzip".equals(enc)) //$NON-NLS-1$
+				in = new GZIPInputStream(in);
+
+			final byte[] hdr = new byte[4];
+			final byte[] cmd = new byte[5];
+			long examined = 0;
+			for (;;) {
+				if (!readFully(in, hdr, 4))
+					break;
+				final int len = parseLength(hdr);
+				examined += Math.max(4, len);
+				if (limit < examined)
+					break; // the rest of the body is not counted
+				if (len == 0)
+					continue; // flush packet
+				if (len < 4)
+					break; // not a valid request, let the service complain
+
+				final int payload = len - 4;
+				if (payload < 5) {
+					IO.skipFully(in, payload);
+					continue;
+				}
+				if (!readFully(in, cmd, 5))
+					break;
+				IO.skipFully(in, payload - 5);
+
+				if (cmd[0] == 'w' && cmd[1] == 'a' && cmd[2] == 'n'
+						&& cmd[3] == 't' && cmd[4] == ' ')
+					cnt[0]++;
+				else if (cmd[0] == 'h' && cmd[1] == 'a' && cmd[2] == 'v'
+						&& cmd[3] == 'e' && cmd[4] == ' ')
+					cnt[1]++;
+			}
+		} catch (IOException e) {
+			// Stop counting. The service will report the malformed request.
+		}
+		return cnt;
+	}
+
+	private static boolean readFully(InputStream in, byte[] buf, int len)
+			throws IOException {
+		int off = 0;
+		while (off < len) {
+			final int r = in.read(buf, off, len - off);
+			if (r <= 0)
+				return false;
+			off += r;
+		}
+		return true;
+	}
+
+	private static int parseLength(byte[] hdr) {
+		int len = 0;
+		for (int i = 0; i < 4; i++) {
+			final int d = Character.digit((char) hdr[i], 16);
+			if (d < 0)
+				return -1;
+			len = (len << 4) | d;
+		}
+		return len;
+	}
+
+	/** A request whose body starts with a prefix already read from it. */
+	private static class BufferedRequest extends HttpServletRequestWrapper {
+		private final byte[] prefix;
+
+		private ServletInputStream stream;
+
+		BufferedRequest(HttpServletRequest req, byte[] prefix) {
+			super(req);
+			this.prefix = prefix;
+		}
+
+		@Override
+		public ServletInputStream getInputStream() throws IOException {
+			if (stream == null) {
+				final InputStream in = new SequenceInputStream(
+						new ByteArrayInputStream(prefix), super
+								.getInputStream());
+				stream = new ServletInputStream() {
+					@Override
+					public int read() throws IOException {
+						return in.read();
+					}
+
+					@Override
+					public int read(byte[] b, int off, int len)
+							throws IOException {
+						return in.read(b, off, len);
+					}
+				};
+			}
+			return stream;
+		}
+	}
+}
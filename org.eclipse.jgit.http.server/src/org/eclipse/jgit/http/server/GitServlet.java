@@ -113,6 +113,8 @@ public class GitServlet extends MetaServlet {
 
 	private ReceivePackFactory receivePackFactory = new DefaultReceivePackFactory();
 
+	private AdmissionFilter admission;
+
 	/**
 	 * New servlet that will load its base directory from {@code web.xml}.
 	 * <p>
@@ -168,6 +170,17 @@ public void setReceivePackFactory(ReceivePackFactory f) {
 		this.receivePackFactory = f != null ? f : ReceivePackFactory.DISABLED;
 	}
 
+	/**
+	 * @param f
+	 *            the filter limiting how many upload-pack and receive-pack
+	 *            requests may execute at once. If {@code null} (the default)
+	 *            requests are never limited.
+	 */
+	public void setAdmissionFilter(AdmissionFilter f) {
+		assertNotInitialized();
+		this.admission = f;
+	}
+
 	private void assertNotInitialized() {
 		if (initialized)
 			throw new IllegalStateException(HttpServerText.get().alreadyInitializedByContainer);
@@ -186,13 +199,17 @@ public void init(final ServletConfig config) throws ServletException {
 		initialized = true;
 
 		if (uploadPackFactory != UploadPackFactory.DISABLED) {
-			serve("*/git-upload-pack")//
-					.with(new UploadPackServlet(uploadPackFactory));
+			ServletBinder b = serve("*/git-upload-pack");
+			if (admission != null)
+				b = b.through(admission);
+			b.with(new UploadPackServlet(uploadPackFactory));
 		}
 
 		if (receivePackFactory != ReceivePackFactory.DISABLED) {
-			serve("*/git-receive-pack")//
-					.with(new ReceivePackServlet(receivePackFactory));
+			ServletBinder b = serve("*/git-receive-pack");
+			if (admission != null)
+				b = b.through(admission);
+			b.with(new ReceivePackServlet(receivePackFactory));
 		}
 
 		ServletBinder refs = serve("*/" + Constants.INFO_REFS);
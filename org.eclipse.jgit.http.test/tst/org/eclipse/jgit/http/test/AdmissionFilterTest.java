@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.http.test;
+
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.errors.TransportException;
+import org.eclipse.jgit.http.server.AdmissionFilter;
+import org.eclipse.jgit.http.server.GitServlet;
+import org.eclipse.jgit.http.server.resolver.DefaultUploadPackFactory;
+import org.eclipse.jgit.http.server.resolver.RepositoryResolver;
+import org.eclipse.jgit.http.server.resolver.ServiceNotAuthorizedException;
+import org.eclipse.jgit.http.server.resolver.ServiceNotEnabledException;
+import org.eclipse.jgit.http.test.util.AccessEvent;
+import org.eclipse.jgit.http.test.util.HttpTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.UploadPack;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.util.HttpSupport;
+
+public class AdmissionFilterTest extends HttpTestCase {
+	private URIish remoteURI;
+
+	private RevCommit A;
+
+	private RecordingFilter admission;
+
+	private volatile CountDownLatch entered;
+
+	private volatile CountDownLatch release;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		final TestRepository<FileRepository> src = createTestRepository();
+		final String srcName = src.getRepository().getDirectory().getName();
+
+		admission = new RecordingFilter();
+
+		ServletContextHandler app = server.addContext("/git");
+		GitServlet gs = new GitServlet();
+		gs.setRepositoryResolver(new RepositoryResolver() {
+			public Repository open(HttpServletRequest req, String name)
+					throws RepositoryNotFoundException,
+					ServiceNotEnabledException {
+				if (!name.equals(srcName))
+					throw new RepositoryNotFoundException(name);
+
+				final Repository db = src.getRepository();
+				db.incrementOpen();
+				return db;
+			}
+		});
+		gs.setUploadPackFactory(new DefaultUploadPackFactory() {
+			public UploadPack create(HttpServletRequest req, Repository db)
+					throws ServiceNotEnabledException,
+					ServiceNotAuthorizedException {
+				if ("POST".equals(req.getMethod()) && release != null) {
+					entered.countDown();
+					try {
+						release.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						throw new ServiceNotEnabledException();
+					}
+				}
+				return super.create(req, db);
+			}
+		});
+		gs.setAdmissionFilter(admission);
+		app.addServlet(new ServletHolder(gs), "/*");
+
+		server.setUp();
+
+		remoteURI = toURIish(app, srcName);
+
+		A = src.commit().add("A_txt", "A").create();
+		src.update(master, A);
+		src.update("refs/heads/other", A);
+	}
+
+	public void testEstimatesCostFromWants() throws Exception {
+		Repository dst = createBareRepository();
+		Transport t = Transport.open(dst, remoteURI);
+		try {
+			t.fetch(NullProgressMonitor.INSTANCE, mirror(master,
+					"refs/heads/other"));
+		} finally {
+			t.close();
+		}
+		assertEquals(A, dst.getRef(master).getObjectId());
+
+		// Both refs point at the same commit, the client only wants it once.
+		assertEquals("git-upload-pack", admission.service);
+		assertEquals(1, admission.wants);
+		assertEquals(0, admission.haves);
+		assertEquals(0, admission.getWaitingRequests());
+		assertEquals(0, admission.getActiveRepositories());
+	}
+
+	public void testCountsOnlyBufferedPrefix() throws Exception {
+		admission.setMaxBufferedBody(16);
+
+		Repository dst = createBareRepository();
+		Transport t = Transport.open(dst, remoteURI);
+		try {
+			t.fetch(NullProgressMonitor.INSTANCE, mirror(master));
+		} finally {
+			t.close();
+		}
+
+		// The want line is longer than the prefix, but is still read by
+		// the service after the filter examined the first bytes.
+		assertEquals(A, dst.getRef(master).getObjectId());
+		assertEquals("git-upload-pack", admission.service);
+		assertEquals(0, admission.wants);
+	}
+
+	public void testMediaTypeWithParameters() throws Exception {
+		final URL u = new URL(remoteURI.toString() + "/git-upload-pack");
+		final HttpURLConnection c = (HttpURLConnection) u.openConnection();
+		c.setRequestMethod("POST");
+		c.setDoOutput(true);
+		c.setRequestProperty("Content-Type",
+				"Application/X-Git-Upload-Pack-Request; charset=UTF-8");
+		final OutputStream out = c.getOutputStream();
+		out.write(("0032want " + A.name() + "\n0000").getBytes("UTF-8"));
+		out.close();
+		c.getResponseCode();
+		c.disconnect();
+
+		assertEquals("git-upload-pack", admission.service);
+		assertEquals(1, admission.wants);
+	}
+
+	public void testRejectWhenOverloaded() throws Exception {
+		entered = new CountDownLatch(1);
+		release = new CountDownLatch(1);
+
+		final Repository dst1 = createBareRepository();
+		final Throwable[] failure = new Throwable[1];
+		Thread first = new Thread() {
+			public void run() {
+				try {
+					Transport t = Transport.open(dst1, remoteURI);
+					try {
+						t.fetch(NullProgressMonitor.INSTANCE, mirror(master));
+					} finally {
+						t.close();
+					}
+				} catch (Throwable err) {
+					failure[0] = err;
+				}
+			}
+		};
+		first.start();
+		assertTrue(entered.await(10, TimeUnit.SECONDS));
+		assertEquals(1, admission.getActiveRepositories());
+
+		Repository dst2 = createBareRepository();
+		Transport t = Transport.open(dst2, remoteURI);
+		try {
+			t.fetch(NullProgressMonitor.INSTANCE, mirror(master));
+			fail("fetch was admitted despite the repository limit");
+		} catch (TransportException err) {
+			// expected
+		} finally {
+			t.close();
+		}
+
+		release.countDown();
+		first.join(10000);
+		assertNull(failure[0]);
+		assertEquals(A, dst1.getRef(master).getObjectId());
+
+		// The idle repository's limit is dropped.
+		assertEquals(0, admission.getActiveRepositories());
+
+		boolean sawRejection = false;
+		List<AccessEvent> requests = getRequests(remoteURI, "git-upload-pack");
+		for (AccessEvent e : requests) {
+			if (e.getStatus() == 503) {
+				assertEquals("7", e.getResponseHeader(HttpSupport.HDR_RETRY_AFTER));
+				sawRejection = true;
+			}
+		}
+		assertTrue("rejected with 503", sawRejection);
+	}
+
+	private static class RecordingFilter extends AdmissionFilter {
+		volatile String service;
+
+		volatile int wants;
+
+		volatile int haves;
+
+		RecordingFilter() {
+			super(4, 1);
+			setRetryAfter(7);
+		}
+
+		@Override
+		protected int estimateCost(HttpServletRequest req, Repository db,
+				String svc, int w, int h) {
+			service = svc;
+			wants = w;
+			haves = h;
+			return super.estimateCost(req, db, svc, w, h);
+		}
+	}
+}
@@ -73,6 +73,12 @@ class Daemon extends TextBuiltin {
 	@Option(name = "--timeout", metaVar = "metaVar_seconds", usage = "usage_abortConnectionIfNoActivity")
 	int timeout = -1;
 
+	@Option(name = "--max-connections", metaVar = "metaVar_n", usage = "usage_maxConnections")
+	int maxConnections;
+
+	@Option(name = "--max-queued", metaVar = "metaVar_n", usage = "usage_maxQueuedConnections")
+	int maxQueued;
+
 	@Option(name = "--enable", metaVar = "metaVar_service", usage = "usage_enableTheServiceInAllRepositories", multiValued = true)
 	final List<String> enable = new ArrayList<String>();
 
@@ -132,6 +138,8 @@ protected void run() throws Exception {
 		d.setPackConfig(packConfig);
 		if (0 <= timeout)
 			d.setTimeout(timeout);
+		d.setMaxConnections(maxConnections);
+		d.setMaxQueuedConnections(maxQueued);
 
 		for (final String n : enable)
 			service(d, n).setEnabled(true);
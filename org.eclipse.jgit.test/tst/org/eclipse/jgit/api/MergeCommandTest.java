@@ -45,17 +45,24 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.SparseCheckout;
 import org.eclipse.jgit.errors.CheckoutConflictException;
 import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.GitIndex;
+import org.eclipse.jgit.lib.IndexDiff;
+import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.RepositoryTestCase;
 import org.eclipse.jgit.lib.WorkDirCheckout;
 import org.eclipse.jgit.lib.GitIndex.Entry;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
 
 public class MergeCommandTest extends RepositoryTestCase {
 
@@ -118,6 +125,62 @@ public void testFastForwardWithFiles() throws Exception {
 		assertEquals(second, result.getNewHead());
 	}
 
+	public void testFastForwardInSparseCheckout() throws Exception {
+		Git git = new Git(db);
+
+		addNewFileToIndex("a/file1");
+		addNewFileToIndex("b/file2");
+		RevCommit first = git.commit().setMessage("initial commit").call();
+		createBranch(first, "refs/heads/branch1");
+
+		addNewFileToIndex("a/file1", "a/file1 changed");
+		addNewFileToIndex("b/file2", "b/file2 changed");
+		addNewFileToIndex("b/file3");
+		RevCommit second = git.commit().setMessage("second commit").call();
+
+		checkoutBranch("refs/heads/branch1");
+		assertEquals("a/file1", read(new File(db.getWorkTree(), "a/file1")));
+
+		// Only "a" is checked out, "b" is a sparse directory, which makes
+		// the index a version 3 index.
+		SparseCheckout sparse = new SparseCheckout(Arrays.asList("a"));
+		sparse.save(db);
+		DirCache dc = db.lockDirCache();
+		ObjectInserter ins = db.newObjectInserter();
+		try {
+			dc.writeTree(ins);
+		} finally {
+			ins.release();
+		}
+		assertTrue(dc.collapse(sparse));
+		dc.write();
+		assertTrue(dc.commit());
+		assertEquals(3, db.readDirCache().getVersion());
+		assertTrue(new File(db.getWorkTree(), "b/file2").delete());
+		assertTrue(new File(db.getWorkTree(), "b").delete());
+
+		MergeResult result = git.merge().include(db.getRef(Constants.MASTER)).call();
+		assertEquals(MergeResult.MergeStatus.FAST_FORWARD, result.getMergeStatus());
+		assertEquals(second, result.getNewHead());
+
+		assertEquals("a/file1 changed", read(new File(db.getWorkTree(),
+				"a/file1")));
+		assertFalse(new File(db.getWorkTree(), "b").exists());
+
+		dc = db.readDirCache();
+		assertEquals(3, dc.getVersion());
+		assertEquals(2, dc.getEntryCount());
+		assertEquals("a/file1", dc.getEntry(0).getPathString());
+		assertEquals("b/", dc.getEntry(1).getPathString());
+		assertTrue(dc.getEntry(1).isSparseDirectory());
+		assertEquals(TreeWalk.forPath(db, "b", second.getTree())
+				.getObjectId(0), dc.getEntry(1).getObjectId());
+
+		IndexDiff diff = new IndexDiff(db, Constants.HEAD,
+				new FileTreeIterator(db));
+		assertFalse(diff.diff());
+	}
+
 	public void testMultipleHeads() throws Exception {
 		Git git = new Git(db);
 
@@ -164,6 +227,7 @@ private void checkoutBranch(String branchName) throws Exception  {
 				throw new JGitInternalException(
 						"Couldn't check out because of conflicts", e);
 			}
+			db.getIndex().write();
 		}
 
 		// update the HEAD
@@ -173,7 +237,12 @@ private void checkoutBranch(String branchName) throws Exception  {
 
 	private void addNewFileToIndex(String filename) throws IOException,
 			CorruptObjectException {
-		File writeTrashFile = writeTrashFile(filename, filename);
+		addNewFileToIndex(filename, filename);
+	}
+
+	private void addNewFileToIndex(String filename, String content)
+			throws IOException, CorruptObjectException {
+		File writeTrashFile = writeTrashFile(filename, content);
 
 		GitIndex index = db.getIndex();
 		Entry entry = index.add(db.getWorkTree(), writeTrashFile);
@@ -44,9 +44,13 @@
 package org.eclipse.jgit.dircache;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.RepositoryTestCase;
 
 public class DirCacheBasicTest extends RepositoryTestCase {
@@ -212,6 +216,85 @@ public void testDetectUnmergedPaths() throws Exception {
 		assertTrue(dc.hasUnmergedPaths());
 	}
 
+	public void testMonitorState() throws Exception {
+		final DirCache dc = db.lockDirCache();
+		final DirCacheBuilder b = dc.builder();
+		final DirCacheEntry ent = new DirCacheEntry("a");
+		ent.setFileMode(FileMode.REGULAR_FILE);
+		b.add(ent);
+		b.finish();
+		assertNull(dc.getMonitorToken());
+		assertTrue(dc.getMonitorDirtyPaths().isEmpty());
+
+		dc.setMonitorState("token:1", Arrays.asList("a", "b/c"));
+		dc.write();
+		assertTrue(dc.commit());
+
+		final DirCache read = db.lockDirCache();
+		assertEquals(1, read.getEntryCount());
+		assertEquals("token:1", read.getMonitorToken());
+		assertEquals(new HashSet<String>(Arrays.asList("a", "b/c")), read
+				.getMonitorDirtyPaths());
+
+		// Updating the entries invalidates the state.
+		read.builder().finish();
+		assertNull(read.getMonitorToken());
+		read.setMonitorState("token:2", Collections.<String> emptySet());
+		read.write();
+		assertTrue(read.commit());
+		assertEquals("token:2", db.readDirCache().getMonitorToken());
+	}
+
+	public void testUntrackedCache() throws Exception {
+		final DirCache dc = db.lockDirCache();
+		final UntrackedCache cache = new UntrackedCache();
+		final ObjectId id = ObjectId
+				.fromString("0123456789012345678901234567890123456789");
+		cache.reset(id);
+		cache.put("", new UntrackedCache.Directory(1000, ObjectId.zeroId(),
+				new String[] { "a/", "b" }));
+		cache.put("a", new UntrackedCache.Directory(2000, id, null));
+		dc.setUntrackedCache(cache);
+		dc.write();
+		assertTrue(dc.commit());
+
+		final UntrackedCache read = db.readDirCache().getUntrackedCache();
+		assertNotNull(read);
+		assertEquals(id, read.getExcludeId());
+		assertEquals(2, read.size());
+		assertEquals(cache.get(""), read.get(""));
+		assertEquals(cache.get("a"), read.get("a"));
+		assertNull(read.get("a").getNames());
+	}
+
+	public void testSmudgeRacilyCleanOnRead() throws Exception {
+		final long indexTime = 1234567890000L;
+		final DirCache dc = db.lockDirCache();
+		final DirCacheBuilder b = dc.builder();
+		final String[] paths = { "clean", "racy" };
+		for (int i = 0; i < paths.length; i++) {
+			final DirCacheEntry ent = new DirCacheEntry(paths[i]);
+			ent.setFileMode(FileMode.REGULAR_FILE);
+			ent.setObjectId(ObjectId
+					.fromString("0123456789012345678901234567890123456789"));
+			ent.setLength(5);
+			ent.setLastModified(indexTime - 1000 + i * 1000);
+			b.add(ent);
+		}
+		b.finish();
+		dc.write();
+		assertTrue(dc.commit());
+		assertTrue(db.getIndexFile().setLastModified(indexTime));
+
+		// The entry modified within the timestamp of the index file is
+		// smudged, so its content is compared before it is trusted.
+		final DirCache read = db.readDirCache();
+		assertFalse(read.getEntry("clean").isSmudged());
+		assertEquals(5, read.getEntry("clean").getLength());
+		assertTrue(read.getEntry("racy").isSmudged());
+		assertEquals(indexTime, read.getEntry("racy").getLastModified());
+	}
+
 	public void testFindOnEmpty() throws Exception {
 		final DirCache dc = DirCache.newInCore();
 		final byte[] path = Constants.encode("a");
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.dircache;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.eclipse.jgit.errors.CheckoutConflictException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.RepositoryTestCase;
+
+public class DirCacheCheckoutTest extends RepositoryTestCase {
+	private ObjectId empty;
+
+	private ObjectId head;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		empty = tree();
+		head = tree("a/b.txt", "b", "c.txt", "c");
+		checkout(empty, head);
+	}
+
+	public void testUpdate() throws Exception {
+		final ObjectId merge = tree("a/b.txt", "b2", "d/e.txt", "e");
+		final DirCacheCheckout co = checkout(head, merge);
+		assertEquals(Arrays.asList("c.txt"), co.getRemoved());
+
+		assertEquals("b2", read(new File(trash, "a/b.txt")));
+		assertEquals("e", read(new File(trash, "d/e.txt")));
+		assertFalse(new File(trash, "c.txt").exists());
+		assertIndex(merge);
+	}
+
+	public void testRemoveEmptyDirectory() throws Exception {
+		checkout(head, tree("c.txt", "c"));
+		assertFalse(new File(trash, "a").exists());
+		assertTrue(new File(trash, "c.txt").exists());
+	}
+
+	public void testModifiedFileConflicts() throws Exception {
+		writeTrashFile("a/b.txt", "modified");
+		final DirCache dc = db.lockDirCache();
+		final DirCacheCheckout co = new DirCacheCheckout(db, head, dc, tree(
+				"a/b.txt", "b2", "c.txt", "c"));
+		try {
+			co.checkout();
+			fail("checked out over a modified file");
+		} catch (CheckoutConflictException e) {
+			assertEquals(Arrays.asList("a/b.txt"), co.getConflicts());
+		} finally {
+			dc.unlock();
+		}
+		assertEquals("modified", read(new File(trash, "a/b.txt")));
+		assertIndex(head);
+	}
+
+	public void testUntrackedFileConflicts() throws Exception {
+		writeTrashFile("d/e.txt", "untracked");
+		final DirCache dc = db.lockDirCache();
+		final DirCacheCheckout co = new DirCacheCheckout(db, head, dc, tree(
+				"a/b.txt", "b", "c.txt", "c2", "d/e.txt", "e"));
+		try {
+			co.checkout();
+			fail("checked out over an untracked file");
+		} catch (CheckoutConflictException e) {
+			assertEquals(Arrays.asList("d/e.txt"), co.getConflicts());
+		} finally {
+			dc.unlock();
+		}
+		assertEquals("c", read(new File(trash, "c.txt")));
+	}
+
+	public void testUntrackedFileInDirectoryConflicts() throws Exception {
+		writeTrashFile("d/f.txt", "untracked");
+		final DirCache dc = db.lockDirCache();
+		final DirCacheCheckout co = new DirCacheCheckout(db, head, dc, tree(
+				"a/b.txt", "b", "c.txt", "c", "d", "d"));
+		try {
+			co.checkout();
+			fail("checked out over an untracked directory");
+		} catch (CheckoutConflictException e) {
+			assertEquals(Arrays.asList("d/f.txt"), co.getConflicts());
+		} finally {
+			dc.unlock();
+		}
+	}
+
+	public void testStagedRemovalConflicts() throws Exception {
+		final DirCache dc = db.lockDirCache();
+		final DirCacheEditor ed = dc.editor();
+		ed.add(new DirCacheEditor.DeletePath("c.txt"));
+		ed.finish();
+		assertTrue(new File(trash, "c.txt").delete());
+		final DirCacheCheckout co = new DirCacheCheckout(db, head, dc, tree(
+				"a/b.txt", "b", "c.txt", "c2"));
+		try {
+			co.checkout();
+			fail("restored a removed file");
+		} catch (CheckoutConflictException e) {
+			assertEquals(Arrays.asList("c.txt"), co.getConflicts());
+		} finally {
+			dc.unlock();
+		}
+		assertFalse(new File(trash, "c.txt").exists());
+	}
+
+	public void testSkipWorkTree() throws Exception {
+		final DirCache dc = db.lockDirCache();
+		dc.getEntry("a/b.txt").setSkipWorkTree(true);
+		assertTrue(new File(trash, "a/b.txt").delete());
+		final ObjectId merge = tree("a/b.txt", "b2", "c.txt", "c");
+		final DirCacheCheckout co = new DirCacheCheckout(db, head, dc, merge);
+		co.checkout();
+		dc.write();
+		assertTrue(dc.commit());
+
+		assertFalse(new File(trash, "a/b.txt").exists());
+		assertIndex(merge);
+		assertTrue(db.readDirCache().getEntry("a/b.txt").isSkipWorkTree());
+	}
+
+	public void testSparseCheckout() throws Exception {
+		final SparseCheckout sparse = new SparseCheckout(Collections
+				.<String> emptyList());
+		final DirCache dc = db.lockDirCache();
+		dc.writeTree(db.newObjectInserter());
+		assertTrue(dc.collapse(sparse));
+		assertTrue(new File(trash, "a/b.txt").delete());
+		assertTrue(new File(trash, "a").delete());
+
+		final ObjectId merge = tree("a/b.txt", "b2", "a/f.txt", "f",
+				"c.txt", "c2");
+		final DirCacheCheckout co = new DirCacheCheckout(db, head, dc, merge);
+		co.setSparseCheckout(sparse);
+		co.checkout();
+		dc.write();
+		assertTrue(dc.commit());
+
+		assertFalse(new File(trash, "a").exists());
+		assertEquals("c2", read(new File(trash, "c.txt")));
+		final DirCache result = db.readDirCache();
+		assertTrue(result.isSparse());
+		assertEquals("a/", result.getEntry(0).getPathString());
+		assertEquals(merge, writeTree(result));
+	}
+
+	private DirCacheCheckout checkout(ObjectId from, ObjectId to)
+			throws Exception {
+		final DirCache dc = db.lockDirCache();
+		try {
+			final DirCacheCheckout co = new DirCacheCheckout(db, from, dc, to);
+			co.checkout();
+			dc.write();
+			assertTrue(dc.commit());
+			return co;
+		} finally {
+			dc.unlock();
+		}
+	}
+
+	private void assertIndex(ObjectId tree) throws Exception {
+		assertEquals(tree, writeTree(db.readDirCache()));
+	}
+
+	private ObjectId writeTree(DirCache dc) throws Exception {
+		final ObjectInserter ins = db.newObjectInserter();
+		try {
+			return dc.writeTree(ins);
+		} finally {
+			ins.release();
+		}
+	}
+
+	private ObjectId tree(String... pathsAndContents) throws Exception {
+		final DirCache dc = DirCache.newInCore();
+		final DirCacheBuilder b = dc.builder();
+		final ObjectInserter ins = db.newObjectInserter();
+		try {
+			for (int i = 0; i < pathsAndContents.length; i += 2) {
+				final DirCacheEntry ent = new DirCacheEntry(pathsAndContents[i]);
+				ent.setFileMode(FileMode.REGULAR_FILE);
+				ent.setObjectId(ins.insert(Constants.OBJ_BLOB, Constants
+						.encode(pathsAndContents[i + 1])));
+				b.add(ent);
+			}
+			b.finish();
+			final ObjectId id = dc.writeTree(ins);
+			ins.flush();
+			return id;
+		} finally {
+			ins.release();
+		}
+	}
+}
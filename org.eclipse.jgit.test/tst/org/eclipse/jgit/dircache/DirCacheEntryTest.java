@@ -155,4 +155,28 @@ public void testSetFileMode() {
 			assertEquals("Invalid mode 40000 for path a", err.getMessage());
 		}
 	}
+
+	public void testStatusInformation() {
+		final DirCacheEntry e = new DirCacheEntry("a");
+		assertEquals(0, e.getLastStatusChange());
+		assertEquals(0, e.getDevice());
+		assertEquals(0, e.getInode());
+		assertEquals(0, e.getUserId());
+		assertEquals(0, e.getGroupId());
+
+		e.setLastModified(1234567890123L);
+		e.setLastStatusChange(1234567891456L);
+		e.setDevice(0x801);
+		e.setInode(-42);
+		e.setUserId(1000);
+		e.setGroupId(100);
+		e.setLength(7);
+		assertEquals(1234567890123L, e.getLastModified());
+		assertEquals(1234567891456L, e.getLastStatusChange());
+		assertEquals(0x801, e.getDevice());
+		assertEquals(-42, e.getInode());
+		assertEquals(1000, e.getUserId());
+		assertEquals(100, e.getGroupId());
+		assertEquals(7, e.getLength());
+	}
 }
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.dircache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.eclipse.jgit.errors.CorruptObjectException;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RepositoryTestCase;
+import org.eclipse.jgit.util.IO;
+
+public class DirCacheParallelReadTest extends RepositoryTestCase {
+	private ExecutorService pool;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		pool = Executors.newFixedThreadPool(3);
+	}
+
+	protected void tearDown() throws Exception {
+		pool.shutdown();
+		super.tearDown();
+	}
+
+	public void testReadVersion2() throws Exception {
+		writeIndex(2);
+		assertSameEntries(db.readDirCache(), readInParallel());
+	}
+
+	public void testReadVersion4() throws Exception {
+		writeIndex(4);
+		final DirCache dc = readInParallel();
+		assertEquals(4, dc.getVersion());
+		assertSameEntries(db.readDirCache(), dc);
+	}
+
+	public void testReadWithoutOffsetTable() throws Exception {
+		final DirCache dc = db.lockDirCache();
+		build(dc, 20);
+		dc.write();
+		assertTrue(dc.commit());
+		assertSameEntries(db.readDirCache(), readInParallel());
+	}
+
+	public void testChecksumMismatch() throws Exception {
+		writeIndex(2);
+		final DirCacheEntry ent = db.readDirCache().getEntry(5);
+		corruptObjectId(ent);
+
+		try {
+			readInParallel();
+			fail("accepted corrupt index");
+		} catch (CorruptObjectException e) {
+			// expected
+		}
+
+		final DirCache dc = new DirCache(db.getIndexFile(), db.getFS());
+		dc.setReadExecutor(pool);
+		dc.setVerifyChecksum(false);
+		dc.read();
+		assertEquals(ent.getPathString(), dc.getEntry(5).getPathString());
+		assertFalse(ent.getObjectId().equals(dc.getEntry(5).getObjectId()));
+	}
+
+	public void testNullChecksum() throws Exception {
+		writeIndex(4);
+		final byte[] buf = IO.readFully(db.getIndexFile());
+		for (int i = buf.length - 20; i < buf.length; i++)
+			buf[i] = 0;
+		write(buf);
+		assertSameEntries(db.readDirCache(), readInParallel());
+	}
+
+	private void writeIndex(final int version) throws Exception {
+		final DirCache dc = db.lockDirCache();
+		dc.setVersion(version);
+		dc.setEntryBlockSize(7);
+		build(dc, 50);
+		dc.write();
+		assertTrue(dc.commit());
+	}
+
+	private DirCache readInParallel() throws Exception {
+		final DirCache dc = new DirCache(db.getIndexFile(), db.getFS());
+		dc.setReadExecutor(pool);
+		dc.read();
+		return dc;
+	}
+
+	private void corruptObjectId(final DirCacheEntry ent) throws Exception {
+		final byte[] buf = IO.readFully(db.getIndexFile());
+		final byte[] id = new byte[20];
+		ent.getObjectId().copyRawTo(id, 0);
+		for (int i = 0; i < buf.length - id.length; i++) {
+			int n = 0;
+			while (n < id.length && buf[i + n] == id[n])
+				n++;
+			if (n == id.length) {
+				buf[i] ^= 1;
+				write(buf);
+				return;
+			}
+		}
+		fail("object id not found");
+	}
+
+	private void write(final byte[] buf) throws Exception {
+		final File idx = db.getIndexFile();
+		final FileOutputStream out = new FileOutputStream(idx);
+		try {
+			out.write(buf);
+		} finally {
+			out.close();
+		}
+		// Force the index to be read again.
+		idx.setLastModified(idx.lastModified() - 2000);
+	}
+
+	private static void build(final DirCache dc, final int cnt) {
+		final DirCacheBuilder b = dc.builder();
+		for (int i = 0; i < cnt; i++) {
+			final DirCacheEntry ent = new DirCacheEntry("dir" + (i / 10)
+					+ "/file" + i);
+			ent.setFileMode(FileMode.REGULAR_FILE);
+			ent.setObjectId(ObjectId.fromString(String.format("%040x", i)));
+			ent.setLength(i);
+			b.add(ent);
+		}
+		b.finish();
+	}
+
+	private static void assertSameEntries(final DirCache exp,
+			final DirCache act) {
+		assertEquals(exp.getEntryCount(), act.getEntryCount());
+		for (int i = 0; i < exp.getEntryCount(); i++) {
+			final DirCacheEntry e = exp.getEntry(i);
+			final DirCacheEntry a = act.getEntry(i);
+			assertEquals(e.getPathString(), a.getPathString());
+			assertEquals(e.getObjectId(), a.getObjectId());
+			assertEquals(e.getLength(), a.getLength());
+			assertEquals(e.getFileMode(), a.getFileMode());
+		}
+	}
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.dircache;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.IndexDiff;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.RepositoryTestCase;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+public class DirCacheSparseIndexTest extends RepositoryTestCase {
+	private static final String[] PATHS = { "a/b/c.txt", "a/d.txt",
+			"e/f.txt", "e/g/h.txt", "i.txt" };
+
+	private static final String[] SPARSE_PATHS = { "a/b/c.txt", "a/d.txt",
+			"e/", "i.txt" };
+
+	private ObjectId treeId;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		final DirCache dc = db.lockDirCache();
+		final DirCacheBuilder b = dc.builder();
+		final ObjectInserter ins = db.newObjectInserter();
+		try {
+			for (String path : PATHS) {
+				final DirCacheEntry ent = new DirCacheEntry(path);
+				ent.setFileMode(FileMode.REGULAR_FILE);
+				ent.setObjectId(ins.insert(Constants.OBJ_BLOB, Constants
+						.encode(path)));
+				b.add(ent);
+			}
+			b.finish();
+			treeId = dc.writeTree(ins);
+			ins.flush();
+		} finally {
+			ins.release();
+		}
+		dc.write();
+		assertTrue(dc.commit());
+	}
+
+	public void testCollapse() throws Exception {
+		DirCache dc = db.lockDirCache();
+		assertFalse(dc.isSparse());
+		assertTrue(dc.collapse(new SparseCheckout(Arrays.asList("a/b"))));
+		assertTrue(dc.isSparse());
+		assertEntries(dc, SPARSE_PATHS);
+
+		final DirCacheEntry dir = dc.getEntry("e/");
+		assertTrue(dir.isSparseDirectory());
+		assertTrue(dir.isSkipWorkTree());
+		assertEquals(FileMode.TREE, dir.getFileMode());
+		assertEquals(treeId("e"), dir.getObjectId());
+		assertEquals(treeId, writeTree(dc));
+
+		dc.write();
+		assertTrue(dc.commit());
+
+		dc = db.readDirCache();
+		assertTrue(dc.isSparse());
+		assertEquals(3, dc.getVersion());
+		assertEntries(dc, SPARSE_PATHS);
+		assertTrue(dc.getEntry("e/").isSkipWorkTree());
+		assertFalse(dc.getEntry("a/d.txt").isSkipWorkTree());
+		assertEquals(treeId, writeTree(dc));
+		assertFalse(dc.collapse(new SparseCheckout(Arrays.asList("a/b"))));
+	}
+
+	public void testCollapseNeedsTreeIds() throws Exception {
+		final DirCache dc = db.lockDirCache();
+		final DirCacheEditor editor = dc.editor();
+		editor.add(new DirCacheEditor.PathEdit("e/f.txt") {
+			public void apply(DirCacheEntry ent) {
+				ent.setLength(1);
+			}
+		});
+		editor.finish();
+		assertFalse(dc.collapse(new SparseCheckout(Arrays.asList("a/b"))));
+		dc.unlock();
+	}
+
+	public void testExpand() throws Exception {
+		final DirCache dc = db.lockDirCache();
+		dc.collapse(new SparseCheckout(Arrays.asList("a/b")));
+
+		final ObjectReader reader = db.newObjectReader();
+		try {
+			assertTrue(dc.expand(reader));
+			assertFalse(dc.expand(reader));
+		} finally {
+			reader.release();
+		}
+		assertFalse(dc.isSparse());
+		assertEntries(dc, PATHS);
+		assertTrue(dc.getEntry("e/g/h.txt").isSkipWorkTree());
+		assertFalse(dc.getEntry("a/d.txt").isSkipWorkTree());
+		assertEquals(treeId, writeTree(dc));
+		dc.unlock();
+	}
+
+	public void testIterator() throws Exception {
+		final DirCache dc = db.lockDirCache();
+		dc.collapse(new SparseCheckout(Arrays.asList("a/b")));
+		dc.unlock();
+
+		// The sparse directory matches the tree, and is not entered.
+		final TreeWalk tw = new TreeWalk(db);
+		tw.reset();
+		tw.setRecursive(true);
+		tw.addTree(treeId);
+		tw.addTree(new DirCacheIterator(dc));
+		tw.setFilter(TreeFilter.ANY_DIFF);
+		assertFalse(tw.next());
+
+		tw.reset();
+		tw.setRecursive(false);
+		tw.addTree(new DirCacheIterator(dc));
+		assertTrue(tw.next());
+		assertEquals("a", tw.getPathString());
+		assertTrue(tw.next());
+		assertEquals("e", tw.getPathString());
+		assertEquals(FileMode.TREE, tw.getFileMode(0));
+		assertEquals(treeId("e"), tw.getObjectId(0));
+		assertTrue(tw.getTree(0, DirCacheIterator.class).isSparseDirectory());
+		try {
+			tw.enterSubtree();
+			fail("entered a sparse directory");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	public void testIndexDiff() throws Exception {
+		writeTrashFile("a/b/c.txt", "a/b/c.txt");
+		writeTrashFile("a/d.txt", "a/d.txt");
+		writeTrashFile("i.txt", "i.txt");
+		final SparseCheckout sparse = new SparseCheckout(Arrays.asList("a/b"));
+		sparse.save(db);
+
+		final DirCache dc = db.lockDirCache();
+		dc.collapse(sparse);
+		dc.write();
+		assertTrue(dc.commit());
+
+		IndexDiff diff = new IndexDiff(db, treeId, new FileTreeIterator(db));
+		assertFalse(diff.diff());
+
+		// A tree which differs within the sparse directory expands it.
+		final DirCache other = DirCache.newInCore();
+		final DirCacheBuilder b = other.builder();
+		final ObjectInserter ins = db.newObjectInserter();
+		final ObjectId otherTree;
+		try {
+			for (String path : PATHS) {
+				final DirCacheEntry ent = new DirCacheEntry(path);
+				ent.setFileMode(FileMode.REGULAR_FILE);
+				ent.setObjectId(ins.insert(Constants.OBJ_BLOB, Constants
+						.encode(path.equals("e/f.txt") ? "changed" : path)));
+				b.add(ent);
+			}
+			b.finish();
+			otherTree = other.writeTree(ins);
+			ins.flush();
+		} finally {
+			ins.release();
+		}
+		diff = new IndexDiff(db, otherTree, new FileTreeIterator(db));
+		assertTrue(diff.diff());
+		assertEquals(1, diff.getChanged().size());
+		assertTrue(diff.getChanged().contains("e/f.txt"));
+		assertTrue(diff.getMissing().isEmpty());
+		assertTrue(diff.getModified().isEmpty());
+	}
+
+	public void testIndexDiffSkipWorkTree() throws Exception {
+		writeTrashFile("a/b/c.txt", "a/b/c.txt");
+		writeTrashFile("a/d.txt", "a/d.txt");
+		writeTrashFile("e/f.txt", "modified");
+
+		final DirCache dc = db.lockDirCache();
+		dc.getEntry("i.txt").setSkipWorkTree(true);
+		dc.getEntry("e/f.txt").setSkipWorkTree(true);
+		dc.getEntry("e/g/h.txt").setSkipWorkTree(true);
+		dc.write();
+		assertTrue(dc.commit());
+		assertEquals(3, db.readDirCache().getVersion());
+
+		final IndexDiff diff = new IndexDiff(db, treeId, new FileTreeIterator(
+				db));
+		assertFalse(diff.diff());
+	}
+
+	private ObjectId treeId(final String path) throws IOException {
+		final ObjectReader reader = db.newObjectReader();
+		try {
+			return TreeWalk.forPath(reader, path, treeId).getObjectId(0);
+		} finally {
+			reader.release();
+		}
+	}
+
+	private ObjectId writeTree(final DirCache dc) throws IOException {
+		final ObjectInserter ins = db.newObjectInserter();
+		try {
+			return dc.writeTree(ins);
+		} finally {
+			ins.release();
+		}
+	}
+
+	private static void assertEntries(final DirCache dc, final String[] paths) {
+		assertEquals(paths.length, dc.getEntryCount());
+		for (int i = 0; i < paths.length; i++)
+			assertEquals(paths[i], dc.getEntry(i).getPathString());
+	}
+}
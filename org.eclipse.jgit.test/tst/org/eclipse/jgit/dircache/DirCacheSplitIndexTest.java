@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.dircache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.BitSet;
+
+import org.eclipse.jgit.errors.CorruptObjectException;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.GitIndex;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RepositoryTestCase;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.MutableInteger;
+import org.eclipse.jgit.util.NB;
+
+public class DirCacheSplitIndexTest extends RepositoryTestCase {
+	private static final String[] PATHS = { "a/b/c/d.txt", "a/b/c/e.txt",
+			"a/b/f.txt", "a/g.txt", "h.txt", "i/j.txt", "i/k.txt", "l.txt",
+			"m.txt", "n.txt", "o/p.txt", "o/q.txt", "r.txt", "s.txt", "t.txt" };
+
+	public void testVersion4() throws Exception {
+		DirCache dc = db.lockDirCache();
+		build(dc, PATHS);
+		dc.write();
+		assertTrue(dc.commit());
+		final long v2Length = db.getIndexFile().length();
+
+		dc = db.lockDirCache();
+		assertEquals(2, dc.getVersion());
+		dc.setVersion(4);
+		dc.write();
+		assertTrue(dc.commit());
+		assertTrue(db.getIndexFile().length() < v2Length);
+
+		dc = db.readDirCache();
+		assertEquals(4, dc.getVersion());
+		assertEntries(dc, PATHS);
+	}
+
+	public void testVersion4LongPath() throws Exception {
+		final StringBuilder longPath = new StringBuilder();
+		while (longPath.length() < 5000)
+			longPath.append("abcdefghij/");
+		longPath.append("x");
+		final String[] paths = { "a", longPath + "y", longPath + "z", "b" };
+
+		DirCache dc = db.lockDirCache();
+		dc.setVersion(4);
+		build(dc, paths);
+		dc.write();
+		assertTrue(dc.commit());
+
+		assertEntries(db.readDirCache(), paths);
+	}
+
+	public void testUnsupportedVersion() throws Exception {
+		try {
+			db.readDirCache().setVersion(5);
+			fail("accepted version 5");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testSplitIndex() throws Exception {
+		DirCache dc = db.lockDirCache();
+		dc.setSplitIndex(true);
+		build(dc, PATHS);
+		dc.write();
+		assertTrue(dc.commit());
+
+		// All entries are in the shared index.
+		final File[] shared = getSharedIndexFiles();
+		assertEquals(1, shared.length);
+		assertEquals(0, getStoredEntryCount());
+
+		dc = db.lockDirCache();
+		assertTrue(dc.isSplitIndex());
+		assertEntries(dc, PATHS);
+		final DirCacheEditor editor = dc.editor();
+		editor.add(new DirCacheEditor.PathEdit("h.txt") {
+			public void apply(DirCacheEntry ent) {
+				ent.setLength(42);
+			}
+		});
+		editor.add(new DirCacheEditor.DeletePath("i/j.txt"));
+		editor.add(new DirCacheEditor.PathEdit("a/b/c/f.txt") {
+			public void apply(DirCacheEntry ent) {
+				ent.setFileMode(FileMode.REGULAR_FILE);
+				ent.setObjectId(ObjectId.zeroId());
+			}
+		});
+		editor.finish();
+		dc.write();
+		assertTrue(dc.commit());
+
+		// Only the modified and the new entry are written to the index.
+		assertEquals(2, getStoredEntryCount());
+		assertEquals(1, getSharedIndexFiles().length);
+		assertEquals(shared[0], getSharedIndexFiles()[0]);
+
+		dc = db.readDirCache();
+		assertEntries(dc, new String[] { "a/b/c/d.txt", "a/b/c/e.txt",
+				"a/b/c/f.txt", "a/b/f.txt", "a/g.txt", "h.txt", "i/k.txt",
+				"l.txt", "m.txt", "n.txt", "o/p.txt", "o/q.txt", "r.txt",
+				"s.txt", "t.txt" });
+		assertEquals(42, dc.getEntry("h.txt").getLength());
+		assertEquals(FileMode.REGULAR_FILE, dc.getEntry("a/b/c/f.txt")
+				.getFileMode());
+	}
+
+	public void testSplitIndexRewritesSharedIndex() throws Exception {
+		DirCache dc = db.lockDirCache();
+		dc.setSplitIndex(true);
+		dc.setVersion(4);
+		build(dc, PATHS);
+		dc.write();
+		assertTrue(dc.commit());
+
+		// Modifying more than a fifth of the entries writes a new shared
+		// index, holding all entries.
+		dc = db.lockDirCache();
+		assertEquals(4, dc.getVersion());
+		for (int i = 0; i < 4; i++)
+			dc.getEntry(i).setLength(i + 100);
+		dc.write();
+		assertTrue(dc.commit());
+
+		assertEquals(2, getSharedIndexFiles().length);
+		assertEquals(0, getStoredEntryCount());
+		dc = db.readDirCache();
+		assertEntries(dc, PATHS);
+		for (int i = 0; i < 4; i++)
+			assertEquals(i + 100, dc.getEntry(i).getLength());
+	}
+
+	public void testDisableSplitIndex() throws Exception {
+		DirCache dc = db.lockDirCache();
+		dc.setSplitIndex(true);
+		build(dc, PATHS);
+		dc.write();
+		assertTrue(dc.commit());
+
+		dc = db.lockDirCache();
+		dc.setSplitIndex(false);
+		dc.write();
+		assertTrue(dc.commit());
+
+		assertEquals(PATHS.length, getStoredEntryCount());
+		dc = db.readDirCache();
+		assertFalse(dc.isSplitIndex());
+		assertEntries(dc, PATHS);
+	}
+
+	public void testGitIndexRefusesSplitIndex() throws Exception {
+		DirCache dc = db.lockDirCache();
+		assertFalse(dc.isSplitIndex());
+		build(dc, PATHS);
+		dc.writeTree(db.newObjectInserter());
+		dc.write();
+		assertTrue(dc.commit());
+
+		// The optional tree cache extension is skipped.
+		final GitIndex index = new GitIndex(db);
+		index.read();
+		assertEquals(PATHS.length, index.getMembers().length);
+
+		dc = db.lockDirCache();
+		dc.setSplitIndex(true);
+		dc.write();
+		assertTrue(dc.commit());
+		try {
+			index.read();
+			fail("read a split index");
+		} catch (CorruptObjectException e) {
+			// expected
+		}
+	}
+
+	public void testEwahBitmap() throws Exception {
+		final BitSet bits = new BitSet();
+		bits.set(0);
+		bits.set(63);
+		bits.set(64);
+		bits.set(200);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		EwahBitmap.write(bits, 201, out);
+		EwahBitmap.write(new BitSet(), 0, out);
+
+		final byte[] buf = out.toByteArray();
+		final MutableInteger ptr = new MutableInteger();
+		assertEquals(bits, EwahBitmap.read(buf, ptr));
+		assertEquals(new BitSet(), EwahBitmap.read(buf, ptr));
+		assertEquals(buf.length, ptr.value);
+	}
+
+	private static void build(final DirCache dc, final String[] paths) {
+		final DirCacheBuilder b = dc.builder();
+		for (int i = 0; i < paths.length; i++) {
+			final DirCacheEntry ent = new DirCacheEntry(paths[i]);
+			ent.setFileMode(FileMode.REGULAR_FILE);
+			ent.setObjectId(ObjectId.zeroId());
+			ent.setLength(i);
+			b.add(ent);
+		}
+		b.finish();
+	}
+
+	private static void assertEntries(final DirCache dc, final String[] paths) {
+		assertEquals(paths.length, dc.getEntryCount());
+		for (int i = 0; i < paths.length; i++)
+			assertEquals(paths[i], dc.getEntry(i).getPathString());
+	}
+
+	private File[] getSharedIndexFiles() {
+		return db.getDirectory().listFiles(new java.io.FileFilter() {
+			public boolean accept(File f) {
+				return f.getName().startsWith("sharedindex.");
+			}
+		});
+	}
+
+	private int getStoredEntryCount() throws Exception {
+		final byte[] buf = IO.readFully(db.getIndexFile());
+		return NB.decodeInt32(buf, 8);
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.dircache;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.RepositoryTestCase;
+
+public class ParallelCheckoutTest extends RepositoryTestCase {
+	private ExecutorService pool;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		pool = Executors.newFixedThreadPool(4);
+	}
+
+	protected void tearDown() throws Exception {
+		pool.shutdown();
+		super.tearDown();
+	}
+
+	public void testCheckoutInParallel() throws Exception {
+		assertCheckout(pool);
+	}
+
+	public void testCheckoutInCallingThread() throws Exception {
+		assertCheckout(null);
+	}
+
+	public void testCheckoutInConfiguredPool() throws Exception {
+		db.getConfig().setInt("checkout", null, "workers", 4);
+		db.getConfig().setInt("checkout", null, "thresholdForParallelism", 1);
+		assertCheckout(null);
+	}
+
+	public void testGitlinkCreatesDirectory() throws Exception {
+		final DirCacheEntry link = new DirCacheEntry("sub/module");
+		link.setFileMode(FileMode.GITLINK);
+		link.setObjectId(ObjectId
+				.fromString("0123456789012345678901234567890123456789"));
+
+		final ParallelCheckout pc = new ParallelCheckout(db, pool);
+		pc.add(link);
+		pc.run();
+		assertTrue(new File(trash, "sub/module").isDirectory());
+	}
+
+	private void assertCheckout(final ExecutorService executor)
+			throws Exception {
+		writeTrashFile("d0/f0", "stale content to be replaced");
+
+		final List<DirCacheEntry> entries = new ArrayList<DirCacheEntry>();
+		final ObjectInserter inserter = db.newObjectInserter();
+		try {
+			for (int d = 0; d < 6; d++) {
+				for (int f = 0; f < 100; f++) {
+					final String path = "d" + d + "/f" + f;
+					final DirCacheEntry ent = new DirCacheEntry(path);
+					ent.setFileMode(FileMode.REGULAR_FILE);
+					ent.setObjectId(inserter.insert(Constants.OBJ_BLOB,
+							Constants.encode(path + "\n")));
+					entries.add(ent);
+				}
+			}
+			final DirCacheEntry exec = new DirCacheEntry("bin/run");
+			exec.setFileMode(FileMode.EXECUTABLE_FILE);
+			exec.setObjectId(inserter.insert(Constants.OBJ_BLOB, Constants
+					.encode("#!/bin/sh\n")));
+			entries.add(exec);
+			inserter.flush();
+		} finally {
+			inserter.release();
+		}
+
+		final ParallelCheckout pc = new ParallelCheckout(db, executor);
+		for (DirCacheEntry ent : entries)
+			pc.add(ent);
+		assertEquals(entries.size(), pc.getEntryCount());
+		pc.run();
+		assertEquals(0, pc.getEntryCount());
+
+		for (DirCacheEntry ent : entries) {
+			final File file = new File(trash, ent.getPathString());
+			if (ent.getFileMode() == FileMode.EXECUTABLE_FILE) {
+				assertEquals("#!/bin/sh\n", read(file));
+				if (db.getFS().supportsExecute())
+					assertTrue(db.getFS().canExecute(file));
+			} else {
+				assertEquals(ent.getPathString() + "\n", read(file));
+				if (db.getFS().supportsExecute())
+					assertFalse(db.getFS().canExecute(file));
+			}
+			assertEquals(file.length(), ent.getLength());
+			assertEquals(file.lastModified(), ent.getLastModified());
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.dircache;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.eclipse.jgit.dircache.SparseCheckout.Match;
+import org.eclipse.jgit.lib.RepositoryTestCase;
+
+public class SparseCheckoutTest extends RepositoryTestCase {
+	private static final String PATTERNS = "/*\n" //
+			+ "!/*/\n" //
+			+ "/a/\n" //
+			+ "!/a/*/\n" //
+			+ "/a/b/\n" //
+			+ "/c/\n";
+
+	public void testMatch() {
+		final SparseCheckout sparse = new SparseCheckout(Arrays.asList(
+				"a/b", "c/", "c/d"));
+		assertEquals(Arrays.asList("a/b", "c"), sparse.getDirectories());
+
+		assertTrue(sparse.isIncluded("x.txt"));
+		assertTrue(sparse.isIncluded("a/x.txt"));
+		assertTrue(sparse.isIncluded("a/b/x.txt"));
+		assertTrue(sparse.isIncluded("a/b/y/x.txt"));
+		assertTrue(sparse.isIncluded("c/d/e/x.txt"));
+		assertFalse(sparse.isIncluded("a/y/x.txt"));
+		assertFalse(sparse.isIncluded("ab/x.txt"));
+		assertFalse(sparse.isIncluded("d/x.txt"));
+
+		assertEquals(Match.PARTIAL, sparse.matchDirectory(""));
+		assertEquals(Match.PARTIAL, sparse.matchDirectory("a"));
+		assertEquals(Match.INCLUDED, sparse.matchDirectory("a/b"));
+		assertEquals(Match.INCLUDED, sparse.matchDirectory("a/b/y"));
+		assertEquals(Match.EXCLUDED, sparse.matchDirectory("a/y"));
+		assertEquals(Match.EXCLUDED, sparse.matchDirectory("d"));
+	}
+
+	public void testFormat() {
+		final SparseCheckout sparse = new SparseCheckout(Arrays.asList(
+				"c", "a/b"));
+		assertEquals(PATTERNS, sparse.toString());
+	}
+
+	public void testParse() {
+		final SparseCheckout sparse = SparseCheckout.parse(PATTERNS);
+		assertEquals(Arrays.asList("a/b", "c"), sparse.getDirectories());
+
+		final SparseCheckout all = SparseCheckout.parse("/*\n");
+		assertTrue(all.isIncluded("d/x.txt"));
+		assertEquals("/*\n", all.toString());
+
+		final SparseCheckout escaped = SparseCheckout.parse("/*\n!/*/\n"
+				+ "/x\\*y/\n");
+		assertEquals(Arrays.asList("x*y"), escaped.getDirectories());
+		assertEquals("/*\n!/*/\n/x\\*y/\n", escaped.toString());
+	}
+
+	public void testParseNonConePattern() {
+		try {
+			SparseCheckout.parse("/*\n!/*/\n*.txt\n");
+			fail("accepted a pattern which is not a directory");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			SparseCheckout.parse("/*\n!/*/\n/a*/\n");
+			fail("accepted a wildcard directory");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testSaveAndRead() throws Exception {
+		assertNull(SparseCheckout.read(db));
+
+		new SparseCheckout(Arrays.asList("a/b", "c")).save(db);
+		assertEquals(PATTERNS, read(new File(db.getDirectory(),
+				"info/sparse-checkout")));
+		assertTrue(db.getConfig().getBoolean("core", "sparseCheckout", false));
+		assertEquals(Arrays.asList("a/b", "c"), SparseCheckout.read(db)
+				.getDirectories());
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.lib;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares the time needed to look up values in small and in large
+ * configurations.
+ * <p>
+ * Mirrors and other hosting servers keep configurations with thousands of
+ * remote and branch sections. Lookups are expected to take about the same time
+ * regardless of the number of sections; the test only fails if looking up in
+ * the large configuration is dramatically slower, to remain stable on loaded
+ * machines.
+ */
+public class ConfigPerformanceTest extends TestCase {
+	private static final int SMALL = 100;
+
+	private static final int LARGE = 10000;
+
+	private static final int LOOKUPS = 20000;
+
+	private static final int ROUNDS = 5;
+
+	private static final int maxFactor = 10;
+
+	public void test() throws Exception {
+		final Config small = parse(SMALL);
+		final Config large = new Config(parse(LARGE));
+		large.setString("core", null, "bare", "false");
+
+		// Warm up both configurations before measuring.
+		lookup(small, SMALL);
+		lookup(large, LARGE);
+		assertFalse(large.getBoolean("core", null, "bare", true));
+		assertEquals("git://example.com/r42.git", large.getString("remote",
+				"r42", "url"));
+
+		long s = 0, l = 0;
+		for (int i = 0; i < ROUNDS; i++) {
+			long start = System.nanoTime();
+			lookup(small, SMALL);
+			s += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			lookup(large, LARGE);
+			l += System.nanoTime() - start;
+		}
+
+		final String perf = LOOKUPS + " lookups took " + s / ROUNDS
+				+ " ns with " + SMALL + " remotes, " + l / ROUNDS + " ns with "
+				+ LARGE + " remotes";
+		assertTrue(perf, l < s * maxFactor);
+	}
+
+	private static Config parse(final int remotes) throws Exception {
+		final StringBuilder text = new StringBuilder();
+		text.append("[core]\n\tbare = true\n");
+		for (int i = 0; i < remotes; i++) {
+			text.append("[remote \"r").append(i).append("\"]\n");
+			text.append("\turl = git://example.com/r").append(i).append(
+					".git\n");
+			text.append("\tfetch = +refs/heads/*:refs/remotes/r").append(i)
+					.append("/*\n");
+			text.append("[branch \"b").append(i).append("\"]\n");
+			text.append("\tremote = r").append(i).append('\n');
+			text.append("\tmerge = refs/heads/b").append(i).append('\n');
+		}
+		final Config c = new Config();
+		c.fromText(text.toString());
+		return c;
+	}
+
+	private static long lookup(final Config c, final int remotes) {
+		long sum = 0;
+		for (int i = 0; i < LOOKUPS; i++) {
+			final int r = i % remotes;
+			sum += c.getString("remote", "r" + r, "url").length();
+			sum += c.getStringList("remote", "r" + r, "fetch").length;
+			if (c.getBoolean("core", null, "bare", true))
+				sum++;
+			sum += c.getNames("branch", "b" + r).size();
+		}
+		return sum;
+	}
+}
@@ -47,6 +47,11 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.eclipse.jgit.treewalk.FileTreeIterator;
 
@@ -199,4 +204,134 @@ public void testUnchangedComplex() throws IOException {
 		assertEquals(0, diff.getMissing().size());
 		assertEquals(0, diff.getModified().size());
 	}
+
+	public void testParallelMatchesSequential() throws IOException {
+		GitIndex index = new GitIndex(db);
+		index.add(trash, writeTrashFile("a/unchanged", "a"));
+		index.add(trash, writeTrashFile("a/modified", "a"));
+		index.add(trash, writeTrashFile("b/c/missing", "b"));
+		index.add(trash, writeTrashFile("b/c/unchanged", "b"));
+		index.add(trash, writeTrashFile("top", "top"));
+		index.add(trash, writeTrashFile("top2", "top2"));
+		index.write();
+		ObjectId treeId = index.writeTree();
+
+		index.add(trash, writeTrashFile("d/added", "d"));
+		index.remove(trash, new File(trash, "top2"));
+		index.write();
+		writeTrashFile("a/modified", "changed");
+		writeTrashFile("e/untracked", "e");
+		writeTrashFile("untracked", "untracked");
+		assertTrue(new File(trash, "b/c/missing").delete());
+
+		IndexDiff seq = new IndexDiff(db, treeId, new FileTreeIterator(db));
+		assertTrue(seq.diff());
+
+		ExecutorService pool = Executors.newFixedThreadPool(3);
+		try {
+			IndexDiff par = new IndexDiff(db, treeId, new FileTreeIterator(db));
+			assertTrue(par.diff(pool));
+			assertEquals(seq.getAdded(), par.getAdded());
+			assertEquals(seq.getChanged(), par.getChanged());
+			assertEquals(seq.getRemoved(), par.getRemoved());
+			assertEquals(seq.getMissing(), par.getMissing());
+			assertEquals(seq.getModified(), par.getModified());
+			assertEquals(seq.getUntracked(), par.getUntracked());
+
+			assertTrue(par.getAdded().contains("d/added"));
+			assertTrue(par.getRemoved().contains("top2"));
+			assertTrue(par.getMissing().contains("b/c/missing"));
+			assertTrue(par.getModified().contains("a/modified"));
+			assertTrue(par.getUntracked().contains("e/untracked"));
+			assertTrue(par.getUntracked().contains("untracked"));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	public void testFileSystemMonitor() throws IOException {
+		GitIndex index = new GitIndex(db);
+		index.add(trash, writeTrashFile("a/file", "a"));
+		index.add(trash, writeTrashFile("b/file", "b"));
+		index.add(trash, writeTrashFile("c", "c"));
+		index.write();
+		ObjectId treeId = index.writeTree();
+		writeTrashFile("a/file", "modified");
+
+		TestMonitor monitor = new TestMonitor();
+		IndexDiff diff = new IndexDiff(db, treeId, new FileTreeIterator(db));
+		diff.setFileSystemMonitor(monitor);
+		assertTrue(diff.diff());
+		assertEquals(1, diff.getModified().size());
+		assertEquals("1", db.readDirCache().getMonitorToken());
+
+		// Changes the monitor does not report are not seen, but paths
+		// which differed before are compared again.
+		writeTrashFile("b/file", "modified");
+		diff = new IndexDiff(db, treeId, new FileTreeIterator(db));
+		diff.setFileSystemMonitor(monitor);
+		assertTrue(diff.diff());
+		assertEquals(1, diff.getModified().size());
+		assertTrue(diff.getModified().contains("a/file"));
+
+		monitor.changed.add("b");
+		monitor.changed.add("d");
+		writeTrashFile("d", "d");
+		assertTrue(new File(trash, "c").delete());
+		diff = new IndexDiff(db, treeId, new FileTreeIterator(db));
+		diff.setFileSystemMonitor(monitor);
+		assertTrue(diff.diff());
+		assertEquals(2, diff.getModified().size());
+		assertTrue(diff.getModified().contains("b/file"));
+		assertTrue(diff.getUntracked().contains("d"));
+		assertEquals(0, diff.getMissing().size());
+
+		// A monitor which cannot tell causes a full comparison.
+		monitor.changed = null;
+		diff = new IndexDiff(db, treeId, new FileTreeIterator(db));
+		diff.setFileSystemMonitor(monitor);
+		assertTrue(diff.diff());
+		assertTrue(diff.getMissing().contains("c"));
+	}
+
+	public void testUntrackedCache() throws IOException {
+		GitIndex index = new GitIndex(db);
+		index.add(trash, writeTrashFile("a/file", "a"));
+		index.write();
+		ObjectId treeId = index.writeTree();
+		writeTrashFile("a/untracked", "a");
+		long old = System.currentTimeMillis() - 60 * 1000;
+		assertTrue(new File(trash, "a").setLastModified(old));
+
+		IndexDiff diff = new IndexDiff(db, treeId, new FileTreeIterator(db));
+		diff.setUseUntrackedCache(true);
+		assertTrue(diff.diff());
+		assertTrue(diff.getUntracked().contains("a/untracked"));
+		assertNotNull(db.readDirCache().getUntrackedCache().get("a")
+				.getNames());
+
+		// A file added without changing the modification time of its
+		// directory is not seen, showing the cached listing is used.
+		writeTrashFile("a/hidden", "a");
+		assertTrue(new File(trash, "a").setLastModified(old));
+		diff = new IndexDiff(db, treeId, new FileTreeIterator(db));
+		diff.setUseUntrackedCache(true);
+		assertTrue(diff.diff());
+		assertEquals(1, diff.getUntracked().size());
+		assertTrue(diff.getUntracked().contains("a/untracked"));
+	}
+
+	private static class TestMonitor implements FileSystemMonitor {
+		int token;
+
+		List<String> changed = new ArrayList<String>();
+
+		public String getToken() {
+			return String.valueOf(++token);
+		}
+
+		public Collection<String> getChangedPaths(String since) {
+			return changed;
+		}
+	}
 }
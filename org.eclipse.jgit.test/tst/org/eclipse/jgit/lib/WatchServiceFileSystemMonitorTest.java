@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.lib;
+
+import java.io.File;
+import java.util.Collection;
+
+public class WatchServiceFileSystemMonitorTest extends RepositoryTestCase {
+	public void testReportsChangedPaths() throws Exception {
+		if (!WatchServiceFileSystemMonitor.isAvailable())
+			return;
+
+		writeTrashFile("a/file", "a");
+		writeTrashFile("b/file", "b");
+		WatchServiceFileSystemMonitor monitor = new WatchServiceFileSystemMonitor(
+				db);
+		try {
+			String token = monitor.getToken();
+			assertTrue(monitor.getChangedPaths(token).isEmpty());
+
+			writeTrashFile("a/file", "modified");
+			writeTrashFile("c/new", "c");
+			Collection<String> changed = waitFor(monitor, token, "c");
+			assertNotNull(changed);
+			assertTrue(changed.contains("c"));
+			assertFalse(changed.contains("b/file"));
+
+			// Files created within a new directory are reported too.
+			writeTrashFile("c/later", "c");
+			assertTrue(waitFor(monitor, token, "c/later").contains("c/later"));
+			assertTrue(waitFor(monitor, token, "a/file").contains("a/file"));
+
+			assertNull(monitor.getChangedPaths("unknown:0"));
+		} finally {
+			monitor.close();
+		}
+	}
+
+	public void testIgnoresRepositoryDirectory() throws Exception {
+		if (!WatchServiceFileSystemMonitor.isAvailable())
+			return;
+
+		WatchServiceFileSystemMonitor monitor = new WatchServiceFileSystemMonitor(
+				db);
+		try {
+			String token = monitor.getToken();
+			writeTrashFile("file", "file");
+			new File(db.getDirectory(), "other").createNewFile();
+			Collection<String> changed = waitFor(monitor, token, "file");
+			for (String path : changed)
+				assertFalse(path, path.startsWith(Constants.DOT_GIT));
+		} finally {
+			monitor.close();
+		}
+	}
+
+	public void testForgetsChangesBeforeOldestToken() throws Exception {
+		if (!WatchServiceFileSystemMonitor.isAvailable())
+			return;
+
+		WatchServiceFileSystemMonitor monitor = new WatchServiceFileSystemMonitor(
+				db);
+		try {
+			monitor.setMaxTokens(1);
+			String first = monitor.getToken();
+			writeTrashFile("file", "file");
+			assertTrue(waitFor(monitor, first, "file").contains("file"));
+			assertTrue(0 < monitor.getRememberedPathCount());
+
+			String second = monitor.getToken();
+			assertFalse(first.equals(second));
+			assertNull(monitor.getChangedPaths(first));
+			assertTrue(monitor.getChangedPaths(second).isEmpty());
+			assertEquals(0, monitor.getRememberedPathCount());
+		} finally {
+			monitor.close();
+		}
+	}
+
+	private static Collection<String> waitFor(
+			WatchServiceFileSystemMonitor monitor, String token, String path)
+			throws Exception {
+		// Notifications are delivered asynchronously by the platform.
+		Collection<String> changed = monitor.getChangedPaths(token);
+		for (int i = 0; i < 100 && !changed.contains(path); i++) {
+			Thread.sleep(50);
+			changed = monitor.getChangedPaths(token);
+		}
+		return changed;
+	}
+}
@@ -130,4 +130,29 @@ public void testCheckingOutWithConflicts() throws IOException {
 		assertNull(index2.getEntry("bar/baz/qux/foo"));
 		assertNull(index2.getEntry("foo"));
 	}
+
+	public void testParallelCheckout() throws IOException {
+		GitIndex index = new GitIndex(db);
+		for (int d = 0; d < 4; d++)
+			for (int f = 0; f < 10; f++)
+				index.add(trash, writeTrashFile("d" + d + "/f" + f, d + "/" + f));
+		Tree merge = db.mapTree(index.writeTree());
+		for (int d = 0; d < 4; d++)
+			recursiveDelete(new File(trash, "d" + d));
+
+		db.getConfig().setInt("checkout", null, "workers", 4);
+		db.getConfig().setInt("checkout", null, "thresholdForParallelism", 1);
+		index = new GitIndex(db);
+		WorkDirCheckout workDirCheckout = new WorkDirCheckout(db, trash,
+				index, merge);
+		workDirCheckout.checkout();
+
+		for (int d = 0; d < 4; d++) {
+			for (int f = 0; f < 10; f++) {
+				String path = "d" + d + "/f" + f;
+				assertEquals(d + "/" + f, read(new File(trash, path)));
+				assertFalse(index.getEntry(path).isModified(trash));
+			}
+		}
+	}
 }
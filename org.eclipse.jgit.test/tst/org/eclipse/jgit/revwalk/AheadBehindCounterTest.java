@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.revwalk;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.storage.file.CommitGraphWriter;
+
+public class AheadBehindCounterTest extends RevWalkTestCase {
+	private AheadBehindCounter counter;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		counter = new AheadBehindCounter(db);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		counter.release();
+		super.tearDown();
+	}
+
+	public void testSimple() throws Exception {
+		final RevCommit a = commit();
+		final RevCommit b = commit(a);
+		final RevCommit c = commit(b);
+		final RevCommit d = commit(commit(b));
+		final RevCommit m = commit(c, d);
+
+		counter.count(c, Arrays.asList(a, c, d, m));
+		assertCounts(0, 0, 2);
+		assertCounts(1, 0, 0);
+		assertCounts(2, 2, 1);
+		assertCounts(3, 3, 0);
+	}
+
+	public void testMatchesRevWalk() throws Exception {
+		final List<RevCommit> tips = history();
+		assertMatchesRevWalk(tips.get(0), tips);
+		assertMatchesRevWalk(tips.get(tips.size() - 1), tips);
+	}
+
+	public void testClockSkew() throws Exception {
+		final RevCommit a = commit();
+		final RevCommit b = commit(a);
+		final RevCommit c = commit(-50, b);
+		final RevCommit d = commit(100, a);
+		final RevCommit e = commit(-200, c);
+		final RevCommit f = commit(10, d, e);
+
+		final List<RevCommit> tips = Arrays.asList(a, b, c, d, e, f);
+		assertMatchesRevWalk(f, tips);
+		assertMatchesRevWalk(e, tips);
+		assertMatchesRevWalk(d, tips);
+	}
+
+	public void testWithCommitGraph() throws Exception {
+		final List<RevCommit> tips = history();
+		final File file = new File(db.getObjectDatabase().getDirectory(),
+				"info/commit-graph");
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			new CommitGraphWriter(db).write(NullProgressMonitor.INSTANCE, out,
+					tips.subList(0, tips.size() / 2));
+		} finally {
+			out.close();
+		}
+		assertMatchesRevWalk(tips.get(0), tips);
+		assertMatchesRevWalk(tips.get(tips.size() - 1), tips);
+	}
+
+	private List<RevCommit> history() throws Exception {
+		// More tips than fit into a single word of the bit sets.
+		final List<RevCommit> tips = new ArrayList<RevCommit>();
+		RevCommit main = commit();
+		for (int i = 0; i < 100; i++) {
+			RevCommit topic = commit(main);
+			if (i % 3 == 0)
+				topic = commit(topic);
+			tips.add(topic);
+			if (i % 5 == 0)
+				main = commit(main, topic);
+			else
+				main = commit(main);
+		}
+		tips.add(0, main);
+		tips.add(tips.get(10));
+		return tips;
+	}
+
+	private void assertMatchesRevWalk(final RevCommit base,
+			final List<RevCommit> tips) throws Exception {
+		counter.count(base, tips);
+		for (int i = 0; i < tips.size(); i++) {
+			final String name = "tip " + i;
+			assertEquals(name, count(tips.get(i), base), counter
+					.getAheadCount(i));
+			assertEquals(name, count(base, tips.get(i)), counter
+					.getBehindCount(i));
+		}
+	}
+
+	private int count(final RevCommit start, final RevCommit uninteresting)
+			throws Exception {
+		final RevWalk walk = new RevWalk(db);
+		try {
+			walk.markStart(walk.parseCommit(start));
+			walk.markUninteresting(walk.parseCommit(uninteresting));
+			int n = 0;
+			while (walk.next() != null)
+				n++;
+			return n;
+		} finally {
+			walk.release();
+		}
+	}
+
+	private void assertCounts(final int i, final int ahead, final int behind) {
+		assertEquals(ahead, counter.getAheadCount(i));
+		assertEquals(behind, counter.getBehindCount(i));
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.revwalk;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.storage.file.CommitGraphWriter;
+
+public class CompactRevWalkTest extends RevWalkTestCase {
+	private CompactRevWalk cw;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		cw = new CompactRevWalk(db);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		cw.release();
+		super.tearDown();
+	}
+
+	public void testMatchesRevWalk() throws Exception {
+		final RevCommit a = commit();
+		final RevCommit b = commit(a);
+		final RevCommit c = commit(a);
+		final RevCommit d = commit(b, c);
+		final RevCommit e = commit(commit(c), d, b);
+		final RevCommit f = commit(e);
+
+		assertSameOutput(RevFilter.ALL, list(f), list());
+		assertSameOutput(RevFilter.ALL, list(f, c), list());
+		assertSameOutput(RevFilter.ALL, list(f), list(b));
+		assertSameOutput(RevFilter.ALL, list(f), list(d));
+	}
+
+	public void testUninterestingWithClockSkew() throws Exception {
+		final RevCommit a = commit();
+		final RevCommit b = commit(-5, a);
+		final RevCommit c = commit(10, b);
+		final RevCommit d = commit(-20, a);
+		final RevCommit e = commit(2, d, c);
+		final RevCommit f = commit(1, c);
+
+		assertSameOutput(RevFilter.ALL, list(e), list(f));
+		assertSameOutput(RevFilter.ALL, list(f), list(e));
+		assertSameOutput(RevFilter.ALL, list(e, f), list(b));
+	}
+
+	public void testMergeBase() throws Exception {
+		final RevCommit a = commit();
+		final RevCommit b = commit(a);
+		final RevCommit c = commit(a);
+		final RevCommit d = commit(b, c);
+		final RevCommit e = commit(c, b);
+		final RevCommit f = commit(commit(commit(b)));
+
+		assertSameOutput(RevFilter.MERGE_BASE, list(d, e), list());
+		assertSameOutput(RevFilter.MERGE_BASE, list(d, f), list());
+		assertSameOutput(RevFilter.MERGE_BASE, list(d, e, f), list());
+		assertSameOutput(RevFilter.MERGE_BASE, list(f, commit()), list());
+	}
+
+	public void testUsesCommitGraph() throws Exception {
+		final RevCommit a = commit();
+		final RevCommit b = commit(a);
+		final RevCommit c = commit(a);
+		final RevCommit d = commit(b, c);
+		final RevCommit e = commit(commit(c), d);
+		final RevCommit f = commit(e);
+
+		final File file = new File(db.getObjectDatabase().getDirectory(),
+				"info/commit-graph");
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			new CommitGraphWriter(db).write(
+					NullProgressMonitor.INSTANCE, out, Arrays.asList(f));
+		} finally {
+			out.close();
+		}
+		assertNotNull(cw.getObjectReader().getCommitGraph());
+
+		assertSameOutput(RevFilter.ALL, list(f), list());
+		assertSameOutput(RevFilter.ALL, list(f), list(c));
+		assertSameOutput(RevFilter.MERGE_BASE, list(e, d), list());
+
+		// Commits outside of the graph are read from the repository.
+		final RevCommit g = commit(f);
+		assertSameOutput(RevFilter.ALL, list(g), list(b));
+	}
+
+	public void testCommitView() throws Exception {
+		final RevCommit a = commit();
+		final RevCommit b = commit(a);
+		final RevCommit m = commit(b, a);
+		parseBody(m);
+
+		final CompactCommit v = cw.getCommit(cw.parseCommit(m));
+		assertEquals(m, v.getId());
+		assertEquals(m.getCommitTime(), v.getCommitTime());
+		assertEquals(2, v.getParentCount());
+		assertEquals(b, v.getParent(0).getId());
+		assertEquals(a, v.getParent(1).getId());
+		assertEquals(-1, v.getParent(1).getParentCount());
+		assertEquals(v, cw.getCommit(cw.lookupCommit(m)));
+		assertEquals(3, cw.getCommitCount());
+	}
+
+	public void testManyCommits() throws Exception {
+		RevCommit c = commit();
+		for (int i = 0; i < 300; i++)
+			c = commit(c);
+		assertSameOutput(RevFilter.ALL, list(c), list());
+		assertEquals(301, cw.getCommitCount());
+	}
+
+	public void testUnsupportedFilter() {
+		try {
+			cw.setRevFilter(RevFilter.NO_MERGES);
+			fail("accepted unsupported filter");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertSame(RevFilter.ALL, cw.getRevFilter());
+	}
+
+	private void assertSameOutput(final RevFilter filter,
+			final List<RevCommit> start, final List<RevCommit> uninteresting)
+			throws Exception {
+		final RevWalk walk = new RevWalk(db);
+		final List<ObjectId> expect = new ArrayList<ObjectId>();
+		try {
+			walk.setRevFilter(filter);
+			for (RevCommit c : start)
+				walk.markStart(walk.parseCommit(c));
+			for (RevCommit c : uninteresting)
+				walk.markUninteresting(walk.parseCommit(c));
+			for (RevCommit c : walk)
+				expect.add(c.copy());
+		} finally {
+			walk.release();
+		}
+
+		cw.reset();
+		cw.setRevFilter(filter);
+		for (RevCommit c : start)
+			cw.markStart(c);
+		for (RevCommit c : uninteresting)
+			cw.markUninteresting(c);
+		final List<ObjectId> actual = new ArrayList<ObjectId>();
+		for (int h = cw.next(); h >= 0; h = cw.next())
+			actual.add(cw.getObjectId(h));
+
+		assertEquals(expect, actual);
+	}
+
+	private static List<RevCommit> list(final RevCommit... commits) {
+		return Arrays.asList(commits);
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.revwalk;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.storage.file.CommitGraphWriter;
+import org.eclipse.jgit.storage.file.FileRepository;
+
+public class ReachabilityCacheTest extends RevWalkTestCase {
+	private TestRepository<FileRepository> util;
+
+	private ReachabilityCache cache;
+
+	private List<RevCommit> commits;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		util = new TestRepository<FileRepository>(db, rw);
+		cache = new ReachabilityCache(db);
+
+		commits = new ArrayList<RevCommit>();
+		final RevCommit a = add(commit());
+		final RevCommit b = add(commit(a));
+		final RevCommit c = add(commit(b));
+		final RevCommit d = add(commit(a));
+		final RevCommit e = add(commit(c, d));
+		final RevCommit f = add(commit(-100, d));
+		final RevCommit g = add(commit(e));
+		util.update("refs/heads/master", g);
+		util.update("refs/heads/side", f);
+		util.update("refs/heads/old", b);
+		util.update("refs/tags/v1", util.tag("v1", c));
+		util.update("refs/tags/tree", util.tree());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		cache.release();
+		super.tearDown();
+	}
+
+	public void testMatchesRevWalk() throws Exception {
+		assertMatchesRevWalk();
+	}
+
+	public void testMatchesRevWalkWithCommitGraph() throws Exception {
+		writeCommitGraph(commits.get(4));
+		assertMatchesRevWalk();
+
+		// Commits both in and outside of the graph are summarized.
+		final RevCommit h = add(commit(commits.get(6), commits.get(5)));
+		util.update("refs/heads/master", h);
+		assertMatchesRevWalk();
+	}
+
+	public void testGetRefsContaining() throws Exception {
+		assertEquals(names("HEAD", "refs/heads/master", "refs/heads/side"),
+				names(cache.getRefsContaining(commits.get(3))));
+		assertEquals(names("HEAD", "refs/heads/master", "refs/tags/v1"),
+				names(cache.getRefsContaining(commits.get(2))));
+		assertEquals(names("HEAD", "refs/heads/master", "refs/heads/old",
+				"refs/heads/side", "refs/tags/v1"), names(cache
+				.getRefsContaining(commits.get(0))));
+	}
+
+	public void testRefsChangedDropsUnreferencedSummaries() throws Exception {
+		cache.getRefsContaining(commits.get(0));
+		assertEquals(4, cache.getSummaryCount());
+
+		final RefUpdate u = db.updateRef("refs/heads/old");
+		u.setForceUpdate(true);
+		assertEquals(RefUpdate.Result.FORCED, u.delete());
+		assertTrue(cache.isMergedInto(commits.get(0), commits.get(6)));
+		assertEquals(3, cache.getSummaryCount());
+	}
+
+	public void testMaxSummaries() throws Exception {
+		cache.setMaxSummaries(2);
+		cache.getRefsContaining(commits.get(0));
+		assertEquals(2, cache.getSummaryCount());
+	}
+
+	public void testOtherCommitsAreSharedBySummaries() throws Exception {
+		cache.getRefsContaining(commits.get(0));
+		assertEquals(4, cache.getSummaryCount());
+		assertEquals(commits.size(), cache.getOtherCommitCount());
+
+		// Only the tip of side is not in the graph.
+		writeCommitGraph(commits.get(6));
+		cache.getRefsContaining(commits.get(0));
+		assertEquals(1, cache.getOtherCommitCount());
+	}
+
+	public void testMaxOtherCommits() throws Exception {
+		cache.setMaxOtherCommits(3);
+		cache.getRefsContaining(commits.get(0));
+		assertEquals(commits.size(), cache.getOtherCommitCount());
+
+		assertTrue(cache.isMergedInto(commits.get(0), commits.get(1)));
+		assertEquals(1, cache.getSummaryCount());
+		assertEquals(2, cache.getOtherCommitCount());
+		assertMatchesRevWalk();
+	}
+
+	private void assertMatchesRevWalk() throws Exception {
+		for (RevCommit tip : commits) {
+			for (RevCommit base : commits) {
+				final RevWalk walk = new RevWalk(db);
+				final boolean expect = walk.isMergedInto(walk
+						.parseCommit(base), walk.parseCommit(tip));
+				walk.release();
+				assertEquals(base.name() + " in " + tip.name(), expect, cache
+						.isMergedInto(base, tip));
+			}
+		}
+	}
+
+	private void writeCommitGraph(final RevCommit tip) throws Exception {
+		final File file = new File(db.getObjectDatabase().getDirectory(),
+				"info/commit-graph");
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			new CommitGraphWriter(db).write(NullProgressMonitor.INSTANCE, out,
+					Arrays.asList(tip));
+		} finally {
+			out.close();
+		}
+	}
+
+	private RevCommit add(final RevCommit c) {
+		commits.add(c);
+		return c;
+	}
+
+	private static List<String> names(final String... names) {
+		return Arrays.asList(names);
+	}
+
+	private static List<String> names(final List<Ref> refs) {
+		final List<String> r = new ArrayList<String>();
+		for (Ref ref : refs)
+			r.add(ref.getName());
+		Collections.sort(r);
+		return r;
+	}
+}
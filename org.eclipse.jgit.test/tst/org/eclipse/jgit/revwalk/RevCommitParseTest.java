@@ -49,6 +49,8 @@
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.RepositoryTestCase;
+import org.eclipse.jgit.util.RawParseUtils;
+import org.eclipse.jgit.util.RawPersonIdent;
 
 public class RevCommitParseTest extends RepositoryTestCase {
 	public void testParse_NoParents() throws Exception {
@@ -315,6 +317,27 @@ public void testParse_GitStyleMessage() throws Exception {
 		assertEquals(shortMsg, c.getShortMessage());
 	}
 
+	public void testParse_RawIdents() throws Exception {
+		final RevCommit c = create("message");
+		final RawPersonIdent ident = new RawPersonIdent();
+
+		assertTrue(c.parseAuthor(ident));
+		final byte[] raw = ident.getBuffer();
+		assertEquals("A U. Thor", RawParseUtils.decode(raw, ident
+				.getNameStart(), ident.getNameEnd()));
+		assertEquals("a_u_thor@example.com", RawParseUtils.decode(raw, ident
+				.getEmailStart(), ident.getEmailEnd()));
+		assertEquals(1218123387, ident.getWhen());
+		assertEquals(7 * 60, ident.getTimeZoneOffset());
+		assertEquals(c.getAuthorIdent(), ident.toPersonIdent());
+
+		assertTrue(c.parseCommitter(ident));
+		assertEquals("c@example.com", RawParseUtils.decode(raw, ident
+				.getEmailStart(), ident.getEmailEnd()));
+		assertEquals(-5 * 60, ident.getTimeZoneOffset());
+		assertEquals(c.getCommitterIdent(), ident.toPersonIdent());
+	}
+
 	private static ObjectId id(final String str) {
 		return ObjectId.fromString(str);
 	}
@@ -47,8 +47,10 @@
 
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.RepositoryTestCase;
+import org.eclipse.jgit.util.RawPersonIdent;
 
 public class RevTagParseTest extends RepositoryTestCase {
 	public void testTagBlob() throws Exception {
@@ -138,6 +140,36 @@ public void testParseAllFields() throws Exception {
 		assertNotNull(cTagger);
 		assertEquals(taggerName, cTagger.getName());
 		assertEquals(taggerEmail, cTagger.getEmailAddress());
+
+		final RawPersonIdent raw = new RawPersonIdent();
+		assertTrue(c.parseTagger(raw));
+		assertEquals(taggerTime, raw.getWhen());
+		assertEquals(cTagger, raw.toPersonIdent());
+	}
+
+	public void testParseHeaders_NotRetainingBody() throws Exception {
+		final ObjectId treeId = id("9788669ad918b6fcce64af8882fc9a81cb6aba67");
+		final StringBuilder b = new StringBuilder();
+		b.append("object ").append(treeId.name()).append("\n");
+		b.append("type tree\n");
+		b.append("tag v1.0\n");
+		b.append("tagger A U. Thor <a_u_thor@example.com> 1218123387 +0700\n");
+		b.append("\nmessage\n");
+
+		final ObjectInserter ins = db.newObjectInserter();
+		final ObjectId id;
+		try {
+			id = ins.insert(Constants.OBJ_TAG, Constants.encode(b.toString()));
+			ins.flush();
+		} finally {
+			ins.release();
+		}
+
+		final RevWalk rw = new RevWalk(db);
+		rw.setRetainBody(false);
+		final RevTag t = rw.parseTag(id);
+		assertEquals("v1.0", t.getTagName());
+		assertSame(rw.lookupTree(treeId), t.getObject());
 	}
 
 	public void testParseOldStyleNoTagger() throws Exception {
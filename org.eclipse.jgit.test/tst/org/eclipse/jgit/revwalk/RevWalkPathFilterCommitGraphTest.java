@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.revwalk;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.storage.file.CommitGraphWriter;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Runs the path filter tests with changed path filters available for all
+ * commits of the walk.
+ */
+public class RevWalkPathFilterCommitGraphTest extends RevWalkPathFilter1Test {
+	private final List<RevCommit> tips = new ArrayList<RevCommit>();
+
+	@Override
+	protected void markStart(final RevCommit commit) throws Exception {
+		tips.add(commit);
+		writeCommitGraph();
+		super.markStart(commit);
+	}
+
+	private void writeCommitGraph() throws Exception {
+		final CommitGraphWriter writer = new CommitGraphWriter(db);
+		writer.setChangedPaths(true);
+		final File file = commitGraphFile();
+		file.getParentFile().mkdirs();
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			writer.write(NullProgressMonitor.INSTANCE, out, tips);
+		} finally {
+			out.close();
+		}
+	}
+
+	private File commitGraphFile() {
+		return new File(db.getObjectDatabase().getDirectory(),
+				"info/commit-graph");
+	}
+
+	public void testFollowFilter() throws Exception {
+		final RevCommit a = commit(tree(file("a", blob("a"))));
+		final RevCommit b = commit(tree(file("b", blob("a"))), a);
+		final RevCommit c = commit(tree(file("b", blob("a")),
+				file("c", blob("c"))), b);
+		final RevCommit d = commit(tree(file("b", blob("d")),
+				file("c", blob("c"))), c);
+		rw.setTreeFilter(FollowFilter.create("b"));
+		markStart(d);
+
+		assertCommit(d, rw.next());
+		assertCommit(b, rw.next());
+		assertCommit(a, rw.next());
+		assertNull(rw.next());
+	}
+
+	public void testFiltersAreConsulted() throws Exception {
+		final RevCommit a = commit(tree(file("d/f", blob("a"))));
+		final RevCommit b = commit(tree(file("d/f", blob("b"))), a);
+		final RevCommit c = commit(tree(file("d/f", blob("c"))), b);
+		rw.setTreeFilter(AndTreeFilter.create(PathFilterGroup
+				.createFromStrings(Collections.singleton("d/f")),
+				TreeFilter.ANY_DIFF));
+		markStart(c);
+		clearChangedPathFilters();
+
+		// Every commit now claims to change nothing, so all are skipped
+		// without their trees being compared.
+		assertNull(rw.next());
+	}
+
+	public void testFiltersIgnoredWithoutDiff() throws Exception {
+		final RevCommit a = commit(tree(file("d/f", blob("a"))));
+		final RevCommit b = commit(tree(file("d/f", blob("a")),
+				file("e", blob("e"))), a);
+		rw.setTreeFilter(PathFilterGroup.createFromStrings(Collections
+				.singleton("d/f")));
+		markStart(b);
+		clearChangedPathFilters();
+
+		// Without ANY_DIFF every commit containing the path is included.
+		assertCommit(b, rw.next());
+		assertCommit(a, rw.next());
+		assertNull(rw.next());
+	}
+
+	private void clearChangedPathFilters() throws Exception {
+		final RandomAccessFile f = new RandomAccessFile(commitGraphFile(), "rw");
+		try {
+			final byte[] buf = new byte[(int) f.length()];
+			f.readFully(buf);
+			for (int p = 8; NB.decodeInt32(buf, p) != 0; p += 12) {
+				if (NB.decodeInt32(buf, p) == 0x42444154 /* BDAT */) {
+					final int start = (int) NB.decodeUInt64(buf, p + 4) + 12;
+					final int end = (int) NB.decodeUInt64(buf, p + 16);
+					f.seek(start);
+					f.write(new byte[end - start]);
+					return;
+				}
+			}
+			fail("no BDAT chunk");
+		} finally {
+			f.close();
+		}
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.revwalk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+public class RevWalkPrefetchTest extends RevWalkTestCase {
+	private RevCommit head;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		RevCommit c = commit();
+		for (int i = 0; i < 3 * CommitPrefetcher.CHAIN_LENGTH; i++) {
+			if (i % 10 == 5) {
+				final RevCommit side = commit(c);
+				c = commit(commit(c), side);
+			} else
+				c = commit(c);
+		}
+		head = c;
+	}
+
+	public void testSameCommitsAsSerialWalk() throws Exception {
+		final ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			assertEquals(walk(null, RevSort.NONE), walk(pool, RevSort.NONE));
+			assertEquals(walk(null, RevSort.TOPO), walk(pool, RevSort.TOPO));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	public void testCommitsAreTakenFromStagingArea() throws Exception {
+		final RevWalk walk = new RevWalk(db);
+		try {
+			walk.setPrefetchExecutor(new DirectExecutor());
+			walk.markStart(walk.parseCommit(head));
+			int n = 0;
+			while (walk.next() != null)
+				n++;
+			// Only the starting commit has to be read by the walk itself.
+			assertEquals(n - 1, walk.prefetcher.hits);
+			// Commits taken by the walk are no longer claimed.
+			assertEquals(0, walk.prefetcher.getClaimedCount());
+		} finally {
+			walk.release();
+		}
+	}
+
+	public void testChainsSkipParsedCommits() throws Exception {
+		final RevWalk walk = new RevWalk(db);
+		try {
+			final RevCommit h = walk.parseCommit(head);
+			walk.markStart(h);
+			for (int i = 0; i < 2 * CommitPrefetcher.CHAIN_LENGTH; i++)
+				assertNotNull(walk.next());
+
+			// Commits parsed before prefetching started are not read again.
+			walk.setPrefetchExecutor(new DirectExecutor());
+			int n = 0;
+			while (walk.next() != null)
+				n++;
+			assertTrue(0 < walk.prefetcher.hits);
+			assertTrue(walk.prefetcher.hits <= n);
+			assertEquals(0, walk.prefetcher.getClaimedCount());
+		} finally {
+			walk.release();
+		}
+	}
+
+	public void testReleaseDiscardsStagedCommits() throws Exception {
+		final RevWalk walk = new RevWalk(db);
+		walk.setPrefetchExecutor(new DirectExecutor());
+		final RevCommit h = walk.parseCommit(head);
+		walk.markStart(h);
+		assertSame(h, walk.next());
+		walk.release();
+		assertNull(walk.prefetcher.take(h.getParent(0)));
+
+		walk.reset();
+		walk.markStart(h);
+		assertSame(h, walk.next());
+		walk.release();
+	}
+
+	private List<ObjectId> walk(final ExecutorService pool, final RevSort sort)
+			throws Exception {
+		final RevWalk walk = new RevWalk(db);
+		try {
+			walk.setPrefetchExecutor(pool);
+			walk.sort(sort);
+			walk.markStart(walk.parseCommit(head));
+			final List<ObjectId> r = new ArrayList<ObjectId>();
+			for (RevCommit c : walk)
+				r.add(c.copy());
+			return r;
+		} finally {
+			walk.release();
+		}
+	}
+
+	private static class DirectExecutor extends AbstractExecutorService {
+		public void execute(Runnable command) {
+			command.run();
+		}
+
+		public void shutdown() {
+			// Nothing to stop.
+		}
+
+		public List<Runnable> shutdownNow() {
+			return Collections.emptyList();
+		}
+
+		public boolean isShutdown() {
+			return false;
+		}
+
+		public boolean isTerminated() {
+			return false;
+		}
+
+		public boolean awaitTermination(long timeout, TimeUnit unit) {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.revwalk;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.SampleDataRepositoryTestCase;
+
+public class RevWalkRetainBodyTest extends SampleDataRepositoryTestCase {
+	public void testParseHeaders_NotRetainingBody() throws Exception {
+		final RevWalk all = new RevWalk(db);
+		final RevWalk hdr = new RevWalk(db);
+		hdr.setRetainBody(false);
+		all.markStart(all.parseCommit(db.resolve("master")));
+		hdr.markStart(hdr.parseCommit(db.resolve("master")));
+
+		int cnt = 0;
+		for (RevCommit a : all) {
+			final RevCommit h = hdr.next();
+			assertEquals(a, h);
+			assertNull(h.getRawBuffer());
+			assertEquals(a.getTree(), h.getTree());
+			assertEquals(a.getCommitTime(), h.getCommitTime());
+			assertEquals(a.getParentCount(), h.getParentCount());
+			for (int i = 0; i < a.getParentCount(); i++)
+				assertEquals(a.getParent(i), h.getParent(i));
+			cnt++;
+		}
+		assertNull(hdr.next());
+		assertTrue(cnt > 1);
+	}
+
+	public void testParseHeaders_LargeHeader() throws Exception {
+		final ObjectId treeId = db.resolve("master^{tree}");
+		final StringBuilder b = new StringBuilder();
+		b.append("tree ").append(treeId.name()).append("\n");
+		for (int i = 0; i < 100; i++) {
+			b.append("parent ");
+			b.append(String.format("%040x", Integer.valueOf(i + 1)));
+			b.append("\n");
+		}
+		b.append("author A U. Thor <a_u_thor@example.com> 1218123387 +0700\n");
+		b.append("committer C O. Miter <c@example.com> 1218123390 -0500\n");
+		b.append("\nmessage\n");
+
+		final ObjectInserter ins = db.newObjectInserter();
+		final ObjectId id;
+		try {
+			id = ins.insert(Constants.OBJ_COMMIT, Constants.encode(b
+					.toString()));
+			ins.flush();
+		} finally {
+			ins.release();
+		}
+
+		final RevWalk rw = new RevWalk(db);
+		rw.setRetainBody(false);
+		final RevCommit c = rw.parseCommit(id);
+		assertEquals(100, c.getParentCount());
+		assertEquals(1218123390, c.getCommitTime());
+		assertNull(c.getRawBuffer());
+
+		rw.parseBody(c);
+		assertEquals("message\n", c.getFullMessage());
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.revwalk;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.storage.file.CommitGraphWriter;
+
+/**
+ * Runs the sort tests with a commit-graph holding all commits of the walk,
+ * which lets a topological sort use generation numbers.
+ */
+public class RevWalkSortCommitGraphTest extends RevWalkSortTest {
+	private final List<RevCommit> tips = new ArrayList<RevCommit>();
+
+	@Override
+	protected void markStart(final RevCommit commit) throws Exception {
+		tips.add(commit);
+		writeCommitGraph();
+		super.markStart(commit);
+	}
+
+	public void testSort_TOPO_Incremental() throws Exception {
+		final RevCommit a = commit();
+		RevCommit c = a;
+		for (int i = 0; i < 50; i++)
+			c = commit(c);
+
+		rw.sort(RevSort.TOPO);
+		markStart(c);
+		assertCommit(c, rw.next());
+		assertEquals(0, a.flags & RevWalk.PARSED);
+	}
+
+	public void testSort_TOPO_NewerThanCommitGraph() throws Exception {
+		final RevCommit a = commit();
+		final RevCommit b = commit(a);
+		markStart(b);
+		rw.reset();
+
+		// These commits are not in the commit-graph, and back dated so that
+		// their commit times disagree with the topological order.
+		final RevCommit c = commit(-100, b);
+		final RevCommit d = commit(-100, c);
+		final RevCommit e = commit(150, a);
+		final RevCommit f = commit(-300, d, e);
+
+		rw.sort(RevSort.TOPO);
+		rw.markStart(f);
+		assertCommit(f, rw.next());
+		assertCommit(d, rw.next());
+		assertCommit(c, rw.next());
+		assertCommit(b, rw.next());
+		assertCommit(e, rw.next());
+		assertCommit(a, rw.next());
+		assertNull(rw.next());
+	}
+
+	private void writeCommitGraph() throws Exception {
+		final File file = new File(db.getObjectDatabase().getDirectory(),
+				"info/commit-graph");
+		file.getParentFile().mkdirs();
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			new CommitGraphWriter(db).write(NullProgressMonitor.INSTANCE, out,
+					tips);
+		} finally {
+			out.close();
+		}
+	}
+}
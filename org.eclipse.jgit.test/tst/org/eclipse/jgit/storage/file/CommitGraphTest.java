@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.events.ConfigChangedEvent;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.RepositoryTestCase;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+public class CommitGraphTest extends RepositoryTestCase {
+	private TestRepository<FileRepository> util;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		util = new TestRepository<FileRepository>(db);
+	}
+
+	public void testMurmur3() {
+		assertEquals(0, ChangedPathFilter.murmur3(0, new byte[0]));
+		assertEquals(0x2e4ff723, ChangedPathFilter.murmur3(0, Constants
+				.encode("The quick brown fox jumps over the lazy dog")));
+	}
+
+	public void testWriteAndRead() throws Exception {
+		final RevBlob x = util.blob("x");
+		final RevCommit a = util.commit(util.tree(util.file("a/b/c", x)));
+		final RevCommit b = util.commit(util.tree(util.file("a/b/c", x),
+				util.file("d", x)), a);
+		final RevCommit c = util.commit(util.tree(util.file("a/b/c", x),
+				util.file("e", x)), a);
+		final RevCommit d = util.commit(util.tree(util.file("a/b/c", x),
+				util.file("f", x)), a);
+		final RevCommit m = util.commit(util.tree(util.file("a/b/c", x),
+				util.file("d", x), util.file("e", x), util.file("f", x)), b,
+				c, d);
+
+		final CommitGraph g = write(m);
+		assertEquals(5, g.getCommitCount());
+		assertTrue(g.hasChangedPathFilters());
+		assertEquals(-1, g.findGraphPosition(x));
+
+		final int pa = g.findGraphPosition(a);
+		final int pb = g.findGraphPosition(b);
+		final int pc = g.findGraphPosition(c);
+		final int pd = g.findGraphPosition(d);
+		final int pm = g.findGraphPosition(m);
+		assertEquals(a, g.getObjectId(pa));
+		assertEquals(m, g.getObjectId(pm));
+		util.parseBody(m);
+		assertEquals(m.getTree(), g.getTree(pm));
+		assertEquals(m.getCommitTime(), g.getCommitTime(pm));
+
+		assertEquals(0, g.getParents(pa).length);
+		assertTrue(Arrays.equals(new int[] { pa }, g.getParents(pb)));
+		assertTrue(Arrays.equals(new int[] { pb, pc, pd }, g.getParents(pm)));
+		assertEquals(1, g.getGeneration(pa));
+		assertEquals(2, g.getGeneration(pc));
+		assertEquals(3, g.getGeneration(pm));
+
+		final ChangedPathFilter root = g.getChangedPathFilter(pa);
+		assertTrue(root.maybeContains(new ChangedPathFilter.Key("a/b/c")));
+		assertTrue(root.maybeContains(new ChangedPathFilter.Key("a/b")));
+		assertTrue(root.maybeContains(new ChangedPathFilter.Key("a")));
+
+		// A merge records the paths changed relative to its first parent.
+		final ChangedPathFilter merge = g.getChangedPathFilter(pm);
+		assertTrue(merge.maybeContains(new ChangedPathFilter.Key("e")));
+		assertTrue(merge.maybeContains(new ChangedPathFilter.Key("f")));
+		assertFalse(merge.maybeContains(new ChangedPathFilter.Key("a/b/c")));
+	}
+
+	public void testWithoutChangedPaths() throws Exception {
+		final RevCommit a = util.commit(util.tree(util.file("a",
+				util.blob("a"))));
+		final File file = new File(db.getObjectDatabase().getDirectory(),
+				"info/commit-graph");
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			new CommitGraphWriter(db).write(NullProgressMonitor.INSTANCE,
+					out, Arrays.asList(a));
+		} finally {
+			out.close();
+		}
+
+		final CommitGraph g = CommitGraph.open(file);
+		assertFalse(g.hasChangedPathFilters());
+		assertNull(g.getChangedPathFilter(g.findGraphPosition(a)));
+	}
+
+	public void testTooManyChangedPaths() throws Exception {
+		final RevBlob x = util.blob("x");
+		final DirCacheEntry[] files;
+		files = new DirCacheEntry[ChangedPathFilter.MAX_CHANGED_PATHS + 1];
+		for (int i = 0; i < files.length; i++)
+			files[i] = util.file("f" + i, x);
+		final RevCommit a = util.commit(util.tree(files));
+
+		final CommitGraph g = write(a);
+		final ChangedPathFilter f = g.getChangedPathFilter(0);
+		assertTrue(f.maybeContains(new ChangedPathFilter.Key("not-there")));
+	}
+
+	public void testObjectDirectoryReloadsGraph() throws Exception {
+		final ObjectDirectory odb = db.getObjectDatabase();
+		assertNull(odb.getCommitGraph());
+
+		final RevCommit a = util.commit(util.tree(util.file("a",
+				util.blob("a"))));
+		util.update("refs/heads/master", a);
+		write(a);
+		final CommitGraph g = odb.getCommitGraph();
+		assertNotNull(g);
+		assertSame(g, odb.getCommitGraph());
+
+		final RevCommit b = util.commit(util.tree(util.file("a",
+				util.blob("b"))), a);
+		util.update("refs/heads/master", b);
+		final File file = new File(odb.getDirectory(), "info/commit-graph");
+		file.setLastModified(file.lastModified() - 2000);
+		final CommitGraphWriter writer = new CommitGraphWriter(db);
+		assertEquals(2, writer.write(NullProgressMonitor.INSTANCE));
+		assertEquals(2, odb.getCommitGraph().getCommitCount());
+
+		db.getConfig().setBoolean("core", null, "commitGraph", false);
+		odb.onConfigChanged(new ConfigChangedEvent());
+		assertNull(odb.getCommitGraph());
+	}
+
+	private CommitGraph write(final RevCommit tip) throws Exception {
+		final CommitGraphWriter writer = new CommitGraphWriter(db);
+		writer.setChangedPaths(true);
+		final File file = new File(db.getObjectDatabase().getDirectory(),
+				"info/commit-graph");
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			writer.write(NullProgressMonitor.INSTANCE, out, Arrays.asList(tip));
+		} finally {
+			out.close();
+		}
+		return CommitGraph.open(file);
+	}
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.junit.TestRepository.CommitBuilder;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RepositoryTestCase;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.AuthorRevFilter;
+import org.eclipse.jgit.revwalk.filter.MessageRevFilter;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.storage.file.CommitSearchIndex.Candidates;
+import org.eclipse.jgit.storage.file.CommitSearchIndex.Field;
+
+public class CommitSearchIndexTest extends RepositoryTestCase {
+	private TestRepository<FileRepository> util;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		util = new TestRepository<FileRepository>(db);
+	}
+
+	public void testWriteAndSearch() throws Exception {
+		final RevCommit a = util.commit().message("Initial import").create();
+		final RevCommit b = util.commit().message("Fix the PARSER bug")
+				.parent(a).create();
+		final RevCommit c = util.commit().message("Speed up parsing")
+				.parent(b).create();
+		util.update("refs/heads/master", c);
+
+		assertEquals(3, update());
+		final CommitSearchIndex idx = db.getObjectDatabase()
+				.getCommitSearchIndex();
+		assertEquals(3, idx.getCommitCount());
+		assertEquals(b, idx.getObjectId(idx.findPosition(b)));
+		assertEquals(-1, idx.findPosition(util.blob("x")));
+
+		Candidates r = idx.search(Field.MESSAGE, "parser");
+		assertEquals(1, r.getCount());
+		assertFalse(r.mayContain(a));
+		assertTrue(r.mayContain(b));
+		assertFalse(r.mayContain(c));
+
+		assertEquals(2, idx.search(Field.MESSAGE, "Pars").getCount());
+		assertEquals(0, idx.search(Field.MESSAGE, "refactor").getCount());
+		assertNull(idx.search(Field.MESSAGE, "up"));
+
+		assertEquals(3, idx.search(Field.AUTHOR, "jauthor@").getCount());
+		assertEquals(0, idx.search(Field.AUTHOR, "committer").getCount());
+		assertEquals(3, idx.search(Field.COMMITTER, "committer").getCount());
+	}
+
+	public void testIncrementalUpdate() throws Exception {
+		final RevCommit a = util.commit().message("first").create();
+		util.update("refs/heads/master", a);
+		assertEquals(1, update());
+		assertEquals(0, update());
+
+		final RevCommit b = util.commit().message("second").parent(a)
+				.create();
+		final RevCommit c = util.commit().message("third").create();
+		util.update("refs/heads/master", b);
+		util.update("refs/heads/side", c);
+		assertEquals(2, update());
+
+		final CommitSearchIndex idx = db.getObjectDatabase()
+				.getCommitSearchIndex();
+		assertEquals(3, idx.getCommitCount());
+		assertEquals(0, idx.findPosition(a));
+		assertTrue(idx.search(Field.MESSAGE, "first").mayContain(a));
+		assertTrue(idx.search(Field.MESSAGE, "second").mayContain(b));
+		assertFalse(idx.search(Field.MESSAGE, "second").mayContain(c));
+		assertEquals(1, idx.search(Field.MESSAGE, "third").getCount());
+	}
+
+	public void testIncrementalUpdateMergesPostings() throws Exception {
+		final List<RevCommit> all = new ArrayList<RevCommit>();
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < 10; i++) {
+				final CommitBuilder b = util.commit().message(
+						"shared text " + round + "x" + i);
+				if (!all.isEmpty())
+					b.parent(all.get(all.size() - 1));
+				all.add(b.create());
+			}
+			final RevCommit tip = all.get(all.size() - 1);
+			util.update("refs/heads/master", tip);
+			assertEquals(10, update());
+
+			final CommitSearchIndex idx = db.getObjectDatabase()
+					.getCommitSearchIndex();
+			assertEquals(all.size(), idx.getCommitCount());
+			for (int n = 0; n < all.size(); n++) {
+				final RevCommit c = all.get(n);
+				assertEquals(c, idx.getObjectId(idx.findPosition(c)));
+				final Candidates r = idx.search(Field.MESSAGE, "xt "
+						+ (n / 10) + "x" + (n % 10));
+				assertEquals(1, r.getCount());
+				assertTrue(r.mayContain(c));
+			}
+			assertEquals(all.size(), idx.search(Field.MESSAGE, "shared")
+					.getCount());
+			assertEquals(10, idx.search(Field.MESSAGE, " " + round + "x")
+					.getCount());
+		}
+	}
+
+	public void testFiltersUseIndex() throws Exception {
+		final RevCommit a = util.commit().message("add parser").create();
+		final RevCommit b = util.commit().message("fix parser").parent(a)
+				.create();
+		util.update("refs/heads/master", b);
+		update();
+
+		// Commits added after the update are not in the index, but must
+		// still be matched.
+		final RevCommit c = util.commit().message("fix printer").parent(b)
+				.create();
+		final RevCommit d = util.commit().message("docs").parent(c).create();
+
+		assertEquals(list(c, b), run(d, MessageRevFilter.create("fix")));
+		assertEquals(list(b, a), run(d, MessageRevFilter.create("PARS")));
+		assertEquals(list(d, c, b, a), run(d, AuthorRevFilter
+				.create("author")));
+		assertEquals(list(), run(d, AuthorRevFilter.create("committer")));
+
+		final RevWalk rw = new RevWalk(db);
+		try {
+			final Candidates r = rw.getSearchCandidates(Field.MESSAGE, "fix");
+			assertEquals(1, r.getCount());
+			assertSame(r, rw.getSearchCandidates(Field.MESSAGE, "fix"));
+		} finally {
+			rw.release();
+		}
+	}
+
+	public void testUnreadableIndexIsReplaced() throws Exception {
+		final RevCommit a = util.commit().message("first").create();
+		util.update("refs/heads/master", a);
+		write(new File(db.getObjectDatabase().getDirectory(),
+				"info/commit-search"), "garbage");
+		assertNull(db.getObjectDatabase().getCommitSearchIndex());
+		assertEquals(1, update());
+		assertNotNull(db.getObjectDatabase().getCommitSearchIndex());
+	}
+
+	private int update() throws Exception {
+		final File file = new File(db.getObjectDatabase()
+				.getDirectory(), "info/commit-search");
+		if (file.exists())
+			file.setLastModified(file.lastModified() - 2000);
+		return new CommitSearchIndexWriter(db)
+				.update(NullProgressMonitor.INSTANCE);
+	}
+
+	private List<ObjectId> run(final RevCommit start, final RevFilter filter)
+			throws Exception {
+		final RevWalk rw = new RevWalk(db);
+		try {
+			rw.setRevFilter(filter);
+			rw.markStart(rw.parseCommit(start));
+			final List<ObjectId> r = new ArrayList<ObjectId>();
+			for (RevCommit c : rw)
+				r.add(c.copy());
+			return r;
+		} finally {
+			rw.release();
+		}
+	}
+
+	private static List<ObjectId> list(final RevCommit... commits) {
+		final List<ObjectId> r = new ArrayList<ObjectId>();
+		for (RevCommit c : commits)
+			r.add(c.copy());
+		return r;
+	}
+}
@@ -57,18 +57,23 @@
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
 
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.SampleDataRepositoryTestCase;
 import org.eclipse.jgit.lib.TextProgressMonitor;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevObject;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.file.PackIndex.MutableEntry;
 import org.eclipse.jgit.storage.pack.PackConfig;
 import org.eclipse.jgit.storage.pack.PackWriter;
 import org.eclipse.jgit.transport.IndexPack;
+import org.eclipse.jgit.util.IO;
 import org.eclipse.jgit.util.JGitTestUtil;
 
 public class PackWriterTest extends SampleDataRepositoryTestCase {
@@ -270,6 +275,95 @@ public void testWritePack2DeltasCRC32Copy() throws IOException {
 		writeVerifyPack2(true);
 	}
 
+	/**
+	 * Compare a pack written through a file channel, where large reused
+	 * objects are transferred directly from the source pack, with the same
+	 * pack written to an ordinary stream.
+	 *
+	 * @throws Exception
+	 */
+	public void testWritePackToFileChannel() throws Exception {
+		final FileRepository repo = createBareRepository();
+		final TestRepository<FileRepository> tr;
+		tr = new TestRepository<FileRepository>(repo);
+		final byte[] data = new byte[256 * 1024];
+		new Random(42).nextBytes(data);
+		final RevBlob big = tr.blob(data);
+		final RevCommit c = tr.commit(tr.tree(tr.file("big", big)));
+		tr.update("master", c);
+		tr.packAndPrune();
+
+		final List<ObjectId> want = Collections.singletonList((ObjectId) c);
+		final NullProgressMonitor m = NullProgressMonitor.INSTANCE;
+		final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		writer = new PackWriter(new PackConfig(repo), repo.newObjectReader());
+		writer.preparePack(m, want, EMPTY_LIST_OBJECT);
+		writer.writePack(m, m, expected);
+		writer.release();
+
+		final File actual = new File(trash, "channel.pack");
+		final FileOutputStream out = new FileOutputStream(actual);
+		try {
+			writer = new PackWriter(new PackConfig(repo), repo
+					.newObjectReader());
+			writer.preparePack(m, want, EMPTY_LIST_OBJECT);
+			writer.writePack(m, m, out);
+			writer.release();
+		} finally {
+			out.close();
+		}
+
+		assertTrue(expected.size() > data.length);
+		assertTrue(Arrays.equals(expected.toByteArray(), IO
+				.readFully(actual)));
+	}
+
+	/**
+	 * Write every object of a repository holding a single pack. The whole
+	 * pack is copied as one region, producing an identical pack file.
+	 *
+	 * @throws Exception
+	 */
+	public void testWritePackReusesWholePack() throws Exception {
+		final FileRepository repo = createBareRepository();
+		final TestRepository<FileRepository> tr;
+		tr = new TestRepository<FileRepository>(repo);
+		final RevCommit a = tr.commit(tr.tree(tr.file("a", tr.blob("a"))));
+		final RevCommit b = tr.commit(tr.tree(tr.file("a", tr.blob("b")),
+				tr.file("c", tr.blob("c"))), a);
+		tr.update("master", b);
+		tr.packAndPrune();
+
+		final PackFile src = repo.getObjectDatabase().getPacks().iterator()
+				.next();
+		final List<ObjectId> want = Collections.singletonList((ObjectId) b);
+		final NullProgressMonitor m = NullProgressMonitor.INSTANCE;
+		final PackConfig pc = new PackConfig(repo);
+		pc.setDeltaCompress(false);
+
+		writer = new PackWriter(pc, repo.newObjectReader());
+		writer.preparePack(m, want, EMPTY_LIST_OBJECT);
+		writer.writePack(m, m, os);
+		assertTrue(Arrays.equals(IO.readFully(src.getPackFile()), os
+				.toByteArray()));
+
+		final ByteArrayOutputStream idx = new ByteArrayOutputStream();
+		writer.writeIndex(idx);
+		writer.release();
+		assertTrue(Arrays.equals(IO.readFully(new File(src.getPackFile()
+				.getPath().replaceAll("\\.pack$", ".idx"))), idx
+				.toByteArray()));
+
+		os.reset();
+		pc.setReuseWholePacks(false);
+		writer = new PackWriter(pc, repo.newObjectReader());
+		writer.preparePack(m, want, EMPTY_LIST_OBJECT);
+		writer.writePack(m, m, os);
+		writer.release();
+		verifyOpenPack(false);
+		assertEquals(src.getObjectCount(), pack.getObjectCount());
+	}
+
 	/**
 	 * Create pack basing on fixed objects list, then precisely verify content.
 	 * No delta reuse here.
@@ -48,6 +48,7 @@
 import static org.eclipse.jgit.lib.Constants.R_TAGS;
 import static org.eclipse.jgit.lib.Ref.Storage.LOOSE;
 import static org.eclipse.jgit.lib.Ref.Storage.NEW;
+import static org.eclipse.jgit.lib.Ref.Storage.PACKED;
 
 import java.io.File;
 import java.io.IOException;
@@ -985,6 +986,123 @@ public void testPeelCommit() throws IOException {
 		assertSame(master_p2, refdir.peel(master_p2));
 	}
 
+	public void testPack_OnlyTagsByDefault() throws IOException {
+		writeLooseRef("refs/heads/master", A);
+		writeLooseRef("refs/tags/v1.0", v1_0);
+		writeLooseRef("refs/tags/a/lightweight", B);
+
+		assertEquals(2, refdir.pack(false, true));
+
+		File d = diskRepo.getDirectory();
+		assertTrue(new File(d, "refs/heads/master").isFile());
+		assertFalse(new File(d, "refs/tags/v1.0").exists());
+		assertFalse(new File(d, "refs/tags/a/lightweight").exists());
+		assertFalse(new File(d, "refs/tags/a").exists());
+		assertTrue(new File(d, "refs/tags").isDirectory());
+
+		assertEquals("# pack-refs with: peeled\n" //
+				+ B.name() + " refs/tags/a/lightweight\n" //
+				+ v1_0.name() + " refs/tags/v1.0\n" //
+				+ "^" + v1_0.getObject().name() + "\n", //
+				read(new File(d, "packed-refs")));
+
+		Map<String, Ref> all = refdir.getRefs(RefDatabase.ALL);
+		assertEquals(4, all.size());
+		assertEquals(LOOSE, all.get("refs/heads/master").getStorage());
+
+		Ref tag = all.get("refs/tags/v1.0");
+		assertEquals(PACKED, tag.getStorage());
+		assertTrue(tag.isPeeled());
+		assertEquals(v1_0, tag.getObjectId());
+		assertEquals(v1_0.getObject(), tag.getPeeledObjectId());
+
+		Ref lw = all.get("refs/tags/a/lightweight");
+		assertEquals(PACKED, lw.getStorage());
+		assertTrue(lw.isPeeled());
+		assertNull(lw.getPeeledObjectId());
+	}
+
+	public void testPack_All() throws IOException {
+		writeLooseRef("refs/heads/master", A);
+		writeLooseRef("refs/heads/other", B);
+		writeLooseRef("refs/tags/v1.0", v1_0);
+		writeLooseRef("refs/heads/sym", "ref: refs/heads/master\n");
+
+		assertEquals(3, refdir.pack(true, true));
+
+		File d = diskRepo.getDirectory();
+		assertFalse(new File(d, "refs/heads/master").exists());
+		assertFalse(new File(d, "refs/heads/other").exists());
+		assertFalse(new File(d, "refs/tags/v1.0").exists());
+		assertTrue(new File(d, "refs/heads/sym").isFile());
+		assertTrue(new File(d, HEAD).isFile());
+
+		Map<String, Ref> all = refdir.getRefs(RefDatabase.ALL);
+		assertEquals(5, all.size());
+		assertEquals(A, all.get(HEAD).getObjectId());
+		assertEquals(A, all.get("refs/heads/sym").getObjectId());
+		assertEquals(PACKED, all.get("refs/heads/master").getStorage());
+		assertEquals(B, all.get("refs/heads/other").getObjectId());
+	}
+
+	public void testPack_NoPrune() throws IOException {
+		writeLooseRef("refs/tags/v1.0", v1_0);
+
+		assertEquals(1, refdir.pack(false, false));
+
+		File d = diskRepo.getDirectory();
+		assertTrue(new File(d, "refs/tags/v1.0").isFile());
+		assertTrue(new File(d, "packed-refs").isFile());
+		assertEquals(LOOSE, refdir.getRef("refs/tags/v1.0").getStorage());
+	}
+
+	public void testPack_UpdatesPackedAndPeelsExisting() throws IOException {
+		writePackedRefs(A.name() + " refs/heads/master\n" //
+				+ v1_0.name() + " refs/tags/v1.0\n");
+		writeLooseRef("refs/heads/master", B);
+
+		assertEquals(1, refdir.pack(false, true));
+
+		File d = diskRepo.getDirectory();
+		assertFalse(new File(d, "refs/heads/master").exists());
+		assertEquals("# pack-refs with: peeled\n" //
+				+ B.name() + " refs/heads/master\n" //
+				+ v1_0.name() + " refs/tags/v1.0\n" //
+				+ "^" + v1_0.getObject().name() + "\n", //
+				read(new File(d, "packed-refs")));
+
+		Ref master = refdir.getRef("refs/heads/master");
+		assertEquals(PACKED, master.getStorage());
+		assertEquals(B, master.getObjectId());
+	}
+
+	public void testPack_KeepsLockedLooseRef() throws IOException {
+		writeLooseRef("refs/tags/v1.0", v1_0);
+		writeLooseRef("refs/tags/v1.0.lock", B);
+
+		assertEquals(1, refdir.pack(false, true));
+
+		// A concurrent writer holds the lock, so the loose ref must stay.
+		File d = diskRepo.getDirectory();
+		assertTrue(new File(d, "refs/tags/v1.0").isFile());
+		assertTrue(new File(d, "refs/tags/v1.0.lock").isFile());
+		assertEquals(v1_0, refdir.getRef("refs/tags/v1.0").getObjectId());
+	}
+
+	public void testPack_FailsWhenPackedRefsLocked() throws IOException {
+		writeLooseRef("refs/tags/v1.0", v1_0);
+		write(new File(diskRepo.getDirectory(), "packed-refs.lock"), "");
+
+		try {
+			refdir.pack(false, true);
+			fail("packed-refs was locked");
+		} catch (IOException e) {
+			// expected
+		}
+		assertTrue(new File(diskRepo.getDirectory(), "refs/tags/v1.0")
+				.isFile());
+	}
+
 	private void writeLooseRef(String name, AnyObjectId id) throws IOException {
 		writeLooseRef(name, id.name() + "\n");
 	}
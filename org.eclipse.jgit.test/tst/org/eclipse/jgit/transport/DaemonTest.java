@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import junit.framework.TestCase;
+
+public class DaemonTest extends TestCase {
+	private Daemon daemon;
+
+	private Socket busy;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		daemon = new Daemon(new InetSocketAddress(InetAddress
+				.getByName("localhost"), 0));
+	}
+
+	protected void tearDown() throws Exception {
+		if (busy != null)
+			busy.close();
+		daemon.stop();
+		super.tearDown();
+	}
+
+	public void testDefaultIsUnlimited() {
+		assertEquals(0, daemon.getMaxConnections());
+		assertEquals(0, daemon.getMaxQueuedConnections());
+		assertEquals(0, daemon.getActiveConnections());
+		assertEquals(0, daemon.getQueuedConnections());
+	}
+
+	public void testNegativeLimitsAreUnlimited() {
+		daemon.setMaxConnections(-1);
+		daemon.setMaxQueuedConnections(-5);
+		assertEquals(0, daemon.getMaxConnections());
+		assertEquals(0, daemon.getMaxQueuedConnections());
+	}
+
+	public void testRejectWhenBusy() throws Exception {
+		daemon.setMaxConnections(1);
+		daemon.start();
+
+		// The first client never sends its command, holding the only worker.
+		busy = connect();
+		waitFor(1, 0);
+
+		final Socket rejected = connect();
+		try {
+			PacketLineIn in = new PacketLineIn(rejected.getInputStream());
+			String line = in.readString();
+			assertTrue(line, line.startsWith("ERR "));
+		} finally {
+			rejected.close();
+		}
+		assertEquals(1, daemon.getActiveConnections());
+	}
+
+	public void testQueueWhenBusy() throws Exception {
+		daemon.setMaxConnections(1);
+		daemon.setMaxQueuedConnections(1);
+		daemon.start();
+
+		busy = connect();
+		waitFor(1, 0);
+
+		final Socket queued = connect();
+		try {
+			waitFor(1, 1);
+
+			// Releasing the busy worker allows the queued client to run.
+			busy.close();
+			busy = null;
+			waitFor(1, 0);
+		} finally {
+			queued.close();
+		}
+		waitFor(0, 0);
+	}
+
+	private Socket connect() throws IOException {
+		final InetSocketAddress addr = daemon.getAddress();
+		return new Socket(addr.getAddress(), addr.getPort());
+	}
+
+	private void waitFor(int active, int queued) throws InterruptedException {
+		for (int i = 0; i < 500; i++) {
+			if (daemon.getActiveConnections() == active
+					&& daemon.getQueuedConnections() == queued)
+				return;
+			Thread.sleep(10);
+		}
+		assertEquals(active, daemon.getActiveConnections());
+		assertEquals(queued, daemon.getQueuedConnections());
+	}
+}
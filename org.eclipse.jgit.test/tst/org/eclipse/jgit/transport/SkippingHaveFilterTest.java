@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.eclipse.jgit.storage.file.FileRepository;
+
+public class SkippingHaveFilterTest extends LocalDiskRepositoryTestCase {
+	private static final NullProgressMonitor PM = NullProgressMonitor.INSTANCE;
+
+	private static final String R_MASTER = Constants.R_HEADS + Constants.MASTER;
+
+	private static final String R_LOCAL = Constants.R_HEADS + "local";
+
+	private Repository src;
+
+	private Repository dst;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		src = createBareRepository();
+		dst = createBareRepository();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (src != null)
+			src.close();
+		if (dst != null)
+			dst.close();
+		super.tearDown();
+	}
+
+	public void testSkipsExponentially() throws Exception {
+		final TestRepository<Repository> s = new TestRepository<Repository>(
+				src);
+		final List<RevCommit> chain = chain(s, null, 40);
+
+		final RevWalk rw = s.getRevWalk();
+		rw.sort(RevSort.COMMIT_TIME_DESC);
+		rw.setRevFilter(new SkippingHaveFilter(RevFilter.ALL, rw
+				.newFlag("COMMON")));
+		rw.markStart(chain.get(chain.size() - 1));
+
+		final List<Integer> sent = new ArrayList<Integer>();
+		RevCommit c;
+		while ((c = rw.next()) != null)
+			sent.add(Integer.valueOf(chain.size() - 1 - chain.indexOf(c)));
+		assertEquals("[0, 2, 5, 10, 18, 30]", sent.toString());
+	}
+
+	public void testFetchSkipping() throws Exception {
+		setNegotiation("skipping", 0);
+		assertFetchesAfterDivergence();
+	}
+
+	public void testFetchGivingUpAfterNaks() throws Exception {
+		setNegotiation("skipping", 1);
+		assertFetchesAfterDivergence();
+	}
+
+	public void testFetchUnrelatedGivingUpAfterNaks() throws Exception {
+		setNegotiation(null, 1);
+
+		final TestRepository<Repository> s = new TestRepository<Repository>(
+				src);
+		s.update(R_LOCAL, last(chain(s, null, 200)));
+
+		final TestRepository<Repository> d = new TestRepository<Repository>(
+				dst);
+		d.tick(3600);
+		final RevCommit want = last(chain(d, null, 5));
+		d.update(R_MASTER, want);
+
+		fetch();
+		assertEquals(want.copy(), src.resolve(R_MASTER));
+	}
+
+	private void assertFetchesAfterDivergence() throws Exception {
+		final TestRepository<Repository> d = new TestRepository<Repository>(
+				dst);
+		final RevCommit base = last(chain(d, null, 100));
+		d.update(R_MASTER, base);
+		fetch();
+
+		final TestRepository<Repository> s = new TestRepository<Repository>(
+				src);
+		s.update(R_LOCAL, last(chain(s, s.getRevWalk().parseCommit(base),
+				150)));
+
+		final RevCommit want = last(chain(d, base, 3));
+		d.update(R_MASTER, want);
+		fetch();
+		assertEquals(want.copy(), src.resolve(R_MASTER));
+	}
+
+	private void setNegotiation(final String algorithm, final int maxNaks)
+			throws Exception {
+		final FileBasedConfig cfg = ((FileRepository) src).getConfig();
+		if (algorithm != null)
+			cfg.setString("fetch", null, "negotiationalgorithm", algorithm);
+		cfg.setInt("fetch", null, "negotiationmaxnaks", maxNaks);
+		cfg.save();
+	}
+
+	private void fetch() throws Exception {
+		final Transport t = Transport.open(src, uriOf(dst));
+		try {
+			t.fetch(PM, Collections.singleton(new RefSpec(
+					"+refs/heads/master:refs/heads/master")));
+		} finally {
+			t.close();
+		}
+	}
+
+	private static List<RevCommit> chain(final TestRepository<Repository> r,
+			final RevCommit base, final int n) throws Exception {
+		final List<RevCommit> chain = new ArrayList<RevCommit>(n);
+		RevCommit p = base;
+		for (int i = 0; i < n; i++) {
+			final TestRepository<Repository>.CommitBuilder b = r.commit();
+			if (p != null)
+				b.parent(p);
+			p = b.add("f", "" + i).create();
+			chain.add(p);
+		}
+		return chain;
+	}
+
+	private static RevCommit last(final List<RevCommit> chain) {
+		return chain.get(chain.size() - 1);
+	}
+
+	private static URIish uriOf(final Repository r) throws URISyntaxException {
+		return new URIish(r.getDirectory().getAbsolutePath());
+	}
+}
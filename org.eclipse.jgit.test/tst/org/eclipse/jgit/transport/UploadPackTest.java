@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import java.net.URISyntaxException;
+import java.util.Collections;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.CommitGraphWriter;
+import org.eclipse.jgit.storage.file.FileRepository;
+
+public class UploadPackTest extends LocalDiskRepositoryTestCase {
+	private static final NullProgressMonitor PM = NullProgressMonitor.INSTANCE;
+
+	private static final String R_MASTER = Constants.R_HEADS + Constants.MASTER;
+
+	private static final String R_LOCAL = Constants.R_HEADS + "local";
+
+	private Repository src;
+
+	private Repository dst;
+
+	private TestRepository<Repository> s;
+
+	private TestRepository<Repository> d;
+
+	private RevCommit base;
+
+	private UploadPack up;
+
+	private int maxHaves;
+
+	private int maxWalkDepth;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		src = createBareRepository();
+		dst = createBareRepository();
+		s = new TestRepository<Repository>(src);
+		d = new TestRepository<Repository>(dst);
+
+		base = chain(d, null, "a", 20);
+		d.update(R_MASTER, base);
+		fetch();
+		assertEquals(base.copy(), src.resolve(R_MASTER));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (src != null)
+			src.close();
+		if (dst != null)
+			dst.close();
+		super.tearDown();
+	}
+
+	public void testNegotiationStatistics() throws Exception {
+		s.update(R_LOCAL, chain(s, null, "l", 5));
+		final RevCommit want = chain(d, base, "b", 2);
+		d.update(R_MASTER, want);
+
+		fetch();
+		assertEquals(want.copy(), src.resolve(R_MASTER));
+		assertEquals(25, up.getHavesReceived());
+		assertEquals(1, up.getNegotiationRounds());
+
+		// The first have not found locally checks the wants: the two
+		// new commits, then the common base.
+		assertEquals(3, up.getCommitsWalked());
+	}
+
+	public void testMaxHaves() throws Exception {
+		s.update(R_LOCAL, chain(s, null, "l", 50));
+		final RevCommit want = chain(d, base, "b", 2);
+		d.update(R_MASTER, want);
+
+		maxHaves = 10;
+		fetch();
+		assertEquals(want.copy(), src.resolve(R_MASTER));
+		assertTrue(10 < up.getHavesReceived());
+		assertEquals(0, up.getCommitsWalked());
+	}
+
+	public void testMaxWalkDepth() throws Exception {
+		final RevCommit want = chain(d, base, "b", 30);
+		d.update(R_MASTER, want);
+
+		s.update(R_LOCAL, chain(s, null, "l", 5));
+		maxWalkDepth = 5;
+		fetch();
+		assertEquals(want.copy(), src.resolve(R_MASTER));
+
+		// Each check gives up after 5 commits, well before reaching the
+		// common base 30 commits down.
+		assertTrue(0 < up.getCommitsWalked());
+		assertTrue(up.getCommitsWalked() <= 5 * up.getHavesReceived());
+	}
+
+	public void testGiveUpUsingCommitGraph() throws Exception {
+		final RevCommit side = chain(d, null, "c", 30);
+		final RevCommit want = d.commit().parent(
+				d.commit().parent(base).create()).parent(side).create();
+		d.update(R_MASTER, want);
+		new CommitGraphWriter((FileRepository) dst).write(PM);
+
+		s.update(R_LOCAL, chain(s, null, "l", 5));
+		fetch();
+		assertEquals(want.copy(), src.resolve(R_MASTER));
+
+		// Side branch commits of a lower generation than the common base
+		// cannot lead to it, and are not walked.
+		assertTrue(0 < up.getCommitsWalked());
+		assertTrue(up.getCommitsWalked() < 30);
+	}
+
+	public void testMaxNaksCountsOnlyRoundsWithoutAck() throws Exception {
+		s.update(R_LOCAL, chain(s, null, "l", 100));
+		d.tick(1000);
+		final RevCommit common = chain(d, base, "b", 1);
+		d.update(R_MASTER, common);
+		fetch();
+		final RevCommit want = chain(d, common, "c", 1);
+		d.update(R_MASTER, want);
+
+		// The common commit is the newest, so the first round acknowledges
+		// it. The server cannot walk far enough to be ready, and the second
+		// round of local commits gets only a NAK. The client sent a third
+		// round before reading that result.
+		src.getConfig().setInt("fetch", null, "negotiationMaxNaks", 1);
+		maxWalkDepth = 1;
+		fetch();
+		assertEquals(want.copy(), src.resolve(R_MASTER));
+		assertEquals(96, up.getHavesReceived());
+	}
+
+	private void fetch() throws Exception {
+		final Transport t = new TransportLocal(src, uriOf(dst)) {
+			@Override
+			UploadPack createUploadPack(final Repository db) {
+				db.close();
+				dst.incrementOpen();
+
+				up = super.createUploadPack(dst);
+				up.setMaxHaves(maxHaves);
+				up.setMaxWalkDepth(maxWalkDepth);
+				return up;
+			}
+		};
+		try {
+			t.fetch(PM, Collections.singleton(new RefSpec(
+					"+refs/heads/master:refs/heads/master")));
+		} finally {
+			t.close();
+		}
+	}
+
+	private static RevCommit chain(final TestRepository<Repository> r,
+			final RevCommit parent, final String name, final int n)
+			throws Exception {
+		RevCommit p = parent;
+		for (int i = 0; i < n; i++) {
+			final TestRepository<Repository>.CommitBuilder b = r.commit();
+			if (p != null)
+				b.parent(p);
+			p = b.add(name, name + i).create();
+		}
+		return p;
+	}
+
+	private static URIish uriOf(final Repository r) throws URISyntaxException {
+		return new URIish(r.getDirectory().getAbsolutePath());
+	}
+}
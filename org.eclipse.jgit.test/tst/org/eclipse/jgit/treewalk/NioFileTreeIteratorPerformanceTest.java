@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.treewalk;
+
+import java.io.File;
+
+import org.eclipse.jgit.lib.RepositoryTestCase;
+import org.eclipse.jgit.util.FS;
+
+/**
+ * Compares the time needed to scan a working tree with
+ * {@link FileTreeIterator} and {@link NioFileTreeIterator}.
+ * <p>
+ * Every entry's mode, length and modification time is read, as a status check
+ * would. The single pass iterator is expected to be faster; the test only
+ * fails if it is dramatically slower, to remain stable on loaded machines.
+ */
+public class NioFileTreeIteratorPerformanceTest extends RepositoryTestCase {
+	private static final int DIRS = 20;
+
+	private static final int FILES_PER_DIR = 100;
+
+	private static final int ROUNDS = 5;
+
+	private static final int maxFactor = 10;
+
+	public void test() throws Exception {
+		final File root = new File(trash, "w");
+		for (int d = 0; d < DIRS; d++)
+			for (int f = 0; f < FILES_PER_DIR; f++)
+				write(new File(root, "d" + d + "/f" + f), "" + f);
+		final FS fs = db.getFS();
+
+		// Warm up both implementations before measuring.
+		assertEquals(scan(new FileTreeIterator(root, fs)),
+				scan(new NioFileTreeIterator(root, fs)));
+
+		long io = 0, nio = 0;
+		for (int i = 0; i < ROUNDS; i++) {
+			long start = System.nanoTime();
+			scan(new FileTreeIterator(root, fs));
+			io += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			scan(new NioFileTreeIterator(root, fs));
+			nio += System.nanoTime() - start;
+		}
+
+		final String perf = "scanning " + DIRS * FILES_PER_DIR
+				+ " files took " + io / ROUNDS + " ns with java.io, "
+				+ nio / ROUNDS + " ns with NIO (available="
+				+ NioFileTreeIterator.isAvailable() + ")";
+		assertTrue(perf, nio < io * maxFactor);
+	}
+
+	private long scan(final WorkingTreeIterator i) throws Exception {
+		final TreeWalk tw = new TreeWalk(db);
+		tw.reset();
+		tw.setRecursive(true);
+		tw.addTree(i);
+		long sum = 0;
+		while (tw.next()) {
+			final WorkingTreeIterator t = tw.getTree(0,
+					WorkingTreeIterator.class);
+			sum += tw.getRawMode(0) + t.getEntryLength();
+			if (t.getEntryLastModified() == 0)
+				sum--;
+		}
+		return sum;
+	}
+}
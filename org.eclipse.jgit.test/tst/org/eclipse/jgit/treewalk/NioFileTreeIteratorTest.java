@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.treewalk;
+
+import java.io.File;
+
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.RepositoryTestCase;
+import org.eclipse.jgit.util.FS;
+
+public class NioFileTreeIteratorTest extends RepositoryTestCase {
+	private File root;
+
+	public void setUp() throws Exception {
+		super.setUp();
+		writeTrashFile("w/a", "a");
+		writeTrashFile("w/a.b", "a.b");
+		writeTrashFile("w/a0/b", "a0/b");
+		writeTrashFile("w/c/d/e", "c/d/e");
+		writeTrashFile("w/exec", "exec");
+		writeTrashFile("w/sub/file", "sub");
+		assertTrue(new File(trash, "w/sub/.git").mkdir());
+		root = new File(trash, "w");
+	}
+
+	public void testEmptyIfRootDoesNotExist() throws Exception {
+		final File r = new File(trash, "not-existing-file");
+		assertFalse(r.exists());
+		final NioFileTreeIterator fti = new NioFileTreeIterator(r, db.getFS());
+		assertTrue(fti.first());
+		assertTrue(fti.eof());
+	}
+
+	public void testEmptyIfRootIsFile() throws Exception {
+		final File r = new File(root, "a.b");
+		assertTrue(r.isFile());
+		final NioFileTreeIterator fti = new NioFileTreeIterator(r, db.getFS());
+		assertTrue(fti.first());
+		assertTrue(fti.eof());
+	}
+
+	public void testMatchesFileTreeIterator() throws Exception {
+		final FS fs = db.getFS();
+		if (fs.supportsExecute())
+			assertTrue(fs.setExecute(new File(root, "exec"), true));
+
+		final TreeWalk tw = new TreeWalk(db);
+		tw.reset();
+		tw.setRecursive(true);
+		tw.addTree(new FileTreeIterator(root, fs));
+		tw.addTree(new NioFileTreeIterator(root, fs));
+
+		int files = 0;
+		while (tw.next()) {
+			final FileTreeIterator a = tw.getTree(0, FileTreeIterator.class);
+			final NioFileTreeIterator b = tw.getTree(1,
+					NioFileTreeIterator.class);
+			assertNotNull(tw.getPathString(), a);
+			assertNotNull(tw.getPathString(), b);
+			assertEquals(tw.getPathString(), tw.getRawMode(0), tw
+					.getRawMode(1));
+			assertEquals(a.getEntryLength(), b.getEntryLength());
+			assertEquals(a.getEntryLastModified() / 1000, b
+					.getEntryLastModified() / 1000);
+			if (tw.getPathString().equals("exec") && fs.supportsExecute())
+				assertEquals(FileMode.EXECUTABLE_FILE, tw.getFileMode(1));
+			if (tw.getPathString().equals("sub"))
+				assertEquals(FileMode.GITLINK, tw.getFileMode(1));
+			files++;
+		}
+		assertEquals(6, files);
+	}
+
+	public void testComparesInode() throws Exception {
+		if (!NioFileTreeIterator.isAvailable())
+			return;
+		final FS fs = db.getFS();
+		NioFileTreeIterator fti = new NioFileTreeIterator(root, fs);
+		while (!fti.getEntryPathString().equals("a"))
+			fti.next(1);
+		if (fti.current().getInode() == 0)
+			return; // No "unix" attribute view on this file system.
+
+		final DirCacheEntry e = new DirCacheEntry("a");
+		e.setFileMode(FileMode.REGULAR_FILE);
+		fti.copyStatusTo(e);
+		assertEquals(fti.current().getInode(), e.getInode());
+		assertFalse(fti.isModified(e, false, true, fs));
+
+		// Replace the file by one with the same size and modification
+		// time. Only the inode tells it apart.
+		final File a = new File(root, "a");
+		final File tmp = new File(root, "a.tmp");
+		write(tmp, "b");
+		assertTrue(tmp.setLastModified(a.lastModified()));
+		assertTrue(a.delete());
+		assertTrue(tmp.renameTo(a));
+
+		fti = new NioFileTreeIterator(root, fs);
+		while (!fti.getEntryPathString().equals("a"))
+			fti.next(1);
+		assertEquals(e.getLength(), fti.getEntryLength());
+		assertTrue(fti.isModified(e, false, true, fs));
+	}
+
+	public void testComparesOwnershipIncludingRoot() throws Exception {
+		if (!NioFileTreeIterator.isAvailable())
+			return;
+		final FS fs = db.getFS();
+		final NioFileTreeIterator fti = new NioFileTreeIterator(root, fs);
+		while (!fti.getEntryPathString().equals("a"))
+			fti.next(1);
+		if (!fti.current().isStatusKnown())
+			return; // No "unix" attribute view on this file system.
+
+		final DirCacheEntry e = new DirCacheEntry("a");
+		e.setFileMode(FileMode.REGULAR_FILE);
+		fti.copyStatusTo(e);
+		assertFalse(fti.isModified(e, false, true, fs));
+
+		// Change the recorded owner from or to root, whichever the file
+		// is not owned by; 0 is a real id, not an unknown value.
+		final int uid = fti.current().getUserId();
+		e.setUserId(uid == 0 ? 1000 : 0);
+		assertTrue(fti.isModified(e, false, true, fs));
+		e.setUserId(uid);
+		assertFalse(fti.isModified(e, false, true, fs));
+
+		final int gid = fti.current().getGroupId();
+		e.setGroupId(gid == 0 ? 1000 : 0);
+		assertTrue(fti.isModified(e, false, true, fs));
+		e.setGroupId(gid);
+		assertFalse(fti.isModified(e, false, true, fs));
+	}
+
+	public void testIgnoresUnrecordedStatus() throws Exception {
+		if (!NioFileTreeIterator.isAvailable())
+			return;
+		final FS fs = db.getFS();
+		final NioFileTreeIterator fti = new NioFileTreeIterator(root, fs);
+		while (!fti.getEntryPathString().equals("a"))
+			fti.next(1);
+
+		// An index written without file status has an inode of 0.
+		final DirCacheEntry e = new DirCacheEntry("a");
+		e.setFileMode(FileMode.REGULAR_FILE);
+		e.setLength((int) fti.getEntryLength());
+		e.setLastModified(fti.getEntryLastModified());
+		assertFalse(fti.isModified(e, false, true, fs));
+	}
+}
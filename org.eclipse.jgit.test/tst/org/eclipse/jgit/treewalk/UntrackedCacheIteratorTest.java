@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.treewalk;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.dircache.UntrackedCache;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RepositoryTestCase;
+
+public class UntrackedCacheIteratorTest extends RepositoryTestCase {
+	private DirCache index;
+
+	private UntrackedCache cache;
+
+	private long old;
+
+	public void setUp() throws Exception {
+		super.setUp();
+		writeTrashFile(".gitignore", "*.o\n");
+		writeTrashFile("a/tracked", "a");
+		writeTrashFile("a/tracked.o", "a");
+		writeTrashFile("a/untracked", "a");
+		writeTrashFile("a/ignored.o", "a");
+		writeTrashFile("b/c/file", "b");
+
+		index = DirCache.newInCore();
+		final DirCacheBuilder b = index.builder();
+		for (String path : new String[] { "a/tracked", "a/tracked.o" }) {
+			final DirCacheEntry e = new DirCacheEntry(path);
+			e.setFileMode(FileMode.REGULAR_FILE);
+			b.add(e);
+		}
+		b.finish();
+		cache = new UntrackedCache();
+
+		old = System.currentTimeMillis() - 60 * 1000;
+		age("", "a", "b", "b/c");
+	}
+
+	public void testRecordsListings() throws Exception {
+		final Set<String> expect = set(".gitignore", "a/tracked",
+				"a/tracked.o", "a/untracked", "b/c/file");
+		UntrackedCacheIterator i = new UntrackedCacheIterator(db, index, cache);
+		assertEquals(expect, walk(i));
+		assertTrue(i.isCacheModified());
+		assertEquals(4, cache.size());
+		assertEquals(set("tracked", "untracked"), set(cache.get("a")
+				.getNames()));
+		assertEquals(set(".gitignore", "a/", "b/"), set(cache.get("")
+				.getNames()));
+
+		i = new UntrackedCacheIterator(db, index, cache);
+		assertEquals(expect, walk(i));
+		assertFalse(i.isCacheModified());
+	}
+
+	public void testUsesCachedListing() throws Exception {
+		walk(new UntrackedCacheIterator(db, index, cache));
+
+		// The listing is reused while the modification time is unchanged.
+		writeTrashFile("a/new", "a");
+		age("a");
+		assertFalse(walk(new UntrackedCacheIterator(db, index, cache))
+				.contains("a/new"));
+
+		assertTrue(new File(trash, "a").setLastModified(old + 10000));
+		assertTrue(walk(new UntrackedCacheIterator(db, index, cache))
+				.contains("a/new"));
+	}
+
+	public void testRecentDirectoryNotCached() throws Exception {
+		writeTrashFile("b/c/new", "b");
+		walk(new UntrackedCacheIterator(db, index, cache));
+		assertNotNull(cache.get("b/c"));
+		assertNull(cache.get("b/c").getNames());
+		assertNotNull(cache.get("a").getNames());
+	}
+
+	public void testIgnoreRuleChangeDiscardsListings() throws Exception {
+		walk(new UntrackedCacheIterator(db, index, cache));
+
+		writeTrashFile(".gitignore", "*.o\nuntracked\n");
+		age("");
+		UntrackedCacheIterator i = new UntrackedCacheIterator(db, index, cache);
+		assertEquals(set(".gitignore", "a/tracked", "a/tracked.o",
+				"b/c/file"), walk(i));
+		assertTrue(i.isCacheModified());
+
+		writeTrashFile("a/.gitignore", "file\n");
+		age("a");
+		assertTrue(walk(new UntrackedCacheIterator(db, index, cache))
+				.contains("a/.gitignore"));
+		assertEquals(set("tracked", ".gitignore"), set(cache.get("a")
+				.getNames()));
+
+		final File exclude = new File(db.getDirectory(), "info/exclude");
+		exclude.getParentFile().mkdirs();
+		write(exclude, "tracked\n");
+		walk(new UntrackedCacheIterator(db, index, cache));
+		assertFalse(cache.getExcludeId().equals(ObjectId.zeroId()));
+		assertEquals(set(".gitignore"), set(cache.get("a").getNames()));
+	}
+
+	private void age(String... dirs) {
+		for (String d : dirs)
+			assertTrue(new File(trash, d).setLastModified(old));
+	}
+
+	private Set<String> walk(UntrackedCacheIterator i) throws Exception {
+		final Set<String> r = new HashSet<String>();
+		final TreeWalk tw = new TreeWalk(db);
+		tw.reset();
+		tw.setRecursive(true);
+		tw.addTree(i);
+		while (tw.next()) {
+			final String path = tw.getPathString();
+			if (0 <= index.findEntry(path)
+					|| !tw.getTree(0, WorkingTreeIterator.class)
+							.isEntryIgnored())
+				r.add(path);
+		}
+		return r;
+	}
+
+	private static Set<String> set(String... names) {
+		return new HashSet<String>(Arrays.asList(names));
+	}
+}
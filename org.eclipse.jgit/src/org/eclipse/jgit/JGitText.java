@@ -58,10 +58,13 @@ public static JGitText get() {
 		return NLS.getBundleFor(JGitText.class);
 	}
 
+	/***/ public String DIRCBitmapIsCorrupt;
 	/***/ public String DIRCChecksumMismatch;
 	/***/ public String DIRCExtensionIsTooLargeAt;
 	/***/ public String DIRCExtensionNotSupportedByThisVersion;
 	/***/ public String DIRCHasTooManyEntries;
+	/***/ public String DIRCPathCompressionIsInvalid;
+	/***/ public String DIRCUntrackedCacheIsCorrupt;
 	/***/ public String JRELacksMD5Implementation;
 	/***/ public String URINotSupported;
 	/***/ public String URLNotFound;
@@ -136,10 +139,13 @@ public static JGitText get() {
 	/***/ public String commitAlreadyExists;
 	/***/ public String commitMessageNotSpecified;
 	/***/ public String commitOnRepoWithoutHEADCurrentlyNotSupported;
+	/***/ public String computingChangedPaths;
 	/***/ public String compressingObjects;
 	/***/ public String connectionFailed;
 	/***/ public String connectionTimeOut;
 	/***/ public String contextMustBeNonNegative;
+	/***/ public String corruptCommitGraph;
+	/***/ public String corruptCommitSearchIndex;
 	/***/ public String corruptObjectBadStream;
 	/***/ public String corruptObjectBadStreamCorruptHeader;
 	/***/ public String corruptObjectGarbageAfterSize;
@@ -172,9 +178,11 @@ public static JGitText get() {
 	/***/ public String couldNotRenameTemporaryIndexFileToIndex;
 	/***/ public String couldNotURLEncodeToUTF8;
 	/***/ public String couldNotWriteFile;
+	/***/ public String countingCommits;
 	/***/ public String countingObjects;
 	/***/ public String creatingDeltasIsNotImplemented;
 	/***/ public String daemonAlreadyRunning;
+	/***/ public String daemonTooManyConnections;
 	/***/ public String deletingNotSupported;
 	/***/ public String destinationIsNotAWildcard;
 	/***/ public String dirCacheDoesNotHaveABackingFile;
@@ -222,6 +230,7 @@ public static JGitText get() {
 	/***/ public String fileIsTooBigForThisConvenienceMethod;
 	/***/ public String fileIsTooLarge;
 	/***/ public String fileModeNotSetForPath;
+	/***/ public String fileSystemMonitorNotAvailable;
 	/***/ public String flagIsDisposed;
 	/***/ public String flagNotFromThis;
 	/***/ public String flagsAlreadyCreated;
@@ -239,6 +248,7 @@ public static JGitText get() {
 	/***/ public String incorrectObjectType_COMMITnorTREEnorBLOBnorTAG;
 	/***/ public String indexFileIsInUse;
 	/***/ public String indexFileIsTooLargeForJgit;
+	/***/ public String indexingCommits;
 	/***/ public String indexSignatureIsInvalid;
 	/***/ public String integerValueOutOfRange;
 	/***/ public String internalRevisionError;
@@ -381,6 +391,8 @@ public static JGitText get() {
 	/***/ public String requiredHashFunctionNotAvailable;
 	/***/ public String resolvingDeltas;
 	/***/ public String serviceNotPermitted;
+	/***/ public String sharedIndexIsSplit;
+	/***/ public String sharedIndexNotFound;
 	/***/ public String shortCompressedStreamAt;
 	/***/ public String shortReadOfBlock;
 	/***/ public String shortReadOfOptionalDIRCExtensionExpectedAnotherBytes;
@@ -391,6 +403,8 @@ public static JGitText get() {
 	/***/ public String sourceIsNotAWildcard;
 	/***/ public String sourceRefDoesntResolveToAnyObject;
 	/***/ public String sourceRefNotSpecifiedForRefspec;
+	/***/ public String sparseCheckoutPatternNotInConeMode;
+	/***/ public String sparseDirectoryNotExpanded;
 	/***/ public String staleRevFlagsOn;
 	/***/ public String startingReadStageWithoutWrittenRequestDataPendingIsNotSupported;
 	/***/ public String statelessRPCRequiresOptionToBeEnabled;
@@ -430,14 +444,19 @@ public static JGitText get() {
 	/***/ public String unknownZlibError;
 	/***/ public String unmergedPath;
 	/***/ public String unpackError;
+	/***/ public String unreadableCommitGraph;
+	/***/ public String unreadableCommitSearchIndex;
 	/***/ public String unreadablePackIndex;
 	/***/ public String unrecognizedRef;
 	/***/ public String unsupportedCommand0;
+	/***/ public String unsupportedCommitGraphVersion;
+	/***/ public String unsupportedCommitSearchIndexVersion;
 	/***/ public String unsupportedEncryptionAlgorithm;
 	/***/ public String unsupportedEncryptionVersion;
 	/***/ public String unsupportedOperationNotAddAtEnd;
 	/***/ public String unsupportedPackIndexVersion;
 	/***/ public String unsupportedPackVersion;
+	/***/ public String unsupportedRevFilter;
 	/***/ public String updatingRefFailed;
 	/***/ public String userConfigFileInvalid;
 	/***/ public String walkFailure;
@@ -163,8 +163,7 @@ else if (!(path.equals(lastAddedFile))) {
 					if (!(update && tw.getTree(0, DirCacheIterator.class) == null)) {
 						if (f != null) { // the file exists
 							DirCacheEntry entry = new DirCacheEntry(path);
-							entry.setLength((int)f.getEntryLength());
-							entry.setLastModified(f.getEntryLastModified());
+							f.copyStatusTo(entry);
 							entry.setFileMode(f.getEntryFileMode());
 							entry.setObjectId(ow.writeBlob(file));
 
@@ -43,7 +43,6 @@
  */
 package org.eclipse.jgit.api;
 
-import java.io.File;
 import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.LinkedList;
@@ -51,9 +50,11 @@
 
 import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.api.MergeResult.MergeStatus;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheCheckout;
+import org.eclipse.jgit.dircache.SparseCheckout;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Constants;
-import org.eclipse.jgit.lib.GitIndex;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectIdRef;
 import org.eclipse.jgit.lib.Ref;
@@ -61,7 +62,6 @@
 import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.RefUpdate.Result;
 import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.lib.WorkDirCheckout;
 import org.eclipse.jgit.merge.MergeStrategy;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
@@ -165,22 +165,29 @@ public MergeResult call() throws NoHeadException,
 
 	private void checkoutNewHead(RevWalk revWalk, RevCommit headCommit,
 			RevCommit newHeadCommit) throws IOException, CheckoutConflictException {
-		GitIndex index = repo.getIndex();
-
-		File workDir = repo.getWorkTree();
-		if (workDir != null) {
-			WorkDirCheckout workDirCheckout = new WorkDirCheckout(repo,
-					workDir, headCommit.asCommit(revWalk).getTree(), index,
-					newHeadCommit.asCommit(revWalk).getTree());
-			workDirCheckout.setFailOnConflict(true);
+		if (repo.getWorkTree() == null)
+			return;
+
+		DirCache dc = repo.lockDirCache();
+		try {
+			DirCacheCheckout dcCheckout = new DirCacheCheckout(repo, revWalk
+					.parseCommit(headCommit).getTree(), dc, revWalk
+					.parseCommit(newHeadCommit).getTree());
+			dcCheckout.setSparseCheckout(SparseCheckout.read(repo));
 			try {
-				workDirCheckout.checkout();
+				dcCheckout.checkout();
 			} catch (org.eclipse.jgit.errors.CheckoutConflictException e) {
 				throw new CheckoutConflictException(
 						JGitText.get().couldNotCheckOutBecauseOfConflicts,
-						workDirCheckout.getConflicts(), e);
+						dcCheckout.getConflicts(), e);
 			}
-			index.write();
+			dc.write();
+			if (!dc.commit())
+				throw new IOException(MessageFormat.format(
+						JGitText.get().cannotCommitWriteTo, repo
+								.getIndexFile()));
+		} finally {
+			dc.unlock();
 		}
 	}
 
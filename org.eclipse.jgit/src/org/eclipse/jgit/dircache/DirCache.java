@@ -46,31 +46,51 @@
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.errors.UnmergedPathException;
+import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.storage.file.LockFile;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.util.FS;
 import org.eclipse.jgit.util.IO;
 import org.eclipse.jgit.util.MutableInteger;
 import org.eclipse.jgit.util.NB;
+import org.eclipse.jgit.util.RawParseUtils;
 import org.eclipse.jgit.util.TemporaryBuffer;
 
 /**
@@ -91,10 +111,41 @@ public class DirCache {
 
 	private static final int EXT_TREE = 0x54524545 /* 'TREE' */;
 
-	private static final int INFO_LEN = DirCacheEntry.INFO_LEN;
+	private static final int EXT_MONITOR = 0x4a46534d /* 'JFSM' */;
+
+	private static final int EXT_UNTRACKED = 0x4a554e54 /* 'JUNT' */;
+
+	private static final int EXT_LINK = 0x6c696e6b /* 'link' */;
+
+	private static final int EXT_IEOT = 0x49454f54 /* 'IEOT' */;
+
+	private static final int EXT_SPARSE = 0x73646972 /* 'sdir' */;
+
+	private static final int EXT_EOIE = 0x454f4945 /* 'EOIE' */;
+
+	/** Size of the end of index entries extension, without its header. */
+	private static final int EOIE_LEN = 4 + Constants.OBJECT_ID_LENGTH;
+
+	/** Number of entries in a block of the index entry offset table. */
+	private static final int ENTRY_BLOCK_SIZE = 10000;
+
+	private static final int INFO_LEN = DirCacheEntry.INFO_LEN_EXTENDED;
 
 	private static final DirCacheEntry[] NO_ENTRIES = {};
 
+	private static final byte[] NO_PATH = {};
+
+	private static final String SHARED_INDEX_PREFIX = "sharedindex.";
+
+	/**
+	 * Percentage of the entries which may differ from the shared index before
+	 * a new shared index is written.
+	 */
+	private static final int SPLIT_INDEX_MAX_PERCENT_CHANGE = 20;
+
+	/** Time after which unused shared index files are deleted. */
+	private static final long SHARED_INDEX_EXPIRE = 14 * 24 * 60 * 60 * 1000L;
+
 	static final Comparator<DirCacheEntry> ENT_CMP = new Comparator<DirCacheEntry>() {
 		public int compare(final DirCacheEntry o1, final DirCacheEntry o2) {
 			final int cr = cmp(o1, o2);
@@ -219,6 +270,39 @@ public static DirCache lock(final File indexLocation, final FS fs)
 	/** Cache tree for this index; null if the cache tree is not available. */
 	private DirCacheTree tree;
 
+	/** File system monitor token; null if no monitor state is recorded. */
+	private String monitorToken;
+
+	/** Paths that were dirty when {@link #monitorToken} was obtained. */
+	private Set<String> monitorDirtyPaths;
+
+	/** Cached listings of the working directory; null if none is stored. */
+	private UntrackedCache untrackedCache;
+
+	/** Version of the index file format used to write this index. */
+	private int version = 2;
+
+	/** Whether to write a shared index and a file holding only the changes. */
+	private boolean splitIndex;
+
+	/** Checksum of the shared index this index is split from; null if none. */
+	private ObjectId sharedIndexId;
+
+	/** Entries of the shared index, sorted by path name. */
+	private DirCacheEntry[] sharedEntries;
+
+	/** Header information of {@link #sharedEntries}, as stored in the file. */
+	private byte[] sharedInfos;
+
+	/** Executor to read the index in parallel; null to read sequentially. */
+	private ExecutorService readExecutor;
+
+	/** Whether the checksum of the index file is verified when reading. */
+	private boolean verifyChecksum = true;
+
+	/** Number of entries per block of the entry offset table; 0 for none. */
+	private int entryBlockSize = ENTRY_BLOCK_SIZE;
+
 	/** Our active lock (if we hold it); null if we don't have it locked. */
 	private LockFile myLock;
 
@@ -271,6 +355,7 @@ void replace(final DirCacheEntry[] e, final int cnt) {
 		sortedEntries = e;
 		entryCnt = cnt;
 		tree = null;
+		clearMonitorState();
 	}
 
 	/**
@@ -320,11 +405,29 @@ public void clear() {
 		sortedEntries = NO_ENTRIES;
 		entryCnt = 0;
 		tree = null;
+		clearMonitorState();
+		untrackedCache = null;
+		clearSharedIndex();
 	}
 
 	private void readFrom(final FileInputStream inStream) throws IOException,
 			CorruptObjectException {
-		final BufferedInputStream in = new BufferedInputStream(inStream);
+		if (readExecutor == null) {
+			readFrom(new BufferedInputStream(inStream));
+			return;
+		}
+
+		final long sz = inStream.getChannel().size();
+		if (Integer.MAX_VALUE < sz)
+			throw new CorruptObjectException(JGitText.get().DIRCHasTooManyEntries);
+		final byte[] buf = new byte[(int) sz];
+		IO.readFully(inStream, buf, 0, buf.length);
+		if (!readInParallel(buf))
+			readFrom(new ByteArrayInputStream(buf));
+	}
+
+	private void readFrom(final InputStream in) throws IOException,
+			CorruptObjectException {
 		final MessageDigest md = Constants.newMessageDigest();
 
 		// Read the index header and verify we understand it.
@@ -332,22 +435,199 @@ private void readFrom(final FileInputStream inStream) throws IOException,
 		final byte[] hdr = new byte[20];
 		IO.readFully(in, hdr, 0, 12);
 		md.update(hdr, 0, 12);
+		final int ver = readHeader(hdr);
+
+		// Load the individual file entries.
+		//
+		final byte[] infos = new byte[INFO_LEN * entryCnt];
+		sortedEntries = new DirCacheEntry[entryCnt];
+		readEntries(in, md, ver, infos, 0, entryCnt, NO_PATH);
+		lastModified = liveFile.lastModified();
+		final byte[] entriesDigest = digestSoFar(md);
+
+		final byte[] link = readExtensions(in, md, hdr, entriesDigest);
+		verifyChecksum(md.digest(), hdr);
+		finishRead(link);
+	}
+
+	private boolean readInParallel(final byte[] buf) throws IOException {
+		// The end of index entries extension is the last one, and tells
+		// where the extensions start. It holds a hash of the headers of all
+		// extensions, so a coincidental match of its signature is detected.
+		//
+		final int end = buf.length - Constants.OBJECT_ID_LENGTH;
+		final int eoie = end - 8 - EOIE_LEN;
+		if (eoie < 12 || NB.decodeInt32(buf, eoie) != EXT_EOIE
+				|| NB.decodeInt32(buf, eoie + 4) != EOIE_LEN)
+			return false;
+		final int extStart = NB.decodeInt32(buf, eoie + 8);
+		if (extStart < 12 || eoie < extStart)
+			return false;
+
+		final MessageDigest extMd = Constants.newMessageDigest();
+		int ieot = -1;
+		int ieotLen = 0;
+		boolean hasMonitor = false;
+		for (int p = extStart; p < eoie;) {
+			if (eoie - p < 8)
+				return false;
+			final int type = NB.decodeInt32(buf, p);
+			final long len = NB.decodeUInt32(buf, p + 4);
+			extMd.update(buf, p, 8);
+			p += 8;
+			if (eoie - p < len)
+				return false;
+			if (type == EXT_IEOT) {
+				ieot = p;
+				ieotLen = (int) len;
+			} else if (type == EXT_MONITOR)
+				hasMonitor = true;
+			p += (int) len;
+		}
+		final byte[] extHash = extMd.digest();
+		for (int i = 0; i < extHash.length; i++)
+			if (extHash[i] != buf[eoie + 12 + i])
+				return false;
+		if (ieot < 0 || ieotLen < 4 || NB.decodeInt32(buf, ieot) != 1
+				|| (ieotLen - 4) % 8 != 0)
+			return false;
+
+		final byte[] hdr = new byte[20];
+		System.arraycopy(buf, 0, hdr, 0, 12);
+		final int ver = readHeader(hdr);
+
+		// The entry offset table splits the entries into blocks which can
+		// be parsed independently; version 4 restarts the path compression
+		// at the start of each block.
+		//
+		final int blocks = (ieotLen - 4) / 8;
+		if (blocks == 0)
+			return false;
+		final int[] offsets = new int[blocks + 1];
+		final int[] counts = new int[blocks];
+		long total = 0;
+		for (int b = 0; b < blocks; b++) {
+			offsets[b] = NB.decodeInt32(buf, ieot + 4 + b * 8);
+			counts[b] = NB.decodeInt32(buf, ieot + 8 + b * 8);
+			if (counts[b] < 0)
+				return false;
+			if (b == 0 ? offsets[b] != 12 : offsets[b] <= offsets[b - 1])
+				return false;
+			total += counts[b];
+		}
+		offsets[blocks] = extStart;
+		if (total != entryCnt || extStart < offsets[blocks - 1])
+			return false;
+
+		final byte[] infos = new byte[INFO_LEN * entryCnt];
+		sortedEntries = new DirCacheEntry[entryCnt];
+		final boolean needDigest = verifyChecksum || hasMonitor;
+		final Future<byte[][]> digest;
+		if (needDigest)
+			digest = readExecutor.submit(new Callable<byte[][]>() {
+				public byte[][] call() {
+					final MessageDigest md = Constants.newMessageDigest();
+					md.update(buf, 0, extStart);
+					final byte[] entriesDigest = digestSoFar(md);
+					md.update(buf, extStart, end - extStart);
+					return new byte[][] { entriesDigest, md.digest() };
+				}
+			});
+		else
+			digest = null;
+
+		final List<Future<byte[][]>> parsers = new ArrayList<Future<byte[][]>>(
+				blocks);
+		int first = 0;
+		for (int b = 0; b < blocks; b++) {
+			final int start = first;
+			final int cnt = counts[b];
+			final int off = offsets[b];
+			final int len = offsets[b + 1] - off;
+			parsers.add(readExecutor.submit(new Callable<byte[][]>() {
+				public byte[][] call() throws IOException {
+					readEntries(new ByteArrayInputStream(buf, off, len), null,
+							ver, infos, start, cnt, start == 0 ? NO_PATH : null);
+					return null;
+				}
+			}));
+			first += cnt;
+		}
+		for (Future<byte[][]> f : parsers)
+			waitFor(f);
+		lastModified = liveFile.lastModified();
+
+		final byte[][] d = digest != null ? waitFor(digest) : null;
+		final ByteArrayInputStream in = new ByteArrayInputStream(buf,
+				extStart, buf.length - extStart);
+		final byte[] link = readExtensions(in, Constants.newMessageDigest(),
+				hdr, d != null ? d[0] : null);
+		if (d != null)
+			verifyChecksum(d[1], hdr);
+		finishRead(link);
+		return true;
+	}
+
+	private static <T> T waitFor(final Future<T> f) throws IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			InterruptedIOException err = new InterruptedIOException();
+			err.initCause(e);
+			throw err;
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			IOException err = new IOException(cause.getMessage());
+			err.initCause(cause);
+			throw err;
+		}
+	}
+
+	private int readHeader(final byte[] hdr) throws CorruptObjectException {
 		if (!is_DIRC(hdr))
 			throw new CorruptObjectException(JGitText.get().notADIRCFile);
 		final int ver = NB.decodeInt32(hdr, 4);
-		if (ver != 2)
+		if (!isSupportedVersion(ver))
 			throw new CorruptObjectException(MessageFormat.format(JGitText.get().unknownDIRCVersion, ver));
+		version = ver;
 		entryCnt = NB.decodeInt32(hdr, 8);
 		if (entryCnt < 0)
 			throw new CorruptObjectException(JGitText.get().DIRCHasTooManyEntries);
+		return ver;
+	}
 
-		// Load the individual file entries.
+	private void readEntries(final InputStream in, final MessageDigest md,
+			final int ver, final byte[] infos, final int start, final int cnt,
+			byte[] previous) throws IOException {
+		for (int i = start; i < start + cnt; i++) {
+			final DirCacheEntry e = new DirCacheEntry(infos, i * INFO_LEN,
+					in, md, ver, previous);
+			sortedEntries[i] = e;
+			previous = e.path;
+		}
+	}
+
+	private void verifyChecksum(final byte[] exp, final byte[] hdr)
+			throws CorruptObjectException {
+		// An index written without a checksum ends in zeros.
 		//
-		final byte[] infos = new byte[INFO_LEN * entryCnt];
-		sortedEntries = new DirCacheEntry[entryCnt];
-		for (int i = 0; i < entryCnt; i++)
-			sortedEntries[i] = new DirCacheEntry(infos, i * INFO_LEN, in, md);
-		lastModified = liveFile.lastModified();
+		if (!verifyChecksum || ObjectId.zeroId().compareTo(hdr, 0) == 0)
+			return;
+		if (!Arrays.equals(exp, hdr)) {
+			throw new CorruptObjectException(JGitText.get().DIRCChecksumMismatch);
+		}
+	}
+
+	private byte[] readExtensions(final InputStream in,
+			final MessageDigest md, final byte[] hdr,
+			final byte[] entriesDigest) throws IOException {
+		byte[] link = null;
 
 		// After the file entries are index extensions, and then a footer.
 		//
@@ -377,6 +657,45 @@ private void readFrom(final FileInputStream inStream) throws IOException,
 				tree = new DirCacheTree(raw, new MutableInteger(), null);
 				break;
 			}
+			case EXT_MONITOR: {
+				if (Integer.MAX_VALUE < sz) {
+					throw new CorruptObjectException(MessageFormat.format(JGitText.get().DIRCExtensionIsTooLargeAt
+							, formatExtensionName(hdr), sz));
+				}
+				final byte[] raw = new byte[(int) sz];
+				IO.readFully(in, raw, 0, raw.length);
+				md.update(raw, 0, raw.length);
+				readMonitorState(raw, entriesDigest);
+				break;
+			}
+			case EXT_UNTRACKED: {
+				if (Integer.MAX_VALUE < sz) {
+					throw new CorruptObjectException(MessageFormat.format(JGitText.get().DIRCExtensionIsTooLargeAt
+							, formatExtensionName(hdr), sz));
+				}
+				final byte[] raw = new byte[(int) sz];
+				IO.readFully(in, raw, 0, raw.length);
+				md.update(raw, 0, raw.length);
+				untrackedCache = new UntrackedCache(raw);
+				break;
+			}
+			case EXT_LINK: {
+				if (Integer.MAX_VALUE < sz) {
+					throw new CorruptObjectException(MessageFormat.format(JGitText.get().DIRCExtensionIsTooLargeAt
+							, formatExtensionName(hdr), sz));
+				}
+				link = new byte[(int) sz];
+				IO.readFully(in, link, 0, link.length);
+				md.update(link, 0, link.length);
+				break;
+			}
+			case EXT_SPARSE:
+				// The index may hold sparse directory entries. These are
+				// recognized by their mode and path, the extension has no
+				// data of its own.
+				//
+				skipOptionalExtension(in, md, hdr, sz);
+				break;
 			default:
 				if (hdr[0] >= 'A' && hdr[0] <= 'Z') {
 					// The extension is optional and is here only as
@@ -396,9 +715,179 @@ private void readFrom(final FileInputStream inStream) throws IOException,
 			}
 		}
 
-		final byte[] exp = md.digest();
-		if (!Arrays.equals(exp, hdr)) {
-			throw new CorruptObjectException(JGitText.get().DIRCChecksumMismatch);
+		return link;
+	}
+
+	private void finishRead(final byte[] link) throws IOException {
+		if (link != null)
+			readSharedIndex(link);
+
+		// Entries modified within the same timestamp as the index file may
+		// have been modified again after the index was written. Smudge them
+		// in memory so their content is compared before they are trusted.
+		//
+		final int smudge_s = (int) (lastModified / 1000);
+		final int smudge_ns = ((int) (lastModified % 1000)) * 1000000;
+		for (int i = 0; i < entryCnt; i++) {
+			final DirCacheEntry e = sortedEntries[i];
+			if (e.mightBeRacilyClean(smudge_s, smudge_ns))
+				e.smudgeRacilyClean();
+		}
+	}
+
+	private void readSharedIndex(final byte[] link) throws IOException {
+		if (link.length < Constants.OBJECT_ID_LENGTH)
+			throw new CorruptObjectException(JGitText.get().DIRCBitmapIsCorrupt);
+		final ObjectId id = ObjectId.fromRaw(link, 0);
+		final MutableInteger ptr = new MutableInteger();
+		ptr.value = Constants.OBJECT_ID_LENGTH;
+		final BitSet delete = EwahBitmap.read(link, ptr);
+		final BitSet replace = EwahBitmap.read(link, ptr);
+
+		final DirCache base;
+		if (ObjectId.zeroId().equals(id))
+			base = newInCore();
+		else {
+			final File f = getSharedIndexFile(id);
+			if (!f.isFile())
+				throw new CorruptObjectException(MessageFormat.format(
+						JGitText.get().sharedIndexNotFound, f));
+			base = new DirCache(f, fs);
+			base.readExecutor = readExecutor;
+			base.verifyChecksum = verifyChecksum;
+			base.read();
+			if (base.sharedIndexId != null)
+				throw new CorruptObjectException(MessageFormat.format(
+						JGitText.get().sharedIndexIsSplit, f));
+		}
+
+		// Entries of this file first replace the marked entries of the
+		// shared index, in order. The remaining entries are new, and are
+		// merged with the shared entries which were not deleted.
+		//
+		final DirCacheEntry[] delta = sortedEntries;
+		final int deltaCnt = entryCnt;
+		final DirCacheEntry[] kept = new DirCacheEntry[base.entryCnt];
+		int keptCnt = 0;
+		int d = 0;
+		for (int i = 0; i < base.entryCnt; i++) {
+			DirCacheEntry e = base.sortedEntries[i];
+			if (replace.get(i)) {
+				if (d == deltaCnt)
+					throw new CorruptObjectException(JGitText.get().DIRCBitmapIsCorrupt);
+				final DirCacheEntry r = delta[d++];
+				if (r.path.length == 0)
+					e = new DirCacheEntry(r, e.path);
+				else
+					e = r;
+			}
+			if (!delete.get(i))
+				kept[keptCnt++] = e;
+		}
+
+		final DirCacheEntry[] merged = new DirCacheEntry[keptCnt + deltaCnt
+				- d];
+		int k = 0;
+		int n = 0;
+		while (k < keptCnt || d < deltaCnt) {
+			if (d == deltaCnt)
+				merged[n++] = kept[k++];
+			else if (k == keptCnt)
+				merged[n++] = delta[d++];
+			else if (ENT_CMP.compare(kept[k], delta[d]) <= 0)
+				merged[n++] = kept[k++];
+			else
+				merged[n++] = delta[d++];
+		}
+
+		sortedEntries = merged;
+		entryCnt = n;
+		splitIndex = true;
+		setSharedIndex(id, base.sortedEntries, base.entryCnt);
+	}
+
+	private void setSharedIndex(final ObjectId id, final DirCacheEntry[] e,
+			final int cnt) {
+		sharedIndexId = id;
+		sharedEntries = new DirCacheEntry[cnt];
+		sharedInfos = new byte[INFO_LEN * cnt];
+		for (int i = 0; i < cnt; i++) {
+			sharedEntries[i] = e[i];
+			e[i].copyInfoTo(sharedInfos, i * INFO_LEN);
+		}
+	}
+
+	private void clearSharedIndex() {
+		sharedIndexId = null;
+		sharedEntries = null;
+		sharedInfos = null;
+	}
+
+	private File getSharedIndexFile(final AnyObjectId id) {
+		return new File(liveFile.getParentFile(), SHARED_INDEX_PREFIX
+				+ id.name());
+	}
+
+	private static boolean isSupportedVersion(final int ver) {
+		return 2 <= ver && ver <= 4;
+	}
+
+	private void readMonitorState(final byte[] raw, final byte[] entriesDigest) {
+		// The state is only valid for the entries it was recorded with.
+		// If the entries were modified since, the state is discarded.
+		//
+		if (entriesDigest == null)
+			return;
+		final int len = entriesDigest.length;
+		if (raw.length < len)
+			return;
+		for (int i = 0; i < len; i++)
+			if (raw[i] != entriesDigest[i])
+				return;
+
+		int ptr = len;
+		int end = RawParseUtils.next(raw, ptr, '\0');
+		final String token = RawParseUtils.decode(Constants.CHARSET, raw, ptr,
+				end - 1);
+		ptr = end;
+
+		final int cnt = NB.decodeInt32(raw, ptr);
+		ptr += 4;
+		final Set<String> dirty = new HashSet<String>();
+		for (int i = 0; i < cnt; i++) {
+			end = RawParseUtils.next(raw, ptr, '\0');
+			dirty.add(RawParseUtils.decode(Constants.CHARSET, raw, ptr,
+					end - 1));
+			ptr = end;
+		}
+		monitorToken = token;
+		monitorDirtyPaths = dirty;
+	}
+
+	private byte[] encodeMonitorState(final byte[] entriesDigest) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(entriesDigest, 0, entriesDigest.length);
+		final byte[] token = Constants.encode(monitorToken);
+		out.write(token, 0, token.length);
+		out.write(0);
+		final byte[] cnt = new byte[4];
+		NB.encodeInt32(cnt, 0, monitorDirtyPaths.size());
+		out.write(cnt, 0, cnt.length);
+		for (String path : monitorDirtyPaths) {
+			final byte[] p = Constants.encode(path);
+			out.write(p, 0, p.length);
+			out.write(0);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] digestSoFar(final MessageDigest md) {
+		try {
+			return ((MessageDigest) md.clone()).digest();
+		} catch (CloneNotSupportedException e) {
+			// The standard SHA-1 implementation supports cloning.
+			//
+			throw new RuntimeException(e);
 		}
 	}
 
@@ -485,6 +974,60 @@ public void write() throws IOException {
 	}
 
 	private void writeTo(final OutputStream os) throws IOException {
+		if (0 < lastModified) {
+			final int smudge_s = (int) (lastModified / 1000);
+			final int smudge_ns = ((int) (lastModified % 1000)) * 1000000;
+			for (int i = 0; i < entryCnt; i++) {
+				final DirCacheEntry e = sortedEntries[i];
+				if (e.mightBeRacilyClean(smudge_s, smudge_ns))
+					e.smudgeRacilyClean();
+			}
+		}
+
+		// Extended flags are not known to version 2.
+		//
+		int ver = version;
+		if (ver < 3) {
+			for (int i = 0; i < entryCnt; i++) {
+				if (sortedEntries[i].isExtended()) {
+					ver = 3;
+					break;
+				}
+			}
+		}
+
+		if (!splitIndex) {
+			clearSharedIndex();
+			writeTo(os, ver, sortedEntries, entryCnt, 0, null, true);
+			return;
+		}
+
+		SplitDelta delta = null;
+		if (sharedEntries != null) {
+			delta = new SplitDelta();
+			if (delta.changes() * 100L > SPLIT_INDEX_MAX_PERCENT_CHANGE
+					* (long) entryCnt)
+				delta = null;
+		}
+		if (delta == null) {
+			writeSharedIndex(ver);
+			delta = new SplitDelta();
+		}
+
+		final ByteArrayOutputStream link = new ByteArrayOutputStream();
+		final byte[] id = new byte[Constants.OBJECT_ID_LENGTH];
+		sharedIndexId.copyRawTo(id, 0);
+		link.write(id, 0, id.length);
+		EwahBitmap.write(delta.delete, sharedEntries.length, link);
+		EwahBitmap.write(delta.replace, sharedEntries.length, link);
+		writeTo(os, ver, delta.entries, delta.count, delta.replacedCnt,
+				link.toByteArray(), true);
+	}
+
+	private byte[] writeTo(final OutputStream os, final int ver,
+			final DirCacheEntry[] entries, final int cnt,
+			final int namelessCnt, final byte[] link, final boolean extensions)
+			throws IOException {
 		final MessageDigest foot = Constants.newMessageDigest();
 		final DigestOutputStream dos = new DigestOutputStream(os, foot);
 
@@ -492,29 +1035,59 @@ private void writeTo(final OutputStream os) throws IOException {
 		//
 		final byte[] tmp = new byte[128];
 		System.arraycopy(SIG_DIRC, 0, tmp, 0, SIG_DIRC.length);
-		NB.encodeInt32(tmp, 4, /* version */2);
-		NB.encodeInt32(tmp, 8, entryCnt);
+		NB.encodeInt32(tmp, 4, ver);
+		NB.encodeInt32(tmp, 8, cnt);
 		dos.write(tmp, 0, 12);
 
-		// Write the individual file entries.
+		// Write the individual file entries. Entries replacing an entry of
+		// the shared index are written without a name, as it is implied.
+		// Large indexes are split into blocks which readers can parse in
+		// parallel, so path compression restarts at each block.
 		//
-		if (lastModified <= 0) {
-			// Write a new index, as no entries require smudging.
-			//
-			for (int i = 0; i < entryCnt; i++)
-				sortedEntries[i].write(dos);
-		} else {
-			final int smudge_s = (int) (lastModified / 1000);
-			final int smudge_ns = ((int) (lastModified % 1000)) * 1000000;
-			for (int i = 0; i < entryCnt; i++) {
-				final DirCacheEntry e = sortedEntries[i];
-				if (e.mightBeRacilyClean(smudge_s, smudge_ns))
-					e.smudgeRacilyClean();
-				e.write(dos);
+		final boolean blocked = 0 < entryBlockSize && entryBlockSize <= cnt / 2;
+		final ByteArrayOutputStream ieot = new ByteArrayOutputStream();
+		int offset = 12;
+		byte[] previous = NO_PATH;
+		for (int i = 0; i < cnt; i++) {
+			if (blocked && i % entryBlockSize == 0) {
+				NB.encodeInt32(tmp, 0, offset);
+				NB.encodeInt32(tmp, 4, Math.min(entryBlockSize, cnt - i));
+				ieot.write(tmp, 0, 8);
+				if (0 < previous.length) {
+					// Have nothing in common with the previous name, as
+					// readers of the block do not know it.
+					//
+					previous = previous.clone();
+					previous[0] = 0;
+				}
 			}
+			final DirCacheEntry e = entries[i];
+			final byte[] name = i < namelessCnt ? NO_PATH : e.path;
+			offset += e.write(dos, ver, name, previous);
+			previous = name;
 		}
+		final byte[] entriesDigest = digestSoFar(foot);
+		final MessageDigest extMd = Constants.newMessageDigest();
 
-		if (tree != null) {
+		if (link != null) {
+			NB.encodeInt32(tmp, 0, EXT_LINK);
+			NB.encodeInt32(tmp, 4, link.length);
+			dos.write(tmp, 0, 8);
+			extMd.update(tmp, 0, 8);
+			dos.write(link, 0, link.length);
+		}
+
+		for (int i = 0; i < cnt; i++) {
+			if (entries[i].isSparseDirectory()) {
+				NB.encodeInt32(tmp, 0, EXT_SPARSE);
+				NB.encodeInt32(tmp, 4, 0);
+				dos.write(tmp, 0, 8);
+				extMd.update(tmp, 0, 8);
+				break;
+			}
+		}
+
+		if (extensions && tree != null) {
 			final TemporaryBuffer bb = new TemporaryBuffer.LocalFile();
 			tree.write(tmp, bb);
 			bb.close();
@@ -522,11 +1095,150 @@ private void writeTo(final OutputStream os) throws IOException {
 			NB.encodeInt32(tmp, 0, EXT_TREE);
 			NB.encodeInt32(tmp, 4, (int) bb.length());
 			dos.write(tmp, 0, 8);
+			extMd.update(tmp, 0, 8);
 			bb.writeTo(dos, null);
 		}
 
-		os.write(foot.digest());
+		if (extensions) {
+			if (monitorToken != null) {
+				final byte[] raw = encodeMonitorState(entriesDigest);
+				NB.encodeInt32(tmp, 0, EXT_MONITOR);
+				NB.encodeInt32(tmp, 4, raw.length);
+				dos.write(tmp, 0, 8);
+				extMd.update(tmp, 0, 8);
+				dos.write(raw, 0, raw.length);
+			}
+
+			if (untrackedCache != null) {
+				final byte[] raw = untrackedCache.toByteArray();
+				NB.encodeInt32(tmp, 0, EXT_UNTRACKED);
+				NB.encodeInt32(tmp, 4, raw.length);
+				dos.write(tmp, 0, 8);
+				extMd.update(tmp, 0, 8);
+				dos.write(raw, 0, raw.length);
+			}
+		}
+
+		if (blocked) {
+			NB.encodeInt32(tmp, 0, EXT_IEOT);
+			NB.encodeInt32(tmp, 4, 4 + ieot.size());
+			NB.encodeInt32(tmp, 8, /* version */1);
+			dos.write(tmp, 0, 12);
+			extMd.update(tmp, 0, 8);
+			ieot.writeTo(dos);
+
+			// The end of index entries extension must be the last one.
+			//
+			NB.encodeInt32(tmp, 0, EXT_EOIE);
+			NB.encodeInt32(tmp, 4, EOIE_LEN);
+			NB.encodeInt32(tmp, 8, offset);
+			dos.write(tmp, 0, 12);
+			dos.write(extMd.digest());
+		}
+
+		final byte[] checksum = foot.digest();
+		os.write(checksum);
 		os.close();
+		return checksum;
+	}
+
+	private void writeSharedIndex(final int ver) throws IOException {
+		final File dir = liveFile.getParentFile();
+		final File tmp = File.createTempFile(SHARED_INDEX_PREFIX, null, dir);
+		try {
+			final byte[] checksum = writeTo(new BufferedOutputStream(
+					new FileOutputStream(tmp)), ver, sortedEntries, entryCnt,
+					0, null, false);
+			final ObjectId id = ObjectId.fromRaw(checksum);
+			final File dst = getSharedIndexFile(id);
+			if (!tmp.renameTo(dst) && !dst.isFile())
+				throw new IOException(MessageFormat.format(
+						JGitText.get().couldNotWriteFile, dst));
+			setSharedIndex(id, sortedEntries, entryCnt);
+			deleteExpiredSharedIndexes(dst);
+		} finally {
+			if (tmp.exists() && !tmp.delete())
+				tmp.deleteOnExit();
+		}
+	}
+
+	private void deleteExpiredSharedIndexes(final File current) {
+		final File[] files = current.getParentFile().listFiles();
+		if (files == null)
+			return;
+		final long expire = System.currentTimeMillis() - SHARED_INDEX_EXPIRE;
+		for (File f : files) {
+			if (f.getName().startsWith(SHARED_INDEX_PREFIX)
+					&& !f.equals(current) && f.lastModified() < expire)
+				f.delete();
+		}
+	}
+
+	/** Difference between the entries and the shared index. */
+	private class SplitDelta {
+		/** Shared entries which are removed from the index. */
+		final BitSet delete = new BitSet();
+
+		/** Shared entries which are replaced by a modified entry. */
+		final BitSet replace = new BitSet();
+
+		/** Replacing entries in shared index order, then the new entries. */
+		final DirCacheEntry[] entries;
+
+		/** Number of valid positions in {@link #entries}. */
+		int count;
+
+		/** Number of replacing entries at the start of {@link #entries}. */
+		int replacedCnt;
+
+		private int deleteCnt;
+
+		SplitDelta() {
+			final DirCacheEntry[] added = new DirCacheEntry[DirCache.this.entryCnt];
+			int addedCnt = 0;
+			entries = new DirCacheEntry[DirCache.this.entryCnt];
+
+			int i = 0;
+			int j = 0;
+			while (i < sharedEntries.length || j < DirCache.this.entryCnt) {
+				final int cr;
+				if (i == sharedEntries.length)
+					cr = 1;
+				else if (j == DirCache.this.entryCnt)
+					cr = -1;
+				else
+					cr = compareShared(i, sortedEntries[j]);
+
+				if (cr < 0) {
+					delete.set(i++);
+					deleteCnt++;
+				} else if (0 < cr)
+					added[addedCnt++] = sortedEntries[j++];
+				else {
+					final DirCacheEntry e = sortedEntries[j++];
+					if (!e.isSameInfo(sharedInfos, i * INFO_LEN)) {
+						replace.set(i);
+						entries[replacedCnt++] = e;
+					}
+					i++;
+				}
+			}
+			System.arraycopy(added, 0, entries, replacedCnt, addedCnt);
+			count = replacedCnt + addedCnt;
+		}
+
+		int changes() {
+			return count + deleteCnt;
+		}
+
+		private int compareShared(final int i, final DirCacheEntry e) {
+			final int cr = cmp(sharedEntries[i].path,
+					sharedEntries[i].path.length, e);
+			if (cr != 0)
+				return cr;
+			return DirCacheEntry.getStage(sharedInfos, i * INFO_LEN)
+					- e.getStage();
+		}
 	}
 
 	/**
@@ -571,6 +1283,173 @@ public void unlock() {
 		}
 	}
 
+	/**
+	 * Get the file system monitor token recorded in this index.
+	 *
+	 * @return the token recorded by {@link #setMonitorState(String, Collection)};
+	 *         null if no state is recorded, or the entries were modified since
+	 *         it was recorded.
+	 */
+	public String getMonitorToken() {
+		return monitorToken;
+	}
+
+	/**
+	 * Get the paths that were dirty when the monitor token was obtained.
+	 *
+	 * @return paths that differed from this index when the token returned by
+	 *         {@link #getMonitorToken()} was obtained. Empty if no state is
+	 *         recorded.
+	 */
+	public Set<String> getMonitorDirtyPaths() {
+		if (monitorDirtyPaths == null)
+			return Collections.emptySet();
+		return Collections.unmodifiableSet(monitorDirtyPaths);
+	}
+
+	/**
+	 * Record the state of a file system monitor in this index.
+	 * <p>
+	 * The state is written as an optional index extension, and describes the
+	 * entries of this index at the time it is written. Any later update of the
+	 * entries discards it.
+	 *
+	 * @param token
+	 *            the monitor's token, obtained before the working directory
+	 *            was compared to this index.
+	 * @param dirtyPaths
+	 *            paths which differed from this index during that comparison.
+	 */
+	public void setMonitorState(final String token,
+			final Collection<String> dirtyPaths) {
+		monitorToken = token;
+		monitorDirtyPaths = new HashSet<String>(dirtyPaths);
+	}
+
+	/**
+	 * Get the cached listings of the working directory.
+	 * <p>
+	 * Unlike the other information stored in the index, the cached listings
+	 * do not depend on the entries of the index and are kept when the entries
+	 * are modified.
+	 *
+	 * @return the cached listings stored in this index; null if none.
+	 */
+	public UntrackedCache getUntrackedCache() {
+		return untrackedCache;
+	}
+
+	/**
+	 * Set the cached listings of the working directory.
+	 *
+	 * @param cache
+	 *            the cached listings to store in this index when it is
+	 *            written; null to remove them.
+	 */
+	public void setUntrackedCache(UntrackedCache cache) {
+		untrackedCache = cache;
+	}
+
+	/**
+	 * Get the version of the index file format used to write this index.
+	 * <p>
+	 * Version 4 compresses each path against the path of the previous entry,
+	 * making the file considerably smaller for deep directory structures.
+	 * The version of an index read from disk is kept when it is written.
+	 *
+	 * @return the index file format version; 2, 3 or 4. Version 3 is used
+	 *         instead of 2 if an entry has extended flags.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Set the version of the index file format used to write this index.
+	 *
+	 * @param version
+	 *            the index file format version; 2, 3 or 4.
+	 * @throws IllegalArgumentException
+	 *             the version is not supported by this library.
+	 */
+	public void setVersion(final int version) {
+		if (!isSupportedVersion(version))
+			throw new IllegalArgumentException(MessageFormat.format(
+					JGitText.get().unknownDIRCVersion, version));
+		this.version = version;
+	}
+
+	/**
+	 * Check if this index is written as a split index.
+	 *
+	 * @return true if the entries are written to a shared index, and the
+	 *         index file only holds the entries differing from it.
+	 */
+	public boolean isSplitIndex() {
+		return splitIndex;
+	}
+
+	/**
+	 * Set whether this index is written as a split index.
+	 * <p>
+	 * A split index stores most entries in a shared index file next to the
+	 * index file, named after its checksum. The index file itself only holds
+	 * the entries which were added, modified or removed since the shared index
+	 * was written, keeping updates of large indexes small. Once too many
+	 * entries differ, a new shared index is written.
+	 *
+	 * @param split
+	 *            true to write a split index; false to write all entries to
+	 *            the index file.
+	 */
+	public void setSplitIndex(final boolean split) {
+		splitIndex = split;
+	}
+
+	/**
+	 * Set the executor used to read the index.
+	 * <p>
+	 * Large index files record where blocks of their entries start. With an
+	 * executor, these blocks are parsed concurrently, while the checksum of
+	 * the file is verified by another task. Files without such a table are
+	 * read sequentially.
+	 *
+	 * @param executor
+	 *            executor to read the index with; null to read it in the
+	 *            calling thread.
+	 */
+	public void setReadExecutor(final ExecutorService executor) {
+		readExecutor = executor;
+	}
+
+	/**
+	 * Set whether the checksum of the index file is verified when reading.
+	 * <p>
+	 * Without verification, a file system monitor state recorded in the index
+	 * may not be usable, as it is validated against a digest of the entries.
+	 *
+	 * @param verify
+	 *            false to trust the index file without verifying it.
+	 */
+	public void setVerifyChecksum(final boolean verify) {
+		verifyChecksum = verify;
+	}
+
+	/**
+	 * Set the number of entries per block of the entry offset table.
+	 *
+	 * @param size
+	 *            number of entries per block; 0 to write no table.
+	 */
+	void setEntryBlockSize(final int size) {
+		entryBlockSize = size;
+	}
+
+	private void clearMonitorState() {
+		monitorToken = null;
+		monitorDirtyPaths = null;
+	}
+
 	/**
 	 * Locate the position a path's entry is at in the index.
 	 * <p>
@@ -754,6 +1633,141 @@ public ObjectId writeTree(final ObjectInserter ow)
 		return getCacheTree(true).writeTree(sortedEntries, 0, 0, ow);
 	}
 
+	/**
+	 * Tells whether this index is a sparse index.
+	 *
+	 * @return true if at least one entry stands for a whole directory.
+	 * @see DirCacheEntry#isSparseDirectory()
+	 */
+	public boolean isSparse() {
+		for (int i = 0; i < entryCnt; i++)
+			if (sortedEntries[i].isSparseDirectory())
+				return true;
+		return false;
+	}
+
+	/**
+	 * Replace the directories outside of a sparse checkout by single entries.
+	 * <p>
+	 * Each directory that has no file included in the sparse checkout is
+	 * represented by one entry naming the directory's tree, instead of one
+	 * entry per file, making the index proportional to the size of the sparse
+	 * checkout instead of the size of the repository. The tree ids are taken
+	 * from the cache tree, so a directory is only collapsed if its id is
+	 * known, e.g. after {@link #writeTree(ObjectInserter)}, and if it has no
+	 * unmerged paths.
+	 * <p>
+	 * Sparse directories are presented as subtrees by {@link DirCacheIterator}
+	 * and written as such by {@link #writeTree(ObjectInserter)}, but cannot be
+	 * descended into. Code that needs the files of such a directory must
+	 * {@link #expand(ObjectReader)} the index first.
+	 *
+	 * @param sparse
+	 *            the sparse checkout.
+	 * @return true if at least one directory was collapsed.
+	 */
+	public boolean collapse(final SparseCheckout sparse) {
+		final DirCacheTree root = getCacheTree(true);
+		final List<DirCacheEntry> r = new ArrayList<DirCacheEntry>(entryCnt);
+		collapse(root, 0, 0, sparse, r);
+
+		boolean changed = r.size() != entryCnt;
+		for (int i = 0; !changed && i < entryCnt; i++)
+			changed = r.get(i) != sortedEntries[i];
+		if (!changed)
+			return false;
+		replace(r.toArray(new DirCacheEntry[r.size()]), r.size());
+		return true;
+	}
+
+	private void collapse(final DirCacheTree t, int cIdx, final int pathOff,
+			final SparseCheckout sparse, final List<DirCacheEntry> r) {
+		final int endIdx = cIdx + t.getEntrySpan();
+		int childIdx = 0;
+		while (cIdx < endIdx) {
+			final DirCacheEntry e = sortedEntries[cIdx];
+			if (childIdx < t.getChildCount()) {
+				final DirCacheTree st = t.getChild(childIdx);
+				final byte[] ep = e.path;
+				if (st.contains(ep, pathOff, ep.length)) {
+					final int stOff = pathOff + st.nameLength() + 1;
+					final String dir = st.getPathString();
+					if (st.getEntrySpan() == 1 && e.isSparseDirectory()
+							&& ep.length == stOff)
+						r.add(e);
+					else if (isCollapsible(st, cIdx)
+							&& sparse.matchDirectory(dir.substring(0, dir
+									.length() - 1)) == SparseCheckout.Match.EXCLUDED)
+						r.add(new DirCacheEntry(Constants.encode(dir), st
+								.getObjectId()));
+					else
+						collapse(st, cIdx, stOff, sparse, r);
+					cIdx += st.getEntrySpan();
+					childIdx++;
+					continue;
+				}
+			}
+			r.add(e);
+			cIdx++;
+		}
+	}
+
+	private boolean isCollapsible(final DirCacheTree t, final int cIdx) {
+		if (!t.isValid())
+			return false;
+		final int endIdx = cIdx + t.getEntrySpan();
+		for (int i = cIdx; i < endIdx; i++)
+			if (sortedEntries[i].getStage() != 0
+					|| sortedEntries[i].isIntentToAdd())
+				return false;
+		return true;
+	}
+
+	/**
+	 * Replace the sparse directories of this index by the files they contain.
+	 * <p>
+	 * The entries created for the files are marked to skip the working
+	 * directory, as they are outside of the sparse checkout.
+	 *
+	 * @param reader
+	 *            reader to load the trees of the sparse directories.
+	 * @return true if at least one directory was expanded.
+	 * @throws IOException
+	 *             a tree cannot be read from the object store.
+	 */
+	public boolean expand(final ObjectReader reader) throws IOException {
+		List<DirCacheEntry> r = null;
+		for (int i = 0; i < entryCnt; i++) {
+			final DirCacheEntry e = sortedEntries[i];
+			if (!e.isSparseDirectory()) {
+				if (r != null)
+					r.add(e);
+				continue;
+			}
+			if (r == null) {
+				r = new ArrayList<DirCacheEntry>(entryCnt * 2);
+				r.addAll(Arrays.asList(sortedEntries).subList(0, i));
+			}
+
+			final TreeWalk tw = new TreeWalk(reader);
+			tw.reset();
+			tw.addTree(new CanonicalTreeParser(e.path, reader, e
+					.getObjectId()));
+			tw.setRecursive(true);
+			while (tw.next()) {
+				final DirCacheEntry n = new DirCacheEntry(tw.getRawPath());
+				n.setFileMode(tw.getFileMode(0));
+				n.setObjectId(tw.getObjectId(0));
+				n.setSkipWorkTree(true);
+				r.add(n);
+			}
+		}
+		if (r == null)
+			return false;
+		replace(r.toArray(new DirCacheEntry[r.size()]), r.size());
+		return true;
+	}
+
 	/**
 	 * Tells whether this index contains unmerged paths.
 	 *
@@ -0,0 +1,407 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.dircache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import org.eclipse.jgit.errors.CheckoutConflictException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Checks out a tree on top of another one, updating the index and the
+ * working directory.
+ * <p>
+ * This is the two tree checkout done by a fast-forward merge: paths which
+ * are the same in both trees keep their index entry and file, the others are
+ * replaced by the new tree's version. A path is a conflict if its index entry
+ * or file has been changed from the old tree, or if an untracked file is in
+ * the way. If there are conflicts nothing is changed.
+ * <p>
+ * The index may be sparse. Sparse directories which differ between the trees
+ * are expanded, and the index is collapsed again afterwards. Entries marked to
+ * skip the working directory, and paths outside of the sparse checkout, are
+ * only updated in the index.
+ * <p>
+ * The caller locks the index before the checkout, and writes and commits it
+ * afterwards.
+ */
+public class DirCacheCheckout {
+	private static final int HEAD = 0;
+
+	private static final int MERGE = 1;
+
+	private static final int INDEX = 2;
+
+	private static final int WORKDIR = 3;
+
+	/** Selects the paths which differ between the two trees. */
+	private static final TreeFilter TREES_DIFFER = new TreeFilter() {
+		@Override
+		public boolean include(TreeWalk walker) {
+			return walker.getRawMode(HEAD) != walker.getRawMode(MERGE)
+					|| !walker.idEqual(HEAD, MERGE);
+		}
+
+		@Override
+		public boolean shouldBeRecursive() {
+			return false;
+		}
+
+		@Override
+		public TreeFilter clone() {
+			return this;
+		}
+	};
+
+	private final Repository repo;
+
+	private final File root;
+
+	private final AnyObjectId headTree;
+
+	private final DirCache dc;
+
+	private final AnyObjectId mergeTree;
+
+	private final boolean checkFilemode;
+
+	private SparseCheckout sparseCheckout;
+
+	private ExecutorService executor;
+
+	private final List<String> conflicts = new ArrayList<String>();
+
+	private final List<String> removed = new ArrayList<String>();
+
+	private final Set<String> toDelete = new HashSet<String>();
+
+	private final List<DirCacheEntry> toCheckout = new ArrayList<DirCacheEntry>();
+
+	/**
+	 * Create a checkout of one tree on top of another.
+	 *
+	 * @param repo
+	 *            repository whose working directory is updated.
+	 * @param headTree
+	 *            tree currently checked out.
+	 * @param dc
+	 *            the repository's index, locked and read.
+	 * @param mergeTree
+	 *            tree to check out.
+	 */
+	public DirCacheCheckout(Repository repo, AnyObjectId headTree,
+			DirCache dc, AnyObjectId mergeTree) {
+		this.repo = repo;
+		this.root = repo.getWorkTree();
+		this.headTree = headTree;
+		this.dc = dc;
+		this.mergeTree = mergeTree;
+		this.checkFilemode = repo.getConfig().getBoolean(
+				ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_FILEMODE, true);
+	}
+
+	/**
+	 * Restrict the working directory to a sparse checkout.
+	 * <p>
+	 * Files outside of the sparse checkout are updated in the index only, and
+	 * marked to skip the working directory.
+	 *
+	 * @param sparse
+	 *            the sparse checkout, see {@link SparseCheckout#read(Repository)};
+	 *            null to check out all files.
+	 */
+	public void setSparseCheckout(SparseCheckout sparse) {
+		this.sparseCheckout = sparse;
+	}
+
+	/**
+	 * Set the executor used to write files to the working directory.
+	 * <p>
+	 * Without an executor, files are written by as many threads as configured
+	 * by <code>checkout.workers</code>, if at least
+	 * <code>checkout.thresholdForParallelism</code> files are checked out. By
+	 * default they are written sequentially.
+	 *
+	 * @param executor
+	 *            executor to write files with; null to use the repository
+	 *            configuration.
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/** @return paths which prevented the checkout. */
+	public List<String> getConflicts() {
+		return conflicts;
+	}
+
+	/** @return paths removed from the index by the checkout. */
+	public List<String> getRemoved() {
+		return removed;
+	}
+
+	/**
+	 * Execute this checkout.
+	 * <p>
+	 * On success the index held in memory is updated; the caller still has to
+	 * write and commit it.
+	 *
+	 * @throws CheckoutConflictException
+	 *             paths conflict with the checkout, see
+	 *             {@link #getConflicts()}. Neither the index nor the working
+	 *             directory have been changed.
+	 * @throws IOException
+	 *             objects cannot be read, or files cannot be written.
+	 */
+	public void checkout() throws IOException {
+		final ObjectReader reader = repo.newObjectReader();
+		final boolean sparseIndex = dc.isSparse();
+		final DirCacheBuilder builder;
+		try {
+			if (sparseIndex)
+				expandChangedDirectories(reader);
+
+			builder = dc.builder();
+			final TreeWalk tw = new TreeWalk(reader);
+			tw.reset();
+			tw.setRecursive(true);
+			tw.setFilter(TREES_DIFFER);
+			tw.addTree(headTree);
+			tw.addTree(mergeTree);
+			tw.addTree(new DirCacheBuildIterator(builder));
+			tw.addTree(new FileTreeIterator(repo));
+			while (tw.next())
+				processEntry(tw, builder);
+		} finally {
+			reader.release();
+		}
+		checkWorkDirPaths();
+		if (!conflicts.isEmpty())
+			throw new CheckoutConflictException(conflicts
+					.toArray(new String[conflicts.size()]));
+
+		builder.finish();
+		for (String path : toDelete) {
+			final File file = new File(root, path);
+			file.delete();
+			removeEmptyParents(file);
+		}
+		checkoutEntries();
+
+		if (sparseIndex && sparseCheckout != null) {
+			final ObjectInserter ins = repo.newObjectInserter();
+			try {
+				dc.writeTree(ins);
+				ins.flush();
+			} finally {
+				ins.release();
+			}
+			dc.collapse(sparseCheckout);
+		}
+	}
+
+	private void expandChangedDirectories(ObjectReader reader)
+			throws IOException {
+		for (int i = 0; i < dc.getEntryCount(); i++) {
+			final DirCacheEntry e = dc.getEntry(i);
+			if (!e.isSparseDirectory())
+				continue;
+			final String path = e.getPathString();
+			final TreeWalk tw = TreeWalk.forPath(reader, path.substring(0,
+					path.length() - 1), headTree, mergeTree);
+			if (tw == null || !tw.idEqual(HEAD, MERGE)
+					|| tw.getRawMode(HEAD) != tw.getRawMode(MERGE)) {
+				dc.expand(reader);
+				return;
+			}
+		}
+	}
+
+	private void processEntry(TreeWalk tw, DirCacheBuilder builder)
+			throws IOException {
+		final DirCacheIterator i = tw.getTree(INDEX, DirCacheIterator.class);
+		final WorkingTreeIterator f = tw.getTree(WORKDIR,
+				WorkingTreeIterator.class);
+		final DirCacheEntry e = i != null ? i.getDirCacheEntry() : null;
+		final String path = tw.getPathString();
+		final boolean hasHead = tw.getRawMode(HEAD) != 0;
+		final boolean hasMerge = tw.getRawMode(MERGE) != 0;
+		final boolean inWorkDir = isIncluded(path)
+				&& (e == null || !e.isSkipWorkTree());
+
+		if (e == null) {
+			// Without an index entry the path is either removed from the
+			// index already, or new in the merged tree. A staged removal of
+			// a path the merged tree changes is a conflict, and a new file
+			// must not overwrite an untracked one.
+			if (!hasMerge)
+				return;
+			if (hasHead || (inWorkDir && f != null))
+				conflicts.add(path);
+			else
+				update(tw, path, inWorkDir, builder);
+			return;
+		}
+
+		if (e.getStage() != DirCacheEntry.STAGE_0) {
+			conflicts.add(path);
+			return;
+		}
+
+		if (matches(tw, MERGE)) {
+			builder.add(e);
+		} else if (!matches(tw, HEAD)
+				|| (inWorkDir && f != null && isModified(tw, i, f)))
+			conflicts.add(path);
+		else if (!hasMerge) {
+			removed.add(path);
+			if (inWorkDir && f != null)
+				toDelete.add(path);
+		} else
+			update(tw, path, inWorkDir, builder);
+	}
+
+	private static boolean matches(TreeWalk tw, int tree) {
+		return tw.getRawMode(tree) != 0
+				&& tw.getRawMode(tree) == tw.getRawMode(INDEX)
+				&& tw.idEqual(tree, INDEX);
+	}
+
+	private boolean isModified(TreeWalk tw, DirCacheIterator i,
+			WorkingTreeIterator f) {
+		final int index = tw.getRawMode(INDEX) & FileMode.TYPE_MASK;
+		final int workDir = tw.getRawMode(WORKDIR) & FileMode.TYPE_MASK;
+		if (index != FileMode.TYPE_FILE || workDir != FileMode.TYPE_FILE)
+			return !i.idEqual(f);
+		return f.isModified(i.getDirCacheEntry(), true, checkFilemode, repo
+				.getFS());
+	}
+
+	private void update(TreeWalk tw, String path, boolean inWorkDir,
+			DirCacheBuilder builder) {
+		final DirCacheEntry n = new DirCacheEntry(tw.getRawPath());
+		n.setFileMode(tw.getFileMode(MERGE));
+		n.setObjectId(tw.getObjectId(MERGE));
+		if (inWorkDir)
+			toCheckout.add(n);
+		else
+			n.setSkipWorkTree(true);
+		builder.add(n);
+	}
+
+	private boolean isIncluded(String path) {
+		return sparseCheckout == null || sparseCheckout.isIncluded(path);
+	}
+
+	/**
+	 * Find untracked files in the way of the files to write: directories at
+	 * their paths, and files at the paths of their parent directories.
+	 */
+	private void checkWorkDirPaths() {
+		for (DirCacheEntry e : toCheckout) {
+			final String path = e.getPathString();
+			final File file = new File(root, path);
+			if (file.isDirectory())
+				checkUntracked(file, path);
+
+			int s = path.lastIndexOf('/');
+			while (s > 0) {
+				final String parent = path.substring(0, s);
+				if (new File(root, parent).isFile()
+						&& !toDelete.contains(parent)) {
+					conflicts.add(parent);
+					break;
+				}
+				s = parent.lastIndexOf('/');
+			}
+		}
+	}
+
+	private void checkUntracked(File dir, String path) {
+		final File[] list = dir.listFiles();
+		if (list == null)
+			return;
+		for (File f : list) {
+			final String p = path + "/" + f.getName();
+			if (f.isDirectory())
+				checkUntracked(f, p);
+			else if (!toDelete.contains(p))
+				conflicts.add(p);
+		}
+	}
+
+	private void removeEmptyParents(File f) {
+		File parentFile = f.getParentFile();
+		while (!parentFile.equals(root)) {
+			final String[] list = parentFile.list();
+			if (list == null || list.length != 0 || !parentFile.delete())
+				break;
+			parentFile = parentFile.getParentFile();
+		}
+	}
+
+	private void checkoutEntries() throws IOException {
+		final ParallelCheckout pc = new ParallelCheckout(repo, root, executor);
+		for (DirCacheEntry e : toCheckout)
+			pc.add(e);
+		toCheckout.clear();
+		pc.run();
+	}
+}
@@ -57,6 +57,7 @@
 import java.util.Arrays;
 
 import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
@@ -85,7 +86,7 @@ public class DirCacheEntry {
 	/** The second tree revision (usually called "theirs"). */
 	public static final int STAGE_3 = 3;
 
-	// private static final int P_CTIME = 0;
+	private static final int P_CTIME = 0;
 
 	// private static final int P_CTIME_NSEC = 4;
 
@@ -93,15 +94,15 @@ public class DirCacheEntry {
 
 	// private static final int P_MTIME_NSEC = 12;
 
-	// private static final int P_DEV = 16;
+	private static final int P_DEV = 16;
 
-	// private static final int P_INO = 20;
+	private static final int P_INO = 20;
 
 	private static final int P_MODE = 24;
 
-	// private static final int P_UID = 28;
+	private static final int P_UID = 28;
 
-	// private static final int P_GID = 32;
+	private static final int P_GID = 32;
 
 	private static final int P_SIZE = 36;
 
@@ -109,14 +110,28 @@ public class DirCacheEntry {
 
 	private static final int P_FLAGS = 60;
 
+	private static final int P_FLAGS2 = 62;
+
 	/** Mask applied to data in {@link #P_FLAGS} to get the name length. */
 	private static final int NAME_MASK = 0xfff;
 
 	static final int INFO_LEN = 62;
 
+	/** Size of the header information of an entry with extended flags. */
+	static final int INFO_LEN_EXTENDED = 64;
+
 	private static final int ASSUME_VALID = 0x80;
 
-	private static final int UPDATE_NEEDED = 0x40;
+	private static final int EXTENDED = 0x40;
+
+	/** Bit of the first byte at {@link #P_FLAGS2}. */
+	private static final int SKIP_WORKTREE = 0x40;
+
+	/** Bit of the first byte at {@link #P_FLAGS2}. */
+	private static final int INTENT_TO_ADD = 0x20;
+
+	/** In-core flag signaling that the entry should be considered modified. */
+	private static final int UPDATE_NEEDED = 0x1;
 
 	/** (Possibly shared) header information storage. */
 	private final byte[] info;
@@ -127,20 +142,70 @@ public class DirCacheEntry {
 	/** Our encoded path name, from the root of the repository. */
 	final byte[] path;
 
+	/** Flags which are never written to the index file. */
+	private byte inCoreFlags;
+
+	/**
+	 * Read an entry from an index file.
+	 *
+	 * @param sharedInfo
+	 *            buffer to store the header information in.
+	 * @param infoAt
+	 *            position of this entry's header within {@code sharedInfo}.
+	 * @param in
+	 *            stream positioned at the start of the entry.
+	 * @param md
+	 *            digest to update with the bytes read; null if the entry is
+	 *            not digested.
+	 * @param version
+	 *            index file format version.
+	 * @param previous
+	 *            path of the previous entry; empty for the first entry of
+	 *            the file and null for the first entry of a later block of
+	 *            entries. Only used by version 4.
+	 * @throws IOException
+	 *             the entry cannot be read.
+	 */
 	DirCacheEntry(final byte[] sharedInfo, final int infoAt,
-			final InputStream in, final MessageDigest md) throws IOException {
+			final InputStream in, final MessageDigest md, final int version,
+			final byte[] previous) throws IOException {
 		info = sharedInfo;
 		infoOffset = infoAt;
 
 		IO.readFully(in, info, infoOffset, INFO_LEN);
-		md.update(info, infoOffset, INFO_LEN);
+		if (md != null)
+			md.update(info, infoOffset, INFO_LEN);
+
+		int infoLen = INFO_LEN;
+		if (isExtended()) {
+			if (version < 3) {
+				// Older versions of this library stored the update needed
+				// flag in this bit, which version 2 requires to be zero.
+				//
+				info[infoOffset + P_FLAGS] &= ~EXTENDED;
+				inCoreFlags |= UPDATE_NEEDED;
+			} else {
+				infoLen = INFO_LEN_EXTENDED;
+				IO.readFully(in, info, infoOffset + INFO_LEN, infoLen
+						- INFO_LEN);
+				if (md != null)
+					md.update(info, infoOffset + INFO_LEN, infoLen
+							- INFO_LEN);
+			}
+		}
+
+		if (4 <= version) {
+			path = readCompressedPath(in, md, previous);
+			return;
+		}
 
 		int pathLen = NB.decodeUInt16(info, infoOffset + P_FLAGS) & NAME_MASK;
 		int skipped = 0;
 		if (pathLen < NAME_MASK) {
 			path = new byte[pathLen];
 			IO.readFully(in, path, 0, pathLen);
-			md.update(path, 0, pathLen);
+			if (md != null)
+				md.update(path, 0, pathLen);
 		} else {
 			final ByteArrayOutputStream tmp = new ByteArrayOutputStream();
 			{
@@ -159,22 +224,83 @@ public class DirCacheEntry {
 			path = tmp.toByteArray();
 			pathLen = path.length;
 			skipped = 1; // we already skipped 1 '\0' above to break the loop.
-			md.update(path, 0, pathLen);
-			md.update((byte) 0);
+			if (md != null) {
+				md.update(path, 0, pathLen);
+				md.update((byte) 0);
+			}
 		}
 
 		// Index records are padded out to the next 8 byte alignment
 		// for historical reasons related to how C Git read the files.
 		//
-		final int actLen = INFO_LEN + pathLen;
+		final int actLen = infoLen + pathLen;
 		final int expLen = (actLen + 8) & ~7;
 		final int padLen = expLen - actLen - skipped;
 		if (padLen > 0) {
 			IO.skipFully(in, padLen);
-			md.update(nullpad, 0, padLen);
+			if (md != null)
+				md.update(nullpad, 0, padLen);
 		}
 	}
 
+	/**
+	 * Create an entry sharing the header information of another entry.
+	 * <p>
+	 * Used to restore the path of an entry which was stored without it, as
+	 * replacements of shared index entries may be.
+	 *
+	 * @param src
+	 *            entry whose header information is taken over.
+	 * @param newPath
+	 *            name of the entry.
+	 */
+	DirCacheEntry(final DirCacheEntry src, final byte[] newPath) {
+		info = src.info;
+		infoOffset = src.infoOffset;
+		inCoreFlags = src.inCoreFlags;
+		path = newPath;
+		setNameLength(newPath.length);
+	}
+
+	private static byte[] readCompressedPath(final InputStream in,
+			final MessageDigest md, final byte[] previous) throws IOException {
+		// The name is stored as the number of bytes to remove from the end
+		// of the previous name, followed by the NUL terminated suffix which
+		// replaces them.
+		//
+		// At the start of a block there is no previous name, and the
+		// number is ignored.
+		//
+		final int max = previous != null ? previous.length : Integer.MAX_VALUE;
+		int c = readByte(in, md);
+		long strip = c & 0x7f;
+		while ((c & 0x80) != 0) {
+			if (max < strip)
+				break;
+			c = readByte(in, md);
+			strip = ((strip + 1) << 7) + (c & 0x7f);
+		}
+		if (max < strip)
+			throw new CorruptObjectException(JGitText.get().DIRCPathCompressionIsInvalid);
+
+		final ByteArrayOutputStream tmp = new ByteArrayOutputStream();
+		if (previous != null)
+			tmp.write(previous, 0, previous.length - (int) strip);
+		while ((c = readByte(in, md)) != 0)
+			tmp.write(c);
+		return tmp.toByteArray();
+	}
+
+	private static int readByte(final InputStream in, final MessageDigest md)
+			throws IOException {
+		final int c = in.read();
+		if (c < 0)
+			throw new EOFException(JGitText.get().shortReadOfBlock);
+		if (md != null)
+			md.update((byte) c);
+		return c;
+	}
+
 	/**
 	 * Create an empty entry at stage 0.
 	 *
@@ -241,7 +367,7 @@ public DirCacheEntry(final byte[] newPath, final int stage) {
 			throw new IllegalArgumentException(MessageFormat.format(JGitText.get().invalidStageForPath
 					, stage, toString(newPath)));
 
-		info = new byte[INFO_LEN];
+		info = new byte[INFO_LEN_EXTENDED];
 		infoOffset = 0;
 		path = newPath;
 
@@ -253,18 +379,139 @@ public DirCacheEntry(final byte[] newPath, final int stage) {
 		NB.encodeInt16(info, infoOffset + P_FLAGS, flags);
 	}
 
-	void write(final OutputStream os) throws IOException {
-		final int pathLen = path.length;
-		os.write(info, infoOffset, INFO_LEN);
-		os.write(path, 0, pathLen);
+	/**
+	 * Create an entry standing for a whole directory of a sparse index.
+	 *
+	 * @param dirPath
+	 *            path of the directory, in the standard encoding, ending with
+	 *            '/'.
+	 * @param treeId
+	 *            id of the tree of the directory.
+	 */
+	DirCacheEntry(final byte[] dirPath, final AnyObjectId treeId) {
+		info = new byte[INFO_LEN_EXTENDED];
+		infoOffset = 0;
+		path = dirPath;
+		NB.encodeInt32(info, infoOffset + P_MODE, FileMode.TREE.getBits());
+		treeId.copyRawTo(info, infoOffset + P_OBJECTID);
+		setNameLength(path.length);
+		setSkipWorkTree(true);
+	}
+
+	/**
+	 * Write this entry in the given index format version.
+	 *
+	 * @param os
+	 *            stream to write the entry to.
+	 * @param version
+	 *            index file format version; 2, 3 or 4.
+	 * @param name
+	 *            name to store the entry with. Either {@link #path}, or an
+	 *            empty name if the path is implied by a shared index.
+	 * @param previous
+	 *            name the previous entry was stored with, or an empty name if
+	 *            this is the first entry. Only used by version 4.
+	 * @return number of bytes written.
+	 * @throws IOException
+	 *             the stream cannot be written to.
+	 */
+	int write(final OutputStream os, final int version, final byte[] name,
+			final byte[] previous) throws IOException {
+		final int infoLen = isExtended() ? INFO_LEN_EXTENDED : INFO_LEN;
+		if (name == path)
+			os.write(info, infoOffset, infoLen);
+		else {
+			final byte[] tmp = new byte[infoLen];
+			System.arraycopy(info, infoOffset, tmp, 0, infoLen);
+			final int flags = NB.decodeUInt16(tmp, P_FLAGS) & ~NAME_MASK;
+			NB.encodeInt16(tmp, P_FLAGS, flags
+					| Math.min(name.length, NAME_MASK));
+			os.write(tmp, 0, infoLen);
+		}
+
+		if (4 <= version) {
+			final int max = Math.min(previous.length, name.length);
+			int common = 0;
+			while (common < max && previous[common] == name[common])
+				common++;
+			final int n = writeVarint(os, previous.length - common);
+			os.write(name, common, name.length - common);
+			os.write(0);
+			return infoLen + n + name.length - common + 1;
+		}
+
+		final int pathLen = name.length;
+		os.write(name, 0, pathLen);
 
 		// Index records are padded out to the next 8 byte alignment
 		// for historical reasons related to how C Git read the files.
 		//
-		final int actLen = INFO_LEN + pathLen;
+		final int actLen = infoLen + pathLen;
 		final int expLen = (actLen + 8) & ~7;
 		if (actLen != expLen)
 			os.write(nullpad, 0, expLen - actLen);
+		return expLen;
+	}
+
+	private static int writeVarint(final OutputStream os, int value)
+			throws IOException {
+		final byte[] buf = new byte[5];
+		int pos = buf.length - 1;
+		buf[pos] = (byte) (value & 0x7f);
+		while ((value >>>= 7) != 0)
+			buf[--pos] = (byte) (0x80 | (--value & 0x7f));
+		os.write(buf, pos, buf.length - pos);
+		return buf.length - pos;
+	}
+
+	/**
+	 * Check if the header information matches a copy taken earlier.
+	 *
+	 * @param buf
+	 *            buffer holding the copy.
+	 * @param ptr
+	 *            position of the copy within {@code buf}.
+	 * @return true if this entry was not modified since the copy was taken.
+	 */
+	boolean isSameInfo(final byte[] buf, final int ptr) {
+		for (int i = 0; i < INFO_LEN_EXTENDED; i++)
+			if (info[infoOffset + i] != buf[ptr + i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Copy the header information of this entry.
+	 *
+	 * @param buf
+	 *            buffer to copy into; needs {@link #INFO_LEN_EXTENDED} bytes
+	 *            available at {@code ptr}.
+	 * @param ptr
+	 *            position to copy to.
+	 */
+	void copyInfoTo(final byte[] buf, final int ptr) {
+		System.arraycopy(info, infoOffset, buf, ptr, INFO_LEN_EXTENDED);
+	}
+
+	/**
+	 * Get the stage from a copy of the header information.
+	 *
+	 * @param buf
+	 *            buffer holding the copy.
+	 * @param ptr
+	 *            position of the copy within {@code buf}.
+	 * @return the stage stored in the copy.
+	 */
+	static int getStage(final byte[] buf, final int ptr) {
+		return (buf[ptr + P_FLAGS] >>> 4) & 0x3;
+	}
+
+	/**
+	 * @return true if this entry has extended flags, requiring at least
+	 *         version 3 of the index file format.
+	 */
+	boolean isExtended() {
+		return (info[infoOffset + P_FLAGS] & EXTENDED) != 0;
 	}
 
 	/**
@@ -366,11 +613,72 @@ public void setAssumeValid(final boolean assume) {
 			info[infoOffset + P_FLAGS] &= ~ASSUME_VALID;
 	}
 
+	/**
+	 * Is this entry outside of the sparse checkout?
+	 * <p>
+	 * Entries with this flag are not written to the working directory, and a
+	 * missing or different file in the working directory is not a
+	 * modification of the entry.
+	 *
+	 * @return true if the working directory is not consulted for this entry.
+	 */
+	public boolean isSkipWorkTree() {
+		return (info[infoOffset + P_FLAGS2] & SKIP_WORKTREE) != 0;
+	}
+
+	/**
+	 * Set the skip work tree flag for this entry.
+	 * <p>
+	 * Setting the flag requires version 3 of the index file format, which is
+	 * used automatically when the index is written.
+	 *
+	 * @param skip
+	 *            true to not consult the working directory for this entry.
+	 */
+	public void setSkipWorkTree(final boolean skip) {
+		if (skip)
+			info[infoOffset + P_FLAGS2] |= SKIP_WORKTREE;
+		else
+			info[infoOffset + P_FLAGS2] &= ~SKIP_WORKTREE;
+		updateExtended();
+	}
+
+	/**
+	 * @return true if this entry was added with "git add -N", recording only
+	 *         the intention to add the path later.
+	 */
+	public boolean isIntentToAdd() {
+		return (info[infoOffset + P_FLAGS2] & INTENT_TO_ADD) != 0;
+	}
+
+	/**
+	 * Is this entry a directory of a sparse index?
+	 * <p>
+	 * Sparse directory entries stand for all files of a directory outside of
+	 * the sparse checkout. Their path ends with '/', their mode is
+	 * {@link FileMode#TREE} and their object id is the id of the tree.
+	 *
+	 * @return true if this entry stands for a whole directory.
+	 * @see DirCache#collapse(SparseCheckout)
+	 */
+	public boolean isSparseDirectory() {
+		return (getRawMode() & FileMode.TYPE_MASK) == FileMode.TYPE_TREE
+				&& path.length > 0 && path[path.length - 1] == '/';
+	}
+
+	private void updateExtended() {
+		if (info[infoOffset + P_FLAGS2] != 0
+				|| info[infoOffset + P_FLAGS2 + 1] != 0)
+			info[infoOffset + P_FLAGS] |= EXTENDED;
+		else
+			info[infoOffset + P_FLAGS] &= ~EXTENDED;
+	}
+
 	/**
 	 * @return true if this entry should be checked for changes
 	 */
 	public boolean isUpdateNeeded() {
-		return (info[infoOffset + P_FLAGS] & UPDATE_NEEDED) != 0;
+		return (inCoreFlags & UPDATE_NEEDED) != 0;
 	}
 
 	/**
@@ -380,9 +688,9 @@ public boolean isUpdateNeeded() {
 	 */
 	public void setUpdateNeeded(boolean updateNeeded) {
 		if (updateNeeded)
-			info[infoOffset + P_FLAGS] |= UPDATE_NEEDED;
+			inCoreFlags |= UPDATE_NEEDED;
 		else
-			info[infoOffset + P_FLAGS] &= ~UPDATE_NEEDED;
+			inCoreFlags &= ~UPDATE_NEEDED;
 	}
 
 	/**
@@ -459,6 +767,107 @@ public void setLastModified(final long when) {
 		encodeTS(P_MTIME, when);
 	}
 
+	/**
+	 * Get the cached last status change date of this file, in milliseconds.
+	 * <p>
+	 * This is the time the file's inode was last changed (its {@code ctime}),
+	 * which also changes if the file is renamed, linked or its permissions are
+	 * modified.
+	 *
+	 * @return last status change time of this file, in milliseconds since the
+	 *         Java epoch (midnight Jan 1, 1970 UTC); 0 if unknown.
+	 */
+	public long getLastStatusChange() {
+		return decodeTS(P_CTIME);
+	}
+
+	/**
+	 * Set the cached last status change date of this file, using milliseconds.
+	 *
+	 * @param when
+	 *            new cached status change date of the file, in milliseconds;
+	 *            0 if unknown.
+	 */
+	public void setLastStatusChange(final long when) {
+		encodeTS(P_CTIME, when);
+	}
+
+	/**
+	 * Get the cached device number of the file system holding this file.
+	 *
+	 * @return the lower 32 bits of the device number; 0 if unknown.
+	 */
+	public int getDevice() {
+		return NB.decodeInt32(info, infoOffset + P_DEV);
+	}
+
+	/**
+	 * Set the cached device number of the file system holding this file.
+	 *
+	 * @param dev
+	 *            the lower 32 bits of the device number; 0 if unknown.
+	 */
+	public void setDevice(final int dev) {
+		NB.encodeInt32(info, infoOffset + P_DEV, dev);
+	}
+
+	/**
+	 * Get the cached inode number of this file.
+	 *
+	 * @return the lower 32 bits of the inode number; 0 if unknown.
+	 */
+	public int getInode() {
+		return NB.decodeInt32(info, infoOffset + P_INO);
+	}
+
+	/**
+	 * Set the cached inode number of this file.
+	 *
+	 * @param ino
+	 *            the lower 32 bits of the inode number; 0 if unknown.
+	 */
+	public void setInode(final int ino) {
+		NB.encodeInt32(info, infoOffset + P_INO, ino);
+	}
+
+	/**
+	 * Get the cached id of the user owning this file.
+	 *
+	 * @return the user id; 0 if unknown.
+	 */
+	public int getUserId() {
+		return NB.decodeInt32(info, infoOffset + P_UID);
+	}
+
+	/**
+	 * Set the cached id of the user owning this file.
+	 *
+	 * @param uid
+	 *            the user id; 0 if unknown.
+	 */
+	public void setUserId(final int uid) {
+		NB.encodeInt32(info, infoOffset + P_UID, uid);
+	}
+
+	/**
+	 * Get the cached id of the group owning this file.
+	 *
+	 * @return the group id; 0 if unknown.
+	 */
+	public int getGroupId() {
+		return NB.decodeInt32(info, infoOffset + P_GID);
+	}
+
+	/**
+	 * Set the cached id of the group owning this file.
+	 *
+	 * @param gid
+	 *            the group id; 0 if unknown.
+	 */
+	public void setGroupId(final int gid) {
+		NB.encodeInt32(info, infoOffset + P_GID, gid);
+	}
+
 	/**
 	 * Get the cached size (in bytes) of this file.
 	 * <p>
@@ -550,9 +959,15 @@ public String getPathString() {
 	 */
 	public void copyMetaData(final DirCacheEntry src) {
 		final int pLen = NB.decodeUInt16(info, infoOffset + P_FLAGS) & NAME_MASK;
-		System.arraycopy(src.info, src.infoOffset, info, infoOffset, INFO_LEN);
-		NB.encodeInt16(info, infoOffset + P_FLAGS, pLen
-				| NB.decodeUInt16(info, infoOffset + P_FLAGS) & ~NAME_MASK);
+		System.arraycopy(src.info, src.infoOffset, info, infoOffset,
+				INFO_LEN_EXTENDED);
+		setNameLength(pLen);
+	}
+
+	private void setNameLength(final int len) {
+		final int flags = NB.decodeUInt16(info, infoOffset + P_FLAGS);
+		NB.encodeInt16(info, infoOffset + P_FLAGS, (flags & ~NAME_MASK)
+				| Math.min(len, NAME_MASK));
 	}
 
 	private long decodeTS(final int pIdx) {
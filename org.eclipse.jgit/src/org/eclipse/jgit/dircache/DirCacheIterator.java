@@ -45,8 +45,10 @@
 package org.eclipse.jgit.dircache;
 
 import java.io.IOException;
+import java.text.MessageFormat;
 import java.util.Arrays;
 
+import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
@@ -130,6 +132,10 @@ public AbstractTreeIterator createSubtreeIterator(final ObjectReader reader)
 		if (currentSubtree == null)
 			throw new IncorrectObjectTypeException(getEntryObjectId(),
 					Constants.TYPE_TREE);
+		if (isSparseDirectory())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().sparseDirectoryNotExpanded,
+					getEntryPathString()));
 		return new DirCacheIterator(this, currentSubtree);
 	}
 
@@ -209,6 +215,10 @@ private void parseEntry() {
 
 				if (s.isValid())
 					s.getObjectId().copyRawTo(subtreeId, 0);
+				else if (isSparseDirectory())
+					System.arraycopy(currentEntry.idBuffer(), currentEntry
+							.idOffset(), subtreeId, 0,
+							Constants.OBJECT_ID_LENGTH);
 				else
 					Arrays.fill(subtreeId, (byte) 0);
 				mode = FileMode.TREE.getBits();
@@ -227,6 +237,24 @@ private void parseEntry() {
 		currentSubtree = null;
 	}
 
+	/**
+	 * Is the current position a directory of a sparse index?
+	 * <p>
+	 * Such a directory is reported as a subtree with the id of its tree, but
+	 * the files it contains are not known to the index, so the iterator
+	 * cannot enter it.
+	 *
+	 * @return true if the current subtree is a sparse directory.
+	 * @see DirCache#expand(org.eclipse.jgit.lib.ObjectReader)
+	 */
+	public boolean isSparseDirectory() {
+		return currentSubtree != null
+				&& currentSubtree.getEntrySpan() == 1
+				&& currentEntry.isSparseDirectory()
+				&& currentEntry.path.length == pathOffset
+						+ currentSubtree.nameLength() + 1;
+	}
+
 	/**
 	 * Get the DirCacheEntry for the current file.
 	 *
@@ -313,6 +313,12 @@ public String getPathString() {
 	ObjectId writeTree(final DirCacheEntry[] cache, int cIdx,
 			final int pathOffset, final ObjectInserter ow)
 			throws UnmergedPathException, IOException {
+		if (id == null && isSparseDirectory(cache, cIdx, pathOffset)) {
+			// The directory is collapsed to one entry of a sparse index,
+			// which already names the tree.
+			//
+			id = cache[cIdx].getObjectId();
+		}
 		if (id == null) {
 			final int endIdx = cIdx + entrySpan;
 			final int size = computeSize(cache, cIdx, pathOffset, ow);
@@ -351,6 +357,26 @@ ObjectId writeTree(final DirCacheEntry[] cache, int cIdx,
 		return id;
 	}
 
+	/**
+	 * Determine if this tree is represented by a sparse directory entry.
+	 *
+	 * @param cache
+	 *            the complete cache from DirCache.
+	 * @param cIdx
+	 *            first position of <code>cache</code> that is a member of this
+	 *            tree.
+	 * @param pathOffset
+	 *            number of bytes of <code>cache[cacheIdx].path</code> that
+	 *            matches this tree's path, including the trailing '/'.
+	 * @return true if the only entry of this tree is a sparse directory entry
+	 *         for the tree itself.
+	 */
+	boolean isSparseDirectory(final DirCacheEntry[] cache, final int cIdx,
+			final int pathOffset) {
+		return entrySpan == 1 && cache[cIdx].path.length == pathOffset
+				&& cache[cIdx].isSparseDirectory();
+	}
+
 	private int computeSize(final DirCacheEntry[] cache, int cIdx,
 			final int pathOffset, final ObjectInserter ow)
 			throws UnmergedPathException, IOException {
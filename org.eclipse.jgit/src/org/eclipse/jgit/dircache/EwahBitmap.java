@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.dircache;
+
+import java.io.ByteArrayOutputStream;
+import java.util.BitSet;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.CorruptObjectException;
+import org.eclipse.jgit.util.MutableInteger;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Reads and writes the EWAH compressed bitmaps used by the split index.
+ * <p>
+ * A bitmap is stored as its size in bits, the number of 64 bit words that
+ * follow, the words themselves and the position of the last marker word.
+ * Marker words hold a run of identical words (bit 0 is the value, bits 1-32
+ * the run length) followed by a number of literal words (bits 33-63). Bit
+ * {@code i} of the bitmap is bit {@code i % 64} of its literal word.
+ */
+final class EwahBitmap {
+	private static final int RUNNING_BITS = 32;
+
+	private static final long RUNNING_MASK = (1L << RUNNING_BITS) - 1;
+
+	private static final int LITERAL_MAX = Integer.MAX_VALUE;
+
+	/**
+	 * Parse a bitmap.
+	 *
+	 * @param buf
+	 *            buffer holding the bitmap.
+	 * @param ptr
+	 *            position of the bitmap within {@code buf}; updated to point
+	 *            past the bitmap on return.
+	 * @return the bits set in the bitmap.
+	 * @throws CorruptObjectException
+	 *             the bitmap does not fit into {@code buf}.
+	 */
+	static BitSet read(final byte[] buf, final MutableInteger ptr)
+			throws CorruptObjectException {
+		int p = ptr.value;
+		if (buf.length < p + 8)
+			throw new CorruptObjectException(JGitText.get().DIRCBitmapIsCorrupt);
+		final long size = NB.decodeUInt32(buf, p);
+		final int words = NB.decodeInt32(buf, p + 4);
+		p += 8;
+		if (words < 0 || (buf.length - p - 4) / 8 < words)
+			throw new CorruptObjectException(JGitText.get().DIRCBitmapIsCorrupt);
+
+		final BitSet bits = new BitSet();
+		final int end = p + words * 8;
+		long pos = 0;
+		while (p < end) {
+			final long marker = NB.decodeUInt64(buf, p);
+			p += 8;
+			final long run = ((marker >>> 1) & RUNNING_MASK) * 64;
+			if ((marker & 1) != 0)
+				bits.set((int) Math.min(pos, size), (int) Math.min(pos + run,
+						size));
+			pos += run;
+
+			long literals = marker >>> (1 + RUNNING_BITS);
+			if ((end - p) / 8 < literals)
+				throw new CorruptObjectException(JGitText.get().DIRCBitmapIsCorrupt);
+			for (; 0 < literals; literals--) {
+				final long w = NB.decodeUInt64(buf, p);
+				p += 8;
+				for (int i = 0; i < 64 && pos + i < size; i++)
+					if ((w & (1L << i)) != 0)
+						bits.set((int) (pos + i));
+				pos += 64;
+			}
+		}
+		ptr.value = end + 4; // skip the position of the last marker word
+		return bits;
+	}
+
+	/**
+	 * Append a bitmap to a buffer.
+	 * <p>
+	 * The bitmap is written without compression, as literal words.
+	 *
+	 * @param bits
+	 *            the bits to write.
+	 * @param size
+	 *            number of bits in the bitmap.
+	 * @param out
+	 *            buffer to append to.
+	 */
+	static void write(final BitSet bits, final int size,
+			final ByteArrayOutputStream out) {
+		final int literals = (size + 63) / 64;
+		final int markers = Math.max(1, (literals + LITERAL_MAX - 1)
+				/ LITERAL_MAX);
+		final byte[] tmp = new byte[8];
+
+		NB.encodeInt32(tmp, 0, size);
+		NB.encodeInt32(tmp, 4, literals + markers);
+		out.write(tmp, 0, 8);
+
+		int lastMarker = 0;
+		int word = 0;
+		for (int m = 0; m < markers; m++) {
+			final int n = Math.min(LITERAL_MAX, literals - word);
+			lastMarker = word + m;
+			NB.encodeInt64(tmp, 0, ((long) n) << (1 + RUNNING_BITS));
+			out.write(tmp, 0, 8);
+			for (int end = word + n; word < end; word++) {
+				long w = 0;
+				for (int i = 0; i < 64; i++)
+					if (bits.get(word * 64 + i))
+						w |= 1L << i;
+				NB.encodeInt64(tmp, 0, w);
+				out.write(tmp, 0, 8);
+			}
+		}
+
+		NB.encodeInt32(tmp, 0, lastMarker);
+		out.write(tmp, 0, 4);
+	}
+
+	private EwahBitmap() {
+		// Static utility methods only.
+	}
+}
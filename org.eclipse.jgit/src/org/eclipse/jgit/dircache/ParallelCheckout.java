@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.dircache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.util.FS;
+
+/**
+ * Writes the files of index entries to the working directory.
+ * <p>
+ * Entries are grouped by their parent directory. All directories are created
+ * up front by the calling thread, after which the blobs are streamed to disk
+ * in batches. With an executor the batches are written concurrently, each by
+ * a task with its own {@link ObjectReader}.
+ * <p>
+ * Without an executor a pool of <code>checkout.workers</code> threads is
+ * created for the duration of {@link #run()}, if at least
+ * <code>checkout.thresholdForParallelism</code> files are written. By default
+ * files are written by the calling thread.
+ * <p>
+ * As each file is written the length and modification time of its entry are
+ * updated from the file system, so the entries can be stored in an index
+ * without the files being reported as modified.
+ * <p>
+ * Existing files are replaced. The caller is responsible for checking that
+ * doing so does not lose modifications.
+ */
+public class ParallelCheckout {
+	/** Maximum number of files written by a single task. */
+	private static final int BATCH_SIZE = 256;
+
+	/** Default minimum number of files to check out in parallel. */
+	private static final int DEFAULT_PARALLEL_THRESHOLD = 100;
+
+	private final Repository db;
+
+	private final File workTree;
+
+	private final ExecutorService executor;
+
+	private final boolean fileMode;
+
+	private final Map<String, List<DirCacheEntry>> directories;
+
+	private int entryCnt;
+
+	/**
+	 * Create a new checkout of the repository's working directory.
+	 *
+	 * @param repo
+	 *            repository the blobs are read from, and whose working
+	 *            directory is written to.
+	 * @param executor
+	 *            executor to write the files with; null to use the
+	 *            repository configuration.
+	 */
+	public ParallelCheckout(final Repository repo,
+			final ExecutorService executor) {
+		this(repo, repo.getWorkTree(), executor);
+	}
+
+	/**
+	 * Create a new checkout of a working directory.
+	 *
+	 * @param repo
+	 *            repository the blobs are read from.
+	 * @param workTree
+	 *            directory the entry paths are relative to.
+	 * @param executor
+	 *            executor to write the files with; null to use the
+	 *            repository configuration.
+	 */
+	public ParallelCheckout(final Repository repo, final File workTree,
+			final ExecutorService executor) {
+		this.db = repo;
+		this.workTree = workTree;
+		this.executor = executor;
+		this.fileMode = repo.getConfig().getBoolean(
+				ConfigConstants.CONFIG_CORE_SECTION,
+				ConfigConstants.CONFIG_KEY_FILEMODE, true)
+				&& repo.getFS().supportsExecute();
+		this.directories = new LinkedHashMap<String, List<DirCacheEntry>>();
+	}
+
+	/**
+	 * Schedule an entry to be written.
+	 * <p>
+	 * For a gitlink only its directory is created.
+	 *
+	 * @param entry
+	 *            the entry to write. Its object id and file mode must be set.
+	 */
+	public void add(final DirCacheEntry entry) {
+		final String path = entry.getPathString();
+		final int s = path.lastIndexOf('/');
+		final String dir = s < 0 ? "" : path.substring(0, s);
+		List<DirCacheEntry> files = directories.get(dir);
+		if (files == null) {
+			files = new ArrayList<DirCacheEntry>();
+			directories.put(dir, files);
+		}
+		files.add(entry);
+		entryCnt++;
+	}
+
+	/** @return number of entries scheduled to be written. */
+	public int getEntryCount() {
+		return entryCnt;
+	}
+
+	/**
+	 * Write all scheduled entries.
+	 * <p>
+	 * When this method returns successfully all entries have been written and
+	 * their stat data updated.
+	 *
+	 * @throws IOException
+	 *             a directory could not be created, a blob could not be read,
+	 *             or a file could not be written.
+	 */
+	public void run() throws IOException {
+		final int cnt = entryCnt;
+		final List<List<DirCacheEntry>> batches = createDirectories();
+		directories.clear();
+		entryCnt = 0;
+
+		if (batches.size() <= 1) {
+			for (List<DirCacheEntry> batch : batches)
+				write(batch);
+			return;
+		}
+
+		if (executor != null) {
+			run(executor, batches);
+			return;
+		}
+
+		final Config cfg = db.getConfig();
+		int workers = cfg.getInt(ConfigConstants.CONFIG_CHECKOUT_SECTION,
+				ConfigConstants.CONFIG_KEY_WORKERS, 1);
+		if (workers < 1)
+			workers = Runtime.getRuntime().availableProcessors();
+		final int threshold = cfg.getInt(
+				ConfigConstants.CONFIG_CHECKOUT_SECTION,
+				ConfigConstants.CONFIG_KEY_THRESHOLD_FOR_PARALLELISM,
+				DEFAULT_PARALLEL_THRESHOLD);
+		if (workers <= 1 || cnt < threshold) {
+			for (List<DirCacheEntry> batch : batches)
+				write(batch);
+			return;
+		}
+
+		final ExecutorService pool = Executors.newFixedThreadPool(workers);
+		try {
+			run(pool, batches);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private void run(final ExecutorService pool,
+			final List<List<DirCacheEntry>> batches) throws IOException {
+
+		final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(
+				batches.size());
+		for (final List<DirCacheEntry> batch : batches) {
+			tasks.add(new Callable<Object>() {
+				public Object call() throws IOException {
+					write(batch);
+					return null;
+				}
+			});
+		}
+		try {
+			for (Future<Object> f : pool.invokeAll(tasks))
+				f.get();
+		} catch (InterruptedException e) {
+			InterruptedIOException err = new InterruptedIOException();
+			err.initCause(e);
+			throw err;
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			IOException err = new IOException(cause.getMessage());
+			err.initCause(cause);
+			throw err;
+		}
+	}
+
+	private List<List<DirCacheEntry>> createDirectories() throws IOException {
+		final List<List<DirCacheEntry>> batches = new ArrayList<List<DirCacheEntry>>();
+		List<DirCacheEntry> batch = new ArrayList<DirCacheEntry>();
+		for (Map.Entry<String, List<DirCacheEntry>> d : directories.entrySet()) {
+			mkdirs(d.getKey());
+
+			final List<DirCacheEntry> files = d.getValue();
+			if (!batch.isEmpty() && batch.size() + files.size() > BATCH_SIZE) {
+				batches.add(batch);
+				batch = new ArrayList<DirCacheEntry>();
+			}
+			for (DirCacheEntry e : files) {
+				if (FileMode.GITLINK.equals(e.getRawMode())) {
+					mkdirs(e.getPathString());
+					continue;
+				}
+				batch.add(e);
+				if (batch.size() == BATCH_SIZE) {
+					batches.add(batch);
+					batch = new ArrayList<DirCacheEntry>();
+				}
+			}
+		}
+		if (!batch.isEmpty())
+			batches.add(batch);
+		return batches;
+	}
+
+	private void mkdirs(final String path) throws IOException {
+		if (path.length() == 0)
+			return;
+		final File dir = new File(workTree, path);
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotCreateDirectory, dir));
+	}
+
+	private void write(final List<DirCacheEntry> batch) throws IOException {
+		final FS fs = db.getFS();
+		final ObjectReader reader = db.newObjectReader();
+		try {
+			for (DirCacheEntry e : batch) {
+				final File file = new File(workTree, e.getPathString());
+				file.delete();
+				final FileOutputStream dst = new FileOutputStream(file);
+				try {
+					reader.open(e.getObjectId(), Constants.OBJ_BLOB).copyTo(dst);
+				} finally {
+					dst.close();
+				}
+				if (fileMode) {
+					final boolean exec = FileMode.EXECUTABLE_FILE.equals(e
+							.getRawMode());
+					if (fs.canExecute(file) != exec)
+						fs.setExecute(file, exec);
+				}
+				e.setLength((int) file.length());
+				e.setLastModified(file.lastModified());
+				e.setLastStatusChange(file.lastModified());
+			}
+		} finally {
+			reader.release();
+		}
+	}
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.dircache;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.eclipse.jgit.storage.file.LockFile;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.RawParseUtils;
+
+/**
+ * Directories included in a cone mode sparse checkout.
+ * <p>
+ * A sparse checkout writes only part of the repository to the working
+ * directory. In cone mode that part is described by a set of directories,
+ * which are included with all of their files and subdirectories. The files
+ * directly within the parent directories of these directories, up to the top
+ * level of the repository, are included as well.
+ * <p>
+ * The directories are stored as patterns in
+ * <code>$GIT_DIR/info/sparse-checkout</code>, in the form written by
+ * <code>git sparse-checkout set</code>. They only apply if
+ * <code>core.sparseCheckout</code> is enabled.
+ */
+public class SparseCheckout {
+	/** Relation of a directory to the sparse checkout. */
+	public static enum Match {
+		/** All files within the directory are included. */
+		INCLUDED,
+
+		/** Only the files directly within the directory are included. */
+		PARTIAL,
+
+		/** No file within the directory is included. */
+		EXCLUDED;
+	}
+
+	private static final String PATTERNS_FILE = "info/sparse-checkout";
+
+	private static final String WORKTREE_CONFIG_FILE = "config.worktree";
+
+	private static final String ALL_FILES = "/*";
+
+	private static final String NO_DIRECTORIES = "!/*/";
+
+	/**
+	 * Read the sparse checkout of a repository.
+	 *
+	 * @param db
+	 *            the repository.
+	 * @return the sparse checkout; null if the repository does not use one.
+	 * @throws IOException
+	 *             the patterns cannot be read, or are not cone mode patterns.
+	 */
+	public static SparseCheckout read(final Repository db) throws IOException {
+		Config cfg = db.getConfig();
+		if (cfg.getBoolean(ConfigConstants.CONFIG_EXTENSIONS_SECTION, null,
+				ConfigConstants.CONFIG_KEY_WORKTREECONFIG, false)) {
+			// git sparse-checkout enables the sparse checkout in the
+			// configuration specific to the working tree.
+			final FileBasedConfig worktreeCfg = new FileBasedConfig(cfg,
+					new File(db.getDirectory(), WORKTREE_CONFIG_FILE), db
+							.getFS());
+			try {
+				worktreeCfg.load();
+			} catch (ConfigInvalidException e) {
+				IOException err = new IOException(e.getMessage());
+				err.initCause(e);
+				throw err;
+			}
+			cfg = worktreeCfg;
+		}
+		if (!cfg.getBoolean(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_SPARSECHECKOUT, false))
+			return null;
+
+		final byte[] raw;
+		try {
+			raw = IO.readFully(new File(db.getDirectory(), PATTERNS_FILE));
+		} catch (FileNotFoundException noFile) {
+			return null;
+		}
+		try {
+			return parse(RawParseUtils.decode(raw));
+		} catch (IllegalArgumentException e) {
+			IOException err = new IOException(e.getMessage());
+			err.initCause(e);
+			throw err;
+		}
+	}
+
+	/**
+	 * Parse cone mode patterns.
+	 *
+	 * @param patterns
+	 *            content of a sparse checkout file.
+	 * @return the sparse checkout described by the patterns.
+	 * @throws IllegalArgumentException
+	 *             a pattern is not a cone mode pattern.
+	 */
+	public static SparseCheckout parse(final String patterns) {
+		final Set<String> listed = new HashSet<String>();
+		final Set<String> parentsOnly = new HashSet<String>();
+		boolean topLevelOnly = false;
+		for (String line : patterns.split("\n")) {
+			if (line.endsWith("\r"))
+				line = line.substring(0, line.length() - 1);
+			if (line.length() == 0 || line.charAt(0) == '#'
+					|| line.equals(ALL_FILES))
+				continue;
+			if (line.equals(NO_DIRECTORIES)) {
+				topLevelOnly = true;
+				continue;
+			}
+
+			String dir = null;
+			if (line.startsWith("!/") && line.endsWith("/*/"))
+				dir = unescape(line.substring(2, line.length() - 3));
+			else if (line.startsWith("/") && line.endsWith("/"))
+				dir = unescape(line.substring(1, line.length() - 1));
+			if (dir == null || dir.length() == 0)
+				throw new IllegalArgumentException(MessageFormat.format(
+						JGitText.get().sparseCheckoutPatternNotInConeMode,
+						line));
+			if (line.charAt(0) == '!')
+				parentsOnly.add(dir);
+			else
+				listed.add(dir);
+		}
+		listed.removeAll(parentsOnly);
+		if (!topLevelOnly)
+			listed.add("");
+		return new SparseCheckout(listed);
+	}
+
+	private static String unescape(final String pattern) {
+		final StringBuilder r = new StringBuilder(pattern.length());
+		for (int i = 0; i < pattern.length(); i++) {
+			char c = pattern.charAt(i);
+			switch (c) {
+			case '\\':
+				if (++i == pattern.length())
+					return null;
+				c = pattern.charAt(i);
+				break;
+			case '*':
+			case '?':
+			case '[':
+				return null;
+			}
+			r.append(c);
+		}
+		return r.toString();
+	}
+
+	private static void escape(final String dir, final StringBuilder r) {
+		for (int i = 0; i < dir.length(); i++) {
+			final char c = dir.charAt(i);
+			switch (c) {
+			case '\\':
+			case '*':
+			case '?':
+			case '[':
+				r.append('\\');
+			}
+			r.append(c);
+		}
+	}
+
+	private static String parentOf(final String dir) {
+		final int s = dir.lastIndexOf('/');
+		return s < 0 ? "" : dir.substring(0, s);
+	}
+
+	/** Directories included with all their files, without nested ones. */
+	private final Set<String> recursive;
+
+	/** Parent directories of {@link #recursive}, including the top level. */
+	private final Set<String> parents;
+
+	/**
+	 * Create a sparse checkout of some directories.
+	 *
+	 * @param directories
+	 *            directories to include with all their files, relative to the
+	 *            top of the working directory. The empty string includes the
+	 *            whole repository.
+	 */
+	public SparseCheckout(final Collection<String> directories) {
+		final Set<String> all = new HashSet<String>();
+		for (String d : directories) {
+			while (d.startsWith("/"))
+				d = d.substring(1);
+			while (d.endsWith("/"))
+				d = d.substring(0, d.length() - 1);
+			all.add(d);
+		}
+
+		recursive = new HashSet<String>();
+		parents = new HashSet<String>();
+		parents.add("");
+		for (String d : all) {
+			if (isBelow(all, d))
+				continue;
+			recursive.add(d);
+			while (d.length() > 0) {
+				d = parentOf(d);
+				parents.add(d);
+			}
+		}
+	}
+
+	private static boolean isBelow(final Set<String> dirs, String d) {
+		while (d.length() > 0) {
+			d = parentOf(d);
+			if (dirs.contains(d))
+				return true;
+		}
+		return false;
+	}
+
+	/** @return the directories included with all their files, sorted. */
+	public List<String> getDirectories() {
+		final List<String> r = new ArrayList<String>(recursive);
+		Collections.sort(r);
+		return r;
+	}
+
+	/**
+	 * Determine if a file is included in the sparse checkout.
+	 *
+	 * @param path
+	 *            path of the file, relative to the top of the working
+	 *            directory.
+	 * @return true if the file is written to the working directory.
+	 */
+	public boolean isIncluded(final String path) {
+		final String dir = parentOf(path);
+		return parents.contains(dir) || isRecursive(dir);
+	}
+
+	/**
+	 * Determine which files of a directory are included.
+	 *
+	 * @param dir
+	 *            path of the directory, relative to the top of the working
+	 *            directory, without a trailing '/'.
+	 * @return the relation of the directory to the sparse checkout.
+	 */
+	public Match matchDirectory(final String dir) {
+		if (isRecursive(dir))
+			return Match.INCLUDED;
+		if (parents.contains(dir))
+			return Match.PARTIAL;
+		return Match.EXCLUDED;
+	}
+
+	private boolean isRecursive(String dir) {
+		for (;;) {
+			if (recursive.contains(dir))
+				return true;
+			if (dir.length() == 0)
+				return false;
+			dir = parentOf(dir);
+		}
+	}
+
+	/**
+	 * Store this sparse checkout as the one of a repository.
+	 * <p>
+	 * The patterns are written to <code>$GIT_DIR/info/sparse-checkout</code>
+	 * and <code>core.sparseCheckout</code> and
+	 * <code>core.sparseCheckoutCone</code> are enabled. The working directory
+	 * is not updated.
+	 *
+	 * @param db
+	 *            the repository.
+	 * @throws IOException
+	 *             the patterns or the configuration cannot be written.
+	 */
+	public void save(final Repository db) throws IOException {
+		final File file = new File(db.getDirectory(), PATTERNS_FILE);
+		file.getParentFile().mkdirs();
+		final LockFile lck = new LockFile(file, db.getFS());
+		if (!lck.lock())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotLock, file));
+		try {
+			lck.write(Constants.encode(toString()));
+			if (!lck.commit())
+				throw new IOException(MessageFormat.format(
+						JGitText.get().cannotCommitWriteTo, file));
+		} finally {
+			lck.unlock();
+		}
+
+		final StoredConfig cfg = db.getConfig();
+		cfg.setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_SPARSECHECKOUT, true);
+		cfg.setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_SPARSECHECKOUTCONE, true);
+		cfg.save();
+	}
+
+	/** @return the cone mode patterns describing this sparse checkout. */
+	@Override
+	public String toString() {
+		final StringBuilder r = new StringBuilder();
+		r.append(ALL_FILES).append('\n');
+		if (recursive.contains(""))
+			return r.toString();
+		r.append(NO_DIRECTORIES).append('\n');
+		final Set<String> dirs = new TreeSet<String>();
+		dirs.addAll(parents);
+		dirs.addAll(recursive);
+		dirs.remove("");
+		for (String d : dirs) {
+			r.append('/');
+			escape(d, r);
+			r.append("/\n");
+			if (!recursive.contains(d)) {
+				r.append("!/");
+				escape(d, r);
+				r.append("/*/\n");
+			}
+		}
+		return r.toString();
+	}
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.dircache;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.CorruptObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.NB;
+import org.eclipse.jgit.util.RawParseUtils;
+
+/**
+ * Cached listings of the working directory, stored in the index.
+ * <p>
+ * For each directory of the working tree the cache records the modification
+ * time of the directory and the names of the entries within it which are not
+ * ignored. While the modification time of a directory is unchanged no entry
+ * was added to or removed from it, so its listing does not have to be read
+ * again, and the ignore rules do not have to be evaluated for its entries.
+ * <p>
+ * The listings depend on the ignore rules in effect when they were recorded.
+ * The cache records the id of the repository's {@code info/exclude} file and
+ * of the {@code .gitignore} file of each directory; whoever updates the cache
+ * must discard the listings depending on rules which changed.
+ *
+ * @see org.eclipse.jgit.treewalk.UntrackedCacheIterator
+ */
+public class UntrackedCache {
+	/** Recorded state of a single directory. */
+	public static class Directory {
+		private final long lastModified;
+
+		private final ObjectId ignoreId;
+
+		private final String[] names;
+
+		/**
+		 * Create the state of a directory.
+		 *
+		 * @param lastModified
+		 *            modification time of the directory when it was listed.
+		 * @param ignoreId
+		 *            id of the directory's ignore rule file;
+		 *            {@link ObjectId#zeroId()} if it has none.
+		 * @param names
+		 *            names of the entries of the directory which are not
+		 *            ignored; names of subdirectories end with '/'. May be
+		 *            null if the listing cannot be cached, as the directory
+		 *            may still be modified within the resolution of its
+		 *            modification time.
+		 */
+		public Directory(long lastModified, ObjectId ignoreId, String[] names) {
+			this.lastModified = lastModified;
+			this.ignoreId = ignoreId.copy();
+			this.names = names;
+		}
+
+		/** @return modification time of the directory when it was listed. */
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/** @return id of the directory's ignore rule file, or zero id. */
+		public ObjectId getIgnoreId() {
+			return ignoreId;
+		}
+
+		/**
+		 * @return names of the entries which are not ignored; null if the
+		 *         listing is not cached.
+		 */
+		public String[] getNames() {
+			return names;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Directory))
+				return false;
+			final Directory d = (Directory) o;
+			return lastModified == d.lastModified
+					&& ignoreId.equals(d.ignoreId)
+					&& Arrays.equals(names, d.names);
+		}
+
+		@Override
+		public int hashCode() {
+			return ignoreId.hashCode();
+		}
+	}
+
+	private ObjectId excludeId;
+
+	private final Map<String, Directory> directories;
+
+	/** Create an empty cache. */
+	public UntrackedCache() {
+		excludeId = ObjectId.zeroId();
+		directories = new HashMap<String, Directory>();
+	}
+
+	UntrackedCache(final byte[] raw) throws CorruptObjectException {
+		this();
+		try {
+			excludeId = ObjectId.fromRaw(raw, 0);
+			int ptr = Constants.OBJECT_ID_LENGTH;
+			final int cnt = NB.decodeInt32(raw, ptr);
+			ptr += 4;
+			for (int i = 0; i < cnt; i++) {
+				int end = RawParseUtils.next(raw, ptr, '\0');
+				final String path = RawParseUtils.decode(Constants.CHARSET,
+						raw, ptr, end - 1);
+				ptr = end;
+				final long lastModified = NB.decodeUInt64(raw, ptr);
+				ptr += 8;
+				final ObjectId ignoreId = ObjectId.fromRaw(raw, ptr);
+				ptr += Constants.OBJECT_ID_LENGTH;
+				final int nameCnt = NB.decodeInt32(raw, ptr);
+				ptr += 4;
+				String[] names = null;
+				if (0 <= nameCnt) {
+					names = new String[nameCnt];
+					for (int n = 0; n < nameCnt; n++) {
+						end = RawParseUtils.next(raw, ptr, '\0');
+						names[n] = RawParseUtils.decode(Constants.CHARSET, raw,
+								ptr, end - 1);
+						ptr = end;
+					}
+				}
+				directories.put(path, new Directory(lastModified, ignoreId,
+						names));
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			final CorruptObjectException err = new CorruptObjectException(
+					JGitText.get().DIRCUntrackedCacheIsCorrupt);
+			err.initCause(e);
+			throw err;
+		}
+	}
+
+	/** @return id of the {@code info/exclude} file the cache depends on. */
+	public ObjectId getExcludeId() {
+		return excludeId;
+	}
+
+	/**
+	 * Discard all directories and set the {@code info/exclude} file id.
+	 *
+	 * @param id
+	 *            id of the {@code info/exclude} file the cache depends on;
+	 *            {@link ObjectId#zeroId()} if it does not exist.
+	 */
+	public void reset(ObjectId id) {
+		excludeId = id.copy();
+		directories.clear();
+	}
+
+	/**
+	 * @param path
+	 *            path of the directory relative to the working tree; the
+	 *            empty string for the working tree itself.
+	 * @return the recorded state of the directory; null if none.
+	 */
+	public Directory get(String path) {
+		return directories.get(path);
+	}
+
+	/**
+	 * Record the state of a directory.
+	 *
+	 * @param path
+	 *            path of the directory relative to the working tree; the
+	 *            empty string for the working tree itself.
+	 * @param dir
+	 *            the state of the directory.
+	 * @return true if the state differs from the one recorded before.
+	 */
+	public boolean put(String path, Directory dir) {
+		return !dir.equals(directories.put(path, dir));
+	}
+
+	/**
+	 * Discard the state of all directories within a directory.
+	 *
+	 * @param path
+	 *            path of the directory relative to the working tree; the
+	 *            empty string for the working tree itself. The state of the
+	 *            directory itself is kept.
+	 * @return true if any state was discarded.
+	 */
+	public boolean removeWithin(String path) {
+		final String prefix = path.length() == 0 ? "" : path + "/";
+		boolean removed = false;
+		final Iterator<String> i = directories.keySet().iterator();
+		while (i.hasNext()) {
+			final String p = i.next();
+			if (p.length() > prefix.length() && p.startsWith(prefix)) {
+				i.remove();
+				removed = true;
+			}
+		}
+		return removed;
+	}
+
+	/** @return number of directories with a recorded state. */
+	public int size() {
+		return directories.size();
+	}
+
+	byte[] toByteArray() {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] tmp = new byte[Constants.OBJECT_ID_LENGTH];
+		excludeId.copyRawTo(tmp, 0);
+		out.write(tmp, 0, Constants.OBJECT_ID_LENGTH);
+		NB.encodeInt32(tmp, 0, directories.size());
+		out.write(tmp, 0, 4);
+		for (Map.Entry<String, Directory> e : directories.entrySet()) {
+			final Directory d = e.getValue();
+			write(out, e.getKey());
+			NB.encodeInt64(tmp, 0, d.lastModified);
+			out.write(tmp, 0, 8);
+			d.ignoreId.copyRawTo(tmp, 0);
+			out.write(tmp, 0, Constants.OBJECT_ID_LENGTH);
+			NB.encodeInt32(tmp, 0, d.names != null ? d.names.length : -1);
+			out.write(tmp, 0, 4);
+			if (d.names != null) {
+				for (String name : d.names)
+					write(out, name);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	private static void write(final ByteArrayOutputStream out, final String s) {
+		final byte[] b = Constants.encode(s);
+		out.write(b, 0, b.length);
+		out.write(0);
+	}
+}
@@ -53,6 +53,7 @@
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -463,25 +464,8 @@ else if (baseConfig != null)
 
 	private List<String> getRawStringList(final String section,
 			final String subsection, final String name) {
-		List<String> r = null;
-		for (final Entry e : state.get().entryList) {
-			if (e.match(section, subsection, name))
-				r = add(r, e.value);
-		}
-		return r;
-	}
-
-	private static List<String> add(final List<String> curr, final String value) {
-		if (curr == null)
-			return Collections.singletonList(value);
-		if (curr.size() == 1) {
-			final List<String> r = new ArrayList<String>(2);
-			r.add(curr.get(0));
-			r.add(value);
-			return r;
-		}
-		curr.add(value);
-		return curr;
+		return state.get().getIndex().values.get(
+				Index.key(section, subsection, name));
 	}
 
 	private State getState() {
@@ -491,7 +475,7 @@ private State getState() {
 			final State base = getBaseState();
 			if (cur.baseState == base)
 				return cur;
-			upd = new State(cur.entryList, base);
+			upd = new State(cur, base);
 		} while (!state.compareAndSet(cur, upd));
 		return upd;
 	}
@@ -1107,12 +1091,12 @@ public boolean equals(Object other) {
 
 		public Set<String> parse(Config cfg) {
 			final Set<String> result = new HashSet<String>();
+			final String key = Index.key(section);
 			while (cfg != null) {
-				for (final Entry e : cfg.state.get().entryList) {
-					if (e.subsection != null && e.name == null
-							&& StringUtils.equalsIgnoreCase(section, e.section))
-						result.add(e.subsection);
-				}
+				final Set<String> s = cfg.state.get().getIndex().subsections
+						.get(key);
+				if (s != null)
+					result.addAll(s);
 				cfg = cfg.baseConfig;
 			}
 			return Collections.unmodifiableSet(result);
@@ -1160,18 +1144,12 @@ public boolean equals(Object obj) {
 
 		public Set<String> parse(Config cfg) {
 			final Set<String> result = new HashSet<String>();
+			final String key = Index.key(section, subsection);
 			while (cfg != null) {
-				for (final Entry e : cfg.state.get().entryList) {
-					if (e.name != null
-							&& StringUtils.equalsIgnoreCase(e.section, section)) {
-						if (subsection == null && e.subsection == null)
-							result.add(StringUtils.toLowerCase(e.name));
-						else if (e.subsection != null
-								&& e.subsection.equals(subsection))
-							result.add(StringUtils.toLowerCase(e.name));
-
-					}
-				}
+				final Set<String> s = cfg.state.get().getIndex().names
+						.get(key);
+				if (s != null)
+					result.addAll(s);
 				cfg = cfg.baseConfig;
 			}
 			return Collections.unmodifiableSet(result);
@@ -1182,10 +1160,7 @@ private static class SectionNames implements SectionParser<Set<String>> {
 		public Set<String> parse(Config cfg) {
 			final Set<String> result = new HashSet<String>();
 			while (cfg != null) {
-				for (final Entry e : cfg.state.get().entryList) {
-					if (e.section != null)
-						result.add(StringUtils.toLowerCase(e.section));
-				}
+				result.addAll(cfg.state.get().getIndex().sections);
 				cfg = cfg.baseConfig;
 			}
 			return Collections.unmodifiableSet(result);
@@ -1200,11 +1175,109 @@ private static class State {
 
 		final State baseState;
 
+		private volatile Index index;
+
 		State(List<Entry> entries, State base) {
 			entryList = entries;
 			cache = new ConcurrentHashMap<Object, Object>(16, 0.75f, 1);
 			baseState = base;
 		}
+
+		State(State src, State base) {
+			entryList = src.entryList;
+			cache = new ConcurrentHashMap<Object, Object>(16, 0.75f, 1);
+			baseState = base;
+			index = src.index;
+		}
+
+		Index getIndex() {
+			Index idx = index;
+			if (idx == null) {
+				// The entries never change, so threads racing to build
+				// the index build the same one.
+				idx = new Index(entryList);
+				index = idx;
+			}
+			return idx;
+		}
+	}
+
+	/**
+	 * Lookup tables for the entries of a {@link State}.
+	 * <p>
+	 * Sections and names are case insensitive and stored in lower case,
+	 * subsections are case sensitive.
+	 */
+	private static class Index {
+		/** Values of each section, subsection and name, in file order. */
+		final Map<String, List<String>> values = new HashMap<String, List<String>>();
+
+		/** Subsections declared for each section. */
+		final Map<String, Set<String>> subsections = new HashMap<String, Set<String>>();
+
+		/** Lower case names set in each section and subsection. */
+		final Map<String, Set<String>> names = new HashMap<String, Set<String>>();
+
+		/** Lower case names of all sections. */
+		final Set<String> sections = new HashSet<String>();
+
+		Index(final List<Entry> entries) {
+			for (final Entry e : entries) {
+				if (e.section == null)
+					continue;
+				sections.add(StringUtils.toLowerCase(e.section));
+
+				if (e.name == null && e.subsection != null)
+					add(subsections, key(e.section), e.subsection);
+				if (e.name != null)
+					add(names, key(e.section, e.subsection), StringUtils
+							.toLowerCase(e.name));
+
+				final String key = key(e.section, e.subsection, e.name);
+				final List<String> curr = values.get(key);
+				if (curr == null)
+					values.put(key, Collections.singletonList(e.value));
+				else if (curr.size() == 1) {
+					final List<String> r = new ArrayList<String>(2);
+					r.add(curr.get(0));
+					r.add(e.value);
+					values.put(key, r);
+				} else
+					curr.add(e.value);
+			}
+		}
+
+		private static void add(final Map<String, Set<String>> map,
+				final String key, final String value) {
+			Set<String> s = map.get(key);
+			if (s == null) {
+				s = new HashSet<String>();
+				map.put(key, s);
+			}
+			s.add(value);
+		}
+
+		static String key(final String section) {
+			return StringUtils.toLowerCase(section);
+		}
+
+		static String key(final String section, final String subsection) {
+			// Section names cannot contain a '"', so a quoted subsection
+			// cannot be confused with a different section name.
+			if (subsection == null)
+				return key(section);
+			return key(section) + '"' + subsection;
+		}
+
+		static String key(final String section, final String subsection,
+				final String name) {
+			// Names cannot contain a newline, nor can subsections. A null
+			// name matches the section header, holding no value.
+			final String s = key(section, subsection);
+			if (name == null)
+				return s;
+			return s + '\n' + StringUtils.toLowerCase(name);
+		}
 	}
 
 	/**
@@ -47,15 +47,27 @@
  * configuration keys
  */
 public class ConfigConstants {
+	/** The "checkout" section */
+	public static final String CONFIG_CHECKOUT_SECTION = "checkout";
+
 	/** The "core" section */
 	public static final String CONFIG_CORE_SECTION = "core";
 
+	/** The "extensions" section */
+	public static final String CONFIG_EXTENSIONS_SECTION = "extensions";
+
+	/** The "index" section */
+	public static final String CONFIG_INDEX_SECTION = "index";
+
 	/** The "autocrlf" key */
 	public static final String CONFIG_KEY_AUTOCRLF = "autocrlf";
 
 	/** The "bare" key */
 	public static final String CONFIG_KEY_BARE = "bare";
 
+	/** The "commitgraph" key */
+	public static final String CONFIG_KEY_COMMIT_GRAPH = "commitgraph";
+
 	/** The "filemode" key */
 	public static final String CONFIG_KEY_FILEMODE = "filemode";
 
@@ -65,6 +77,27 @@ public class ConfigConstants {
 	/** The "repositoryformatversion" key */
 	public static final String CONFIG_KEY_REPO_FORMAT_VERSION = "repositoryformatversion";
 
+	/** The "skiphash" key */
+	public static final String CONFIG_KEY_SKIPHASH = "skiphash";
+
+	/** The "sparsecheckout" key */
+	public static final String CONFIG_KEY_SPARSECHECKOUT = "sparsecheckout";
+
+	/** The "sparsecheckoutcone" key */
+	public static final String CONFIG_KEY_SPARSECHECKOUTCONE = "sparsecheckoutcone";
+
+	/** The "splitindex" key */
+	public static final String CONFIG_KEY_SPLITINDEX = "splitindex";
+
+	/** The "thresholdforparallelism" key */
+	public static final String CONFIG_KEY_THRESHOLD_FOR_PARALLELISM = "thresholdforparallelism";
+
+	/** The "workers" key */
+	public static final String CONFIG_KEY_WORKERS = "workers";
+
+	/** The "worktreeconfig" key */
+	public static final String CONFIG_KEY_WORKTREECONFIG = "worktreeconfig";
+
 	/** The "worktree" key */
 	public static final String CONFIG_KEY_WORKTREE = "worktree";
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.lib;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Reports which paths of a working directory were modified.
+ * <p>
+ * A monitor lets {@link IndexDiff} skip comparing paths of the working
+ * directory that were not modified since the last comparison. The state of
+ * the monitor is identified by an opaque token, which is stored in the index
+ * and may be passed to a different monitor instance (e.g. in a later process)
+ * watching the same directory. Implementations must reject tokens they cannot
+ * interpret by returning null from {@link #getChangedPaths(String)}.
+ */
+public interface FileSystemMonitor {
+	/**
+	 * Get a token describing the current state of the working directory.
+	 *
+	 * @return a token which can later be passed to
+	 *         {@link #getChangedPaths(String)}; null if the monitor cannot
+	 *         currently track changes.
+	 * @throws IOException
+	 *             the monitor failed to determine its state.
+	 */
+	String getToken() throws IOException;
+
+	/**
+	 * Get the paths modified since a token was obtained.
+	 * <p>
+	 * A reported path may be a file or a directory, which may not exist any
+	 * more. If a directory is reported, everything within it must be
+	 * considered modified. Reporting a path which was not modified is
+	 * permitted.
+	 *
+	 * @param token
+	 *            a token previously returned by {@link #getToken()}.
+	 * @return paths relative to the working directory, using '/' as
+	 *         separator, which were created, deleted or modified since the
+	 *         token was obtained; null if the monitor cannot tell, in which
+	 *         case every path must be considered modified.
+	 * @throws IOException
+	 *             the monitor failed to determine the modified paths.
+	 */
+	Collection<String> getChangedPaths(String token) throws IOException;
+}
@@ -72,6 +72,7 @@
 import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.errors.NotSupportedException;
 import org.eclipse.jgit.events.IndexChangedEvent;
+import org.eclipse.jgit.util.NB;
 import org.eclipse.jgit.util.RawParseUtils;
 
 /**
@@ -95,6 +96,10 @@
  * An index can also contain a tree cache which we ignore for now. We drop the
  * tree cache when writing the index.
  *
+ * Only version 2 indexes without required extensions can be read. Split
+ * indexes, sparse indexes and the versions 3 and 4 written by {@link DirCache}
+ * are refused, as writing them back would lose entries.
+ *
  * @deprecated Use {@link DirCache} instead.
  */
 public class GitIndex {
@@ -219,6 +224,32 @@ public boolean remove(File wd, File f) throws IOException {
 		return entries.remove(key) != null;
 	}
 
+	/**
+	 * Refuse extensions which change the meaning of the entries.
+	 * <p>
+	 * Optional extensions start with an upper case letter and can be dropped.
+	 * Any other extension, like the 'link' of a split index whose entries are
+	 * only the changes to a shared index, is required to understand the index.
+	 */
+	private static void checkExtensions(ByteBuffer buffer)
+			throws CorruptObjectException {
+		while (buffer.remaining() >= Constants.OBJECT_ID_LENGTH + 8) {
+			final int signature = buffer.getInt();
+			final int size = buffer.getInt();
+			final int first = signature >>> 24;
+			if (first < 'A' || 'Z' < first) {
+				final byte[] name = new byte[4];
+				NB.encodeInt32(name, 0, signature);
+				throw new CorruptObjectException(MessageFormat.format(
+						JGitText.get().DIRCExtensionNotSupportedByThisVersion,
+						RawParseUtils.decode(name)));
+			}
+			if (size < 0 || buffer.remaining() < size)
+				break;
+			buffer.position(buffer.position() + size);
+		}
+	}
+
 	/**
 	 * Read the cache file into memory.
 	 *
@@ -253,6 +284,7 @@ public void read() throws IOException {
 					entry.stages |= existing.stages;
 				}
 			}
+			checkExtensions(buffer);
 			lastCacheTime = cacheFile.lastModified();
 		} finally {
 			cache.close();
@@ -698,6 +730,17 @@ public int getStages() {
 			return stages;
 		}
 
+		/**
+		 * Update the modification time after the file was written.
+		 *
+		 * @param lastModified
+		 *            modification time of the file, in milliseconds.
+		 */
+		void setModified(long lastModified) {
+			mtime = lastModified * 1000000L;
+			ctime = mtime;
+		}
+
 		// for testing
 		void forceRecheck() {
 			mtime = -1;
@@ -919,8 +962,7 @@ public void checkoutEntry(File wd, Entry e) throws IOException {
 					File_setExecute(file, false);
 			}
 		}
-		e.mtime = file.lastModified() * 1000000L;
-		e.ctime = e.mtime;
+		e.setModified(file.lastModified());
 	}
 
 	/**
@@ -46,15 +46,33 @@
 package org.eclipse.jgit.lib;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
 import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.dircache.SparseCheckout;
+import org.eclipse.jgit.dircache.UntrackedCache;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.AbstractTreeIterator;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.NioFileTreeIterator;
 import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.UntrackedCacheIterator;
 import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
 import org.eclipse.jgit.treewalk.filter.TreeFilter;
 
 /**
@@ -76,12 +94,42 @@ public class IndexDiff {
 
 	private final static int WORKDIR = 2;
 
+	/** Excludes the directories of a sparse index from a walk. */
+	private final static TreeFilter SKIP_SPARSE_DIRECTORIES = new TreeFilter() {
+		@Override
+		public boolean include(TreeWalk walker) {
+			final DirCacheIterator i = walker.getTree(INDEX,
+					DirCacheIterator.class);
+			return i == null || !i.isSparseDirectory();
+		}
+
+		@Override
+		public boolean shouldBeRecursive() {
+			return false;
+		}
+
+		@Override
+		public TreeFilter clone() {
+			return this;
+		}
+	};
+
 	private final Repository repository;
 
 	private final RevTree tree;
 
 	private final WorkingTreeIterator initialWorkingTreeIterator;
 
+	private final boolean checkFilemode;
+
+	private FileSystemMonitor monitor;
+
+	private boolean useUntrackedCache;
+
+	private SparseCheckout sparseCheckout;
+
+	private boolean sparseIndex;
+
 	private HashSet<String> added = new HashSet<String>();
 
 	private HashSet<String> changed = new HashSet<String>();
@@ -110,6 +158,9 @@ public IndexDiff(Repository repository, String revstr,
 		ObjectId objectId = repository.resolve(revstr);
 		tree = new RevWalk(repository).parseTree(objectId);
 		this.initialWorkingTreeIterator = workingTreeIterator;
+		this.checkFilemode = repository.getConfig().getBoolean(
+				ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_FILEMODE, true);
 	}
 
 	/**
@@ -127,6 +178,46 @@ public IndexDiff(Repository repository, ObjectId objectId,
 		this.repository = repository;
 		tree = new RevWalk(repository).parseTree(objectId);
 		this.initialWorkingTreeIterator = workingTreeIterator;
+		this.checkFilemode = repository.getConfig().getBoolean(
+				ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_FILEMODE, true);
+	}
+
+	/**
+	 * Set the monitor used to skip unchanged parts of the working directory.
+	 * <p>
+	 * When a monitor is set, {@link #diff()} records the monitor's token and
+	 * the paths found to differ in the index. A later diff only compares the
+	 * paths the monitor reports as changed since that token, and the paths
+	 * which differed before, with the working directory. If the monitor cannot
+	 * tell what changed, the whole working directory is compared.
+	 * <p>
+	 * The monitor must watch the directory scanned by the working tree
+	 * iterator given to the constructor.
+	 *
+	 * @param monitor
+	 *            the monitor; null to always compare the whole working
+	 *            directory.
+	 */
+	public void setFileSystemMonitor(FileSystemMonitor monitor) {
+		this.monitor = monitor;
+	}
+
+	/**
+	 * Set whether directory listings are cached in the index.
+	 * <p>
+	 * When enabled, {@link #diff()} does not list the directories of the
+	 * working tree which were not modified since they were listed by an
+	 * earlier diff, and does not evaluate the ignore rules for their entries.
+	 * The listings are stored in the index as an {@link UntrackedCache}. This
+	 * only applies if the working tree iterator given to the constructor is a
+	 * {@link FileTreeIterator}; other iterators are used as given.
+	 *
+	 * @param use
+	 *            true to cache directory listings in the index.
+	 */
+	public void setUseUntrackedCache(boolean use) {
+		useUntrackedCache = use;
 	}
 
 	/**
@@ -136,8 +227,11 @@ public IndexDiff(Repository repository, ObjectId objectId,
 	 * @throws IOException
 	 */
 	public boolean diff() throws IOException {
-		boolean changesExist = false;
+		if (monitor != null || useUntrackedCache)
+			return cachedDiff();
+
 		DirCache dirCache = repository.readDirCache();
+		readSparseState(dirCache);
 		TreeWalk treeWalk = new TreeWalk(repository);
 		treeWalk.reset();
 		treeWalk.setRecursive(true);
@@ -145,14 +239,332 @@ public boolean diff() throws IOException {
 		treeWalk.addTree(tree);
 		treeWalk.addTree(new DirCacheIterator(dirCache));
 		treeWalk.addTree(initialWorkingTreeIterator);
-		treeWalk.setFilter(TreeFilter.ANY_DIFF);
+		treeWalk.setFilter(skipSparse(TreeFilter.ANY_DIFF));
+		return diff(treeWalk, added, changed, removed, missing, modified,
+				untracked);
+	}
+
+	/**
+	 * Run the diff operation on several threads.
+	 * <p>
+	 * The comparison is partitioned by the top-level subtrees of the tree, the
+	 * index and the working directory. Each subtree is compared on its own
+	 * {@link TreeWalk}, so that reading and hashing the working tree files of
+	 * different subtrees happens in parallel. Top-level files are compared as
+	 * one additional partition. The results are identical to {@link #diff()}.
+	 * <p>
+	 * Each partition scans the working directory with a new iterator of the
+	 * same type as the one given to the constructor, created for this
+	 * repository. If that iterator is not a {@link FileTreeIterator} or
+	 * {@link NioFileTreeIterator}, this method falls back to {@link #diff()}.
+	 *
+	 * @param executor
+	 *            executor to run the partitions on.
+	 * @return if anything is different between index, tree, and workdir
+	 * @throws IOException
+	 */
+	public boolean diff(ExecutorService executor) throws IOException {
+		final Class<?> type = initialWorkingTreeIterator.getClass();
+		if (monitor != null || useUntrackedCache
+				|| (type != FileTreeIterator.class
+						&& type != NioFileTreeIterator.class))
+			return diff();
+
+		final DirCache dirCache = repository.readDirCache();
+		readSparseState(dirCache);
+		// Build the cache tree now, the partitions only read it.
+		dirCache.getCacheTree(true);
+
+		final List<Callable<Partition>> tasks = new ArrayList<Callable<Partition>>();
+		final List<String> files = new ArrayList<String>();
+		final TreeWalk top = new TreeWalk(repository);
+		try {
+			top.reset();
+			top.addTree(tree);
+			top.addTree(new DirCacheIterator(dirCache));
+			top.addTree(newWorkingTreeIterator());
+			final Set<String> subtrees = new HashSet<String>();
+			while (top.next()) {
+				final String name = top.getPathString();
+				if (top.isSubtree()) {
+					if (subtrees.add(name)) {
+						files.remove(name);
+						tasks.add(new Partition(dirCache, PathFilter
+								.create(name)));
+					}
+				} else if (!subtrees.contains(name))
+					files.add(name);
+			}
+		} finally {
+			top.release();
+		}
+		if (!files.isEmpty())
+			tasks.add(new Partition(dirCache, PathFilterGroup
+					.createFromStrings(files)));
+
+		boolean changesExist = false;
+		try {
+			for (Future<Partition> f : executor.invokeAll(tasks)) {
+				final Partition p = f.get();
+				changesExist |= p.changesExist;
+				added.addAll(p.added);
+				changed.addAll(p.changed);
+				removed.addAll(p.removed);
+				missing.addAll(p.missing);
+				modified.addAll(p.modified);
+				untracked.addAll(p.untracked);
+			}
+		} catch (InterruptedException e) {
+			InterruptedIOException err = new InterruptedIOException();
+			err.initCause(e);
+			throw err;
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			IOException err = new IOException(cause.getMessage());
+			err.initCause(cause);
+			throw err;
+		}
+		return changesExist;
+	}
+
+	private boolean cachedDiff() throws IOException {
+		final DirCache dirCache = new DirCache(repository.getIndexFile(),
+				repository.getFS());
+		// If the index is locked by someone else, compare as usual but
+		// do not record the monitor state or directory listings.
+		final boolean locked = dirCache.lock();
+		try {
+			dirCache.read();
+			readSparseState(dirCache);
+
+			// Obtain the token before scanning, so that changes made
+			// during the scan are reported again by the next diff.
+			String token = null;
+			Set<String> dirty = null;
+			if (monitor != null) {
+				token = monitor.getToken();
+				dirty = dirtyPaths(dirCache);
+			}
+
+			WorkingTreeIterator workTree = initialWorkingTreeIterator;
+			UntrackedCacheIterator listings = null;
+			if (useUntrackedCache && (dirty == null || !dirty.isEmpty())
+					&& workTree.getClass() == FileTreeIterator.class) {
+				UntrackedCache cache = dirCache.getUntrackedCache();
+				if (cache == null)
+					cache = new UntrackedCache();
+				listings = new UntrackedCacheIterator(repository, dirCache,
+						cache);
+				workTree = listings;
+			}
+
+			boolean changesExist;
+			TreeWalk treeWalk = new TreeWalk(repository);
+			try {
+				treeWalk.reset();
+				treeWalk.setRecursive(true);
+				treeWalk.addTree(tree);
+				treeWalk.addTree(new DirCacheIterator(dirCache));
+				if (dirty == null)
+					treeWalk.addTree(workTree);
+				treeWalk.setFilter(skipSparse(TreeFilter.ANY_DIFF));
+				changesExist = diff(treeWalk, added, changed, removed,
+						missing, modified, untracked);
+
+				if (dirty != null && !dirty.isEmpty()) {
+					treeWalk.reset();
+					treeWalk.addTree(tree);
+					treeWalk.addTree(new DirCacheIterator(dirCache));
+					treeWalk.addTree(workTree);
+					treeWalk.setFilter(skipSparse(AndTreeFilter.create(
+							PathFilterGroup.createFromStrings(dirty),
+							TreeFilter.ANY_DIFF)));
+					changesExist |= diff(treeWalk, added, changed, removed,
+							missing, modified, untracked);
+				}
+			} finally {
+				treeWalk.release();
+			}
+
+			boolean write = false;
+			if (token != null) {
+				final Set<String> nowDirty = new HashSet<String>();
+				nowDirty.addAll(missing);
+				nowDirty.addAll(modified);
+				nowDirty.addAll(untracked);
+				if (!token.equals(dirCache.getMonitorToken())
+						|| !nowDirty.equals(dirCache.getMonitorDirtyPaths())) {
+					dirCache.setMonitorState(token, nowDirty);
+					write = true;
+				}
+			}
+			if (listings != null && listings.isCacheModified()) {
+				dirCache.setUntrackedCache(listings.getCache());
+				write = true;
+			}
+			if (locked && write) {
+				dirCache.write();
+				dirCache.commit();
+			}
+			return changesExist;
+		} finally {
+			if (locked)
+				dirCache.unlock();
+		}
+	}
+
+	/**
+	 * @param dirCache
+	 *            the index holding the state of the last monitored diff.
+	 * @return paths whose working directory state may differ from the index;
+	 *         null if the whole working directory must be compared.
+	 * @throws IOException
+	 */
+	private Set<String> dirtyPaths(DirCache dirCache) throws IOException {
+		final String since = dirCache.getMonitorToken();
+		if (since == null)
+			return null;
+		final Collection<String> changedPaths = monitor.getChangedPaths(since);
+		if (changedPaths == null)
+			return null;
+
+		final Set<String> dirty = new HashSet<String>();
+		dirty.addAll(dirCache.getMonitorDirtyPaths());
+		for (String path : changedPaths) {
+			// A modified ignore file changes the status of paths which
+			// were not modified, so everything has to be compared again.
+			if (path.length() == 0 || path.equals(Constants.DOT_GIT_IGNORE)
+					|| path.endsWith("/" + Constants.DOT_GIT_IGNORE))
+				return null;
+			dirty.add(path);
+		}
+		return dirty;
+	}
+
+	/**
+	 * Prepare the comparison of a sparse checkout.
+	 * <p>
+	 * Directories of a sparse index which do not match the tree are expanded,
+	 * so that the files they contain are compared with the tree. The
+	 * remaining ones match the tree and are skipped by the walks.
+	 *
+	 * @param dirCache
+	 *            the index to compare.
+	 * @throws IOException
+	 */
+	private void readSparseState(DirCache dirCache) throws IOException {
+		sparseCheckout = SparseCheckout.read(repository);
+		sparseIndex = false;
+		if (!dirCache.isSparse())
+			return;
+
+		final ObjectReader reader = repository.newObjectReader();
+		try {
+			for (int i = 0; i < dirCache.getEntryCount(); i++) {
+				final DirCacheEntry e = dirCache.getEntry(i);
+				if (!e.isSparseDirectory())
+					continue;
+				final String path = e.getPathString();
+				final TreeWalk tw = TreeWalk.forPath(reader, path.substring(0,
+						path.length() - 1), tree);
+				if (tw == null || !FileMode.TREE.equals(tw.getRawMode(0))
+						|| !e.getObjectId().equals(tw.getObjectId(0))) {
+					dirCache.expand(reader);
+					return;
+				}
+			}
+			sparseIndex = true;
+		} finally {
+			reader.release();
+		}
+	}
+
+	private TreeFilter skipSparse(TreeFilter filter) {
+		if (!sparseIndex)
+			return filter;
+		return AndTreeFilter.create(SKIP_SPARSE_DIRECTORIES, filter);
+	}
+
+	private boolean isSkipWorkTree(DirCacheIterator dirCacheIterator) {
+		final DirCacheEntry e = dirCacheIterator.getDirCacheEntry();
+		if (e != null && e.isSkipWorkTree())
+			return true;
+		return sparseCheckout != null
+				&& !sparseCheckout.isIncluded(dirCacheIterator
+						.getEntryPathString());
+	}
+
+	private WorkingTreeIterator newWorkingTreeIterator() {
+		if (initialWorkingTreeIterator instanceof NioFileTreeIterator)
+			return new NioFileTreeIterator(repository);
+		return new FileTreeIterator(repository);
+	}
+
+	private class Partition implements Callable<Partition> {
+		private final DirCache dirCache;
+
+		private final TreeFilter filter;
+
+		final HashSet<String> added = new HashSet<String>();
+
+		final HashSet<String> changed = new HashSet<String>();
+
+		final HashSet<String> removed = new HashSet<String>();
+
+		final HashSet<String> missing = new HashSet<String>();
+
+		final HashSet<String> modified = new HashSet<String>();
+
+		final HashSet<String> untracked = new HashSet<String>();
+
+		boolean changesExist;
+
+		Partition(DirCache dirCache, TreeFilter filter) {
+			this.dirCache = dirCache;
+			this.filter = filter;
+		}
+
+		public Partition call() throws IOException {
+			TreeWalk treeWalk = new TreeWalk(repository);
+			try {
+				treeWalk.reset();
+				treeWalk.setRecursive(true);
+				treeWalk.addTree(tree);
+				treeWalk.addTree(new DirCacheIterator(dirCache));
+				treeWalk.addTree(newWorkingTreeIterator());
+				treeWalk.setFilter(skipSparse(AndTreeFilter.create(filter,
+						TreeFilter.ANY_DIFF)));
+				changesExist = diff(treeWalk, added, changed, removed,
+						missing, modified, untracked);
+			} finally {
+				treeWalk.release();
+			}
+			return this;
+		}
+	}
+
+	private boolean diff(TreeWalk treeWalk, Set<String> added,
+			Set<String> changed, Set<String> removed, Set<String> missing,
+			Set<String> modified, Set<String> untracked) throws IOException {
+		// Without a working directory iterator only the tree and the index
+		// are compared.
+		final boolean compareWorkDir = WORKDIR < treeWalk.getTreeCount();
+		boolean changesExist = false;
 		while (treeWalk.next()) {
 			AbstractTreeIterator treeIterator = treeWalk.getTree(TREE,
 					AbstractTreeIterator.class);
 			DirCacheIterator dirCacheIterator = treeWalk.getTree(INDEX,
 					DirCacheIterator.class);
-			WorkingTreeIterator workingTreeIterator = treeWalk.getTree(WORKDIR,
-					WorkingTreeIterator.class);
+			WorkingTreeIterator workingTreeIterator = null;
+			if (compareWorkDir)
+				workingTreeIterator = treeWalk.getTree(WORKDIR,
+						WorkingTreeIterator.class);
 			FileMode fileModeTree = treeWalk.getFileMode(TREE);
 
 			if (treeIterator != null) {
@@ -185,13 +597,17 @@ public boolean diff() throws IOException {
 				}
 			}
 
-			if (dirCacheIterator != null) {
+			// Files outside of the sparse checkout are not compared with
+			// the working directory.
+			if (compareWorkDir && dirCacheIterator != null
+					&& !isSkipWorkTree(dirCacheIterator)) {
 				if (workingTreeIterator == null) {
 					// in index, not in workdir => missing
 					missing.add(dirCacheIterator.getEntryPathString());
 					changesExist = true;
 				} else {
-					if (!dirCacheIterator.idEqual(workingTreeIterator)) {
+					if (isModified(treeWalk, dirCacheIterator,
+							workingTreeIterator)) {
 						// in index, in workdir, content differs => modified
 						modified.add(dirCacheIterator.getEntryPathString());
 						changesExist = true;
@@ -202,6 +618,20 @@ public boolean diff() throws IOException {
 		return changesExist;
 	}
 
+	private boolean isModified(TreeWalk treeWalk,
+			DirCacheIterator dirCacheIterator,
+			WorkingTreeIterator workingTreeIterator) {
+		final int index = treeWalk.getRawMode(INDEX) & FileMode.TYPE_MASK;
+		final int workDir = treeWalk.getRawMode(WORKDIR) & FileMode.TYPE_MASK;
+		if (index != FileMode.TYPE_FILE || workDir != FileMode.TYPE_FILE)
+			return !dirCacheIterator.idEqual(workingTreeIterator);
+
+		// Trust the file status information, and only compare the content
+		// if it differs from the index or the entry is racily clean.
+		return workingTreeIterator.isModified(dirCacheIterator
+				.getDirCacheEntry(), true, checkFilemode, repository.getFS());
+	}
+
 	/**
 	 * @return list of files added to the index, not in the tree
 	 */
@@ -44,9 +44,12 @@
 package org.eclipse.jgit.lib;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.storage.file.CommitGraph;
+import org.eclipse.jgit.storage.file.CommitSearchIndex;
 import org.eclipse.jgit.storage.pack.ObjectReuseAsIs;
 
 /**
@@ -173,6 +176,87 @@ public long getObjectSize(AnyObjectId objectId, int typeHint)
 		return open(objectId, typeHint).getSize();
 	}
 
+	/**
+	 * Copy the first bytes of an object into a buffer.
+	 * <p>
+	 * Callers which only need the headers of a commit or tag can use this to
+	 * avoid allocating a buffer for the entire object. The default
+	 * implementation of this method opens an ObjectLoader. Databases are
+	 * encouraged to override this if they can decompress only the start of an
+	 * object directly into the caller's buffer.
+	 *
+	 * @param objectId
+	 *            identity of the object to read.
+	 * @param typeHint
+	 *            hint about the type of object being requested;
+	 *            {@link #OBJ_ANY} if the object type is not known, or does not
+	 *            matter to the caller.
+	 * @param buf
+	 *            buffer to copy the object into, from its first byte.
+	 * @return number of bytes copied; less than <code>buf.length</code> only
+	 *         if the entire object was copied.
+	 * @throws MissingObjectException
+	 *             the object does not exist.
+	 * @throws IncorrectObjectTypeException
+	 *             typeHint was not OBJ_ANY, and the object's actual type does
+	 *             not match typeHint.
+	 * @throws IOException
+	 *             the object store cannot be accessed.
+	 */
+	public int readPrefix(AnyObjectId objectId, int typeHint, byte[] buf)
+			throws MissingObjectException, IncorrectObjectTypeException,
+			IOException {
+		final ObjectLoader ldr = open(objectId, typeHint);
+		if (!ldr.isLarge()) {
+			final byte[] data = ldr.getCachedBytes();
+			final int n = Math.min(data.length, buf.length);
+			System.arraycopy(data, 0, buf, 0, n);
+			return n;
+		}
+
+		final InputStream in = ldr.openStream();
+		try {
+			int n = 0;
+			while (n < buf.length) {
+				final int r = in.read(buf, n, buf.length - n);
+				if (r < 0)
+					break;
+				n += r;
+			}
+			return n;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Get the commit-graph of the object database, if one is available.
+	 * <p>
+	 * The graph may not contain every commit of the database, in particular
+	 * commits created after it was written.
+	 *
+	 * @return the commit-graph; null if the database does not have one.
+	 * @throws IOException
+	 *             the commit-graph could not be checked for.
+	 */
+	public CommitGraph getCommitGraph() throws IOException {
+		return null;
+	}
+
+	/**
+	 * Get the commit search index of the object database, if one is available.
+	 * <p>
+	 * The index may not contain every commit of the database, in particular
+	 * commits created after it was last updated.
+	 *
+	 * @return the commit search index; null if the database does not have one.
+	 * @throws IOException
+	 *             the index could not be checked for.
+	 */
+	public CommitSearchIndex getCommitSearchIndex() throws IOException {
+		return null;
+	}
+
 	/**
 	 * Release any resources used by this reader.
 	 * <p>
@@ -51,6 +51,7 @@
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.text.MessageFormat;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -918,6 +919,9 @@ public File getIndexFile() throws NoWorkTreeException {
 	 * The new index will be read before it is returned to the caller. Read
 	 * failures are reported as exceptions and therefore prevent the method from
 	 * returning a partially populated index.
+	 * <p>
+	 * If {@code index.skipHash} is set, the checksum of the index file is not
+	 * verified.
 	 *
 	 * @return a cache representing the contents of the specified index file (if
 	 *         it exists) or an empty cache if the file does not exist.
@@ -932,7 +936,9 @@ public File getIndexFile() throws NoWorkTreeException {
 	 */
 	public DirCache readDirCache() throws NoWorkTreeException,
 			CorruptObjectException, IOException {
-		return DirCache.read(getIndexFile(), getFS());
+		final DirCache dc = newDirCache();
+		dc.read();
+		return dc;
 	}
 
 	/**
@@ -941,6 +947,10 @@ public DirCache readDirCache() throws NoWorkTreeException,
 	 * The new index will be locked and then read before it is returned to the
 	 * caller. Read failures are reported as exceptions and therefore prevent
 	 * the method from returning a partially populated index.
+	 * <p>
+	 * If {@code index.skipHash} is set, the checksum of the index file is not
+	 * verified. If {@code core.splitIndex} is configured, the index is written
+	 * as a split index, or as a single file, accordingly.
 	 *
 	 * @return a cache representing the contents of the specified index file (if
 	 *         it exists) or an empty cache if the file does not exist.
@@ -956,7 +966,38 @@ public DirCache readDirCache() throws NoWorkTreeException,
 	 */
 	public DirCache lockDirCache() throws NoWorkTreeException,
 			CorruptObjectException, IOException {
-		return DirCache.lock(getIndexFile(), getFS());
+		final DirCache dc = newDirCache();
+		if (!dc.lock())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotLock, getIndexFile()));
+		try {
+			dc.read();
+		} catch (IOException e) {
+			dc.unlock();
+			throw e;
+		} catch (RuntimeException e) {
+			dc.unlock();
+			throw e;
+		} catch (Error e) {
+			dc.unlock();
+			throw e;
+		}
+
+		final Config cfg = getConfig();
+		if (cfg.getString(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_SPLITINDEX) != null)
+			dc.setSplitIndex(cfg.getBoolean(
+					ConfigConstants.CONFIG_CORE_SECTION,
+					ConfigConstants.CONFIG_KEY_SPLITINDEX, false));
+		return dc;
+	}
+
+	private DirCache newDirCache() throws NoWorkTreeException {
+		final DirCache dc = new DirCache(getIndexFile(), getFS());
+		dc.setVerifyChecksum(!getConfig().getBoolean(
+				ConfigConstants.CONFIG_INDEX_SECTION,
+				ConfigConstants.CONFIG_KEY_SKIPHASH, false));
+		return dc;
 	}
 
 	static byte[] gitInternalSlash(byte[] bytes) {
@@ -0,0 +1,428 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.lib;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.eclipse.jgit.JGitText;
+
+/**
+ * File system monitor using the file change notifications of the platform.
+ * <p>
+ * When running on a Java 7 or later JVM this monitor registers every directory
+ * of the working tree (except the repository's {@code .git} directory) with a
+ * {@code java.nio.file.WatchService}, and records the paths reported by its
+ * events. The NIO.2 API is accessed through reflection, as this library is
+ * compiled for Java 5. Use {@link #isAvailable()} to determine if the running
+ * JVM supports it.
+ * <p>
+ * Events are collected whenever a token or the changed paths are requested,
+ * no background thread is used. Tokens are only valid for the instance that
+ * issued them; tokens of another instance, or tokens issued before the
+ * platform dropped events, are answered with null, requiring a full scan.
+ * <p>
+ * Only the most recently issued tokens, at most {@link #getMaxTokens()} of
+ * them, remain valid. Changes older than the oldest valid token are
+ * forgotten, so the memory used by the monitor does not grow with the number
+ * of events it has seen.
+ * <p>
+ * The monitor holds operating system resources, it must be closed when no
+ * longer needed.
+ */
+public class WatchServiceFileSystemMonitor implements FileSystemMonitor,
+		Closeable {
+	private static final Method toPath;
+
+	private static final Method getDefault;
+
+	private static final Method newWatchService;
+
+	private static final Method register;
+
+	private static final Method poll;
+
+	private static final Method closeWatcher;
+
+	private static final Method pollEvents;
+
+	private static final Method reset;
+
+	private static final Method kind;
+
+	private static final Method context;
+
+	private static final Object kinds;
+
+	private static final Object overflow;
+
+	static {
+		final Class<?> path = needClass("java.nio.file.Path");
+		final Class<?> fileSystems = needClass("java.nio.file.FileSystems");
+		final Class<?> fileSystem = needClass("java.nio.file.FileSystem");
+		final Class<?> watchService = needClass("java.nio.file.WatchService");
+		final Class<?> watchKey = needClass("java.nio.file.WatchKey");
+		final Class<?> watchEvent = needClass("java.nio.file.WatchEvent");
+		final Class<?> kindType = needClass("java.nio.file.WatchEvent$Kind");
+		final Class<?> std = needClass("java.nio.file.StandardWatchEventKinds");
+
+		if (path != null && fileSystems != null && fileSystem != null
+				&& watchService != null && watchKey != null
+				&& watchEvent != null && kindType != null && std != null) {
+			toPath = needMethod(File.class, "toPath");
+			getDefault = needMethod(fileSystems, "getDefault");
+			newWatchService = needMethod(fileSystem, "newWatchService");
+			register = needMethod(path, "register", watchService, Array
+					.newInstance(kindType, 0).getClass());
+			poll = needMethod(watchService, "poll");
+			closeWatcher = needMethod(watchService, "close");
+			pollEvents = needMethod(watchKey, "pollEvents");
+			reset = needMethod(watchKey, "reset");
+			kind = needMethod(watchEvent, "kind");
+			context = needMethod(watchEvent, "context");
+			overflow = needConstant(std, "OVERFLOW");
+
+			final Object create = needConstant(std, "ENTRY_CREATE");
+			final Object delete = needConstant(std, "ENTRY_DELETE");
+			final Object modify = needConstant(std, "ENTRY_MODIFY");
+			if (create != null && delete != null && modify != null) {
+				kinds = Array.newInstance(kindType, 3);
+				Array.set(kinds, 0, create);
+				Array.set(kinds, 1, delete);
+				Array.set(kinds, 2, modify);
+			} else
+				kinds = null;
+		} else {
+			toPath = null;
+			getDefault = null;
+			newWatchService = null;
+			register = null;
+			poll = null;
+			closeWatcher = null;
+			pollEvents = null;
+			reset = null;
+			kind = null;
+			context = null;
+			overflow = null;
+			kinds = null;
+		}
+	}
+
+	private static Class<?> needClass(final String name) {
+		try {
+			return Class.forName(name);
+		} catch (ClassNotFoundException e) {
+			return null;
+		} catch (SecurityException e) {
+			return null;
+		}
+	}
+
+	private static Method needMethod(final Class<?> on, final String name,
+			final Class<?>... args) {
+		try {
+			return on.getMethod(name, args);
+		} catch (SecurityException e) {
+			return null;
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	private static Object needConstant(final Class<?> on, final String name) {
+		try {
+			return on.getField(name).get(null);
+		} catch (SecurityException e) {
+			return null;
+		} catch (NoSuchFieldException e) {
+			return null;
+		} catch (IllegalAccessException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if the running JVM provides a watch service; false if this
+	 *         monitor cannot be created.
+	 */
+	public static boolean isAvailable() {
+		return toPath != null && getDefault != null && newWatchService != null
+				&& register != null && poll != null && closeWatcher != null
+				&& pollEvents != null && reset != null && kind != null
+				&& context != null && overflow != null && kinds != null;
+	}
+
+	private final File root;
+
+	/** Identifies tokens issued by this instance. */
+	private final String instance = UUID.randomUUID().toString();
+
+	private final Object watcher;
+
+	/** Directory, relative to {@link #root}, of each registered watch key. */
+	private final Map<Object, String> keys = new HashMap<Object, String>();
+
+	/** Sequence number of the last event reported for each path. */
+	private final Map<String, Long> changes = new HashMap<String, Long>();
+
+	/** Sequence numbers of the valid tokens, oldest first. */
+	private final LinkedList<Long> tokens = new LinkedList<Long>();
+
+	private int maxTokens = 16;
+
+	/** Number of events reported so far. */
+	private long sequence;
+
+	/** Sequence number of the last event dropped by the platform; -1 if none. */
+	private long overflowed = -1;
+
+	/**
+	 * Create a monitor watching the working tree of a repository.
+	 *
+	 * @param repo
+	 *            the repository whose working tree will be watched.
+	 * @throws IOException
+	 *             the running JVM does not provide a watch service, or the
+	 *             directories of the working tree cannot be watched.
+	 */
+	public WatchServiceFileSystemMonitor(Repository repo) throws IOException {
+		this(repo.getWorkTree());
+	}
+
+	/**
+	 * Create a monitor watching a directory and its subdirectories.
+	 *
+	 * @param directory
+	 *            the directory to watch. Subdirectories named {@code .git}
+	 *            in it are not watched.
+	 * @throws IOException
+	 *             the running JVM does not provide a watch service, or the
+	 *             directories cannot be watched.
+	 */
+	public WatchServiceFileSystemMonitor(File directory) throws IOException {
+		if (!isAvailable())
+			throw new IOException(JGitText.get().fileSystemMonitorNotAvailable);
+		root = directory;
+		watcher = invoke(newWatchService, invoke(getDefault, null));
+		try {
+			registerAll(root, "");
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/** @return maximum number of tokens which remain valid. */
+	public synchronized int getMaxTokens() {
+		return maxTokens;
+	}
+
+	/**
+	 * Set the number of tokens which remain valid.
+	 * <p>
+	 * Once more tokens have been issued, the oldest ones are answered with
+	 * null by {@link #getChangedPaths(String)}.
+	 *
+	 * @param max
+	 *            maximum number of tokens; at least 1.
+	 */
+	public synchronized void setMaxTokens(final int max) {
+		maxTokens = Math.max(1, max);
+		trimTokens();
+	}
+
+	public synchronized String getToken() throws IOException {
+		drain();
+		if (tokens.isEmpty() || tokens.getLast().longValue() != sequence) {
+			tokens.add(Long.valueOf(sequence));
+			trimTokens();
+		}
+		return instance + ":" + sequence;
+	}
+
+	public synchronized Collection<String> getChangedPaths(String token)
+			throws IOException {
+		final String prefix = instance + ":";
+		if (token == null || !token.startsWith(prefix))
+			return null;
+		final long since;
+		try {
+			since = Long.parseLong(token.substring(prefix.length()));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		if (sequence < since || tokens.isEmpty()
+				|| since < tokens.getFirst().longValue())
+			return null;
+
+		drain();
+		if (since <= overflowed)
+			return null;
+		final List<String> r = new ArrayList<String>();
+		for (Map.Entry<String, Long> e : changes.entrySet()) {
+			if (since < e.getValue().longValue())
+				r.add(e.getKey());
+		}
+		return r;
+	}
+
+	/** @return number of changed paths currently remembered. */
+	synchronized int getRememberedPathCount() {
+		return changes.size();
+	}
+
+	/**
+	 * Stop watching the directory and release the watch service.
+	 *
+	 * @throws IOException
+	 *             the watch service could not be closed.
+	 */
+	public synchronized void close() throws IOException {
+		keys.clear();
+		tokens.clear();
+		changes.clear();
+		invoke(closeWatcher, watcher);
+	}
+
+	private void trimTokens() {
+		if (tokens.size() <= maxTokens)
+			return;
+		while (maxTokens < tokens.size())
+			tokens.removeFirst();
+
+		// No valid token can ask for changes made before the oldest one.
+		final long oldest = tokens.getFirst().longValue();
+		final Iterator<Long> i = changes.values().iterator();
+		while (i.hasNext()) {
+			if (i.next().longValue() <= oldest)
+				i.remove();
+		}
+	}
+
+	private void drain() throws IOException {
+		Object key;
+		while ((key = invoke(poll, watcher)) != null) {
+			final String dir = keys.get(key);
+			for (Object event : (List<?>) invoke(pollEvents, key)) {
+				final Object k = invoke(kind, event);
+				sequence++;
+				if (k == overflow) {
+					overflowed = sequence;
+					continue;
+				}
+				if (dir == null)
+					continue;
+
+				final String name = invoke(context, event).toString();
+				if (dir.length() == 0 && name.equals(Constants.DOT_GIT))
+					continue;
+				final String path = dir.length() == 0 ? name : dir + "/" + name;
+				if (!tokens.isEmpty())
+					changes.put(path, Long.valueOf(sequence));
+				if (k == Array.get(kinds, 0)) {
+					// Files may already have been created in a new directory
+					// before it is watched. Reporting the directory covers
+					// them.
+					final File f = new File(root, path);
+					if (f.isDirectory())
+						registerAll(f, path);
+				}
+			}
+			if (!((Boolean) invoke(reset, key)).booleanValue())
+				keys.remove(key);
+		}
+	}
+
+	private void registerAll(final File dir, final String path)
+			throws IOException {
+		final Object key = invoke(register, invoke(toPath, dir), watcher,
+				kinds);
+		keys.put(key, path);
+
+		final File[] list = dir.listFiles();
+		if (list == null)
+			return;
+		for (File f : list) {
+			final String name = f.getName();
+			if (path.length() == 0 && name.equals(Constants.DOT_GIT))
+				continue;
+			if (f.isDirectory())
+				registerAll(f, path.length() == 0 ? name : path + "/" + name);
+		}
+	}
+
+	private static Object invoke(final Method m, final Object on,
+			final Object... args) throws IOException {
+		try {
+			return m.invoke(on, args);
+		} catch (IllegalAccessException e) {
+			final IOException err = new IOException(e.getMessage());
+			err.initCause(e);
+			throw err;
+		} catch (InvocationTargetException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			final IOException err = new IOException(cause.getMessage());
+			err.initCause(cause);
+			throw err;
+		}
+	}
+}
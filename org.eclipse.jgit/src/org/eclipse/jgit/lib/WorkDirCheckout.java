@@ -52,8 +52,12 @@
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.dircache.ParallelCheckout;
 import org.eclipse.jgit.errors.CheckoutConflictException;
 import org.eclipse.jgit.lib.GitIndex.Entry;
 
@@ -67,12 +71,18 @@
  */
 @Deprecated
 public class WorkDirCheckout {
+	Repository repo;
+
 	File root;
 
 	GitIndex index;
 
 	private boolean failOnConflict = true;
 
+	private ExecutorService executor;
+
+	private final List<Entry> toCheckout = new ArrayList<Entry>();
+
 	Tree merge;
 
 
@@ -86,8 +96,25 @@ public void setFailOnConflict(boolean failOnConflict) {
 		this.failOnConflict = failOnConflict;
 	}
 
+	/**
+	 * Set the executor used to write files to the working directory.
+	 * <p>
+	 * Without an executor, files are written by as many threads as configured
+	 * by <code>checkout.workers</code>, if at least
+	 * <code>checkout.thresholdForParallelism</code> files are checked out. By
+	 * default they are written sequentially.
+	 *
+	 * @param executor
+	 *            executor to write files with; null to use the repository
+	 *            configuration.
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
 	WorkDirCheckout(Repository repo, File workDir,
 			GitIndex oldIndex, GitIndex newIndex) throws IOException {
+		this.repo = repo;
 		this.root = workDir;
 		this.index = oldIndex;
 		this.merge = repo.mapTree(newIndex.writeTree());
@@ -103,6 +130,7 @@ public void setFailOnConflict(boolean failOnConflict) {
 	 */
 	public WorkDirCheckout(Repository repo, File root,
 			GitIndex index, Tree merge) {
+		this.repo = repo;
 		this.root = root;
 		this.index = index;
 		this.merge = merge;
@@ -142,6 +170,7 @@ public void checkout() throws IOException {
 		if (head == null)
 			checkoutOutIndexNoHead();
 		else checkoutTwoTrees();
+		checkoutEntries();
 	}
 
 	private void checkoutTwoTrees() throws FileNotFoundException, IOException {
@@ -151,7 +180,7 @@ private void checkoutTwoTrees() throws FileNotFoundException, IOException {
 
 		for (java.util.Map.Entry<String, ObjectId> entry : updated.entrySet()) {
 			Entry newEntry = index.addEntry(merge.findBlobMember(entry.getKey()));
-			index.checkoutEntry(root, newEntry);
+			toCheckout.add(newEntry);
 		}
 	}
 
@@ -184,12 +213,28 @@ else if (i.getObjectId().equals(m.getId())) {
 
 				if (needsCheckout) {
 					Entry newEntry = index.addEntry(m);
-					index.checkoutEntry(root, newEntry);
+					toCheckout.add(newEntry);
 				}
 			}
 		}).walk();
 	}
 
+	private void checkoutEntries() throws IOException {
+		final ParallelCheckout pc = new ParallelCheckout(repo, root, executor);
+		final DirCacheEntry[] written = new DirCacheEntry[toCheckout.size()];
+		for (int i = 0; i < written.length; i++) {
+			final Entry e = toCheckout.get(i);
+			written[i] = new DirCacheEntry(e.getName());
+			written[i].setFileMode(FileMode.fromBits(e.getModeBits()));
+			written[i].setObjectId(e.getObjectId());
+			pc.add(written[i]);
+		}
+		pc.run();
+		for (int i = 0; i < written.length; i++)
+			toCheckout.get(i).setModified(written[i].getLastModified());
+		toCheckout.clear();
+	}
+
 	private void cleanUpConflicts() throws CheckoutConflictException {
 		for (String c : conflicts) {
 			File conflict = new File(root, c);
@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.revwalk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Counts how far many branches are ahead of and behind a common base.
+ * <p>
+ * A commit is <i>ahead</i> for a tip if it is reachable from the tip but not
+ * from the base, and <i>behind</i> if it is reachable from the base but not
+ * from the tip. Rather than walking the history once per tip, all tips are
+ * counted in a single walk: each commit carries a bit set recording which of
+ * the tips (and whether the base) can reach it, and the bits of a commit are
+ * added to its parents as the walk passes it. The walk stops once every
+ * pending commit is reachable from all tips and the base, as none of their
+ * ancestors can change any count.
+ * <p>
+ * When the repository has a commit-graph, commits are visited in order of
+ * their generation numbers, so every commit is counted after all of its
+ * children and the counts are exact. Otherwise commits are visited by commit
+ * time, and a commit whose bits change after it was counted is counted again,
+ * which keeps the counts correct in the presence of clock skew up to the same
+ * over-scan limit used by {@link RevWalk}.
+ */
+public class AheadBehindCounter {
+	private static final int OVER_SCAN = PendingGenerator.OVER_SCAN;
+
+	private final ObjectReader reader;
+
+	private int[] ahead;
+
+	private int[] behind;
+
+	/**
+	 * Create a new counter for a given repository.
+	 *
+	 * @param repo
+	 *            the repository the counter will obtain data from. An
+	 *            ObjectReader will be created by the counter, and must be
+	 *            released by the caller.
+	 */
+	public AheadBehindCounter(final Repository repo) {
+		this(repo.newObjectReader());
+	}
+
+	/**
+	 * Create a new counter for a given repository.
+	 *
+	 * @param or
+	 *            the reader the counter will obtain data from. The reader
+	 *            should be released by the caller when the counter is no
+	 *            longer required.
+	 */
+	public AheadBehindCounter(final ObjectReader or) {
+		reader = or;
+	}
+
+	/** Release any resources used by this counter's reader. */
+	public void release() {
+		reader.release();
+	}
+
+	/**
+	 * Count the commits each tip is ahead of and behind the base.
+	 * <p>
+	 * The counts can be obtained through {@link #getAheadCount(int)} and
+	 * {@link #getBehindCount(int)} once this method returns.
+	 *
+	 * @param base
+	 *            the commit to compare the tips to, e.g. the main branch.
+	 * @param tips
+	 *            the commits to count; tags are peeled to their commits.
+	 * @throws MissingObjectException
+	 *             a commit in the history does not exist.
+	 * @throws IncorrectObjectTypeException
+	 *             the base or a tip does not refer to a commit.
+	 * @throws IOException
+	 *             a commit could not be read.
+	 */
+	public void count(final AnyObjectId base,
+			final List<? extends AnyObjectId> tips)
+			throws MissingObjectException, IncorrectObjectTypeException,
+			IOException {
+		final int n = tips.size();
+		ahead = new int[n];
+		behind = new int[n];
+
+		final Walk walk = new Walk(reader, n + 1);
+		try {
+			for (int i = 0; i < n; i++)
+				walk.mark(walk.parseCommit(tips.get(i)), i);
+			walk.mark(walk.parseCommit(base), n);
+
+			final FIFORevQueue starts = walk.getStarts();
+			final DateRevQueue pending;
+			final boolean exact = walk.getCommitGraph() != null;
+			if (exact)
+				pending = new GenerationRevQueue(walk, starts);
+			else
+				pending = new DateRevQueue(starts);
+			walk.run(pending, exact);
+		} finally {
+			walk.dispose();
+		}
+	}
+
+	/**
+	 * @param i
+	 *            index of the tip, in the list given to {@link #count}.
+	 * @return number of commits reachable from the tip, but not the base.
+	 */
+	public int getAheadCount(final int i) {
+		return ahead[i];
+	}
+
+	/**
+	 * @param i
+	 *            index of the tip, in the list given to {@link #count}.
+	 * @return number of commits reachable from the base, but not the tip.
+	 */
+	public int getBehindCount(final int i) {
+		return behind[i];
+	}
+
+	/** A commit carrying the set of starting commits which reach it. */
+	private static class Node extends RevCommit {
+		/** One bit per tip, then one for the base; null if unreached. */
+		long[] bits;
+
+		/** True if {@link #bits} may also be referenced by another node. */
+		boolean shared;
+
+		boolean queued;
+
+		boolean counted;
+
+		Node(final AnyObjectId id) {
+			super(id);
+		}
+	}
+
+	private class Walk extends RevWalk {
+		private final int baseBit;
+
+		private final int words;
+
+		private final List<Node> starts = new ArrayList<Node>();
+
+		/** Number of queued nodes which are not reachable from all starts. */
+		private int incomplete;
+
+		/** Commits behind every tip, less {@link #behind} corrections. */
+		private int behindAll;
+
+		Walk(final ObjectReader or, final int nBits) {
+			super(or);
+			baseBit = nBits - 1;
+			words = (nBits + 63) >>> 6;
+		}
+
+		@Override
+		protected RevCommit createCommit(final AnyObjectId id) {
+			return new Node(id);
+		}
+
+		void mark(final RevCommit c, final int bit) {
+			final Node s = (Node) c;
+			if (s.bits == null) {
+				s.bits = new long[words];
+				s.queued = true;
+				starts.add(s);
+			}
+			s.bits[bit >>> 6] |= 1L << bit;
+		}
+
+		FIFORevQueue getStarts() {
+			final FIFORevQueue q = new FIFORevQueue();
+			for (final Node s : starts) {
+				if (!complete(s.bits))
+					incomplete++;
+				q.add(s);
+			}
+			return q;
+		}
+
+		void run(final DateRevQueue pending, final boolean exact)
+				throws MissingObjectException, IncorrectObjectTypeException,
+				IOException {
+			int lastTime = Integer.MAX_VALUE;
+			int overScan = OVER_SCAN;
+			for (;;) {
+				final Node c = (Node) pending.next();
+				if (c == null)
+					break;
+				c.queued = false;
+				final boolean done = complete(c.bits);
+				if (!done)
+					incomplete--;
+				if (!c.counted) {
+					c.counted = true;
+					add(c.bits, 1);
+				}
+
+				for (final RevCommit q : c.parents) {
+					if ((q.flags & PARSED) == 0)
+						q.parseHeaders(this);
+					carry(c, (Node) q, pending);
+				}
+
+				if (exact) {
+					// Every child of a commit is visited before it, so the
+					// bits of this commit are not needed any more.
+					c.bits = null;
+					if (incomplete == 0)
+						break;
+				} else if (incomplete == 0) {
+					final RevCommit n = pending.peek();
+					if (n != null && n.commitTime >= lastTime)
+						overScan = OVER_SCAN;
+					else if (--overScan == 0)
+						break;
+				} else
+					overScan = OVER_SCAN;
+				lastTime = c.commitTime;
+			}
+
+			final int n = ahead.length;
+			for (int i = 0; i < n; i++)
+				behind[i] += behindAll;
+		}
+
+		private void carry(final Node c, final Node p,
+				final DateRevQueue pending) {
+			final boolean changed;
+			if (p.bits == null) {
+				// Share the child's set until one of them has to change.
+				p.bits = c.bits;
+				p.shared = true;
+				c.shared = true;
+				changed = true;
+			} else if (!covers(p.bits, c.bits)) {
+				final boolean wasComplete = complete(p.bits);
+				if (p.counted)
+					add(p.bits, -1);
+				if (p.shared) {
+					p.bits = p.bits.clone();
+					p.shared = false;
+				}
+				for (int w = 0; w < words; w++)
+					p.bits[w] |= c.bits[w];
+				if (p.counted)
+					add(p.bits, 1);
+				if (p.queued && !wasComplete && complete(p.bits))
+					incomplete--;
+				changed = true;
+			} else
+				changed = false;
+
+			if (changed && !p.queued) {
+				p.queued = true;
+				if (!complete(p.bits))
+					incomplete++;
+				pending.add(p);
+			}
+		}
+
+		/** Apply the contribution of a commit reached by the given starts. */
+		private void add(final long[] bits, final int delta) {
+			if (complete(bits))
+				return;
+			final boolean fromBase = (bits[baseBit >>> 6] & (1L << baseBit)) != 0;
+			if (fromBase)
+				behindAll += delta;
+			for (int w = 0; w < words; w++) {
+				long word = bits[w];
+				while (word != 0) {
+					final int b = (w << 6) + Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+					if (b == baseBit)
+						continue;
+					if (fromBase)
+						behind[b] -= delta;
+					else
+						ahead[b] += delta;
+				}
+			}
+		}
+
+		private boolean complete(final long[] bits) {
+			final int last = words - 1;
+			for (int w = 0; w < last; w++) {
+				if (bits[w] != -1L)
+					return false;
+			}
+			final int rem = (baseBit + 1) & 63;
+			final long mask = rem == 0 ? -1L : (1L << rem) - 1;
+			return bits[last] == mask;
+		}
+
+		private boolean covers(final long[] have, final long[] add) {
+			if (have == add)
+				return true;
+			for (int w = 0; w < words; w++) {
+				if ((add[w] & ~have[w]) != 0)
+					return false;
+			}
+			return true;
+		}
+	}
+}
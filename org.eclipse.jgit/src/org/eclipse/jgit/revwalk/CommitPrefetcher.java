@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.revwalk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+
+/**
+ * Reads the canonical form of commits ahead of a {@link RevWalk}.
+ * <p>
+ * Once the walk has parsed a commit its parents are likely to be parsed next.
+ * The prefetcher hands the parents to a worker pool, where they are read
+ * through separate {@link ObjectReader}s, along with their own ancestors, and
+ * staged until the walk asks for them. Only raw object bytes are staged; the
+ * walk still parses every commit itself, on its own thread, so its results are
+ * not changed by prefetching.
+ * <p>
+ * A commit is claimed while it is waiting to be read or staged, so it is only
+ * read once. Once the walk takes it the claim is dropped, and the commit's
+ * {@link RevWalk#PARSED} flag keeps it from being read again: a task reads at
+ * most {@link #CHAIN_LENGTH} commits, and the walk only continues its chain
+ * with the ancestors it has not parsed yet. Commits a task read after the walk
+ * had parsed them are discarded when the staging area fills up.
+ * <p>
+ * Everything except the worker tasks runs on the walk's thread.
+ */
+final class CommitPrefetcher {
+	/** Number of commits a single task reads before yielding the worker. */
+	static final int CHAIN_LENGTH = 64;
+
+	/** Number of commits that may be staged before workers stop reading. */
+	static final int MAX_STAGED = 4096;
+
+	/** Commits parsed with a full staging area before looking for waste. */
+	private static final int PURGE_INTERVAL = 1024;
+
+	private final RevWalk walker;
+
+	private final ObjectReader reader;
+
+	private final ExecutorService executor;
+
+	/** Commits read by a worker, but not yet requested by the walk. */
+	private final ConcurrentHashMap<ObjectId, byte[]> staged;
+
+	/** Commits handed to a worker, and not yet taken by the walk. */
+	private final ConcurrentHashMap<ObjectId, Boolean> claimed;
+
+	/** Tasks which stopped before reading all of their commits. */
+	private final ConcurrentLinkedQueue<Chain> unfinished;
+
+	private final MutableObjectId idBuffer;
+
+	/** Incremented by {@link #cancel()} to stop tasks started before it. */
+	private volatile int epoch;
+
+	private int parsedWhileFull;
+
+	/** Number of commits the walk took from {@link #staged}. */
+	int hits;
+
+	CommitPrefetcher(final RevWalk walker, final ExecutorService executor) {
+		this.walker = walker;
+		this.reader = walker.reader;
+		this.executor = executor;
+		this.staged = new ConcurrentHashMap<ObjectId, byte[]>();
+		this.claimed = new ConcurrentHashMap<ObjectId, Boolean>();
+		this.unfinished = new ConcurrentLinkedQueue<Chain>();
+		this.idBuffer = new MutableObjectId();
+	}
+
+	/**
+	 * Remove the staged canonical form of an object.
+	 *
+	 * @param id
+	 *            the object the walk is about to parse.
+	 * @return the object's canonical form; null if it has not been read ahead.
+	 */
+	byte[] take(final AnyObjectId id) {
+		if (staged.isEmpty())
+			return null;
+		idBuffer.fromObjectId(id);
+		final byte[] raw = staged.remove(idBuffer);
+		if (raw != null) {
+			claimed.remove(idBuffer);
+			hits++;
+		}
+		return raw;
+	}
+
+	/**
+	 * Start reading the unparsed parents of a commit.
+	 *
+	 * @param c
+	 *            a commit whose headers were just parsed.
+	 */
+	void prefetchParents(final RevCommit c) {
+		if (c.parents != null) {
+			for (final RevCommit p : c.parents) {
+				if ((p.flags & RevWalk.PARSED) != 0)
+					continue;
+				final ObjectId id = p.copy();
+				if (claimed.putIfAbsent(id, Boolean.TRUE) == null) {
+					final List<ObjectId> todo = new ArrayList<ObjectId>(1);
+					todo.add(id);
+					submit(epoch, todo);
+				}
+			}
+		}
+
+		if (MAX_STAGED <= staged.size()) {
+			if (++parsedWhileFull < PURGE_INTERVAL)
+				return;
+			parsedWhileFull = 0;
+			discardParsed();
+		}
+		resumeChains();
+	}
+
+	/** Discard staged commits and stop the tasks that are running. */
+	void cancel() {
+		epoch++;
+		staged.clear();
+		claimed.clear();
+		unfinished.clear();
+	}
+
+	/** @return number of commits claimed, for tests. */
+	int getClaimedCount() {
+		return claimed.size();
+	}
+
+	private void resumeChains() {
+		Chain c;
+		while (staged.size() < MAX_STAGED && (c = unfinished.poll()) != null) {
+			if (c.started != epoch)
+				continue;
+			final List<ObjectId> todo = new ArrayList<ObjectId>(c.todo.size());
+			for (final ObjectId id : c.todo) {
+				if (isParsed(id))
+					claimed.remove(id);
+				else
+					todo.add(id);
+			}
+			if (!todo.isEmpty())
+				submit(epoch, todo);
+		}
+	}
+
+	private void discardParsed() {
+		final Iterator<ObjectId> i = staged.keySet().iterator();
+		while (i.hasNext()) {
+			final ObjectId id = i.next();
+			if (isParsed(id)) {
+				i.remove();
+				claimed.remove(id);
+			}
+		}
+	}
+
+	private boolean isParsed(final AnyObjectId id) {
+		final RevObject o = walker.lookupOrNull(id);
+		return o != null && (o.flags & RevWalk.PARSED) != 0;
+	}
+
+	private void submit(final int e, final List<ObjectId> todo) {
+		try {
+			executor.execute(new Chain(e, reader.newReader(), todo));
+		} catch (RejectedExecutionException shutdown) {
+			// The walk reads these commits itself when it needs them.
+		}
+	}
+
+	private class Chain implements Runnable {
+		final int started;
+
+		private final ObjectReader or;
+
+		final List<ObjectId> todo;
+
+		Chain(final int e, final ObjectReader or, final List<ObjectId> todo) {
+			this.started = e;
+			this.or = or;
+			this.todo = todo;
+		}
+
+		public void run() {
+			try {
+				for (int n = 0; n < CHAIN_LENGTH && !todo.isEmpty(); n++) {
+					if (started != epoch || MAX_STAGED <= staged.size())
+						break;
+					final ObjectId id = todo.remove(todo.size() - 1);
+					final byte[] raw;
+					try {
+						raw = or.open(id, Constants.OBJ_COMMIT)
+								.getCachedBytes();
+					} catch (IOException err) {
+						// The walk will report the error when it reads the
+						// commit.
+						claimed.remove(id);
+						continue;
+					}
+					if (started != epoch)
+						return;
+					staged.put(id, raw);
+					claimParents(raw);
+				}
+			} catch (RuntimeException err) {
+				// A corrupt commit is reported by the walk.
+			} finally {
+				or.release();
+			}
+
+			// The walk continues the chain, skipping what it has parsed.
+			if (!todo.isEmpty() && started == epoch)
+				unfinished.add(this);
+		}
+
+		private void claimParents(final byte[] raw) {
+			int ptr = 46;
+			while (ptr + 48 <= raw.length && raw[ptr] == 'p') {
+				final ObjectId p = ObjectId.fromString(raw, ptr + 7);
+				if (claimed.putIfAbsent(p, Boolean.TRUE) == null)
+					todo.add(p);
+				ptr += 48;
+			}
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.revwalk;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * A view of a commit stored by a {@link CompactRevWalk}.
+ * <p>
+ * The view holds nothing but the walker and the commit's handle; all data is
+ * read from the walker's arrays. Views are cheap to create and may be
+ * discarded at any time.
+ */
+public final class CompactCommit {
+	private final CompactRevWalk walk;
+
+	private final int handle;
+
+	CompactCommit(final CompactRevWalk walk, final int handle) {
+		this.walk = walk;
+		this.handle = handle;
+	}
+
+	/** @return handle of this commit in its walker. */
+	public int getHandle() {
+		return handle;
+	}
+
+	/** @return name of this commit. */
+	public ObjectId getId() {
+		return walk.getObjectId(handle);
+	}
+
+	/** @return time from the "committer " line of the commit. */
+	public int getCommitTime() {
+		return walk.getCommitTime(handle);
+	}
+
+	/** @return number of parents; -1 if the commit has not been parsed. */
+	public int getParentCount() {
+		return walk.getParentCount(handle);
+	}
+
+	/**
+	 * Get the nth parent of this commit.
+	 *
+	 * @param nth
+	 *            index of the parent, starting from 0.
+	 * @return a view of the parent.
+	 */
+	public CompactCommit getParent(final int nth) {
+		return new CompactCommit(walk, walk.getParent(handle, nth));
+	}
+
+	@Override
+	public int hashCode() {
+		return handle;
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (o instanceof CompactCommit) {
+			final CompactCommit c = (CompactCommit) o;
+			return walk == c.walk && handle == c.handle;
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "commit " + getId().name();
+	}
+}
@@ -0,0 +1,811 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.revwalk;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.storage.file.CommitGraph;
+import org.eclipse.jgit.util.RawParseUtils;
+
+/**
+ * Walks the commit graph while keeping commits in parallel primitive arrays.
+ * <p>
+ * A {@link RevWalk} allocates a {@link RevCommit}, a parent array and a
+ * {@link RevTree} for every commit it parses, which makes walking the entire
+ * history of a very large repository expensive in terms of memory. This walker
+ * stores only what is needed to traverse the graph (the commit's name, its
+ * commit time, its parents and its flags) in arrays of ints, and refers to a
+ * commit by its index into those arrays, its <i>handle</i>. A
+ * {@link CompactCommit} can be obtained to view a handle as an object.
+ * <p>
+ * Commits are produced in commit time order, like a RevWalk with no sorting
+ * and no filters, or, when the filter is {@link RevFilter#MERGE_BASE}, the
+ * merge bases of the starting commits are produced as RevWalk produces them.
+ * Commits with the same commit time are produced in the order they were
+ * reached, which RevWalk's queue does not preserve, so only such commits may
+ * come out in a different order than RevWalk would use. Headers are read from
+ * the repository's commit-graph when it has one, and otherwise parsed from the
+ * commit objects.
+ * <p>
+ * Handles are valid until {@link #dispose()} is invoked. A walker is not
+ * thread-safe.
+ */
+public class CompactRevWalk {
+	private static final int SEEN = 1 << 0;
+
+	private static final int UNINTERESTING = 1 << 1;
+
+	private static final int POPPED = 1 << 2;
+
+	private static final int MERGE_BASE = 1 << 3;
+
+	private static final int PARSED = 1 << 4;
+
+	/** Flags which are retained by {@link #reset()}. */
+	private static final int RETAINED_FLAGS = PARSED;
+
+	/** Flags available to mark the starting commits of a merge base walk. */
+	private static final int BRANCH_FLAGS = ~((1 << 5) - 1);
+
+	private static final int OVER_SCAN = PendingGenerator.OVER_SCAN;
+
+	/** Number of ints used to store each commit's name. */
+	private static final int ID_WIDTH = Constants.OBJECT_ID_LENGTH / 4;
+
+	private final ObjectReader reader;
+
+	private final MutableObjectId idBuffer;
+
+	private RevFilter filter;
+
+	private CommitGraph graph;
+
+	private boolean graphLoaded;
+
+	/** Handle + 1 of each graph position; 0 if not looked up yet. */
+	private int[] graphHandles;
+
+	/** Number of commits known to this walker. */
+	private int count;
+
+	/** Names of the commits, {@link #ID_WIDTH} ints per commit. */
+	private int[] ids;
+
+	private int[] commitTimes;
+
+	private int[] flags;
+
+	/** Offset of each commit's parents in {@link #parentPool}. */
+	private int[] parentPtr;
+
+	/** Parent count followed by the parent handles, for each commit. */
+	private int[] parentPool;
+
+	private int parentPoolSize;
+
+	/** Open addressed hash table of handle + 1, keyed by name. */
+	private int[] table;
+
+	/** Handles of the commits pending in the walk, as a binary heap. */
+	private int[] queue;
+
+	/** Insertion order of the {@link #queue} entries, to break ties. */
+	private int[] queueSeq;
+
+	private int queueSize;
+
+	private int nextSeq;
+
+	private boolean started;
+
+	private boolean uninteresting;
+
+	private int lastCommitTime;
+
+	private int overScan;
+
+	private final int[] delay;
+
+	private int delayHead;
+
+	private int delaySize;
+
+	private int branchMask;
+
+	private int recarryTest;
+
+	private int recarryMask;
+
+	/**
+	 * Create a new compact walker for a given repository.
+	 *
+	 * @param repo
+	 *            the repository the walker will obtain data from. An
+	 *            ObjectReader will be created by the walker, and must be
+	 *            released by the caller.
+	 */
+	public CompactRevWalk(final Repository repo) {
+		this(repo.newObjectReader());
+	}
+
+	/**
+	 * Create a new compact walker for a given repository.
+	 *
+	 * @param or
+	 *            the reader the walker will obtain data from. The reader should
+	 *            be released by the caller when the walker is no longer
+	 *            required.
+	 */
+	public CompactRevWalk(final ObjectReader or) {
+		reader = or;
+		idBuffer = new MutableObjectId();
+		filter = RevFilter.ALL;
+		delay = new int[OVER_SCAN];
+		dispose();
+	}
+
+	/** @return the reader this walker is using to load objects. */
+	public ObjectReader getObjectReader() {
+		return reader;
+	}
+
+	/** Release any resources used by this walker's reader. */
+	public void release() {
+		reader.release();
+	}
+
+	/**
+	 * Set the filter used to select the commits produced by the walk.
+	 *
+	 * @param newFilter
+	 *            {@link RevFilter#ALL} to produce every commit reachable from
+	 *            the starting commits, or {@link RevFilter#MERGE_BASE} to
+	 *            produce their merge bases. Null is treated as ALL.
+	 * @throws IllegalArgumentException
+	 *             the filter is not supported by this walker.
+	 */
+	public void setRevFilter(final RevFilter newFilter) {
+		final RevFilter f = newFilter != null ? newFilter : RevFilter.ALL;
+		if (f != RevFilter.ALL && f != RevFilter.MERGE_BASE)
+			throw new IllegalArgumentException(MessageFormat.format(
+					JGitText.get().unsupportedRevFilter, f));
+		filter = f;
+	}
+
+	/** @return the current filter; ALL or MERGE_BASE. */
+	public RevFilter getRevFilter() {
+		return filter;
+	}
+
+	/** @return number of commits known to the walker. */
+	public int getCommitCount() {
+		return count;
+	}
+
+	/**
+	 * Locate a commit without reading it.
+	 *
+	 * @param id
+	 *            name of the commit.
+	 * @return handle of the commit.
+	 */
+	public int lookupCommit(final AnyObjectId id) {
+		int i = id.hashCode() & (table.length - 1);
+		for (;;) {
+			final int e = table[i];
+			if (e == 0)
+				break;
+			if (id.compareTo(ids, (e - 1) * ID_WIDTH) == 0)
+				return e - 1;
+			i = (i + 1) & (table.length - 1);
+		}
+
+		final int h = count++;
+		if (h == flags.length)
+			grow();
+		id.copyRawTo(ids, h * ID_WIDTH);
+		commitTimes[h] = 0;
+		flags[h] = 0;
+		parentPtr[h] = -1;
+		table[i] = h + 1;
+		if (table.length <= count * 2)
+			rehash();
+		return h;
+	}
+
+	/**
+	 * Locate a commit and read its headers.
+	 *
+	 * @param id
+	 *            name of the commit.
+	 * @return handle of the commit.
+	 * @throws MissingObjectException
+	 *             the commit does not exist.
+	 * @throws IncorrectObjectTypeException
+	 *             the object is not a commit.
+	 * @throws IOException
+	 *             the commit could not be read.
+	 */
+	public int parseCommit(final AnyObjectId id)
+			throws MissingObjectException, IncorrectObjectTypeException,
+			IOException {
+		final int h = lookupCommit(id);
+		if ((flags[h] & PARSED) == 0)
+			parseHeaders(h);
+		return h;
+	}
+
+	/**
+	 * Mark a commit to start graph traversal from.
+	 *
+	 * @param id
+	 *            name of the commit.
+	 * @throws MissingObjectException
+	 *             the commit does not exist.
+	 * @throws IncorrectObjectTypeException
+	 *             the object is not a commit.
+	 * @throws IOException
+	 *             the commit could not be read.
+	 */
+	public void markStart(final AnyObjectId id) throws MissingObjectException,
+			IncorrectObjectTypeException, IOException {
+		markStart(parseCommit(id));
+	}
+
+	private void markStart(final int h) {
+		if ((flags[h] & SEEN) != 0)
+			return;
+		flags[h] |= SEEN;
+		push(h);
+	}
+
+	/**
+	 * Mark a commit to not produce in the output.
+	 * <p>
+	 * The commit and all of its ancestors are excluded from the output, just
+	 * as with {@link RevWalk#markUninteresting(RevCommit)}.
+	 *
+	 * @param id
+	 *            name of the commit.
+	 * @throws MissingObjectException
+	 *             the commit does not exist.
+	 * @throws IncorrectObjectTypeException
+	 *             the object is not a commit.
+	 * @throws IOException
+	 *             the commit could not be read.
+	 */
+	public void markUninteresting(final AnyObjectId id)
+			throws MissingObjectException, IncorrectObjectTypeException,
+			IOException {
+		final int h = parseCommit(id);
+		flags[h] |= UNINTERESTING;
+		carryFlags(h, UNINTERESTING);
+		markStart(h);
+	}
+
+	/**
+	 * Pop the next most recent commit.
+	 *
+	 * @return handle of the next commit; -1 when the walk is complete.
+	 * @throws MissingObjectException
+	 *             a commit in the history does not exist.
+	 * @throws IncorrectObjectTypeException
+	 *             an object in the history was expected to be a commit.
+	 * @throws IOException
+	 *             a commit could not be read.
+	 */
+	public int next() throws MissingObjectException,
+			IncorrectObjectTypeException, IOException {
+		if (!started)
+			start();
+		if (branchMask != 0)
+			return nextMergeBase();
+		if (!uninteresting)
+			return nextPending();
+
+		// Like RevWalk, delay the output a few commits so that commits which
+		// are found to be uninteresting late, because of clock skew, are not
+		// produced.
+		for (;;) {
+			while (delaySize < OVER_SCAN) {
+				final int h = nextPending();
+				if (h < 0)
+					break;
+				delay[(delayHead + delaySize++) % OVER_SCAN] = h;
+			}
+			if (delaySize == 0)
+				return -1;
+			final int h = delay[delayHead];
+			delayHead = (delayHead + 1) % OVER_SCAN;
+			delaySize--;
+			if ((flags[h] & UNINTERESTING) == 0)
+				return h;
+		}
+	}
+
+	/**
+	 * Get a view of a commit.
+	 *
+	 * @param h
+	 *            handle of the commit.
+	 * @return a lightweight view of the commit, backed by this walker.
+	 */
+	public CompactCommit getCommit(final int h) {
+		return new CompactCommit(this, h);
+	}
+
+	/**
+	 * @param h
+	 *            handle of the commit.
+	 * @return name of the commit.
+	 */
+	public ObjectId getObjectId(final int h) {
+		return ObjectId.fromRaw(ids, h * ID_WIDTH);
+	}
+
+	/**
+	 * @param h
+	 *            handle of a parsed commit.
+	 * @return time from the "committer " line of the commit.
+	 */
+	public int getCommitTime(final int h) {
+		return commitTimes[h];
+	}
+
+	/**
+	 * @param h
+	 *            handle of the commit.
+	 * @return number of parents of the commit; -1 if it has not been parsed.
+	 */
+	public int getParentCount(final int h) {
+		final int p = parentPtr[h];
+		return p < 0 ? -1 : parentPool[p];
+	}
+
+	/**
+	 * @param h
+	 *            handle of a parsed commit.
+	 * @param nth
+	 *            index of the parent, starting from 0.
+	 * @return handle of the parent.
+	 */
+	public int getParent(final int h, final int nth) {
+		return parentPool[parentPtr[h] + 1 + nth];
+	}
+
+	/**
+	 * Resets the walk so it can be started again with other commits.
+	 * <p>
+	 * Handles remain valid and commits already read are not read again.
+	 */
+	public void reset() {
+		for (int h = 0; h < count; h++)
+			flags[h] &= RETAINED_FLAGS;
+		queueSize = 0;
+		nextSeq = 0;
+		started = false;
+		uninteresting = false;
+		delayHead = 0;
+		delaySize = 0;
+		branchMask = 0;
+	}
+
+	/** Discard all commits, invalidating all handles. */
+	public void dispose() {
+		count = 0;
+		ids = new int[64 * ID_WIDTH];
+		commitTimes = new int[64];
+		flags = new int[64];
+		parentPtr = new int[64];
+		parentPool = new int[128];
+		parentPoolSize = 0;
+		table = new int[256];
+		queue = new int[64];
+		queueSeq = new int[64];
+		graph = null;
+		graphLoaded = false;
+		graphHandles = null;
+		reset();
+	}
+
+	private void start() throws MissingObjectException,
+			IncorrectObjectTypeException, IOException {
+		started = true;
+		lastCommitTime = Integer.MAX_VALUE;
+		overScan = OVER_SCAN;
+		if (filter == RevFilter.MERGE_BASE) {
+			startMergeBase();
+			return;
+		}
+		for (int i = 0; i < queueSize; i++) {
+			if ((flags[queue[i]] & UNINTERESTING) != 0) {
+				uninteresting = true;
+				break;
+			}
+		}
+	}
+
+	private int nextPending() throws MissingObjectException,
+			IncorrectObjectTypeException, IOException {
+		for (;;) {
+			final int h = pop();
+			if (h < 0) {
+				reader.release();
+				return -1;
+			}
+
+			addParents(h, SEEN);
+			if ((flags[h] & UNINTERESTING) == 0) {
+				lastCommitTime = commitTimes[h];
+				return h;
+			}
+			carryFlags(h, UNINTERESTING);
+
+			if (everybodyHas(UNINTERESTING)) {
+				if (0 < queueSize && commitTimes[queue[0]] >= lastCommitTime) {
+					// This is too close to call. The next commit we would pop
+					// is dated after the last one produced.
+					overScan = OVER_SCAN;
+				} else if (--overScan == 0) {
+					reader.release();
+					queueSize = 0;
+					return -1;
+				}
+			} else
+				overScan = OVER_SCAN;
+		}
+	}
+
+	private void startMergeBase() {
+		// Admit the starting commits in date order, as RevWalk does.
+		final int n = queueSize;
+		final int[] starts = new int[n];
+		for (int i = 0; i < n; i++)
+			starts[i] = pop();
+		nextSeq = 0;
+
+		int free = BRANCH_FLAGS;
+		for (int i = 0; i < n; i++) {
+			final int h = starts[i];
+			if (free == 0)
+				throw new IllegalArgumentException(MessageFormat.format(
+						JGitText.get().flagsAlreadyCreated, Integer
+								.bitCount(BRANCH_FLAGS)));
+			final int flag = Integer.lowestOneBit(free);
+			free &= ~flag;
+			if ((flags[h] & branchMask) != 0)
+				throw new IllegalStateException(MessageFormat.format(
+						JGitText.get().staleRevFlagsOn, getObjectId(h).name()));
+			branchMask |= flag;
+			flags[h] |= flag;
+			push(h);
+		}
+		recarryTest = branchMask | POPPED;
+		recarryMask = branchMask | POPPED | MERGE_BASE;
+	}
+
+	private int nextMergeBase() throws MissingObjectException,
+			IncorrectObjectTypeException, IOException {
+		for (;;) {
+			final int h = pop();
+			if (h < 0) {
+				reader.release();
+				return -1;
+			}
+
+			addParents(h, SEEN);
+
+			int carry = flags[h] & branchMask;
+			final boolean mb = carry == branchMask;
+			if (mb) {
+				// If we are a merge base make sure our ancestors are also
+				// flagged as being popped, so that they do not generate.
+				carry |= MERGE_BASE;
+			}
+			carryOntoHistory(h, carry);
+
+			if ((flags[h] & MERGE_BASE) != 0) {
+				// This commit is an ancestor of a merge base already produced.
+				if (everybodyHas(MERGE_BASE)) {
+					queueSize = 0;
+					return -1;
+				}
+				continue;
+			}
+			flags[h] |= POPPED;
+
+			if (mb) {
+				flags[h] |= MERGE_BASE;
+				return h;
+			}
+		}
+	}
+
+	private void carryOntoHistory(int h, final int carry) {
+		for (;;) {
+			final int ptr = parentPtr[h];
+			if (ptr < 0)
+				return;
+			final int n = parentPool[ptr];
+			if (n == 0)
+				return;
+
+			for (int i = 1; i < n; i++) {
+				final int p = parentPool[ptr + 1 + i];
+				if (!carryOntoOne(p, carry))
+					carryOntoHistory(p, carry);
+			}
+
+			h = parentPool[ptr + 1];
+			if (carryOntoOne(h, carry))
+				break;
+		}
+	}
+
+	private boolean carryOntoOne(final int p, final int carry) {
+		final boolean haveAll = (flags[p] & carry) == carry;
+		flags[p] |= carry;
+
+		if ((flags[p] & recarryMask) == recarryTest) {
+			// We were popped without being a merge base, but we just got
+			// voted to be one. Queue ourselves again and tell our ancestors
+			// they are within the merge base now.
+			flags[p] &= ~POPPED;
+			push(p);
+			carryOntoHistory(p, branchMask | MERGE_BASE);
+			return true;
+		}
+		return haveAll;
+	}
+
+	private void carryFlags(int h, final int carry) {
+		for (;;) {
+			final int ptr = parentPtr[h];
+			if (ptr < 0)
+				return;
+			final int n = parentPool[ptr];
+			if (n == 0)
+				return;
+
+			for (int i = 1; i < n; i++) {
+				final int p = parentPool[ptr + 1 + i];
+				if ((flags[p] & carry) == carry)
+					continue;
+				flags[p] |= carry;
+				carryFlags(p, carry);
+			}
+
+			h = parentPool[ptr + 1];
+			if ((flags[h] & carry) == carry)
+				return;
+			flags[h] |= carry;
+		}
+	}
+
+	private void addParents(final int h, final int mark)
+			throws MissingObjectException, IncorrectObjectTypeException,
+			IOException {
+		final int ptr = parentPtr[h];
+		final int n = parentPool[ptr];
+		for (int i = 0; i < n; i++) {
+			final int p = parentPool[ptr + 1 + i];
+			if ((flags[p] & mark) != 0)
+				continue;
+			if ((flags[p] & PARSED) == 0)
+				parseHeaders(p);
+			flags[p] |= mark;
+			push(p);
+		}
+	}
+
+	private boolean everybodyHas(final int f) {
+		for (int i = 0; i < queueSize; i++) {
+			if ((flags[queue[i]] & f) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	private void parseHeaders(final int h) throws MissingObjectException,
+			IncorrectObjectTypeException, IOException {
+		idBuffer.fromRaw(ids, h * ID_WIDTH);
+		if (!graphLoaded) {
+			graph = reader.getCommitGraph();
+			if (graph != null)
+				graphHandles = new int[graph.getCommitCount()];
+			graphLoaded = true;
+		}
+		if (graph != null) {
+			final int pos = graph.findGraphPosition(idBuffer);
+			if (0 <= pos) {
+				graphHandles[pos] = h + 1;
+				final int[] pList = graph.getParents(pos);
+				final int ptr = allocParents(h, pList.length);
+				for (int i = 0; i < pList.length; i++)
+					parentPool[ptr + 1 + i] = lookupGraphCommit(pList[i]);
+				commitTimes[h] = (int) graph.getCommitTime(pos);
+				flags[h] |= PARSED;
+				return;
+			}
+		}
+
+		final byte[] raw = reader.open(idBuffer, Constants.OBJ_COMMIT)
+				.getCachedBytes();
+		int ptr = 46;
+		int nParents = 0;
+		while (raw[ptr + 48 * nParents] == 'p')
+			nParents++;
+		final int pp = allocParents(h, nParents);
+		for (int i = 0; i < nParents; i++) {
+			idBuffer.fromString(raw, ptr + 7);
+			parentPool[pp + 1 + i] = lookupCommit(idBuffer);
+			ptr += 48;
+		}
+
+		// extract time from "committer "
+		ptr = RawParseUtils.committer(raw, ptr);
+		if (ptr > 0) {
+			ptr = RawParseUtils.nextLF(raw, ptr, '>');
+			commitTimes[h] = RawParseUtils.parseBase10(raw, ptr, null);
+		}
+		flags[h] |= PARSED;
+	}
+
+	private int lookupGraphCommit(final int pos) {
+		final int e = graphHandles[pos];
+		if (e != 0)
+			return e - 1;
+		final int h = lookupCommit(graph.getObjectId(pos));
+		graphHandles[pos] = h + 1;
+		return h;
+	}
+
+	private int allocParents(final int h, final int n) {
+		if (parentPool.length < parentPoolSize + 1 + n) {
+			final int[] n2 = new int[Math.max(parentPool.length * 2,
+					parentPoolSize + 1 + n)];
+			System.arraycopy(parentPool, 0, n2, 0, parentPoolSize);
+			parentPool = n2;
+		}
+		final int ptr = parentPoolSize;
+		parentPool[ptr] = n;
+		parentPoolSize += 1 + n;
+		parentPtr[h] = ptr;
+		return ptr;
+	}
+
+	private void push(final int h) {
+		if (queueSize == queue.length) {
+			queue = grow(queue, queueSize);
+			queueSeq = grow(queueSeq, queueSize);
+		}
+		final int seq = nextSeq++;
+		int i = queueSize++;
+		while (0 < i) {
+			final int up = (i - 1) >>> 1;
+			if (!before(h, seq, queue[up], queueSeq[up]))
+				break;
+			queue[i] = queue[up];
+			queueSeq[i] = queueSeq[up];
+			i = up;
+		}
+		queue[i] = h;
+		queueSeq[i] = seq;
+	}
+
+	private int pop() {
+		if (queueSize == 0)
+			return -1;
+		final int top = queue[0];
+		final int n = --queueSize;
+		if (n == 0)
+			return top;
+
+		final int h = queue[n];
+		final int seq = queueSeq[n];
+		int i = 0;
+		for (;;) {
+			int c = 2 * i + 1;
+			if (n <= c)
+				break;
+			if (c + 1 < n && before(queue[c + 1], queueSeq[c + 1], queue[c],
+					queueSeq[c]))
+				c++;
+			if (!before(queue[c], queueSeq[c], h, seq))
+				break;
+			queue[i] = queue[c];
+			queueSeq[i] = queueSeq[c];
+			i = c;
+		}
+		queue[i] = h;
+		queueSeq[i] = seq;
+		return top;
+	}
+
+	/** Newer commits first; commits with the same time in insertion order. */
+	private boolean before(final int a, final int aSeq, final int b,
+			final int bSeq) {
+		final int ta = commitTimes[a];
+		final int tb = commitTimes[b];
+		if (ta != tb)
+			return ta > tb;
+		return aSeq < bSeq;
+	}
+
+	private void grow() {
+		final int n = flags.length * 2;
+		ids = grow(ids, n * ID_WIDTH);
+		commitTimes = grow(commitTimes, n);
+		flags = grow(flags, n);
+		parentPtr = grow(parentPtr, n);
+	}
+
+	private static int[] grow(final int[] src, final int minLength) {
+		final int[] n = new int[Math.max(src.length * 2, minLength)];
+		System.arraycopy(src, 0, n, 0, src.length);
+		return n;
+	}
+
+	private void rehash() {
+		final int[] t = new int[table.length * 2];
+		final int mask = t.length - 1;
+		for (int h = 0; h < count; h++) {
+			int i = ids[h * ID_WIDTH + 1] & mask;
+			while (t[i] != 0)
+				i = (i + 1) & mask;
+			t[i] = h + 1;
+		}
+		table = t;
+	}
+}
@@ -44,6 +44,8 @@
 package org.eclipse.jgit.revwalk;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
 
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
@@ -106,6 +108,11 @@ public boolean shouldBeRecursive() {
 		return path.shouldBeRecursive() || ANY_DIFF.shouldBeRecursive();
 	}
 
+	@Override
+	public Set<String> getChangedPaths() {
+		return Collections.singleton(getPath());
+	}
+
 	@Override
 	public TreeFilter clone() {
 		return new FollowFilter(path.clone());
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.revwalk;
+
+import java.io.IOException;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+
+/**
+ * A queue of commits sorted by generation number, then commit time.
+ * <p>
+ * A commit's generation number is always greater than those of its parents,
+ * so commits are removed from this queue in topological order: no commit is
+ * returned before all of its children which were added to the queue. A walk
+ * that uses this queue can therefore produce commits in topological order as
+ * it goes, rather than having to read the entire history first.
+ * <p>
+ * Generation numbers come from the repository's commit-graph, or are computed
+ * for the commits which are newer than the graph when the queue is created.
+ */
+class GenerationRevQueue extends DateRevQueue {
+	private final RevWalk walker;
+
+	private Entry head;
+
+	private Entry free;
+
+	/**
+	 * Create a queue holding the commits of another queue.
+	 *
+	 * @param w
+	 *            the walk the commits belong to. The walk must have a
+	 *            commit-graph.
+	 * @param s
+	 *            the starting commits of the walk.
+	 * @throws MissingObjectException
+	 * @throws IncorrectObjectTypeException
+	 * @throws IOException
+	 */
+	GenerationRevQueue(final RevWalk w, final Generator s)
+			throws MissingObjectException, IncorrectObjectTypeException,
+			IOException {
+		walker = w;
+		for (;;) {
+			final RevCommit c = s.next();
+			if (c == null)
+				break;
+
+			// Commits which are not in the commit-graph can only be reached
+			// through the starting commits, so computing their generations
+			// now ensures add() never has to read from the repository.
+			//
+			walker.computeGeneration(c);
+			add(c);
+		}
+	}
+
+	public void add(final RevCommit c) {
+		Entry q = head;
+		final Entry n = newEntry(c, walker.getGeneration(c));
+		if (q == null || before(n, q)) {
+			n.next = q;
+			head = n;
+		} else {
+			Entry p = q.next;
+			while (p != null && !before(n, p)) {
+				q = p;
+				p = q.next;
+			}
+			n.next = q.next;
+			q.next = n;
+		}
+	}
+
+	private static boolean before(final Entry a, final Entry b) {
+		if (a.generation != b.generation)
+			return a.generation > b.generation;
+		return a.commit.commitTime > b.commit.commitTime;
+	}
+
+	public RevCommit next() {
+		final Entry q = head;
+		if (q == null)
+			return null;
+		head = q.next;
+		freeEntry(q);
+		return q.commit;
+	}
+
+	public RevCommit peek() {
+		return head != null ? head.commit : null;
+	}
+
+	public void clear() {
+		head = null;
+		free = null;
+	}
+
+	boolean everbodyHasFlag(final int f) {
+		for (Entry q = head; q != null; q = q.next) {
+			if ((q.commit.flags & f) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	boolean anybodyHasFlag(final int f) {
+		for (Entry q = head; q != null; q = q.next) {
+			if ((q.commit.flags & f) != 0)
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	int outputType() {
+		return outputType | SORT_TOPO;
+	}
+
+	public String toString() {
+		final StringBuilder s = new StringBuilder();
+		for (Entry q = head; q != null; q = q.next)
+			describe(s, q.commit);
+		return s.toString();
+	}
+
+	private Entry newEntry(final RevCommit c, final int generation) {
+		Entry r = free;
+		if (r == null)
+			r = new Entry();
+		else
+			free = r.next;
+		r.commit = c;
+		r.generation = generation;
+		return r;
+	}
+
+	private void freeEntry(final Entry e) {
+		e.next = free;
+		free = e;
+	}
+
+	private static class Entry {
+		Entry next;
+
+		RevCommit commit;
+
+		int generation;
+	}
+}
@@ -118,7 +118,7 @@ class PendingGenerator extends Generator {
 
 	@Override
 	int outputType() {
-		return output | SORT_COMMIT_TIME_DESC;
+		return output | pending.outputType();
 	}
 
 	@Override
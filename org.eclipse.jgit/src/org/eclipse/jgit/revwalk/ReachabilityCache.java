@@ -0,0 +1,463 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.revwalk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.events.ListenerHandle;
+import org.eclipse.jgit.events.RefsChangedEvent;
+import org.eclipse.jgit.events.RefsChangedListener;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.CommitGraph;
+
+/**
+ * Answers reachability queries from cached summaries of each tip's history.
+ * <p>
+ * {@link RevWalk#isMergedInto(RevCommit, RevCommit)} walks the history of the
+ * tip on every call, and finding the refs which contain a commit requires a
+ * walk for each ref. This cache instead computes, once per tip, the set of
+ * commits reachable from it: a bit set indexed by commit-graph position for
+ * the commits in the repository's commit-graph, and a bit set for the commits
+ * which are not. Those commits are given positions by the cache, their object
+ * ids being stored once for all summaries. A summary can then answer any
+ * number of queries for its tip, and is reused when computing the summaries
+ * of descendant tips.
+ * <p>
+ * Summaries are keyed by the tip's commit, so they stay valid as long as the
+ * tip exists. When the repository reports that its references changed, the
+ * summaries of tips no longer referenced are dropped. All summaries are
+ * dropped when the commit-graph is replaced. The number of summaries kept is
+ * bounded, the least recently used being discarded first. The number of
+ * commits outside of the graph given a position is bounded too: once it is
+ * exceeded all summaries are dropped before the next query. Without a
+ * commit-graph this bound applies to the whole history.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ReachabilityCache {
+	/** Default for {@link #setMaxSummaries(int)}. */
+	public static final int DEFAULT_MAX_SUMMARIES = 128;
+
+	/** Default for {@link #setMaxOtherCommits(int)}. */
+	public static final int DEFAULT_MAX_OTHER_COMMITS = 1 << 20;
+
+	private final Repository db;
+
+	private final ListenerHandle listener;
+
+	private final Map<ObjectId, Summary> summaries;
+
+	private final MutableObjectId idBuffer = new MutableObjectId();
+
+	/** Graph positions of the tips in {@link #summaries}. */
+	private BitSet summaryTips;
+
+	/** Positions of the commits which are not in {@link #graph}. */
+	private ObjectIdSubclassMap<OtherCommit> otherCommits;
+
+	private CommitGraph graph;
+
+	private int maxSummaries = DEFAULT_MAX_SUMMARIES;
+
+	private int maxOtherCommits = DEFAULT_MAX_OTHER_COMMITS;
+
+	private volatile boolean refsChanged;
+
+	/**
+	 * Create a cache for a repository.
+	 * <p>
+	 * The cache listens for reference changes of the repository until it is
+	 * released.
+	 *
+	 * @param repo
+	 *            the repository to answer queries for.
+	 */
+	public ReachabilityCache(final Repository repo) {
+		db = repo;
+		summaries = new LinkedHashMap<ObjectId, Summary>(16, 0.75f, true);
+		summaryTips = new BitSet();
+		otherCommits = new ObjectIdSubclassMap<OtherCommit>();
+		listener = repo.getListenerList().addRefsChangedListener(
+				new RefsChangedListener() {
+					public void onRefsChanged(RefsChangedEvent event) {
+						refsChanged = true;
+					}
+				});
+	}
+
+	/**
+	 * Set the maximum number of tips to keep summaries for.
+	 *
+	 * @param max
+	 *            maximum number of summaries; at least 1.
+	 */
+	public synchronized void setMaxSummaries(final int max) {
+		maxSummaries = Math.max(1, max);
+		trim();
+	}
+
+	/**
+	 * Set the maximum number of commits outside of the commit-graph to keep.
+	 * <p>
+	 * Each such commit reachable from a summarized tip costs its object id
+	 * once, and a bit in each summary. When more commits than this are known
+	 * all summaries are dropped before the next query.
+	 *
+	 * @param max
+	 *            maximum number of commits; at least 1.
+	 */
+	public synchronized void setMaxOtherCommits(final int max) {
+		maxOtherCommits = Math.max(1, max);
+	}
+
+	/** Stop listening for reference changes and discard all summaries. */
+	public synchronized void release() {
+		listener.remove();
+		clear(null);
+	}
+
+	/**
+	 * Determine if a commit is reachable from a tip.
+	 *
+	 * @param base
+	 *            commit the caller thinks is reachable from <code>tip</code>.
+	 * @param tip
+	 *            commit to start iteration from.
+	 * @return true if <code>base</code> is reachable from <code>tip</code>,
+	 *         including if they are the same commit.
+	 * @throws MissingObjectException
+	 *             a commit in the history does not exist.
+	 * @throws IncorrectObjectTypeException
+	 *             the tip is not a commit.
+	 * @throws IOException
+	 *             a commit could not be read.
+	 */
+	public synchronized boolean isMergedInto(final AnyObjectId base,
+			final AnyObjectId tip) throws MissingObjectException,
+			IncorrectObjectTypeException, IOException {
+		final ObjectReader reader = db.newObjectReader();
+		try {
+			final RevWalk rw = new RevWalk(reader);
+			prepare(rw);
+			return contains(getSummary(rw, rw.parseCommit(tip)), base);
+		} finally {
+			reader.release();
+		}
+	}
+
+	/**
+	 * Find all references of the repository which contain a commit.
+	 *
+	 * @param commit
+	 *            the commit to search for.
+	 * @return the references whose commit is, or descends from,
+	 *         <code>commit</code>.
+	 * @throws MissingObjectException
+	 *             a commit in the history does not exist.
+	 * @throws IOException
+	 *             a commit could not be read.
+	 */
+	public List<Ref> getRefsContaining(final AnyObjectId commit)
+			throws MissingObjectException, IOException {
+		return getRefsContaining(commit, db.getAllRefs().values());
+	}
+
+	/**
+	 * Find the references which contain a commit.
+	 * <p>
+	 * Annotated tags are peeled; references which do not lead to a commit
+	 * never contain one.
+	 *
+	 * @param commit
+	 *            the commit to search for.
+	 * @param refs
+	 *            the references to test.
+	 * @return the references of <code>refs</code> whose commit is, or
+	 *         descends from, <code>commit</code>, in the order given.
+	 * @throws MissingObjectException
+	 *             a commit in the history does not exist.
+	 * @throws IOException
+	 *             a commit could not be read.
+	 */
+	public synchronized List<Ref> getRefsContaining(final AnyObjectId commit,
+			final Collection<Ref> refs) throws MissingObjectException,
+			IOException {
+		final List<Ref> r = new ArrayList<Ref>();
+		final ObjectReader reader = db.newObjectReader();
+		try {
+			final RevWalk rw = new RevWalk(reader);
+			prepare(rw);
+			for (final Ref ref : refs) {
+				final RevCommit tip = peel(rw, ref);
+				if (tip != null && contains(getSummary(rw, tip), commit))
+					r.add(ref);
+			}
+		} finally {
+			reader.release();
+		}
+		return r;
+	}
+
+	/** @return number of summaries currently held. */
+	synchronized int getSummaryCount() {
+		return summaries.size();
+	}
+
+	/** @return number of commits outside of the graph given a position. */
+	synchronized int getOtherCommitCount() {
+		return otherCommits.size();
+	}
+
+	private void prepare(final RevWalk rw) throws IOException {
+		final CommitGraph g = rw.getCommitGraph();
+		if (g != graph || maxOtherCommits < otherCommits.size()) {
+			clear(g);
+			refsChanged = false;
+		} else if (refsChanged) {
+			refsChanged = false;
+			dropUnreferenced(rw);
+		}
+	}
+
+	private void dropUnreferenced(final RevWalk rw) throws IOException {
+		final ObjectIdSubclassMap<ObjectId> live;
+		live = new ObjectIdSubclassMap<ObjectId>();
+		for (final Ref ref : db.getAllRefs().values()) {
+			final RevCommit tip = peel(rw, ref);
+			if (tip != null && live.get(tip) == null)
+				live.add(tip.copy());
+		}
+
+		final Iterator<Map.Entry<ObjectId, Summary>> i;
+		for (i = summaries.entrySet().iterator(); i.hasNext();) {
+			final Map.Entry<ObjectId, Summary> e = i.next();
+			if (live.get(e.getKey()) == null) {
+				if (0 <= e.getValue().tipPosition)
+					summaryTips.clear(e.getValue().tipPosition);
+				i.remove();
+			}
+		}
+	}
+
+	private void clear(final CommitGraph g) {
+		graph = g;
+		summaries.clear();
+		summaryTips = new BitSet();
+		otherCommits = new ObjectIdSubclassMap<OtherCommit>();
+	}
+
+	private void trim() {
+		final Iterator<Summary> i = summaries.values().iterator();
+		while (maxSummaries < summaries.size()) {
+			final Summary s = i.next();
+			if (0 <= s.tipPosition)
+				summaryTips.clear(s.tipPosition);
+			i.remove();
+		}
+	}
+
+	private RevCommit peel(final RevWalk rw, final Ref ref) throws IOException {
+		ObjectId id = ref.getObjectId();
+		if (id == null)
+			return null;
+		if (graph != null && 0 <= graph.findGraphPosition(id))
+			return rw.lookupCommit(id);
+
+		RevObject o;
+		try {
+			o = rw.peel(rw.parseAny(id));
+		} catch (MissingObjectException notFound) {
+			return null;
+		}
+		return o instanceof RevCommit ? (RevCommit) o : null;
+	}
+
+	private boolean contains(final Summary s, final AnyObjectId commit) {
+		if (graph != null) {
+			final int pos = graph.findGraphPosition(commit);
+			if (0 <= pos)
+				return s.graphCommits.get(pos);
+		}
+		final OtherCommit c = otherCommits.get(commit);
+		return c != null && s.otherCommits.get(c.position);
+	}
+
+	private Summary getSummary(final RevWalk rw, final RevCommit tip)
+			throws MissingObjectException, IncorrectObjectTypeException,
+			IOException {
+		Summary s = lookup(tip);
+		if (s == null) {
+			s = compute(rw, tip);
+			summaries.put(tip.copy(), s);
+			if (0 <= s.tipPosition)
+				summaryTips.set(s.tipPosition);
+			trim();
+		}
+		return s;
+	}
+
+	private Summary lookup(final AnyObjectId id) {
+		// RevCommit's equals() is identity, so look up by a plain id.
+		idBuffer.fromObjectId(id);
+		return summaries.get(idBuffer);
+	}
+
+	private Summary compute(final RevWalk rw, final RevCommit tip)
+			throws MissingObjectException, IncorrectObjectTypeException,
+			IOException {
+		final Summary s = new Summary();
+		final List<RevCommit> commits = new ArrayList<RevCommit>();
+		final BitSet positions = new BitSet();
+		int nPositions = 0;
+		int[] stack = new int[16];
+
+		s.tipPosition = graph != null ? graph.findGraphPosition(tip) : -1;
+		if (0 <= s.tipPosition)
+			stack[nPositions++] = s.tipPosition;
+		else
+			commits.add(tip);
+
+		// Commits outside of the graph are read from the repository,
+		// until the walk reaches the graph.
+		while (!commits.isEmpty()) {
+			final RevCommit c = commits.remove(commits.size() - 1);
+			final int cPos = intern(c);
+			if (s.otherCommits.get(cPos))
+				continue;
+			if (c != tip && reuse(s, lookup(c)))
+				continue;
+			rw.parseHeaders(c);
+			s.otherCommits.set(cPos);
+			for (final RevCommit p : c.getParents()) {
+				final int pos = graph != null ? graph.findGraphPosition(p) : -1;
+				if (pos < 0)
+					commits.add(p);
+				else if (!positions.get(pos)) {
+					positions.set(pos);
+					if (stack.length == nPositions)
+						stack = grow(stack);
+					stack[nPositions++] = pos;
+				}
+			}
+		}
+
+		final BitSet bits = s.graphCommits;
+		while (0 < nPositions) {
+			final int pos = stack[--nPositions];
+			if (bits.get(pos))
+				continue;
+			if (pos != s.tipPosition && summaryTips.get(pos)
+					&& reuse(s, summaries.get(graph.getObjectId(pos))))
+				continue;
+			bits.set(pos);
+			for (final int p : graph.getParents(pos)) {
+				if (!bits.get(p)) {
+					if (stack.length == nPositions)
+						stack = grow(stack);
+					stack[nPositions++] = p;
+				}
+			}
+		}
+		return s;
+	}
+
+	private static boolean reuse(final Summary s, final Summary ancestor) {
+		if (ancestor == null)
+			return false;
+		s.graphCommits.or(ancestor.graphCommits);
+		s.otherCommits.or(ancestor.otherCommits);
+		return true;
+	}
+
+	private int intern(final RevCommit c) {
+		OtherCommit o = otherCommits.get(c);
+		if (o == null) {
+			o = new OtherCommit(c, otherCommits.size());
+			otherCommits.add(o);
+		}
+		return o.position;
+	}
+
+	private static int[] grow(final int[] src) {
+		final int[] n = new int[src.length * 2];
+		System.arraycopy(src, 0, n, 0, src.length);
+		return n;
+	}
+
+	/** Commits reachable from one tip. */
+	private static class Summary {
+		/** Graph position of the tip; -1 if it is not in the graph. */
+		int tipPosition;
+
+		/** Graph positions of the reachable commits in the graph. */
+		final BitSet graphCommits = new BitSet();
+
+		/** Positions of the reachable commits which are not in the graph. */
+		final BitSet otherCommits = new BitSet();
+	}
+
+	/** A commit which is not in the graph, and its position in summaries. */
+	private static class OtherCommit extends ObjectId {
+		final int position;
+
+		OtherCommit(final AnyObjectId id, final int position) {
+			super(id);
+			this.position = position;
+		}
+	}
+}
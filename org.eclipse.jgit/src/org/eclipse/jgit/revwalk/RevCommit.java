@@ -58,11 +58,14 @@
 import org.eclipse.jgit.lib.MutableObjectId;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.util.RawParseUtils;
+import org.eclipse.jgit.util.RawPersonIdent;
 
 /** A commit reference to a commit in the DAG. */
 public class RevCommit extends RevObject {
 	static final RevCommit[] NO_PARENTS = {};
 
+	private static final byte[] COMMITTER = Constants.encodeASCII("committer ");
+
 	private RevTree tree;
 
 	RevCommit[] parents;
@@ -86,6 +89,13 @@ protected RevCommit(final AnyObjectId id) {
 	@Override
 	void parseHeaders(final RevWalk walk) throws MissingObjectException,
 			IncorrectObjectTypeException, IOException {
+		if (!walk.isRetainBody()) {
+			final byte[] hdr = loadHeaders(walk, COMMITTER);
+			if (hdr != null) {
+				parseCanonical(walk, hdr);
+				return;
+			}
+		}
 		parseCanonical(walk, loadCanonical(walk));
 	}
 
@@ -105,7 +115,9 @@ void parseCanonical(final RevWalk walk, final byte[] raw) {
 		tree = walk.lookupTree(idBuffer);
 
 		int ptr = 46;
-		if (parents == null) {
+		if (parents == null && raw[ptr] != 'p')
+			parents = NO_PARENTS;
+		else if (parents == null) {
 			RevCommit[] pList = new RevCommit[1];
 			int nParents = 0;
 			for (;;) {
@@ -148,6 +160,8 @@ else if (nParents == 1) {
 		if (walk.isRetainBody())
 			buffer = raw;
 		flags |= PARSED;
+		if (walk.prefetcher != null)
+			walk.prefetcher.prefetchParents(this);
 	}
 
 	@Override
@@ -332,6 +346,44 @@ public final PersonIdent getCommitterIdent() {
 		return RawParseUtils.parsePersonIdent(raw, nameB);
 	}
 
+	/**
+	 * Locate the author identity in the raw buffer, without decoding it.
+	 * <p>
+	 * Unlike {@link #getAuthorIdent()} this method does not allocate, so it
+	 * is suited to RevFilter implementations which examine the author of
+	 * every commit. The same <code>ident</code> can be passed for each one.
+	 *
+	 * @param ident
+	 *            receives the positions of the author's name and email
+	 *            address, and the time.
+	 * @return true if the author line was found and <code>ident</code>
+	 *         describes it; false if there is no valid author line.
+	 */
+	public final boolean parseAuthor(final RawPersonIdent ident) {
+		final byte[] raw = buffer;
+		final int nameB = RawParseUtils.author(raw, 0);
+		return nameB >= 0 && ident.parse(raw, nameB);
+	}
+
+	/**
+	 * Locate the committer identity in the raw buffer, without decoding it.
+	 * <p>
+	 * Unlike {@link #getCommitterIdent()} this method does not allocate, so it
+	 * is suited to RevFilter implementations which examine the committer of
+	 * every commit. The same <code>ident</code> can be passed for each one.
+	 *
+	 * @param ident
+	 *            receives the positions of the committer's name and email
+	 *            address, and the time.
+	 * @return true if the committer line was found and <code>ident</code>
+	 *         describes it; false if there is no valid committer line.
+	 */
+	public final boolean parseCommitter(final RawPersonIdent ident) {
+		final byte[] raw = buffer;
+		final int nameB = RawParseUtils.committer(raw, 0);
+		return nameB >= 0 && ident.parse(raw, nameB);
+	}
+
 	/**
 	 * Parse the complete commit message and decode it to a string.
 	 * <p>
@@ -51,11 +51,18 @@
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.RawParseUtils;
 
 /** Base object type accessed during revision walking. */
 public abstract class RevObject extends ObjectId {
 	static final int PARSED = 1;
 
+	/** Initial size of {@link RevWalk#headerBuffer}. */
+	private static final int HEADER_BUFFER_SIZE = 1024;
+
+	/** Largest {@link RevWalk#headerBuffer} before headers are loaded whole. */
+	private static final int MAX_HEADER_BUFFER_SIZE = 64 * 1024;
+
 	int flags;
 
 	RevObject(final AnyObjectId name) {
@@ -77,9 +84,64 @@ void parseBody(final RevWalk walk) throws MissingObjectException,
 	final byte[] loadCanonical(final RevWalk walk) throws IOException,
 			MissingObjectException, IncorrectObjectTypeException,
 			CorruptObjectException {
+		if (walk.prefetcher != null) {
+			final byte[] raw = walk.prefetcher.take(this);
+			if (raw != null)
+				return raw;
+		}
 		return walk.reader.open(this, getType()).getCachedBytes();
 	}
 
+	/**
+	 * Read the headers of this object into the walker's reusable buffer.
+	 * <p>
+	 * Only used if the body is not retained, so parsing the headers of many
+	 * objects does not allocate a buffer for each of them.
+	 *
+	 * @param walk
+	 *            the walker owning the buffer.
+	 * @param last
+	 *            the last header line the caller parses, e.g.
+	 *            <code>"committer "</code>.
+	 * @return the walker's buffer, holding the object from its start through
+	 *         the <code>last</code> line; null if the headers could not be
+	 *         read this way and {@link #loadCanonical(RevWalk)} must be used.
+	 * @throws IOException
+	 *             the object could not be read.
+	 */
+	final byte[] loadHeaders(final RevWalk walk, final byte[] last)
+			throws IOException {
+		if (walk.prefetcher != null)
+			return null; // Bytes read ahead are already in a buffer.
+		byte[] buf = walk.headerBuffer;
+		if (buf == null)
+			buf = walk.headerBuffer = new byte[HEADER_BUFFER_SIZE];
+		for (;;) {
+			final int n = walk.reader.readPrefix(this, getType(), buf);
+			if (hasHeader(buf, n, last))
+				return buf;
+			if (n < buf.length || MAX_HEADER_BUFFER_SIZE <= buf.length)
+				return null;
+			buf = walk.headerBuffer = new byte[buf.length * 4];
+		}
+	}
+
+	private static boolean hasHeader(final byte[] buf, final int n,
+			final byte[] last) {
+		// Bytes of a previous object may follow the first n, so the line
+		// has to end within them.
+		int ptr = 0;
+		while (ptr < n) {
+			final int eol = RawParseUtils.nextLF(buf, ptr);
+			if (n < eol || buf[eol - 1] != '\n' || eol - ptr == 1)
+				return false;
+			if (RawParseUtils.match(buf, ptr, last) >= 0)
+				return true;
+			ptr = eol;
+		}
+		return false;
+	}
+
 	/**
 	 * Get Git object type. See {@link Constants}.
 	 *
@@ -57,9 +57,12 @@
 import org.eclipse.jgit.lib.Tag;
 import org.eclipse.jgit.util.MutableInteger;
 import org.eclipse.jgit.util.RawParseUtils;
+import org.eclipse.jgit.util.RawPersonIdent;
 
 /** An annotated tag. */
 public class RevTag extends RevObject {
+	private static final byte[] TAG = Constants.encodeASCII("tag ");
+
 	private RevObject object;
 
 	private byte[] buffer;
@@ -79,6 +82,13 @@ protected RevTag(final AnyObjectId id) {
 	@Override
 	void parseHeaders(final RevWalk walk) throws MissingObjectException,
 			IncorrectObjectTypeException, IOException {
+		if (!walk.isRetainBody()) {
+			final byte[] hdr = loadHeaders(walk, TAG);
+			if (hdr != null) {
+				parseCanonical(walk, hdr);
+				return;
+			}
+		}
 		parseCanonical(walk, loadCanonical(walk));
 	}
 
@@ -138,6 +148,25 @@ public final PersonIdent getTaggerIdent() {
 		return RawParseUtils.parsePersonIdent(raw, nameB);
 	}
 
+	/**
+	 * Locate the tagger identity in the raw buffer, without decoding it.
+	 * <p>
+	 * Unlike {@link #getTaggerIdent()} this method does not allocate, so it
+	 * is suited to RevFilter implementations which examine the tagger of
+	 * every tag. The same <code>ident</code> can be passed for each one.
+	 *
+	 * @param ident
+	 *            receives the positions of the tagger's name and email
+	 *            address, and the time.
+	 * @return true if the tagger line was found and <code>ident</code>
+	 *         describes it; false if there is no valid tagger line.
+	 */
+	public final boolean parseTagger(final RawPersonIdent ident) {
+		final byte[] raw = buffer;
+		final int nameB = RawParseUtils.tagger(raw, 0);
+		return nameB >= 0 && ident.parse(raw, nameB);
+	}
+
 	/**
 	 * Parse the complete tag message and decode it to a string.
 	 * <p>
@@ -49,7 +49,10 @@
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
@@ -62,6 +65,8 @@
 import org.eclipse.jgit.lib.ObjectIdSubclassMap;
 import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.CommitGraph;
+import org.eclipse.jgit.storage.file.CommitSearchIndex;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.revwalk.filter.RevFilter;
 import org.eclipse.jgit.treewalk.filter.TreeFilter;
@@ -186,6 +191,25 @@ public class RevWalk implements Iterable<RevCommit> {
 
 	private boolean retainBody;
 
+	private CommitGraph commitGraph;
+
+	private boolean commitGraphLoaded;
+
+	private CommitSearchIndex searchIndex;
+
+	private boolean searchIndexLoaded;
+
+	/** Results of {@link #getSearchCandidates(CommitSearchIndex.Field, String)}. */
+	private final Map<String, CommitSearchIndex.Candidates> searchCandidates;
+
+	/** Generation numbers of commits which are not in the commit-graph. */
+	private final Map<RevCommit, Integer> generations;
+
+	CommitPrefetcher prefetcher;
+
+	/** Reused to parse headers when bodies are not retained; may be null. */
+	byte[] headerBuffer;
+
 	/**
 	 * Create a new revision walker for a given repository.
 	 *
@@ -222,6 +246,8 @@ private RevWalk(final Repository repo, final ObjectReader or) {
 		filter = RevFilter.ALL;
 		treeFilter = TreeFilter.ALL;
 		retainBody = true;
+		generations = new HashMap<RevCommit, Integer>();
+		searchCandidates = new HashMap<String, CommitSearchIndex.Candidates>();
 	}
 
 	/** @return the reader this walker is using to load objects. */
@@ -236,6 +262,8 @@ public ObjectReader getObjectReader() {
 	 * released after the subsequent usage.
 	 */
 	public void release() {
+		if (prefetcher != null)
+			prefetcher.cancel();
 		reader.release();
 	}
 
@@ -571,6 +599,27 @@ public void setRetainBody(final boolean retain) {
 		retainBody = retain;
 	}
 
+	/**
+	 * Set the executor used to read commits ahead of the walk.
+	 * <p>
+	 * With an executor the walk reads the parents of the commits it has
+	 * queued on the executor's threads, each using its own ObjectReader, while
+	 * it continues to work on the commits it already has. Parsing still takes
+	 * place on the caller's thread, so the walk's output is not affected.
+	 * <p>
+	 * The executor is not shut down by the walker.
+	 *
+	 * @param executor
+	 *            the executor to read commits on; null to read each commit
+	 *            only when the walk needs it (the default).
+	 */
+	public void setPrefetchExecutor(final ExecutorService executor) {
+		if (prefetcher != null)
+			prefetcher.cancel();
+		prefetcher = executor != null ? new CommitPrefetcher(this, executor)
+				: null;
+	}
+
 	/**
 	 * Locate a reference to a blob without loading it.
 	 * <p>
@@ -647,6 +696,17 @@ public RevTag lookupTag(final AnyObjectId id) {
 		return c;
 	}
 
+	/**
+	 * Get the object of this walker with a given name, if there is one.
+	 *
+	 * @param id
+	 *            name of the object.
+	 * @return the object; null if the walker has not looked it up.
+	 */
+	RevObject lookupOrNull(final AnyObjectId id) {
+		return objects.get(id);
+	}
+
 	/**
 	 * Locate a reference to any object without loading it.
 	 * <p>
@@ -1064,6 +1124,130 @@ protected void reset(int retainFlags) {
 		roots.clear();
 		queue = new DateRevQueue();
 		pending = new StartGenerator(this);
+		commitGraph = null;
+		commitGraphLoaded = false;
+		searchIndex = null;
+		searchIndexLoaded = false;
+		searchCandidates.clear();
+	}
+
+	/**
+	 * Get the commit-graph of the repository, loading it on first use.
+	 *
+	 * @return the commit-graph; null if the repository does not have one.
+	 * @throws IOException
+	 *             the commit-graph could not be checked for.
+	 */
+	CommitGraph getCommitGraph() throws IOException {
+		if (!commitGraphLoaded) {
+			commitGraph = reader.getCommitGraph();
+			commitGraphLoaded = true;
+		}
+		return commitGraph;
+	}
+
+	/**
+	 * Find the commits which may contain a string in a field.
+	 * <p>
+	 * Filters matching substrings of commits use this to skip commits which the
+	 * repository's commit search index rules out. The result is computed once,
+	 * and reused until the walker is reset or disposed.
+	 *
+	 * @param field
+	 *            the field of the commits to search.
+	 * @param text
+	 *            the string to search for.
+	 * @return the candidate commits; null if the repository has no commit
+	 *         search index, or the string is too short to be looked up.
+	 * @throws IOException
+	 *             the commit search index could not be checked for.
+	 */
+	public CommitSearchIndex.Candidates getSearchCandidates(
+			final CommitSearchIndex.Field field, final String text)
+			throws IOException {
+		if (!searchIndexLoaded) {
+			searchIndex = reader.getCommitSearchIndex();
+			searchIndexLoaded = true;
+		}
+		if (searchIndex == null)
+			return null;
+
+		final String key = field.name() + ':' + text;
+		CommitSearchIndex.Candidates r = searchCandidates.get(key);
+		if (r == null && !searchCandidates.containsKey(key)) {
+			r = searchIndex.search(field, text);
+			searchCandidates.put(key, r);
+		}
+		return r;
+	}
+
+	/**
+	 * Get the generation number of a commit.
+	 * <p>
+	 * The commit must be in the commit-graph, or its generation number must
+	 * have been computed by {@link #computeGeneration(RevCommit)}.
+	 *
+	 * @param c
+	 *            the commit.
+	 * @return the commit's generation number; 0 if it is not known.
+	 */
+	int getGeneration(final RevCommit c) {
+		final Integer g = generations.get(c);
+		if (g != null)
+			return g.intValue();
+		if (commitGraph != null) {
+			final int pos = commitGraph.findGraphPosition(c);
+			if (0 <= pos)
+				return commitGraph.getGeneration(pos);
+		}
+		return 0;
+	}
+
+	/**
+	 * Compute the generation number of a commit.
+	 * <p>
+	 * Commits which are not in the commit-graph are parsed, along with their
+	 * ancestors until the graph is reached, and their generation numbers are
+	 * retained by the walker for {@link #getGeneration(RevCommit)}.
+	 *
+	 * @param start
+	 *            the commit.
+	 * @return the commit's generation number.
+	 * @throws MissingObjectException
+	 * @throws IncorrectObjectTypeException
+	 * @throws IOException
+	 */
+	int computeGeneration(final RevCommit start)
+			throws MissingObjectException, IncorrectObjectTypeException,
+			IOException {
+		getCommitGraph();
+		final ArrayList<RevCommit> stack = new ArrayList<RevCommit>();
+		stack.add(start);
+		while (!stack.isEmpty()) {
+			final RevCommit c = stack.get(stack.size() - 1);
+			if (getGeneration(c) != 0) {
+				stack.remove(stack.size() - 1);
+				continue;
+			}
+			if ((c.flags & PARSED) == 0)
+				c.parseHeaders(this);
+
+			int max = 0;
+			boolean ready = true;
+			for (final RevCommit p : c.parents) {
+				final int g = getGeneration(p);
+				if (g == 0) {
+					stack.add(p);
+					ready = false;
+				} else if (max < g)
+					max = g;
+			}
+			if (ready) {
+				stack.remove(stack.size() - 1);
+				generations.put(c, Integer.valueOf(max + 1));
+			}
+		}
+		return getGeneration(start);
 	}
 
 	/**
@@ -1075,11 +1259,15 @@ protected void reset(int retainFlags) {
 	 * All RevFlag instances are also invalidated, and must not be reused.
 	 */
 	public void dispose() {
+		if (prefetcher != null)
+			prefetcher.cancel();
 		reader.release();
 		freeFlags = APP_FLAGS;
 		delayFreeFlags = 0;
 		carryFlags = UNINTERESTING;
 		objects.clear();
+		generations.clear();
+		searchCandidates.clear();
 		reader.release();
 		roots.clear();
 		queue = new DateRevQueue();
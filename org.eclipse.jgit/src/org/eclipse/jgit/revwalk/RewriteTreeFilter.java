@@ -45,6 +45,7 @@
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Set;
 
 import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.RenameDetector;
@@ -56,6 +57,8 @@
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.storage.file.ChangedPathFilter;
+import org.eclipse.jgit.storage.file.CommitGraph;
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.filter.TreeFilter;
 
@@ -70,6 +73,10 @@
  * the commit is colored with {@link RevWalk#REWRITE}, allowing a later pass
  * implemented by {@link RewriteGenerator} to remove those colored commits from
  * the DAG.
+ * <p>
+ * If the repository has a commit-graph with changed path filters, the trees of
+ * a commit and its first parent are only compared if the filter of the commit
+ * indicates it may have modified one of the paths being walked.
  *
  * @see RewriteGenerator
  */
@@ -84,6 +91,15 @@ class RewriteTreeFilter extends RevFilter {
 
 	private final Repository repository;
 
+	/** Filter {@link #changedPathKeys} were computed for. */
+	private TreeFilter changedPathKeysFilter;
+
+	/**
+	 * For each path of the filter, the keys of the path and of its leading
+	 * directories; null if the filter is not limited to changed paths.
+	 */
+	private ChangedPathFilter.Key[][] changedPathKeys;
+
 	RewriteTreeFilter(final RevWalk walker, final TreeFilter t) {
 		repository = walker.repository;
 		pathFilter = new TreeWalk(walker.reader);
@@ -105,6 +121,20 @@ public boolean include(final RevWalk walker, final RevCommit c)
 		final RevCommit[] pList = c.parents;
 		final int nParents = pList.length;
 		final TreeWalk tw = pathFilter;
+
+		if ((nParents < 2 || (pList[0].flags & UNINTERESTING) == 0)
+				&& !mayModifyPaths(walker, c)) {
+			// The commit is the same as its first parent (or has no
+			// matching paths, if it is a root) for the paths we care
+			// about. Pass the buck to the first parent only, as a full
+			// comparison below would have done.
+			//
+			c.flags |= REWRITE;
+			if (nParents > 1)
+				c.parents = new RevCommit[] { pList[0] };
+			return false;
+		}
+
 		final ObjectId[] trees = new ObjectId[nParents + 1];
 		for (int i = 0; i < nParents; i++) {
 			final RevCommit p = c.parents[i];
@@ -230,6 +260,74 @@ public boolean include(final RevWalk walker, final RevCommit c)
 		return false;
 	}
 
+	/**
+	 * Test whether a commit may modify the paths of the filter.
+	 *
+	 * @return false if the changed path filter of the commit shows it does
+	 *         not modify any of the paths relative to its first parent; true
+	 *         if it may, or if no such filter is available.
+	 */
+	private boolean mayModifyPaths(final RevWalk walker, final RevCommit c)
+			throws IOException {
+		final TreeFilter f = pathFilter.getFilter();
+		if (f != changedPathKeysFilter) {
+			changedPathKeysFilter = f;
+			changedPathKeys = createKeys(f.getChangedPaths());
+		}
+		if (changedPathKeys == null)
+			return true;
+
+		final CommitGraph graph = walker.getCommitGraph();
+		if (graph == null || !graph.hasChangedPathFilters())
+			return true;
+		final int pos = graph.findGraphPosition(c);
+		if (pos < 0)
+			return true;
+
+		// The filter describes the difference to the first parent of the
+		// stored commit, which must still be the first parent in this walk.
+		//
+		final int[] parents = graph.getParents(pos);
+		if (parents.length != c.parents.length)
+			return true;
+		if (parents.length > 0
+				&& graph.findGraphPosition(c.parents[0]) != parents[0])
+			return true;
+
+		final ChangedPathFilter bloom = graph.getChangedPathFilter(pos);
+		if (bloom == null)
+			return true;
+		PATHS: for (final ChangedPathFilter.Key[] path : changedPathKeys) {
+			for (final ChangedPathFilter.Key k : path) {
+				if (!bloom.maybeContains(k))
+					continue PATHS;
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private static ChangedPathFilter.Key[][] createKeys(final Set<String> paths) {
+		if (paths == null || paths.isEmpty())
+			return null;
+		final ChangedPathFilter.Key[][] keys = new ChangedPathFilter.Key[paths
+				.size()][];
+		int i = 0;
+		for (String path : paths) {
+			int depth = 1;
+			for (int p = 0; p < path.length(); p++)
+				if (path.charAt(p) == '/')
+					depth++;
+			final ChangedPathFilter.Key[] k = new ChangedPathFilter.Key[depth];
+			for (int d = 0; d < depth; d++) {
+				k[d] = new ChangedPathFilter.Key(path);
+				path = path.substring(0, Math.max(path.lastIndexOf('/'), 0));
+			}
+			keys[i++] = k;
+		}
+		return keys;
+	}
+
 	private void updateFollowFilter(ObjectId[] trees)
 			throws MissingObjectException, IncorrectObjectTypeException,
 			CorruptObjectException, IOException {
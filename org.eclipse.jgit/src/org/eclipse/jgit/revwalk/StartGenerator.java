@@ -120,7 +120,13 @@ RevCommit next() throws MissingObjectException,
 
 		final DateRevQueue pending;
 		int pendingOutputType = 0;
-		if (q instanceof DateRevQueue)
+		if (walker.hasRevSort(RevSort.TOPO) && w.getCommitGraph() != null) {
+			// Generation numbers let the pending queue produce commits in
+			// topological order, so they can be output without first
+			// reading the entire history.
+			//
+			pending = new GenerationRevQueue(w, q);
+		} else if (q instanceof DateRevQueue)
 			pending = (DateRevQueue)q;
 		else
 			pending = new DateRevQueue(q);
@@ -47,6 +47,7 @@
 
 import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.CommitSearchIndex;
 import org.eclipse.jgit.util.RawCharSequence;
 import org.eclipse.jgit.util.RawParseUtils;
 
@@ -113,5 +114,10 @@ private static class SubStringSearch extends SubStringRevFilter {
 		protected RawCharSequence text(final RevCommit cmit) {
 			return textFor(cmit);
 		}
+
+		@Override
+		CommitSearchIndex.Field indexedField() {
+			return CommitSearchIndex.Field.AUTHOR;
+		}
 	}
 }
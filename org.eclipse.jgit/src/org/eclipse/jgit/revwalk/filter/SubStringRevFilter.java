@@ -49,6 +49,7 @@
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.CommitSearchIndex;
 import org.eclipse.jgit.util.RawCharSequence;
 import org.eclipse.jgit.util.RawSubStringPattern;
 
@@ -101,9 +102,24 @@ protected SubStringRevFilter(final String patternText) {
 	public boolean include(final RevWalk walker, final RevCommit cmit)
 			throws MissingObjectException, IncorrectObjectTypeException,
 			IOException {
+		final CommitSearchIndex.Field field = indexedField();
+		if (field != null) {
+			final CommitSearchIndex.Candidates candidates;
+			candidates = walker.getSearchCandidates(field, pattern.pattern());
+			if (candidates != null && !candidates.mayContain(cmit))
+				return false;
+		}
 		return pattern.match(text(cmit)) >= 0;
 	}
 
+	/**
+	 * @return the field of the commit search index holding the text returned
+	 *         by {@link #text(RevCommit)}; null if the text is not indexed.
+	 */
+	CommitSearchIndex.Field indexedField() {
+		return null;
+	}
+
 	/**
 	 * Obtain the raw text to match against.
 	 *
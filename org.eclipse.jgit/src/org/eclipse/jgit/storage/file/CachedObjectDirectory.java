@@ -130,6 +130,24 @@ File getDirectory() {
 		return wrapped.getDirectory();
 	}
 
+	@Override
+	int readPackedPrefix(WindowCursor curs, AnyObjectId objectId,
+			int typeHint, byte[] buf) {
+		if (unpackedObjects.contains(objectId))
+			return -1;
+		return wrapped.readPackedPrefix(curs, objectId, typeHint, buf);
+	}
+
+	@Override
+	CommitGraph getCommitGraph() {
+		return wrapped.getCommitGraph();
+	}
+
+	@Override
+	CommitSearchIndex getCommitSearchIndex() {
+		return wrapped.getCommitSearchIndex();
+	}
+
 	@Override
 	AlternateHandle[] myAlternates() {
 		if (alts == null) {
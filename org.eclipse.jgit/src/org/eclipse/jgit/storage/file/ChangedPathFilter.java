@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.storage.file;
+
+import java.util.Collection;
+
+import org.eclipse.jgit.lib.Constants;
+
+/**
+ * Bloom filter of the paths changed by a commit.
+ * <p>
+ * The filter records every path that differs between a commit and its first
+ * parent (or the empty tree, for a root commit), together with all of the
+ * leading directories of these paths. A query can give false positives, but
+ * never false negatives: if {@link #maybeContains(Key)} returns false the
+ * commit did not modify the path.
+ * <p>
+ * The layout and hash functions are those of the changed path filters of the
+ * C Git commit-graph (version 1): 7 hashes derived from two seeded 32 bit
+ * murmur3 hashes, with 10 bits per path.
+ */
+public final class ChangedPathFilter {
+	/** Version of the hash functions, as recorded in the BDAT chunk. */
+	static final int HASH_VERSION = 1;
+
+	/** Number of hash functions. */
+	static final int NUM_HASHES = 7;
+
+	/** Number of bits per path added to a filter. */
+	static final int BITS_PER_ENTRY = 10;
+
+	/** Commits changing more files than this get a filter matching all. */
+	static final int MAX_CHANGED_PATHS = 512;
+
+	private static final int SEED0 = 0x293ae76f;
+
+	private static final int SEED1 = 0x7e646e2c;
+
+	/** Filter data used for commits that changed too many paths. */
+	static final byte[] TRUNCATED_LARGE = { (byte) 0xff };
+
+	/** Filter data used for commits that did not change any path. */
+	static final byte[] TRUNCATED_EMPTY = { 0 };
+
+	/**
+	 * Hashes of a path, computed once and tested against many filters.
+	 */
+	public static final class Key {
+		final int[] hashes;
+
+		/**
+		 * Compute the key of a path.
+		 *
+		 * @param path
+		 *            path within the repository, without leading or trailing
+		 *            slash.
+		 */
+		public Key(final String path) {
+			this(Constants.encode(path));
+		}
+
+		Key(final byte[] path) {
+			final int h0 = murmur3(SEED0, path);
+			final int h1 = murmur3(SEED1, path);
+			hashes = new int[NUM_HASHES];
+			for (int i = 0; i < NUM_HASHES; i++)
+				hashes[i] = h0 + i * h1;
+		}
+	}
+
+	private final byte[] data;
+
+	private final int offset;
+
+	private final int length;
+
+	ChangedPathFilter(final byte[] data, final int offset, final int length) {
+		this.data = data;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/**
+	 * Test whether the path of a key may have been changed.
+	 *
+	 * @param key
+	 *            the key of the path.
+	 * @return false if the commit certainly did not change the path; true if
+	 *         it may have.
+	 */
+	public boolean maybeContains(final Key key) {
+		final long bits = length * 8L;
+		for (int h : key.hashes) {
+			final long pos = (h & 0xffffffffL) % bits;
+			if ((data[offset + (int) (pos >>> 3)] & (1 << (pos & 7))) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Compute the filter data for a set of changed paths.
+	 *
+	 * @param paths
+	 *            the changed paths, including their leading directories.
+	 * @return the filter data.
+	 */
+	static byte[] compute(final Collection<byte[]> paths) {
+		if (paths.isEmpty())
+			return TRUNCATED_EMPTY;
+		final int len = (paths.size() * BITS_PER_ENTRY + 7) / 8;
+		final byte[] buf = new byte[len];
+		final long bits = len * 8L;
+		for (byte[] path : paths) {
+			for (int h : new Key(path).hashes) {
+				final long pos = (h & 0xffffffffL) % bits;
+				buf[(int) (pos >>> 3)] |= 1 << (pos & 7);
+			}
+		}
+		return buf;
+	}
+
+	/**
+	 * 32 bit murmur3 hash, as computed by C Git for version 1 filters.
+	 * <p>
+	 * Bytes are sign extended before being combined, matching C Git on
+	 * platforms where <code>char</code> is signed.
+	 *
+	 * @param seed
+	 *            the seed of the hash.
+	 * @param data
+	 *            the bytes to hash.
+	 * @return the hash value.
+	 */
+	@SuppressWarnings("fallthrough")
+	static int murmur3(final int seed, final byte[] data) {
+		final int c1 = 0xcc9e2d51;
+		final int c2 = 0x1b873593;
+		final int len = data.length;
+		final int len4 = len / 4;
+		int h = seed;
+
+		for (int i = 0; i < len4; i++) {
+			int k = data[4 * i] | (data[4 * i + 1] << 8)
+					| (data[4 * i + 2] << 16) | (data[4 * i + 3] << 24);
+			k *= c1;
+			k = Integer.rotateLeft(k, 15);
+			k *= c2;
+			h ^= k;
+			h = Integer.rotateLeft(h, 13) * 5 + 0xe6546b64;
+		}
+
+		final int tail = len4 * 4;
+		int k1 = 0;
+		switch (len & 3) {
+		case 3:
+			k1 ^= data[tail + 2] << 16;
+		case 2:
+			k1 ^= data[tail + 1] << 8;
+		case 1:
+			k1 ^= data[tail];
+			k1 *= c1;
+			k1 = Integer.rotateLeft(k1, 15);
+			k1 *= c2;
+			h ^= k1;
+		}
+
+		h ^= len;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.text.MessageFormat;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.CorruptObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Read-only view of a commit-graph file.
+ * <p>
+ * The commit-graph file (<code>objects/info/commit-graph</code>) stores the
+ * parents, tree, commit time and generation number of a closed set of commits,
+ * so history can be walked without inflating and parsing commit objects. It
+ * may also store a {@link ChangedPathFilter} for each commit. The format is
+ * the one written by C Git; split commit-graph chains are not supported.
+ * <p>
+ * Commits are identified by their position in the file, which orders them by
+ * object id.
+ */
+public class CommitGraph {
+	/** Value of a parent position that denotes the absence of a parent. */
+	static final int NO_PARENT = 0x70000000;
+
+	/** Flag of the second parent position that denotes an octopus merge. */
+	static final int OCTOPUS = 0x80000000;
+
+	/** Largest generation number that can be stored. */
+	static final int MAX_GENERATION = 0x3fffffff;
+
+	static final byte[] SIGNATURE = { 'C', 'G', 'P', 'H' };
+
+	static final int VERSION = 1;
+
+	static final int HASH_VERSION_SHA1 = 1;
+
+	static final int HEADER_SIZE = 8;
+
+	static final int CHUNK_LOOKUP_WIDTH = 12;
+
+	static final int CHUNK_OID_FANOUT = 0x4f494446; /* "OIDF" */
+
+	static final int CHUNK_OID_LOOKUP = 0x4f49444c; /* "OIDL" */
+
+	static final int CHUNK_COMMIT_DATA = 0x43444154; /* "CDAT" */
+
+	static final int CHUNK_EXTRA_EDGES = 0x45444745; /* "EDGE" */
+
+	static final int CHUNK_BLOOM_INDEXES = 0x42494458; /* "BIDX" */
+
+	static final int CHUNK_BLOOM_DATA = 0x42444154; /* "BDAT" */
+
+	static final int FANOUT = 256;
+
+	static final int COMMIT_DATA_WIDTH = Constants.OBJECT_ID_LENGTH + 16;
+
+	static final int BLOOM_DATA_HEADER_SIZE = 12;
+
+	/**
+	 * Read an existing commit-graph file.
+	 *
+	 * @param file
+	 *            the commit-graph file.
+	 * @return the commit-graph.
+	 * @throws java.io.FileNotFoundException
+	 *             the file does not exist.
+	 * @throws IOException
+	 *             the file could not be read, or its content is not a
+	 *             commit-graph of a supported version.
+	 */
+	public static CommitGraph open(final File file) throws IOException {
+		final long modified = file.lastModified();
+		final byte[] buf;
+		final FileInputStream in = new FileInputStream(file);
+		try {
+			final long len = in.getChannel().size();
+			if (len > Integer.MAX_VALUE)
+				throw new IOException(MessageFormat.format(
+						JGitText.get().unreadableCommitGraph, file));
+			buf = new byte[(int) len];
+			IO.readFully(in, buf, 0, buf.length);
+		} finally {
+			in.close();
+		}
+
+		try {
+			return new CommitGraph(buf, modified);
+		} catch (IOException e) {
+			final IOException err = new IOException(MessageFormat.format(
+					JGitText.get().unreadableCommitGraph, file));
+			err.initCause(e);
+			throw err;
+		}
+	}
+
+	private final byte[] buf;
+
+	private final long lastModified;
+
+	private final int commitCnt;
+
+	private final int oidFanout;
+
+	private final int oidLookup;
+
+	private final int commitData;
+
+	private int extraEdges = -1;
+
+	private int bloomIndexes = -1;
+
+	private int bloomData = -1;
+
+	private int bloomDataEnd;
+
+	CommitGraph(final byte[] buf, final long lastModified) throws IOException {
+		this.buf = buf;
+		this.lastModified = lastModified;
+
+		if (buf.length < HEADER_SIZE)
+			throw corrupt("header");
+		for (int i = 0; i < SIGNATURE.length; i++)
+			if (buf[i] != SIGNATURE[i])
+				throw corrupt("signature");
+		if (buf[4] != VERSION)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedCommitGraphVersion,
+					Integer.valueOf(buf[4])));
+		if (buf[5] != HASH_VERSION_SHA1)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedCommitGraphVersion,
+					buf[4] + "/" + buf[5]));
+		if (buf[7] != 0)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedCommitGraphVersion,
+					"split"));
+
+		final int chunkCnt = buf[6] & 0xff;
+		final int end = buf.length - Constants.OBJECT_ID_LENGTH;
+		if (HEADER_SIZE + (chunkCnt + 1) * CHUNK_LOOKUP_WIDTH > end)
+			throw corrupt("chunk table");
+		int fanout = -1, lookup = -1, cdat = -1;
+		for (int i = 0; i < chunkCnt; i++) {
+			final int p = HEADER_SIZE + i * CHUNK_LOOKUP_WIDTH;
+			final int id = NB.decodeInt32(buf, p);
+			final long start = NB.decodeUInt64(buf, p + 4);
+			final long next = NB.decodeUInt64(buf, p + 4 + CHUNK_LOOKUP_WIDTH);
+			if (start < 0 || start > next || next > end)
+				throw corrupt("chunk table");
+			switch (id) {
+			case CHUNK_OID_FANOUT:
+				if (next - start != FANOUT * 4)
+					throw corrupt("OIDF");
+				fanout = (int) start;
+				break;
+			case CHUNK_OID_LOOKUP:
+				lookup = (int) start;
+				break;
+			case CHUNK_COMMIT_DATA:
+				cdat = (int) start;
+				break;
+			case CHUNK_EXTRA_EDGES:
+				extraEdges = (int) start;
+				break;
+			case CHUNK_BLOOM_INDEXES:
+				bloomIndexes = (int) start;
+				break;
+			case CHUNK_BLOOM_DATA:
+				bloomData = (int) start;
+				bloomDataEnd = (int) next;
+				break;
+			}
+		}
+		if (fanout < 0 || lookup < 0 || cdat < 0)
+			throw corrupt("missing chunk");
+		oidFanout = fanout;
+		oidLookup = lookup;
+		commitData = cdat;
+		commitCnt = NB.decodeInt32(buf, oidFanout + (FANOUT - 1) * 4);
+		if (commitCnt < 0
+				|| oidLookup + (long) commitCnt * Constants.OBJECT_ID_LENGTH > end
+				|| commitData + (long) commitCnt * COMMIT_DATA_WIDTH > end)
+			throw corrupt("OIDL");
+
+		if (bloomIndexes >= 0 && bloomData >= 0) {
+			if (bloomIndexes + (long) commitCnt * 4 > end
+					|| bloomDataEnd - bloomData < BLOOM_DATA_HEADER_SIZE)
+				throw corrupt("BIDX");
+			if (NB.decodeInt32(buf, bloomData) != ChangedPathFilter.HASH_VERSION
+					|| NB.decodeInt32(buf, bloomData + 4) != ChangedPathFilter.NUM_HASHES
+					|| NB.decodeInt32(buf, bloomData + 8) != ChangedPathFilter.BITS_PER_ENTRY) {
+				// Filters computed with other settings cannot be queried.
+				bloomIndexes = -1;
+				bloomData = -1;
+			}
+		} else {
+			bloomIndexes = -1;
+			bloomData = -1;
+		}
+	}
+
+	private static CorruptObjectException corrupt(final String what) {
+		return new CorruptObjectException(MessageFormat.format(
+				JGitText.get().corruptCommitGraph, what));
+	}
+
+	long getLastModified() {
+		return lastModified;
+	}
+
+	long getFileSize() {
+		return buf.length;
+	}
+
+	/** @return number of commits stored in the graph. */
+	public int getCommitCount() {
+		return commitCnt;
+	}
+
+	/** @return true if changed path filters are stored in the graph. */
+	public boolean hasChangedPathFilters() {
+		return bloomIndexes >= 0;
+	}
+
+	/**
+	 * Find the position of a commit.
+	 *
+	 * @param id
+	 *            the commit to find.
+	 * @return position of the commit; -1 if the commit is not in the graph.
+	 */
+	public int findGraphPosition(final AnyObjectId id) {
+		final int first = id.getFirstByte();
+		int low = first == 0 ? 0 : NB.decodeInt32(buf, oidFanout + (first - 1) * 4);
+		int high = NB.decodeInt32(buf, oidFanout + first * 4);
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			final int cmp = id.compareTo(buf, oidLookup + mid
+					* Constants.OBJECT_ID_LENGTH);
+			if (cmp < 0)
+				high = mid;
+			else if (cmp == 0)
+				return mid;
+			else
+				low = mid + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Get the id of a commit.
+	 *
+	 * @param pos
+	 *            position of the commit.
+	 * @return the object id of the commit.
+	 */
+	public ObjectId getObjectId(final int pos) {
+		return ObjectId.fromRaw(buf, oidLookup + pos
+				* Constants.OBJECT_ID_LENGTH);
+	}
+
+	/**
+	 * Get the root tree of a commit.
+	 *
+	 * @param pos
+	 *            position of the commit.
+	 * @return the object id of the commit's tree.
+	 */
+	public ObjectId getTree(final int pos) {
+		return ObjectId.fromRaw(buf, commitData + pos * COMMIT_DATA_WIDTH);
+	}
+
+	/**
+	 * Get the parents of a commit.
+	 *
+	 * @param pos
+	 *            position of the commit.
+	 * @return positions of the parents, in the order recorded in the commit.
+	 * @throws CorruptObjectException
+	 *             the list of octopus parents is malformed.
+	 */
+	public int[] getParents(final int pos) throws CorruptObjectException {
+		final int p = commitData + pos * COMMIT_DATA_WIDTH
+				+ Constants.OBJECT_ID_LENGTH;
+		final int p1 = NB.decodeInt32(buf, p);
+		final int p2 = NB.decodeInt32(buf, p + 4);
+		if (p1 == NO_PARENT)
+			return new int[0];
+		if (p2 == NO_PARENT)
+			return new int[] { p1 };
+		if ((p2 & OCTOPUS) == 0)
+			return new int[] { p1, p2 };
+
+		if (extraEdges < 0)
+			throw corrupt("EDGE");
+		int e = extraEdges + (p2 & ~OCTOPUS) * 4;
+		int n = 1;
+		for (int i = e;; i += 4) {
+			if (i + 4 > buf.length - Constants.OBJECT_ID_LENGTH)
+				throw corrupt("EDGE");
+			n++;
+			if ((NB.decodeInt32(buf, i) & OCTOPUS) != 0)
+				break;
+		}
+		final int[] r = new int[n];
+		r[0] = p1;
+		for (int i = 1; i < n; i++, e += 4)
+			r[i] = NB.decodeInt32(buf, e) & ~OCTOPUS;
+		return r;
+	}
+
+	/**
+	 * Get the generation number of a commit.
+	 * <p>
+	 * The generation of a commit without parents is 1, the generation of any
+	 * other commit is one more than the largest generation of its parents.
+	 * Numbers too large to be stored are capped at 0x3fffffff.
+	 *
+	 * @param pos
+	 *            position of the commit.
+	 * @return the generation number of the commit.
+	 */
+	public int getGeneration(final int pos) {
+		final int p = commitData + pos * COMMIT_DATA_WIDTH
+				+ Constants.OBJECT_ID_LENGTH + 8;
+		return NB.decodeInt32(buf, p) >>> 2;
+	}
+
+	/**
+	 * Get the committer time of a commit.
+	 *
+	 * @param pos
+	 *            position of the commit.
+	 * @return commit time, in seconds since the epoch.
+	 */
+	public long getCommitTime(final int pos) {
+		final int p = commitData + pos * COMMIT_DATA_WIDTH
+				+ Constants.OBJECT_ID_LENGTH + 8;
+		final long high = NB.decodeInt32(buf, p) & 3;
+		return (high << 32) | NB.decodeUInt32(buf, p + 4);
+	}
+
+	/**
+	 * Get the changed path filter of a commit.
+	 *
+	 * @param pos
+	 *            position of the commit.
+	 * @return the filter of the commit; null if the graph does not store a
+	 *         filter for it.
+	 */
+	public ChangedPathFilter getChangedPathFilter(final int pos) {
+		if (bloomIndexes < 0)
+			return null;
+		final int start = pos == 0 ? 0 : NB.decodeInt32(buf, bloomIndexes
+				+ (pos - 1) * 4);
+		final int end = NB.decodeInt32(buf, bloomIndexes + pos * 4);
+		final int dataStart = bloomData + BLOOM_DATA_HEADER_SIZE;
+		if (start < 0 || end <= start || dataStart + end > bloomDataEnd)
+			return null;
+		return new ChangedPathFilter(buf, dataStart + start, end - start);
+	}
+}
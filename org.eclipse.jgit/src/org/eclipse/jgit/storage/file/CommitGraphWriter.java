@@ -0,0 +1,423 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.storage.file;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Writes the commit-graph file of a repository.
+ * <p>
+ * The graph contains all commits reachable from the given tips, and optionally
+ * a {@link ChangedPathFilter} for each of them. Computing the filters requires
+ * a tree comparison of every commit against its first parent, the same cost as
+ * one path limited walk over the whole history. Later path limited walks only
+ * compare the trees of commits whose filter matches.
+ *
+ * @see CommitGraph
+ */
+public class CommitGraphWriter {
+	private final FileRepository db;
+
+	private boolean changedPaths;
+
+	/**
+	 * Create a writer for a repository.
+	 *
+	 * @param repo
+	 *            the repository whose commits are written to the graph.
+	 */
+	public CommitGraphWriter(final FileRepository repo) {
+		db = repo;
+	}
+
+	/**
+	 * Set whether changed path filters are computed and written.
+	 *
+	 * @param on
+	 *            true to store a changed path filter for each commit. The
+	 *            default is false.
+	 */
+	public void setChangedPaths(final boolean on) {
+		changedPaths = on;
+	}
+
+	/**
+	 * Replace the commit-graph of the repository.
+	 * <p>
+	 * The graph is written to <code>objects/info/commit-graph</code> and
+	 * contains all commits reachable from the references of the repository.
+	 *
+	 * @param pm
+	 *            progress monitor to report the number of commits processed.
+	 * @return number of commits written.
+	 * @throws IOException
+	 *             the file could not be locked or written, or an object could
+	 *             not be read.
+	 */
+	public int write(final ProgressMonitor pm) throws IOException {
+		final List<ObjectId> tips = new ArrayList<ObjectId>();
+		for (Ref r : db.getAllRefs().values()) {
+			if (r.getObjectId() != null)
+				tips.add(r.getObjectId());
+		}
+
+		final File file = new File(db.getObjectDatabase().getDirectory(),
+				"info/commit-graph");
+		file.getParentFile().mkdirs();
+		final LockFile lck = new LockFile(file, db.getFS());
+		if (!lck.lock())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotLockFile, file));
+		try {
+			final OutputStream out = lck.getOutputStream();
+			final int cnt;
+			try {
+				cnt = write(pm, out, tips);
+			} finally {
+				out.close();
+			}
+			if (!lck.commit())
+				throw new IOException(MessageFormat.format(
+						JGitText.get().unableToWrite, file));
+			return cnt;
+		} finally {
+			lck.unlock();
+		}
+	}
+
+	/**
+	 * Write a commit-graph to a stream.
+	 *
+	 * @param pm
+	 *            progress monitor to report the number of commits processed.
+	 * @param out
+	 *            stream to write the graph to. The stream is not closed.
+	 * @param tips
+	 *            the commits, or tags of commits, whose history is written.
+	 *            Other objects are ignored.
+	 * @return number of commits written.
+	 * @throws IOException
+	 *             an object could not be read, or the stream could not be
+	 *             written.
+	 */
+	public int write(final ProgressMonitor pm, final OutputStream out,
+			final Collection<? extends AnyObjectId> tips) throws IOException {
+		final RevWalk rw = new RevWalk(db);
+		try {
+			rw.setRetainBody(false);
+			final RevCommit[] commits = findCommits(pm, rw, tips);
+			final int[][] parents = new int[commits.length][];
+			int extraEdgeCnt = 0;
+			for (int i = 0; i < commits.length; i++) {
+				final RevCommit c = commits[i];
+				parents[i] = new int[c.getParentCount()];
+				for (int p = 0; p < parents[i].length; p++)
+					parents[i][p] = Arrays.binarySearch(commits, c.getParent(p));
+				if (parents[i].length > 2)
+					extraEdgeCnt += parents[i].length - 1;
+			}
+			final int[] generations = computeGenerations(parents);
+			final byte[][] filters;
+			if (changedPaths)
+				filters = computeFilters(pm, rw, commits);
+			else
+				filters = null;
+
+			writeGraph(out, commits, parents, extraEdgeCnt, generations,
+					filters);
+			return commits.length;
+		} finally {
+			rw.release();
+		}
+	}
+
+	private static RevCommit[] findCommits(final ProgressMonitor pm,
+			final RevWalk rw, final Collection<? extends AnyObjectId> tips)
+			throws IOException {
+		for (AnyObjectId id : tips) {
+			RevObject o = rw.parseAny(id);
+			while (o instanceof RevTag)
+				o = rw.parseAny(((RevTag) o).getObject());
+			if (o instanceof RevCommit)
+				rw.markStart((RevCommit) o);
+		}
+
+		pm.beginTask(JGitText.get().countingCommits, ProgressMonitor.UNKNOWN);
+		final List<RevCommit> list = new ArrayList<RevCommit>();
+		RevCommit c;
+		while ((c = rw.next()) != null) {
+			list.add(c);
+			pm.update(1);
+		}
+		pm.endTask();
+
+		final RevCommit[] commits = list.toArray(new RevCommit[list.size()]);
+		Arrays.sort(commits);
+		return commits;
+	}
+
+	private static int[] computeGenerations(final int[][] parents) {
+		final int[] gen = new int[parents.length];
+		final int[] stack = new int[parents.length];
+		for (int start = 0; start < parents.length; start++) {
+			if (gen[start] != 0)
+				continue;
+			int depth = 0;
+			stack[depth++] = start;
+			while (depth > 0) {
+				final int c = stack[depth - 1];
+				if (gen[c] != 0) {
+					depth--;
+					continue;
+				}
+				int max = 0;
+				boolean ready = true;
+				for (int p : parents[c]) {
+					if (gen[p] == 0) {
+						if (ready)
+							stack[depth++] = p;
+						ready = false;
+					} else if (max < gen[p])
+						max = gen[p];
+				}
+				if (ready) {
+					gen[c] = Math.min(max + 1, CommitGraph.MAX_GENERATION);
+					depth--;
+				}
+			}
+		}
+		return gen;
+	}
+
+	private static byte[][] computeFilters(final ProgressMonitor pm,
+			final RevWalk rw, final RevCommit[] commits) throws IOException {
+		pm.beginTask(JGitText.get().computingChangedPaths, commits.length);
+		final byte[][] filters = new byte[commits.length][];
+		final TreeWalk tw = new TreeWalk(rw.getObjectReader());
+		tw.setRecursive(true);
+		tw.setFilter(TreeFilter.ANY_DIFF);
+		final Set<String> paths = new HashSet<String>();
+		for (int i = 0; i < commits.length; i++) {
+			final RevCommit c = commits[i];
+			if (c.getParentCount() == 0) {
+				tw.reset();
+				tw.addTree(new EmptyTreeIterator());
+				tw.addTree(c.getTree());
+			} else
+				tw.reset(new ObjectId[] { c.getParent(0).getTree(),
+						c.getTree() });
+
+			int changes = 0;
+			paths.clear();
+			while (tw.next()) {
+				if (++changes > ChangedPathFilter.MAX_CHANGED_PATHS)
+					break;
+				String path = tw.getPathString();
+				while (paths.add(path)) {
+					final int s = path.lastIndexOf('/');
+					if (s < 0)
+						break;
+					path = path.substring(0, s);
+				}
+			}
+
+			if (changes > ChangedPathFilter.MAX_CHANGED_PATHS)
+				filters[i] = ChangedPathFilter.TRUNCATED_LARGE;
+			else {
+				final List<byte[]> keys = new ArrayList<byte[]>(paths.size());
+				for (String p : paths)
+					keys.add(Constants.encode(p));
+				filters[i] = ChangedPathFilter.compute(keys);
+			}
+			pm.update(1);
+		}
+		pm.endTask();
+		return filters;
+	}
+
+	private static void writeGraph(final OutputStream os,
+			final RevCommit[] commits, final int[][] parents,
+			final int extraEdgeCnt, final int[] generations,
+			final byte[][] filters) throws IOException {
+		final int n = commits.length;
+		final List<int[]> chunks = new ArrayList<int[]>();
+		chunks.add(new int[] { CommitGraph.CHUNK_OID_FANOUT,
+				CommitGraph.FANOUT * 4 });
+		chunks.add(new int[] { CommitGraph.CHUNK_OID_LOOKUP,
+				n * Constants.OBJECT_ID_LENGTH });
+		chunks.add(new int[] { CommitGraph.CHUNK_COMMIT_DATA,
+				n * CommitGraph.COMMIT_DATA_WIDTH });
+		if (extraEdgeCnt > 0)
+			chunks.add(new int[] { CommitGraph.CHUNK_EXTRA_EDGES,
+					extraEdgeCnt * 4 });
+		if (filters != null) {
+			int dataLen = 0;
+			for (byte[] f : filters)
+				dataLen += f.length;
+			chunks.add(new int[] { CommitGraph.CHUNK_BLOOM_INDEXES, n * 4 });
+			chunks.add(new int[] { CommitGraph.CHUNK_BLOOM_DATA,
+					CommitGraph.BLOOM_DATA_HEADER_SIZE + dataLen });
+		}
+
+		final MessageDigest md = Constants.newMessageDigest();
+		final DigestOutputStream out = new DigestOutputStream(
+				new BufferedOutputStream(os), md);
+		final byte[] tmp = new byte[CommitGraph.COMMIT_DATA_WIDTH];
+
+		out.write(CommitGraph.SIGNATURE);
+		out.write(CommitGraph.VERSION);
+		out.write(CommitGraph.HASH_VERSION_SHA1);
+		out.write(chunks.size());
+		out.write(0);
+
+		long offset = CommitGraph.HEADER_SIZE + (chunks.size() + 1)
+				* CommitGraph.CHUNK_LOOKUP_WIDTH;
+		for (int[] chunk : chunks) {
+			NB.encodeInt32(tmp, 0, chunk[0]);
+			NB.encodeInt64(tmp, 4, offset);
+			out.write(tmp, 0, CommitGraph.CHUNK_LOOKUP_WIDTH);
+			offset += chunk[1];
+		}
+		NB.encodeInt32(tmp, 0, 0);
+		NB.encodeInt64(tmp, 4, offset);
+		out.write(tmp, 0, CommitGraph.CHUNK_LOOKUP_WIDTH);
+
+		// OIDF: number of commits whose first byte is at most b.
+		int c = 0;
+		for (int b = 0; b < CommitGraph.FANOUT; b++) {
+			while (c < n && commits[c].getFirstByte() == b)
+				c++;
+			NB.encodeInt32(tmp, 0, c);
+			out.write(tmp, 0, 4);
+		}
+
+		// OIDL
+		for (RevCommit commit : commits) {
+			commit.copyRawTo(tmp, 0);
+			out.write(tmp, 0, Constants.OBJECT_ID_LENGTH);
+		}
+
+		// CDAT
+		int edge = 0;
+		for (int i = 0; i < n; i++) {
+			commits[i].getTree().copyRawTo(tmp, 0);
+			out.write(tmp, 0, Constants.OBJECT_ID_LENGTH);
+
+			final int[] p = parents[i];
+			NB.encodeInt32(tmp, 0, p.length > 0 ? p[0] : CommitGraph.NO_PARENT);
+			if (p.length > 2) {
+				NB.encodeInt32(tmp, 4, CommitGraph.OCTOPUS | edge);
+				edge += p.length - 1;
+			} else if (p.length == 2)
+				NB.encodeInt32(tmp, 4, p[1]);
+			else
+				NB.encodeInt32(tmp, 4, CommitGraph.NO_PARENT);
+			final long time = commits[i].getCommitTime() & 0xffffffffL;
+			NB.encodeInt32(tmp, 8, (generations[i] << 2) | (int) (time >>> 32));
+			NB.encodeInt32(tmp, 12, (int) time);
+			out.write(tmp, 0, 16);
+		}
+
+		// EDGE: parents after the first of octopus merges, last one flagged.
+		for (int[] p : parents) {
+			if (p.length <= 2)
+				continue;
+			for (int i = 1; i < p.length; i++) {
+				int e = p[i];
+				if (i == p.length - 1)
+					e |= CommitGraph.OCTOPUS;
+				NB.encodeInt32(tmp, 0, e);
+				out.write(tmp, 0, 4);
+			}
+		}
+
+		if (filters != null) {
+			// BIDX: cumulative end offset of each filter within BDAT.
+			int end = 0;
+			for (byte[] f : filters) {
+				end += f.length;
+				NB.encodeInt32(tmp, 0, end);
+				out.write(tmp, 0, 4);
+			}
+
+			// BDAT
+			NB.encodeInt32(tmp, 0, ChangedPathFilter.HASH_VERSION);
+			NB.encodeInt32(tmp, 4, ChangedPathFilter.NUM_HASHES);
+			NB.encodeInt32(tmp, 8, ChangedPathFilter.BITS_PER_ENTRY);
+			out.write(tmp, 0, CommitGraph.BLOOM_DATA_HEADER_SIZE);
+			for (byte[] f : filters)
+				out.write(f);
+		}
+
+		out.on(false);
+		out.write(md.digest());
+		out.flush();
+	}
+}
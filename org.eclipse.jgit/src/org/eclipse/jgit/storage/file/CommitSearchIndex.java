@@ -0,0 +1,575 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.MessageFormat;
+import java.util.BitSet;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.CorruptObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.IntList;
+import org.eclipse.jgit.util.NB;
+import org.eclipse.jgit.util.RawParseUtils;
+import org.eclipse.jgit.util.StringUtils;
+
+/**
+ * Read-only view of a commit search index file.
+ * <p>
+ * The index (<code>objects/info/commit-search</code>) maps the text of the
+ * messages, authors and committers of commits to the commits containing it,
+ * so a substring search over history only needs to examine the commits the
+ * index names as candidates. As the filters of
+ * {@link org.eclipse.jgit.revwalk.filter.MessageRevFilter} and friends match
+ * substrings case-insensitively rather than words, the index stores, for each
+ * {@link Field}, the lower cased trigrams (runs of 3 bytes) of the text. A
+ * commit containing a string contains all of its trigrams, so the commits
+ * holding every trigram of a string are a superset of those containing it.
+ * <p>
+ * Commits are identified by their position in the file, which is the order in
+ * which they were added. {@link CommitSearchIndexWriter} only appends to the
+ * index, so positions do not change when it is updated.
+ */
+public class CommitSearchIndex {
+	/** The indexed text of a commit. */
+	public static enum Field {
+		/** The commit message, from the first line to the end. */
+		MESSAGE,
+
+		/** Name and email address of the author. */
+		AUTHOR,
+
+		/** Name and email address of the committer. */
+		COMMITTER;
+	}
+
+	static final byte[] SIGNATURE = { 'C', 'S', 'I', 'X' };
+
+	static final int VERSION = 1;
+
+	static final int HEADER_SIZE = 16;
+
+	/** Number of bytes in one term table entry: the trigram and an offset. */
+	static final int TERM_WIDTH = 8;
+
+	/** Length of a term, in bytes of text. */
+	static final int TERM_LENGTH = 3;
+
+	/**
+	 * Read an existing commit search index file.
+	 *
+	 * @param file
+	 *            the index file.
+	 * @return the index.
+	 * @throws java.io.FileNotFoundException
+	 *             the file does not exist.
+	 * @throws IOException
+	 *             the file could not be read, or its content is not an index
+	 *             of a supported version.
+	 */
+	public static CommitSearchIndex open(final File file) throws IOException {
+		final long modified = file.lastModified();
+		final byte[] buf;
+		final FileInputStream in = new FileInputStream(file);
+		try {
+			final long len = in.getChannel().size();
+			if (len > Integer.MAX_VALUE)
+				throw new IOException(MessageFormat.format(
+						JGitText.get().unreadableCommitSearchIndex, file));
+			buf = new byte[(int) len];
+			IO.readFully(in, buf, 0, buf.length);
+		} finally {
+			in.close();
+		}
+
+		try {
+			return new CommitSearchIndex(buf, modified);
+		} catch (IOException e) {
+			final IOException err = new IOException(MessageFormat.format(
+					JGitText.get().unreadableCommitSearchIndex, file));
+			err.initCause(e);
+			throw err;
+		}
+	}
+
+	/**
+	 * Get the text of a field of a commit, as matched by the filters.
+	 *
+	 * @param raw
+	 *            the canonical form of the commit.
+	 * @param field
+	 *            the field to locate.
+	 * @return start and end of the field in <code>raw</code>; null if the
+	 *         commit does not have the field.
+	 */
+	static int[] locate(final byte[] raw, final Field field) {
+		final int b;
+		switch (field) {
+		case MESSAGE:
+			b = RawParseUtils.commitMessage(raw, 0);
+			return b < 0 ? null : new int[] { b, raw.length };
+		case AUTHOR:
+			b = RawParseUtils.author(raw, 0);
+			break;
+		default:
+			b = RawParseUtils.committer(raw, 0);
+			break;
+		}
+		if (b < 0)
+			return null;
+		return new int[] { b, RawParseUtils.nextLF(raw, b, '>') };
+	}
+
+	/**
+	 * Get the term starting at a position of some text.
+	 *
+	 * @param text
+	 *            the text; at least {@link #TERM_LENGTH} bytes must be
+	 *            available from <code>ptr</code>.
+	 * @param ptr
+	 *            first byte of the term.
+	 * @return the lower cased term, packed into an int.
+	 */
+	static int term(final byte[] text, final int ptr) {
+		return (lc(text[ptr]) << 16) | (lc(text[ptr + 1]) << 8)
+				| lc(text[ptr + 2]);
+	}
+
+	private static int lc(final byte b) {
+		return StringUtils.toLowerCase((char) (b & 0xff)) & 0xff;
+	}
+
+	private final byte[] buf;
+
+	private final long lastModified;
+
+	private final int commitCnt;
+
+	private final int tipCnt;
+
+	private final int tips;
+
+	private final int commits;
+
+	private final int sorted;
+
+	/** Start of the term table of each field. */
+	private final int[] terms;
+
+	/** Number of terms of each field. */
+	private final int[] termCnt;
+
+	/** Start of the posting lists of each field. */
+	private final int[] postings;
+
+	CommitSearchIndex(final byte[] buf, final long lastModified)
+			throws IOException {
+		this.buf = buf;
+		this.lastModified = lastModified;
+
+		final int end = buf.length - Constants.OBJECT_ID_LENGTH;
+		if (end < HEADER_SIZE)
+			throw corrupt("header");
+		for (int i = 0; i < SIGNATURE.length; i++)
+			if (buf[i] != SIGNATURE[i])
+				throw corrupt("signature");
+		final int version = NB.decodeInt32(buf, 4);
+		if (version != VERSION)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedCommitSearchIndexVersion,
+					Integer.valueOf(version)));
+		commitCnt = NB.decodeInt32(buf, 8);
+		tipCnt = NB.decodeInt32(buf, 12);
+		if (commitCnt < 0 || tipCnt < 0)
+			throw corrupt("header");
+
+		long ptr = HEADER_SIZE;
+		tips = (int) ptr;
+		ptr += (long) tipCnt * Constants.OBJECT_ID_LENGTH;
+		commits = (int) ptr;
+		ptr += (long) commitCnt * Constants.OBJECT_ID_LENGTH;
+		sorted = (int) ptr;
+		ptr += (long) commitCnt * 4;
+
+		final int fieldCnt = Field.values().length;
+		terms = new int[fieldCnt];
+		termCnt = new int[fieldCnt];
+		postings = new int[fieldCnt];
+		for (int f = 0; f < fieldCnt; f++) {
+			if (ptr + 8 > end)
+				throw corrupt("terms");
+			termCnt[f] = NB.decodeInt32(buf, (int) ptr);
+			terms[f] = (int) ptr + 4;
+			ptr += 4 + (long) termCnt[f] * TERM_WIDTH;
+			if (termCnt[f] < 0 || ptr + 4 > end)
+				throw corrupt("terms");
+			final int len = NB.decodeInt32(buf, (int) ptr);
+			postings[f] = (int) ptr + 4;
+			ptr += 4 + (long) len;
+			if (len < 0 || ptr > end)
+				throw corrupt("postings");
+		}
+		if (ptr != end)
+			throw corrupt("trailer");
+	}
+
+	private static CorruptObjectException corrupt(final String what) {
+		return new CorruptObjectException(MessageFormat.format(
+				JGitText.get().corruptCommitSearchIndex, what));
+	}
+
+	long getLastModified() {
+		return lastModified;
+	}
+
+	long getFileSize() {
+		return buf.length;
+	}
+
+	/** @return number of commits stored in the index. */
+	public int getCommitCount() {
+		return commitCnt;
+	}
+
+	/** @return number of reference tips the index was last updated from. */
+	public int getTipCount() {
+		return tipCnt;
+	}
+
+	/**
+	 * Get a tip the index was last updated from.
+	 * <p>
+	 * All commits reachable from the tips are in the index.
+	 *
+	 * @param i
+	 *            index of the tip.
+	 * @return the commit, or other object, a reference pointed to.
+	 */
+	public ObjectId getTip(final int i) {
+		return ObjectId.fromRaw(buf, tips + i * Constants.OBJECT_ID_LENGTH);
+	}
+
+	/**
+	 * Find the position of a commit.
+	 *
+	 * @param id
+	 *            the commit to find.
+	 * @return position of the commit; -1 if the commit is not in the index.
+	 */
+	public int findPosition(final AnyObjectId id) {
+		int low = 0;
+		int high = commitCnt;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			final int pos = NB.decodeInt32(buf, sorted + mid * 4);
+			final int cmp = id.compareTo(buf, commits + pos
+					* Constants.OBJECT_ID_LENGTH);
+			if (cmp < 0)
+				high = mid;
+			else if (cmp == 0)
+				return pos;
+			else
+				low = mid + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Get the id of a commit.
+	 *
+	 * @param pos
+	 *            position of the commit.
+	 * @return the object id of the commit.
+	 */
+	public ObjectId getObjectId(final int pos) {
+		return ObjectId.fromRaw(buf, commits + pos * Constants.OBJECT_ID_LENGTH);
+	}
+
+	/**
+	 * Find the commits whose field may contain a string.
+	 * <p>
+	 * The string is compared case-insensitively, in the same way as
+	 * {@link org.eclipse.jgit.util.RawSubStringPattern}.
+	 *
+	 * @param field
+	 *            the field to search.
+	 * @param text
+	 *            the string to search for.
+	 * @return the candidate commits; null if the string is too short to be
+	 *         looked up, in which case any commit may contain it.
+	 */
+	public Candidates search(final Field field, final String text) {
+		final byte[] needle = Constants.encode(text);
+		if (needle.length < TERM_LENGTH)
+			return null;
+
+		BitSet bits = null;
+		for (int i = 0; i + TERM_LENGTH <= needle.length; i++) {
+			final BitSet p = getPostings(field, term(needle, i));
+			if (bits == null)
+				bits = p;
+			else
+				bits.and(p);
+			if (bits.isEmpty())
+				break;
+		}
+		return new Candidates(bits);
+	}
+
+	private BitSet getPostings(final Field field, final int term) {
+		final BitSet bits = new BitSet(commitCnt);
+		final int f = field.ordinal();
+		int low = 0;
+		int high = termCnt[f];
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			final int p = terms[f] + mid * TERM_WIDTH;
+			final int key = NB.decodeInt32(buf, p);
+			if (term < key)
+				high = mid;
+			else if (term > key)
+				low = mid + 1;
+			else {
+				final IntList list = decode(postings[f]
+						+ NB.decodeInt32(buf, p + 4));
+				for (int i = 0; i < list.size(); i++)
+					bits.set(list.get(i));
+				break;
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * Get the position of a commit in order of object ids.
+	 *
+	 * @param i
+	 *            index of the commit in object id order.
+	 * @return position of the commit.
+	 */
+	int getSortedPosition(final int i) {
+		return NB.decodeInt32(buf, sorted + i * 4);
+	}
+
+	/**
+	 * Copy the object id of a commit.
+	 *
+	 * @param pos
+	 *            position of the commit.
+	 * @param dst
+	 *            receives the raw object id.
+	 * @param off
+	 *            where to store the id in <code>dst</code>.
+	 */
+	void copyRawObjectId(final int pos, final byte[] dst, final int off) {
+		System.arraycopy(buf, commits + pos * Constants.OBJECT_ID_LENGTH, dst,
+				off, Constants.OBJECT_ID_LENGTH);
+	}
+
+	/**
+	 * @param field
+	 *            the field.
+	 * @return number of terms of the field.
+	 */
+	int getTermCount(final Field field) {
+		return termCnt[field.ordinal()];
+	}
+
+	/**
+	 * @param field
+	 *            the field.
+	 * @param i
+	 *            index of the term, in ascending order of terms.
+	 * @return the term.
+	 */
+	int getTerm(final Field field, final int i) {
+		return NB.decodeInt32(buf, terms[field.ordinal()] + i * TERM_WIDTH);
+	}
+
+	/**
+	 * Write the posting list of a term, extended by more positions.
+	 * <p>
+	 * The encoded positions of the existing list are copied as they are,
+	 * only the positions added need to be encoded.
+	 *
+	 * @param field
+	 *            the field.
+	 * @param i
+	 *            index of the term, in ascending order of terms.
+	 * @param more
+	 *            positions to append, all greater than those of the list;
+	 *            null to append none.
+	 * @param out
+	 *            stream to write the list to.
+	 * @throws IOException
+	 *             the stream could not be written.
+	 */
+	void writePostings(final Field field, final int i, final IntList more,
+			final OutputStream out) throws IOException {
+		final int f = field.ordinal();
+		final int start = postings[f]
+				+ NB.decodeInt32(buf, terms[f] + i * TERM_WIDTH + 4);
+		int ptr = start;
+		int n = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = buf[ptr++];
+			n |= (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		final int deltas = ptr;
+
+		int last = -1;
+		for (int k = 0; k < n; k++) {
+			int delta = 0;
+			shift = 0;
+			do {
+				b = buf[ptr++];
+				delta |= (b & 0x7f) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			last += delta;
+		}
+
+		if (more == null || more.size() == 0) {
+			out.write(buf, start, ptr - start);
+			return;
+		}
+		writeVarInt(out, n + more.size());
+		out.write(buf, deltas, ptr - deltas);
+		writeDeltas(out, more, last);
+	}
+
+	/**
+	 * Write positions as the deltas between successive ones.
+	 *
+	 * @param out
+	 *            stream to write to.
+	 * @param list
+	 *            ascending positions.
+	 * @param last
+	 *            position preceding the first one; -1 at the start of a
+	 *            list.
+	 * @throws IOException
+	 *             the stream could not be written.
+	 */
+	static void writeDeltas(final OutputStream out, final IntList list,
+			int last) throws IOException {
+		for (int i = 0; i < list.size(); i++) {
+			writeVarInt(out, list.get(i) - last);
+			last = list.get(i);
+		}
+	}
+
+	static void writeVarInt(final OutputStream out, int v) throws IOException {
+		while ((v & ~0x7f) != 0) {
+			out.write((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		out.write(v);
+	}
+
+	private IntList decode(int ptr) {
+		// A list is its length, then the deltas between successive
+		// positions, each as a variable length integer.
+		int n = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = buf[ptr++];
+			n |= (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+
+		final IntList list = new IntList(n);
+		int pos = -1;
+		for (int i = 0; i < n; i++) {
+			int delta = 0;
+			shift = 0;
+			do {
+				b = buf[ptr++];
+				delta |= (b & 0x7f) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			pos += delta;
+			list.add(pos);
+		}
+		return list;
+	}
+
+	/** The commits of the index which may contain a string. */
+	public class Candidates {
+		private final BitSet bits;
+
+		Candidates(final BitSet bits) {
+			this.bits = bits;
+		}
+
+		/** @return number of candidate commits in the index. */
+		public int getCount() {
+			return bits.cardinality();
+		}
+
+		/**
+		 * Determine if a commit may contain the string.
+		 *
+		 * @param id
+		 *            the commit to test.
+		 * @return false if the commit is in the index and does not contain
+		 *         the string; true if it is a candidate, or if it is not in
+		 *         the index.
+		 */
+		public boolean mayContain(final AnyObjectId id) {
+			final int pos = findPosition(id);
+			return pos < 0 || bits.get(pos);
+		}
+	}
+}
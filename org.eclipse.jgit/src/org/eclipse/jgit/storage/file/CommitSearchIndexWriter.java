@@ -0,0 +1,387 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.storage.file;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.CommitSearchIndex.Field;
+import org.eclipse.jgit.util.IntList;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Writes the commit search index of a repository.
+ * <p>
+ * The index records the references it was last updated from. An update only
+ * reads the commits which became reachable since then, appending them to the
+ * existing index, so it is cheap to run whenever references move, e.g. after
+ * a fetch or push. Commits which are no longer reachable remain in the index;
+ * as its results are only candidates, this does not affect searches.
+ * <p>
+ * The file is rewritten by every update. Only the terms of the new commits
+ * are held in memory; the rest of the existing index is streamed to the new
+ * file, its posting lists being copied in their encoded form, with the
+ * positions of the new commits appended. The term table and posting lists of
+ * one field are buffered while they are written, as the table comes first.
+ *
+ * @see CommitSearchIndex
+ */
+public class CommitSearchIndexWriter {
+	private final FileRepository db;
+
+	/**
+	 * Create a writer for a repository.
+	 *
+	 * @param repo
+	 *            the repository whose commits are indexed.
+	 */
+	public CommitSearchIndexWriter(final FileRepository repo) {
+		db = repo;
+	}
+
+	/**
+	 * Update the commit search index of the repository.
+	 * <p>
+	 * The index is written to <code>objects/info/commit-search</code> and
+	 * covers all commits reachable from the references of the repository. An
+	 * existing index which cannot be read is replaced.
+	 *
+	 * @param pm
+	 *            progress monitor to report the number of commits processed.
+	 * @return number of commits added to the index.
+	 * @throws IOException
+	 *             the file could not be locked or written, or an object could
+	 *             not be read.
+	 */
+	public int update(final ProgressMonitor pm) throws IOException {
+		final List<ObjectId> tips = new ArrayList<ObjectId>();
+		for (Ref r : db.getAllRefs().values()) {
+			if (r.getObjectId() != null)
+				tips.add(r.getObjectId());
+		}
+
+		final File file = new File(db.getObjectDatabase().getDirectory(),
+				"info/commit-search");
+		file.getParentFile().mkdirs();
+		final LockFile lck = new LockFile(file, db.getFS());
+		if (!lck.lock())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotLockFile, file));
+		try {
+			CommitSearchIndex old;
+			try {
+				old = CommitSearchIndex.open(file);
+			} catch (FileNotFoundException noIndex) {
+				old = null;
+			} catch (IOException unreadable) {
+				old = null;
+			}
+
+			final OutputStream out = lck.getOutputStream();
+			final int cnt;
+			try {
+				cnt = write(pm, out, old, tips);
+			} finally {
+				out.close();
+			}
+			if (!lck.commit())
+				throw new IOException(MessageFormat.format(
+						JGitText.get().unableToWrite, file));
+			return cnt;
+		} finally {
+			lck.unlock();
+		}
+	}
+
+	/**
+	 * Write a commit search index to a stream.
+	 *
+	 * @param pm
+	 *            progress monitor to report the number of commits processed.
+	 * @param out
+	 *            stream to write the index to. The stream is not closed.
+	 * @param old
+	 *            the index to extend; null to write a new one.
+	 * @param tips
+	 *            the commits, or tags of commits, whose history is indexed.
+	 *            Other objects are ignored.
+	 * @return number of commits added to the index.
+	 * @throws IOException
+	 *             an object could not be read, or the stream could not be
+	 *             written.
+	 */
+	public int write(final ProgressMonitor pm, final OutputStream out,
+			final CommitSearchIndex old,
+			final Collection<? extends AnyObjectId> tips) throws IOException {
+		final Field[] fields = Field.values();
+		final List<Map<Integer, IntList>> postings;
+		postings = new ArrayList<Map<Integer, IntList>>(fields.length);
+		for (int i = 0; i < fields.length; i++)
+			postings.add(new HashMap<Integer, IntList>());
+		final List<ObjectId> commits = new ArrayList<ObjectId>();
+		final int oldCnt = old != null ? old.getCommitCount() : 0;
+
+		final RevWalk rw = new RevWalk(db);
+		try {
+			for (AnyObjectId id : tips) {
+				final RevCommit c = peel(rw, id);
+				if (c != null)
+					rw.markStart(c);
+			}
+			if (old != null) {
+				// Everything reachable from the previous tips is indexed.
+				for (int i = 0; i < old.getTipCount(); i++) {
+					final RevCommit c = peel(rw, old.getTip(i));
+					if (c != null)
+						rw.markUninteresting(c);
+				}
+			}
+
+			pm.beginTask(JGitText.get().indexingCommits,
+					ProgressMonitor.UNKNOWN);
+			RevCommit c;
+			while ((c = rw.next()) != null) {
+				if (old != null && 0 <= old.findPosition(c))
+					continue;
+				final int pos = oldCnt + commits.size();
+				commits.add(c.copy());
+				final byte[] raw = c.getRawBuffer();
+				for (Field f : fields)
+					addTerms(postings.get(f.ordinal()), raw, f, pos);
+				pm.update(1);
+			}
+			pm.endTask();
+
+			writeIndex(out, tips, old, commits, postings);
+			return commits.size();
+		} finally {
+			rw.release();
+		}
+	}
+
+	private static RevCommit peel(final RevWalk rw, final AnyObjectId id)
+			throws IOException {
+		RevObject o;
+		try {
+			o = rw.peel(rw.parseAny(id));
+		} catch (MissingObjectException gone) {
+			return null;
+		}
+		return o instanceof RevCommit ? (RevCommit) o : null;
+	}
+
+	private static void addTerms(final Map<Integer, IntList> postings,
+			final byte[] raw, final Field field, final int pos) {
+		final int[] range = CommitSearchIndex.locate(raw, field);
+		if (range == null)
+			return;
+		final int end = range[1] - CommitSearchIndex.TERM_LENGTH;
+		for (int ptr = range[0]; ptr <= end; ptr++) {
+			final Integer term = Integer.valueOf(CommitSearchIndex.term(raw,
+					ptr));
+			IntList list = postings.get(term);
+			if (list == null) {
+				list = new IntList(4);
+				postings.put(term, list);
+			}
+			// Positions only grow, so a repeated term is the last entry.
+			if (list.size() == 0 || list.get(list.size() - 1) != pos)
+				list.add(pos);
+		}
+	}
+
+	private static void writeIndex(final OutputStream os,
+			final Collection<? extends AnyObjectId> tips,
+			final CommitSearchIndex old, final List<ObjectId> commits,
+			final List<Map<Integer, IntList>> postings) throws IOException {
+		final ObjectIdSubclassMap<ObjectId> uniqueTips;
+		uniqueTips = new ObjectIdSubclassMap<ObjectId>();
+		for (AnyObjectId id : tips) {
+			if (uniqueTips.get(id) == null)
+				uniqueTips.add(id.copy());
+		}
+		final int oldCnt = old != null ? old.getCommitCount() : 0;
+
+		final MessageDigest md = Constants.newMessageDigest();
+		final DigestOutputStream out = new DigestOutputStream(
+				new BufferedOutputStream(os), md);
+		final byte[] tmp = new byte[Constants.OBJECT_ID_LENGTH];
+
+		out.write(CommitSearchIndex.SIGNATURE);
+		NB.encodeInt32(tmp, 0, CommitSearchIndex.VERSION);
+		NB.encodeInt32(tmp, 4, oldCnt + commits.size());
+		NB.encodeInt32(tmp, 8, uniqueTips.size());
+		out.write(tmp, 0, 12);
+
+		for (ObjectId id : uniqueTips) {
+			id.copyRawTo(tmp, 0);
+			out.write(tmp, 0, Constants.OBJECT_ID_LENGTH);
+		}
+		for (int pos = 0; pos < oldCnt; pos++) {
+			old.copyRawObjectId(pos, tmp, 0);
+			out.write(tmp, 0, Constants.OBJECT_ID_LENGTH);
+		}
+		for (ObjectId id : commits) {
+			id.copyRawTo(tmp, 0);
+			out.write(tmp, 0, Constants.OBJECT_ID_LENGTH);
+		}
+
+		writeSortedPositions(out, old, commits);
+		for (Field f : Field.values())
+			writeField(out, old, f, postings.get(f.ordinal()));
+
+		out.on(false);
+		out.write(md.digest());
+		out.flush();
+	}
+
+	private static void writeSortedPositions(final OutputStream out,
+			final CommitSearchIndex old, final List<ObjectId> commits)
+			throws IOException {
+		// Positions of the commits, in order of their object ids, merging
+		// the already sorted commits of the old index with the new ones.
+		final Integer[] sorted = new Integer[commits.size()];
+		for (int i = 0; i < sorted.length; i++)
+			sorted[i] = Integer.valueOf(i);
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return commits.get(a.intValue()).compareTo(
+						commits.get(b.intValue()));
+			}
+		});
+
+		final int oldCnt = old != null ? old.getCommitCount() : 0;
+		final byte[] tmp = new byte[Constants.OBJECT_ID_LENGTH];
+		int oldIdx = 0;
+		int newIdx = 0;
+		while (oldIdx < oldCnt || newIdx < sorted.length) {
+			final int pos;
+			if (newIdx == sorted.length)
+				pos = old.getSortedPosition(oldIdx++);
+			else if (oldIdx == oldCnt)
+				pos = oldCnt + sorted[newIdx++].intValue();
+			else {
+				final int oldPos = old.getSortedPosition(oldIdx);
+				old.copyRawObjectId(oldPos, tmp, 0);
+				final ObjectId n = commits.get(sorted[newIdx].intValue());
+				if (n.compareTo(tmp, 0) < 0)
+					pos = oldCnt + sorted[newIdx++].intValue();
+				else {
+					pos = oldPos;
+					oldIdx++;
+				}
+			}
+			NB.encodeInt32(tmp, 0, pos);
+			out.write(tmp, 0, 4);
+		}
+	}
+
+	private static void writeField(final OutputStream out,
+			final CommitSearchIndex old, final Field f,
+			final Map<Integer, IntList> added) throws IOException {
+		final Integer[] terms = added.keySet().toArray(
+				new Integer[added.size()]);
+		Arrays.sort(terms);
+		final int oldTerms = old != null ? old.getTermCount(f) : 0;
+
+		// The term table precedes the posting lists, and holds their offsets.
+		final ByteArrayOutputStream table = new ByteArrayOutputStream();
+		final ByteArrayOutputStream lists = new ByteArrayOutputStream();
+		final byte[] tmp = new byte[CommitSearchIndex.TERM_WIDTH];
+		int termCnt = 0;
+		int oldIdx = 0;
+		int newIdx = 0;
+		while (oldIdx < oldTerms || newIdx < terms.length) {
+			final int oldTerm = oldIdx < oldTerms ? old.getTerm(f, oldIdx)
+					: Integer.MAX_VALUE;
+			final int newTerm = newIdx < terms.length ? terms[newIdx]
+					.intValue() : Integer.MAX_VALUE;
+			final int term = Math.min(oldTerm, newTerm);
+			NB.encodeInt32(tmp, 0, term);
+			NB.encodeInt32(tmp, 4, lists.size());
+			table.write(tmp, 0, CommitSearchIndex.TERM_WIDTH);
+			termCnt++;
+
+			final IntList list = newTerm == term ? added.get(terms[newIdx++])
+					: null;
+			if (oldTerm == term)
+				old.writePostings(f, oldIdx++, list, lists);
+			else {
+				CommitSearchIndex.writeVarInt(lists, list.size());
+				CommitSearchIndex.writeDeltas(lists, list, -1);
+			}
+		}
+
+		NB.encodeInt32(tmp, 0, termCnt);
+		out.write(tmp, 0, 4);
+		table.writeTo(out);
+		NB.encodeInt32(tmp, 0, lists.size());
+		out.write(tmp, 0, 4);
+		lists.writeTo(out);
+	}
+}
@@ -220,6 +220,29 @@ abstract void selectObjectRepresentation(PackWriter packer,
 
 	abstract File getDirectory();
 
+	/**
+	 * Inflate the start of an object stored whole in a pack of this database.
+	 *
+	 * @param curs
+	 *            temporary working space associated with the calling thread.
+	 * @param objectId
+	 *            identity of the object to read.
+	 * @param typeHint
+	 *            type the object must have.
+	 * @param buf
+	 *            buffer to inflate the object into, from its first byte.
+	 * @return number of bytes inflated; -1 if the object is not stored whole
+	 *         with this type in a pack, and must be opened instead.
+	 */
+	int readPackedPrefix(WindowCursor curs, AnyObjectId objectId,
+			int typeHint, byte[] buf) {
+		return -1;
+	}
+
+	abstract CommitGraph getCommitGraph();
+
+	abstract CommitSearchIndex getCommitSearchIndex();
+
 	abstract AlternateHandle[] myAlternates();
 
 	abstract boolean tryAgain1();
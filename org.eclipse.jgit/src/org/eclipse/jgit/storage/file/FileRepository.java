@@ -54,6 +54,7 @@
 
 import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.events.IndexChangedEvent;
 import org.eclipse.jgit.lib.BaseRepositoryBuilder;
 import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.Constants;
@@ -100,6 +101,9 @@ public class FileRepository extends Repository {
 
 	private final ObjectDirectory objectDatabase;
 
+	/** Modification time of the index at the last scan; -1 before the first. */
+	private long indexModified = -1;
+
 	/**
 	 * Construct a representation of a Git repository.
 	 * <p>
@@ -312,7 +316,17 @@ public void openPack(final File pack, final File idx) throws IOException {
 	public void scanForRepoChanges() throws IOException {
 		getAllRefs(); // This will look for changes to refs
 		if (!isBare())
-			getIndex(); // This will detect changes in the index
+			detectIndexChanges();
+	}
+
+	private void detectIndexChanges() {
+		// Only the file is checked. Parsing it through GitIndex would fail
+		// on the index formats only DirCache can read.
+		//
+		final long modified = getIndexFile().lastModified();
+		if (indexModified != -1 && indexModified != modified)
+			fireEvent(new IndexChangedEvent());
+		indexModified = modified;
 	}
 
 	/**
@@ -67,6 +67,7 @@
 import org.eclipse.jgit.events.ConfigChangedListener;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.CoreConfig;
 import org.eclipse.jgit.lib.ObjectDatabase;
 import org.eclipse.jgit.lib.ObjectId;
@@ -110,6 +111,14 @@ public class ObjectDirectory extends FileObjectDatabase implements
 
 	private final File alternatesFile;
 
+	private final File commitGraphFile;
+
+	private final AtomicReference<CommitGraph> commitGraph;
+
+	private final File commitSearchIndexFile;
+
+	private final AtomicReference<CommitSearchIndex> commitSearchIndex;
+
 	private final AtomicReference<PackList> packList;
 
 	private final FS fs;
@@ -118,6 +127,8 @@ public class ObjectDirectory extends FileObjectDatabase implements
 
 	private int streamFileThreshold;
 
+	private boolean useCommitGraph;
+
 	/**
 	 * Initialize a reference to an on-disk object directory.
 	 *
@@ -140,6 +151,10 @@ public ObjectDirectory(final Config cfg, final File dir,
 		infoDirectory = new File(objects, "info");
 		packDirectory = new File(objects, "pack");
 		alternatesFile = new File(infoDirectory, "alternates");
+		commitGraphFile = new File(infoDirectory, "commit-graph");
+		commitGraph = new AtomicReference<CommitGraph>();
+		commitSearchIndexFile = new File(infoDirectory, "commit-search");
+		commitSearchIndex = new AtomicReference<CommitSearchIndex>();
 		packList = new AtomicReference<PackList>(NO_PACKS);
 		this.fs = fs;
 
@@ -159,6 +174,8 @@ public ObjectDirectory(final Config cfg, final File dir,
 	public void onConfigChanged(ConfigChangedEvent event) {
 		CoreConfig core = config.get(CoreConfig.KEY);
 		streamFileThreshold = core.getStreamFileThreshold();
+		useCommitGraph = config.getBoolean(ConfigConstants.CONFIG_CORE_SECTION,
+				ConfigConstants.CONFIG_KEY_COMMIT_GRAPH, true);
 	}
 
 	/**
@@ -201,6 +218,70 @@ public void close() {
 		}
 	}
 
+	/**
+	 * Get the commit-graph of this directory.
+	 * <p>
+	 * The file is read again when it is modified. A graph that cannot be read
+	 * is ignored, as the same information is available from the objects.
+	 *
+	 * @return the commit-graph; null if there is none, it is corrupt, or
+	 *         <code>core.commitGraph</code> is false.
+	 */
+	@Override
+	public CommitGraph getCommitGraph() {
+		if (!useCommitGraph)
+			return null;
+		final CommitGraph cur = commitGraph.get();
+		final long modified = commitGraphFile.lastModified();
+		if (modified == 0) {
+			commitGraph.compareAndSet(cur, null);
+			return null;
+		}
+		if (cur != null && cur.getLastModified() == modified
+				&& cur.getFileSize() == commitGraphFile.length())
+			return cur;
+
+		CommitGraph g;
+		try {
+			g = CommitGraph.open(commitGraphFile);
+		} catch (IOException e) {
+			g = null;
+		}
+		commitGraph.compareAndSet(cur, g);
+		return g;
+	}
+
+	/**
+	 * Get the commit search index of this directory.
+	 * <p>
+	 * The file is read again when it is modified. An index that cannot be read
+	 * is ignored, as searches can always examine the commits themselves.
+	 *
+	 * @return the commit search index; null if there is none, or it is
+	 *         corrupt.
+	 */
+	@Override
+	public CommitSearchIndex getCommitSearchIndex() {
+		final CommitSearchIndex cur = commitSearchIndex.get();
+		final long modified = commitSearchIndexFile.lastModified();
+		if (modified == 0) {
+			commitSearchIndex.compareAndSet(cur, null);
+			return null;
+		}
+		if (cur != null && cur.getLastModified() == modified
+				&& cur.getFileSize() == commitSearchIndexFile.length())
+			return cur;
+
+		CommitSearchIndex idx;
+		try {
+			idx = CommitSearchIndex.open(commitSearchIndexFile);
+		} catch (IOException e) {
+			idx = null;
+		}
+		commitSearchIndex.compareAndSet(cur, idx);
+		return idx;
+	}
+
 	/**
 	 * Compute the location of a loose object file.
 	 *
@@ -304,6 +385,22 @@ ObjectLoader openObject1(final WindowCursor curs,
 		}
 	}
 
+	@Override
+	int readPackedPrefix(final WindowCursor curs, final AnyObjectId objectId,
+			final int typeHint, final byte[] buf) {
+		for (final PackFile p : packList.get().packs) {
+			try {
+				final int n = p.readPrefix(curs, objectId, typeHint, buf);
+				if (0 <= n)
+					return n;
+			} catch (IOException e) {
+				// Let opening the object handle, and report, the problem.
+				return -1;
+			}
+		}
+		return -1;
+	}
+
 	long getObjectSize1(final WindowCursor curs, final AnyObjectId objectId)
 			throws IOException {
 		PackList pList = packList.get();
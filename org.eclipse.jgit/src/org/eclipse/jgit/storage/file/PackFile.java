@@ -50,12 +50,15 @@
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
+import java.security.MessageDigest;
 import java.text.MessageFormat;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
@@ -294,6 +297,68 @@ final void copyAsIs(PackOutputStream out, LocalObjectToPack src,
 		}
 	}
 
+	/**
+	 * Check if this pack can be copied whole.
+	 *
+	 * @param reusedCnt
+	 *            number of objects reusing their representation from this
+	 *            pack.
+	 * @return true if every object of the pack is reused, and the index can
+	 *         supply the CRC-32 code of each object.
+	 * @throws IOException
+	 *             the index file cannot be loaded into memory.
+	 */
+	boolean canCopyWhole(final long reusedCnt) throws IOException {
+		if (invalid)
+			return false;
+		final PackIndex idx = idx();
+		return idx.hasCRC32Support() && reusedCnt == idx.getObjectCount();
+	}
+
+	final void copyPackAsIs(PackOutputStream out,
+			List<LocalObjectToPack> objects, WindowCursor curs)
+			throws IOException {
+		beginCopyPack();
+		try {
+			copyPackAsIs2(out, objects, curs);
+		} finally {
+			endCopyAsIs();
+		}
+	}
+
+	private void copyPackAsIs2(PackOutputStream out,
+			List<LocalObjectToPack> objects, WindowCursor curs)
+			throws IOException {
+		final MessageDigest md = Constants.newMessageDigest();
+		final byte[] buf = out.getCopyBuffer();
+		final long start = out.length() - 12;
+		final long end = length - 20;
+
+		// The header is replaced by the writer's own, but it is
+		// still part of the checksum we use to validate the data.
+		//
+		readFully(0, buf, 0, 12, curs);
+		md.update(buf, 0, 12);
+
+		long pos = 12;
+		while (pos < end) {
+			final int n = (int) Math.min(end - pos, buf.length);
+			readFully(pos, buf, 0, n, curs);
+			md.update(buf, 0, n);
+			out.write(buf, 0, n);
+			pos += n;
+		}
+		if (!Arrays.equals(md.digest(), packChecksum))
+			throw new IOException(MessageFormat.format(
+					JGitText.get().packfileCorruptionDetected, getPackFile()));
+
+		final PackIndex idx = idx();
+		for (LocalObjectToPack otp : objects) {
+			otp.setOffset(start + otp.offset);
+			otp.setCRC((int) idx.findCRC32(otp));
+		}
+	}
+
 	private void copyAsIs2(PackOutputStream out, LocalObjectToPack src,
 			WindowCursor curs) throws IOException,
 			StoredObjectRepresentationNotAvailableException {
@@ -433,6 +498,28 @@ private void copyAsIs2(PackOutputStream out, LocalObjectToPack src,
 			//
 			out.writeHeader(src, inflatedLength);
 			out.write(buf, 0, (int) dataLength);
+		} else if (out.canTransferFrom()) {
+			// The output is a file. Hash the data and confirm its CRC32
+			// code is still correct, then let the operating system move the
+			// bytes from the pack file to the output without a heap copy.
+			//
+			out.writeHeader(src, inflatedLength);
+			long pos = dataOffset;
+			long cnt = dataLength;
+			while (cnt > 0) {
+				final int n = (int) Math.min(cnt, buf.length);
+				readFully(pos, buf, 0, n, curs);
+				crc2.update(buf, 0, n);
+				out.digest(buf, 0, n);
+				pos += n;
+				cnt -= n;
+			}
+			if (crc2.getValue() != expectedCRC) {
+				throw new CorruptObjectException(MessageFormat.format(JGitText
+						.get().objectAtHasBadZlibStream, src.offset,
+						getPackFile()));
+			}
+			out.transferFrom(channel(), dataOffset, dataLength);
 		} else {
 			// Now we are committed to sending the object. As we spool it out,
 			// check its CRC32 code to make sure there wasn't corruption between
@@ -461,6 +548,12 @@ boolean invalid() {
 		return invalid;
 	}
 
+	private FileChannel channel() {
+		synchronized (readLock) {
+			return fd.getChannel();
+		}
+	}
+
 	private void readFully(final long position, final byte[] dstbuf,
 			int dstoff, final int cnt, final WindowCursor curs)
 			throws IOException {
@@ -468,21 +561,24 @@ private void readFully(final long position, final byte[] dstbuf,
 			throw new EOFException();
 	}
 
-	private synchronized void beginCopyAsIs(ObjectToPack otp)
+	private void beginCopyAsIs(ObjectToPack otp)
 			throws StoredObjectRepresentationNotAvailableException {
-		if (++activeCopyRawData == 1 && activeWindows == 0) {
-			try {
-				doOpen();
-			} catch (IOException thisPackNotValid) {
-				StoredObjectRepresentationNotAvailableException gone;
+		try {
+			beginCopyPack();
+		} catch (IOException thisPackNotValid) {
+			StoredObjectRepresentationNotAvailableException gone;
 
-				gone = new StoredObjectRepresentationNotAvailableException(otp);
-				gone.initCause(thisPackNotValid);
-				throw gone;
-			}
+			gone = new StoredObjectRepresentationNotAvailableException(otp);
+			gone.initCause(thisPackNotValid);
+			throw gone;
 		}
 	}
 
+	private synchronized void beginCopyPack() throws IOException {
+		if (++activeCopyRawData == 1 && activeWindows == 0)
+			doOpen();
+	}
+
 	private synchronized void endCopyAsIs() {
 		if (--activeCopyRawData == 0 && activeWindows == 0)
 			doClose();
@@ -669,6 +765,51 @@ ObjectLoader load(final WindowCursor curs, final long pos)
 		}
 	}
 
+	/**
+	 * Inflate the start of an object stored whole in this pack.
+	 *
+	 * @param curs
+	 *            temporary working space associated with the calling thread.
+	 * @param id
+	 *            the object to read.
+	 * @param typeHint
+	 *            type the object must have.
+	 * @param buf
+	 *            buffer to inflate the object into, from its first byte.
+	 * @return number of bytes inflated; -1 if the object is not in this pack,
+	 *         is a delta, or is not of the given type.
+	 * @throws IOException
+	 *             the pack file or the index could not be read.
+	 */
+	int readPrefix(final WindowCursor curs, final AnyObjectId id,
+			final int typeHint, final byte[] buf) throws IOException {
+		final long pos = idx().findOffset(id);
+		if (pos <= 0 || isCorrupt(pos))
+			return -1;
+
+		final byte[] ib = curs.tempId;
+		readFully(pos, ib, 0, 20, curs);
+		int c = ib[0] & 0xff;
+		if (((c >> 4) & 7) != typeHint)
+			return -1;
+		long sz = c & 15;
+		int shift = 4;
+		int p = 1;
+		while ((c & 0x80) != 0) {
+			c = ib[p++] & 0xff;
+			sz += (c & 0x7f) << shift;
+			shift += 7;
+		}
+
+		final int n;
+		try {
+			n = curs.inflate(this, pos + p, buf, 0);
+		} catch (DataFormatException dfe) {
+			return -1;
+		}
+		return n == Math.min(sz, buf.length) ? n : -1;
+	}
+
 	private long findDeltaBase(ObjectId baseId) throws IOException,
 			MissingObjectException {
 		long ofs = idx().findOffset(baseId);
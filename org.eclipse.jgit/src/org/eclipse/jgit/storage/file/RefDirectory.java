@@ -68,7 +68,9 @@
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
@@ -547,6 +549,170 @@ void delete(RefDirectoryUpdate update) throws IOException {
 		fireRefsChanged();
 	}
 
+	/**
+	 * Pack loose references into the {@code packed-refs} file.
+	 * <p>
+	 * The new packed-refs file is written sorted by name and carries the peeled
+	 * value of every annotated tag, allowing readers to advertise tags without
+	 * parsing the tag objects. The file is replaced atomically through a
+	 * {@link LockFile}.
+	 * <p>
+	 * If {@code prune} is set, each loose reference that was packed is then
+	 * deleted, but only after locking it and confirming its value still
+	 * matches what was written to packed-refs. References that are locked or
+	 * modified by a concurrent writer are left as loose files, where they
+	 * continue to override the packed value.
+	 *
+	 * @param all
+	 *            if true, every reference under {@code refs/} is packed. If
+	 *            false, only tags and references already present in
+	 *            packed-refs are packed, matching {@code git pack-refs}.
+	 * @param prune
+	 *            if true, loose references which were packed are removed.
+	 * @return number of loose references copied into packed-refs.
+	 * @throws IOException
+	 *             packed-refs cannot be locked or written, or the loose
+	 *             references cannot be read.
+	 */
+	public int pack(boolean all, boolean prune) throws IOException {
+		final PackedRefList packed = getPackedRefs();
+		final List<Ref> moved = new ArrayList<Ref>();
+
+		LockFile lck = new LockFile(packedRefsFile, parent.getFS());
+		if (!lck.lock())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotLockFile, packedRefsFile));
+		try {
+			// Reread packed-refs under the lock, in case another process
+			// modified it after our last scan.
+			final PackedRefList cur = readPackedRefs(0, 0);
+			final RefList<LooseRef> loose = getLooseRefs();
+			final RefList.Builder<Ref> list = new RefList.Builder<Ref>(cur
+					.size()
+					+ loose.size());
+
+			RevWalk rw = new RevWalk(getRepository());
+			try {
+				int pIdx = 0;
+				int lIdx = 0;
+				while (pIdx < cur.size() || lIdx < loose.size()) {
+					final Ref p = pIdx < cur.size() ? cur.get(pIdx) : null;
+					final Ref l = lIdx < loose.size() ? loose.get(lIdx) : null;
+					final int cmp;
+					if (p == null)
+						cmp = 1;
+					else if (l == null)
+						cmp = -1;
+					else
+						cmp = RefComparator.compareTo(p, l);
+
+					if (cmp < 0) {
+						list.add(peelPacked(rw, p));
+						pIdx++;
+						continue;
+					}
+
+					if (cmp == 0)
+						pIdx++;
+					lIdx++;
+
+					if (shouldPack(l, all, cmp == 0)) {
+						list.add(peelPacked(rw, l));
+						moved.add(l);
+					} else if (cmp == 0)
+						list.add(peelPacked(rw, p));
+				}
+			} finally {
+				rw.release();
+			}
+
+			commitPackedRefs(lck, list.toRefList(), packed);
+		} finally {
+			lck.unlock();
+		}
+
+		if (prune) {
+			for (Ref r : moved)
+				pruneLooseRef(r);
+		}
+
+		modCnt.incrementAndGet();
+		fireRefsChanged();
+		return moved.size();
+	}
+
+	private static boolean shouldPack(Ref ref, boolean all, boolean isPacked) {
+		if (ref.isSymbolic() || !ref.getName().startsWith(R_REFS))
+			return false;
+		return all || isPacked || ref.getName().startsWith(R_TAGS);
+	}
+
+	private static Ref peelPacked(RevWalk rw, Ref ref) throws IOException {
+		final String name = ref.getName();
+		final ObjectId id = ref.getObjectId();
+		if (ref.isPeeled()) {
+			if (ref.getStorage() == PACKED)
+				return ref;
+			if (ref.getPeeledObjectId() != null)
+				return new ObjectIdRef.PeeledTag(PACKED, name, id, ref
+						.getPeeledObjectId());
+			return new ObjectIdRef.PeeledNonTag(PACKED, name, id);
+		}
+
+		try {
+			RevObject obj = rw.parseAny(id);
+			if (obj instanceof RevTag)
+				return new ObjectIdRef.PeeledTag(PACKED, name, id, rw.peel(obj)
+						.copy());
+		} catch (MissingObjectException notFound) {
+			// C Git writes such references without a peeled line, as it
+			// cannot know what the object is. Do the same thing.
+		}
+		return new ObjectIdRef.PeeledNonTag(PACKED, name, id);
+	}
+
+	private void pruneLooseRef(Ref ref) throws IOException {
+		final String name = ref.getName();
+		final File path = fileFor(name);
+
+		LockFile lck = new LockFile(path, parent.getFS());
+		if (!lck.lock())
+			return; // Another writer is updating it, leave the loose file.
+		try {
+			LooseRef cur;
+			try {
+				cur = scanRef(null, name);
+			} catch (IOException notValid) {
+				return;
+			}
+			if (cur == null || cur.isSymbolic()
+					|| !ref.getObjectId().equals(cur.getObjectId()))
+				return; // Modified since we packed it, keep the new value.
+
+			if (!path.delete() && path.isFile())
+				return;
+
+			RefList<LooseRef> curLoose, newLoose;
+			do {
+				curLoose = looseRefs.get();
+				int idx = curLoose.find(name);
+				if (idx < 0)
+					break;
+				newLoose = curLoose.remove(idx);
+			} while (!looseRefs.compareAndSet(curLoose, newLoose));
+		} finally {
+			lck.unlock();
+		}
+
+		// Now that the lock file is gone, try to remove empty parents.
+		File dir = path.getParentFile();
+		for (int i = levelsIn(name) - 2; 0 < i; i--) {
+			if (!dir.delete())
+				break; // ignore problem here
+			dir = dir.getParentFile();
+		}
+	}
+
 	void log(final RefUpdate update, final String msg, final boolean deref)
 			throws IOException {
 		final ObjectId oldId = update.getOldObjectId();
@@ -45,6 +45,11 @@
 package org.eclipse.jgit.storage.file;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
@@ -61,6 +66,7 @@
 import org.eclipse.jgit.storage.pack.ObjectToPack;
 import org.eclipse.jgit.storage.pack.PackOutputStream;
 import org.eclipse.jgit.storage.pack.PackWriter;
+import org.eclipse.jgit.storage.pack.StoredPack;
 
 /** Active handle to a ByteWindow. */
 final class WindowCursor extends ObjectReader implements ObjectReuseAsIs {
@@ -100,6 +106,23 @@ public ObjectLoader open(AnyObjectId objectId, int typeHint)
 		return ldr;
 	}
 
+	public int readPrefix(AnyObjectId objectId, int typeHint, byte[] buf)
+			throws MissingObjectException, IncorrectObjectTypeException,
+			IOException {
+		final int n = db.readPackedPrefix(this, objectId, typeHint, buf);
+		if (0 <= n)
+			return n;
+		return super.readPrefix(objectId, typeHint, buf);
+	}
+
+	public CommitGraph getCommitGraph() {
+		return db.getCommitGraph();
+	}
+
+	public CommitSearchIndex getCommitSearchIndex() {
+		return db.getCommitSearchIndex();
+	}
+
 	public long getObjectSize(AnyObjectId objectId, int typeHint)
 			throws MissingObjectException, IncorrectObjectTypeException,
 			IOException {
@@ -127,6 +150,36 @@ public void copyObjectAsIs(PackOutputStream out, ObjectToPack otp)
 		src.pack.copyAsIs(out, src, this);
 	}
 
+	public Collection<StoredPack> selectWholePacks(
+			Collection<ObjectToPack> objects) throws IOException {
+		Map<PackFile, LocalStoredPack> byPack;
+		byPack = new LinkedHashMap<PackFile, LocalStoredPack>();
+		for (ObjectToPack otp : objects) {
+			LocalObjectToPack src = (LocalObjectToPack) otp;
+			if (src.pack == null)
+				continue;
+			LocalStoredPack p = byPack.get(src.pack);
+			if (p == null) {
+				p = new LocalStoredPack(src.pack);
+				byPack.put(src.pack, p);
+			}
+			p.objects.add(src);
+		}
+
+		List<StoredPack> r = new ArrayList<StoredPack>();
+		for (LocalStoredPack p : byPack.values()) {
+			if (p.pack.canCopyWhole(p.objects.size()))
+				r.add(p);
+		}
+		return r;
+	}
+
+	public void copyPackAsIs(PackOutputStream out, StoredPack pack)
+			throws IOException {
+		LocalStoredPack src = (LocalStoredPack) pack;
+		src.pack.copyPackAsIs(out, src.objects, this);
+	}
+
 	/**
 	 * Copy bytes from the window to a caller supplied buffer.
 	 *
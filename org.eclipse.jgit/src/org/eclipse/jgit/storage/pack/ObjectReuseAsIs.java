@@ -44,6 +44,7 @@
 package org.eclipse.jgit.storage.pack;
 
 import java.io.IOException;
+import java.util.Collection;
 
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.StoredObjectRepresentationNotAvailableException;
@@ -133,4 +134,42 @@ public void selectObjectRepresentation(PackWriter packer, ObjectToPack otp)
 	 */
 	public void copyObjectAsIs(PackOutputStream out, ObjectToPack otp)
 			throws IOException, StoredObjectRepresentationNotAvailableException;
+
+	/**
+	 * Select stored packs that can be copied whole into the output.
+	 * <p>
+	 * {@code PackWriter} invokes this method after representations have been
+	 * selected and deltas searched, passing every object it will write that
+	 * still reuses its selected representation as-is. An implementation may
+	 * return a pack only if every object of that pack is in {@code objects},
+	 * and each of them selected its representation from that pack, so the
+	 * pack's object data can be copied unmodified.
+	 *
+	 * @param objects
+	 *            objects that will be written by reusing their representation.
+	 * @return packs that can be copied whole. May be empty, never null.
+	 * @throws IOException
+	 *             the repository cannot be accessed. Packing will abort.
+	 */
+	public Collection<StoredPack> selectWholePacks(
+			Collection<ObjectToPack> objects) throws IOException;
+
+	/**
+	 * Output the object data of a whole pack as one contiguous region.
+	 * <p>
+	 * The pack's header and trailer are not written, {@code PackWriter}
+	 * generates its own. Implementors must set the offset and CRC-32 of each
+	 * object in the pack, relative to the position of {@code out} when this
+	 * method was called.
+	 *
+	 * @param out
+	 *            stream the pack's objects should be written to.
+	 * @param pack
+	 *            a pack previously returned by {@link #selectWholePacks}.
+	 * @throws IOException
+	 *             the pack could not be read, is corrupt, or the stream's
+	 *             write method threw an exception. Packing will abort.
+	 */
+	public void copyPackAsIs(PackOutputStream out, StoredPack pack)
+			throws IOException;
 }
@@ -74,6 +74,13 @@ public class PackConfig {
 	 */
 	public static final boolean DEFAULT_REUSE_OBJECTS = true;
 
+	/**
+	 * Default value of whole pack reuse option: {@value}
+	 *
+	 * @see #setReuseWholePacks(boolean)
+	 */
+	public static final boolean DEFAULT_REUSE_WHOLE_PACKS = true;
+
 	/**
 	 * Default value of delta compress option: {@value}
 	 *
@@ -137,6 +144,8 @@ public class PackConfig {
 
 	private boolean reuseObjects = DEFAULT_REUSE_OBJECTS;
 
+	private boolean reuseWholePacks = DEFAULT_REUSE_WHOLE_PACKS;
+
 	private boolean deltaBaseAsOffset = DEFAULT_DELTA_BASE_AS_OFFSET;
 
 	private boolean deltaCompress = DEFAULT_DELTA_COMPRESS;
@@ -250,6 +259,38 @@ public void setReuseObjects(boolean reuseObjects) {
 		this.reuseObjects = reuseObjects;
 	}
 
+	/**
+	 * Checks whether whole packs may be copied as a single region.
+	 *
+	 * Default setting: {@value #DEFAULT_REUSE_WHOLE_PACKS}
+	 *
+	 * @return true if the writer is configured to copy stored packs whose
+	 *         objects are all included in the output as one contiguous region.
+	 */
+	public boolean isReuseWholePacks() {
+		return reuseWholePacks;
+	}
+
+	/**
+	 * Set the whole pack reuse configuration option for the writer.
+	 *
+	 * If enabled, and every object of a stored pack is being written using its
+	 * representation from that pack, the writer copies the pack's object data
+	 * as one contiguous region instead of object by object. Only the header
+	 * and trailer of the output are generated. This option has no effect
+	 * unless objects are reused and delta bases are written as offsets. The
+	 * pack checksum of the copied region is verified.
+	 *
+	 * Default setting: {@value #DEFAULT_REUSE_WHOLE_PACKS}
+	 *
+	 * @param reuseWholePacks
+	 *            boolean indicating whether or not the writer should copy
+	 *            whole packs when possible.
+	 */
+	public void setReuseWholePacks(boolean reuseWholePacks) {
+		this.reuseWholePacks = reuseWholePacks;
+	}
+
 	/**
 	 * True if writer can use offsets to point to a delta base.
 	 *
@@ -616,6 +657,7 @@ public void fromConfig(final Config rc) {
 		//
 		setReuseDeltas(rc.getBoolean("pack", "reusedeltas", isReuseDeltas()));
 		setReuseObjects(rc.getBoolean("pack", "reuseobjects", isReuseObjects()));
+		setReuseWholePacks(rc.getBoolean("pack", "reusewholepacks", isReuseWholePacks()));
 		setDeltaCompress(rc.getBoolean("pack", "deltacompression", isDeltaCompress()));
 	}
 }
@@ -44,11 +44,15 @@
 
 package org.eclipse.jgit.storage.pack;
 
+import java.io.EOFException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.util.zip.CRC32;
 
+import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.util.NB;
@@ -59,6 +63,8 @@ public final class PackOutputStream extends OutputStream {
 
 	private final OutputStream out;
 
+	private final FileChannel channel;
+
 	private final boolean ofsDelta;
 
 	private final CRC32 crc = new CRC32();
@@ -71,6 +77,11 @@ public final class PackOutputStream extends OutputStream {
 
 	private byte[] copyBuffer;
 
+	/** Buffered data not yet written to {@link #channel}. */
+	private byte[] channelBuffer;
+
+	private int channelBufferCnt;
+
 	/**
 	 * Initialize a pack output stream.
 	 * <p>
@@ -90,12 +101,23 @@ public PackOutputStream(final ProgressMonitor writeMonitor,
 		this.writeMonitor = writeMonitor;
 		this.out = out;
 		this.ofsDelta = pw.isDeltaBaseAsOffset();
+
+		if (out instanceof FileOutputStream) {
+			channel = ((FileOutputStream) out).getChannel();
+			channelBuffer = new byte[64 * 1024];
+		} else
+			channel = null;
 	}
 
 	@Override
 	public void write(final int b) throws IOException {
 		count++;
-		out.write(b);
+		if (channelBuffer != null) {
+			if (channelBufferCnt == channelBuffer.length)
+				flushChannelBuffer();
+			channelBuffer[channelBufferCnt++] = (byte) b;
+		} else
+			out.write(b);
 		crc.update(b);
 		md.update((byte) b);
 	}
@@ -104,16 +126,93 @@ public void write(final int b) throws IOException {
 	public void write(final byte[] b, final int off, final int len)
 			throws IOException {
 		count += len;
-		out.write(b, off, len);
+		if (channelBuffer != null) {
+			if (channelBuffer.length - channelBufferCnt < len)
+				flushChannelBuffer();
+			if (len < channelBuffer.length) {
+				System.arraycopy(b, off, channelBuffer, channelBufferCnt, len);
+				channelBufferCnt += len;
+			} else
+				out.write(b, off, len);
+		} else
+			out.write(b, off, len);
 		crc.update(b, off, len);
 		md.update(b, off, len);
 	}
 
 	@Override
 	public void flush() throws IOException {
+		flushChannelBuffer();
 		out.flush();
 	}
 
+	private void flushChannelBuffer() throws IOException {
+		if (0 < channelBufferCnt) {
+			out.write(channelBuffer, 0, channelBufferCnt);
+			channelBufferCnt = 0;
+		}
+	}
+
+	/**
+	 * @return true if {@link #transferFrom(FileChannel, long, long)} can send
+	 *         file regions directly to the underlying channel.
+	 */
+	public boolean canTransferFrom() {
+		return channel != null;
+	}
+
+	/**
+	 * Update the checksums with bytes that will be sent by a transfer.
+	 * <p>
+	 * The pack trailer and the per-object CRC-32 require every byte of the
+	 * pack to be hashed. Callers using
+	 * {@link #transferFrom(FileChannel, long, long)} must supply the exact
+	 * same bytes, in order, to this method before transferring them.
+	 *
+	 * @param b
+	 *            buffer holding the bytes.
+	 * @param off
+	 *            position of the first byte within {@code b}.
+	 * @param len
+	 *            number of bytes to hash.
+	 */
+	public void digest(final byte[] b, final int off, final int len) {
+		crc.update(b, off, len);
+		md.update(b, off, len);
+	}
+
+	/**
+	 * Send a region of a file directly to the output channel.
+	 * <p>
+	 * The bytes are moved by {@link FileChannel#transferTo(long, long,
+	 * java.nio.channels.WritableByteChannel)}, allowing the operating system
+	 * to copy them to the output file without passing them through the Java
+	 * heap. The region must have already been supplied to
+	 * {@link #digest(byte[], int, int)}.
+	 *
+	 * @param src
+	 *            file to copy data from.
+	 * @param position
+	 *            offset of the first byte to copy.
+	 * @param cnt
+	 *            number of bytes to copy.
+	 * @throws IOException
+	 *             the file could not be read, or the output channel refused
+	 *             the data.
+	 */
+	public void transferFrom(final FileChannel src, long position, long cnt)
+			throws IOException {
+		flushChannelBuffer();
+		count += cnt;
+		while (0 < cnt) {
+			final long n = src.transferTo(position, cnt, channel);
+			if (n <= 0)
+				throw new EOFException(JGitText.get().shortReadOfBlock);
+			position += n;
+			cnt -= n;
+		}
+	}
+
 	void writeFileHeader(int version, int objectCount) throws IOException {
 		System.arraycopy(Constants.PACK_SIGNATURE, 0, headerBuffer, 0, 4);
 		NB.encodeInt32(headerBuffer, 4, version);
@@ -192,7 +291,7 @@ void endObject() {
 	}
 
 	/** @return total number of bytes written since stream start. */
-	long length() {
+	public long length() {
 		return count;
 	}
 
@@ -462,7 +462,10 @@ private List<ObjectToPack> sortByName() {
 	 *            progress monitor to report the number of objects written.
 	 * @param packStream
 	 *            output stream of pack data. The stream should be buffered by
-	 *            the caller. The caller is responsible for closing the stream.
+	 *            the caller, unless it is a {@link java.io.FileOutputStream},
+	 *            which is buffered internally so that large reused objects
+	 *            can be sent through its channel. The caller is responsible
+	 *            for closing the stream.
 	 * @throws IOException
 	 *             an error occurred reading a local object's data to include in
 	 *             the pack, or writing compressed object data to the output
@@ -487,8 +490,10 @@ public void writePack(ProgressMonitor compressMonitor,
 		int objCnt = getObjectsNumber();
 		writeMonitor.beginTask(JGitText.get().writingObjects, objCnt);
 		out.writeFileHeader(PACK_VERSION_GENERATED, objCnt);
+		writeWholePacks(writeMonitor, out);
 		writeObjects(writeMonitor, out);
 		writeChecksum(out);
+		out.flush();
 
 		reader.release();
 		writeMonitor.endTask();
@@ -752,6 +757,34 @@ private void runTasks(ExecutorService pool, List<DeltaTask> tasks,
 		}
 	}
 
+	private void writeWholePacks(ProgressMonitor writeMonitor,
+			PackOutputStream out) throws IOException {
+		// Stored packs contain OFS_DELTA objects, and a copied region
+		// can't be rewritten, so offsets must be acceptable to the reader.
+		//
+		if (!config.isReuseWholePacks() || !isDeltaBaseAsOffset()
+				|| reuseSupport == null)
+			return;
+
+		List<ObjectToPack> reused = new ArrayList<ObjectToPack>();
+		for (List<ObjectToPack> list : objectsLists) {
+			for (ObjectToPack otp : list) {
+				if (otp.isReuseAsIs())
+					reused.add(otp);
+			}
+		}
+		if (reused.isEmpty())
+			return;
+
+		for (StoredPack pack : reuseSupport.selectWholePacks(reused)) {
+			if (writeMonitor.isCancelled())
+				throw new IOException(
+						JGitText.get().packingCancelledDuringObjectsWriting);
+			reuseSupport.copyPackAsIs(out, pack);
+			writeMonitor.update((int) pack.getObjectCount());
+		}
+	}
+
 	private void writeObjects(ProgressMonitor writeMonitor, PackOutputStream out)
 			throws IOException {
 		for (List<ObjectToPack> list : objectsLists) {
@@ -93,6 +93,12 @@
  * call boundary is determined by this class switching from writing to the
  * OutputStream to reading from the InputStream.
  * <p>
+ * Have lines are normally sent for every local commit, newest first. Setting
+ * {@code fetch.negotiationAlgorithm} to {@code skipping} sends exponentially
+ * fewer of the older commits of each branch instead, and a positive
+ * {@code fetch.negotiationMaxNaks} stops negotiating after that many rounds in
+ * a row were not acknowledged by the remote.
+ * <p>
  * Concrete implementations should just call
  * {@link #init(java.io.InputStream, java.io.OutputStream)} and
  * {@link #readAdvertisedRefs()} methods in constructor or before any use. They
@@ -168,6 +174,10 @@ static enum MultiAck {
 
 	private boolean allowOfsDelta;
 
+	private final boolean skippingNegotiation;
+
+	private final int maxNakRounds;
+
 	private String lockMessage;
 
 	private PackLock packLock;
@@ -184,6 +194,8 @@ static enum MultiAck {
 		includeTags = transport.getTagOpt() != TagOpt.NO_TAGS;
 		thinPack = transport.isFetchThin();
 		allowOfsDelta = cfg.allowOfsDelta;
+		skippingNegotiation = cfg.skippingNegotiation;
+		maxNakRounds = cfg.maxNakRounds;
 
 		walk = new RevWalk(local);
 		reachableCommits = new RevCommitList<RevCommit>();
@@ -206,8 +218,16 @@ public FetchConfig parse(final Config cfg) {
 
 		final boolean allowOfsDelta;
 
+		final boolean skippingNegotiation;
+
+		final int maxNakRounds;
+
 		FetchConfig(final Config c) {
 			allowOfsDelta = c.getBoolean("repack", "usedeltabaseoffset", true);
+
+			final String alg = c.getString("fetch", null, "negotiationalgorithm");
+			skippingNegotiation = "skipping".equalsIgnoreCase(alg);
+			maxNakRounds = c.getInt("fetch", "negotiationmaxnaks", 0);
 		}
 	}
 
@@ -411,6 +431,8 @@ private void negotiate(final ProgressMonitor monitor) throws IOException,
 		int resultsPending = 0;
 		int havesSent = 0;
 		int havesSinceLastContinue = 0;
+		int nakRounds = 0;
+		boolean roundAcked = false;
 		boolean receivedContinue = false;
 		boolean receivedAck = false;
 
@@ -455,9 +477,16 @@ private void negotiate(final ProgressMonitor monitor) throws IOException,
 				switch (anr) {
 				case NAK:
 					// More have lines are necessary to compute the
-					// pack on the remote side. Keep doing that.
+					// pack on the remote side. Keep doing that. With
+					// multi_ack the NAK also ends rounds in which commits
+					// were acknowledged; only count the rounds without.
 					//
 					resultsPending--;
+					if (roundAcked)
+						nakRounds = 0;
+					else
+						nakRounds++;
+					roundAcked = false;
 					break READ_RESULT;
 
 				case ACK:
@@ -484,6 +513,7 @@ private void negotiate(final ProgressMonitor monitor) throws IOException,
 					receivedAck = true;
 					receivedContinue = true;
 					havesSinceLastContinue = 0;
+					roundAcked = true;
 					break;
 				}
 
@@ -502,6 +532,15 @@ private void negotiate(final ProgressMonitor monitor) throws IOException,
 				//
 				break SEND_HAVES;
 			}
+
+			if (0 < maxNakRounds && maxNakRounds <= nakRounds) {
+				// The remote has not recognized any of our recent have
+				// lines in several rounds. Rather than continuing to
+				// pay a round trip for each block, let it send what it
+				// believes we need.
+				//
+				break SEND_HAVES;
+			}
 		}
 
 		// Tell the remote side we have run out of things to talk about.
@@ -559,7 +598,7 @@ private void negotiateBegin() throws IOException {
 		walk.resetRetain(REACHABLE, ADVERTISED);
 		walk.markStart(reachableCommits);
 		walk.sort(RevSort.COMMIT_TIME_DESC);
-		walk.setRevFilter(new RevFilter() {
+		final RevFilter notCommon = new RevFilter() {
 			@Override
 			public RevFilter clone() {
 				return this;
@@ -578,7 +617,11 @@ public boolean include(final RevWalk walker, final RevCommit c) {
 				}
 				return !remoteKnowsIsCommon;
 			}
-		});
+		};
+		if (skippingNegotiation)
+			walk.setRevFilter(new SkippingHaveFilter(notCommon, COMMON));
+		else
+			walk.setRevFilter(notCommon);
 	}
 
 	private void markRefsAdvertised() {
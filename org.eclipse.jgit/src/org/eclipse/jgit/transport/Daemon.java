@@ -54,8 +54,16 @@
 import java.net.SocketAddress;
 import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.lib.Constants;
@@ -66,7 +74,16 @@
 import org.eclipse.jgit.storage.pack.PackConfig;
 import org.eclipse.jgit.util.FS;
 
-/** Basic daemon for the anonymous <code>git://</code> transport protocol. */
+/**
+ * Basic daemon for the anonymous <code>git://</code> transport protocol.
+ * <p>
+ * Accepted connections are handed to a pool of worker threads. By default the
+ * pool grows without bound, serving every client immediately. Servers exposed
+ * to bursts of clients should call {@link #setMaxConnections(int)} and
+ * {@link #setMaxQueuedConnections(int)} to cap the number of concurrent
+ * service executions; connections beyond both limits are sent an error and
+ * closed immediately rather than slowing down everyone else.
+ */
 public class Daemon {
 	/** 9418: IANA assigned port number for Git. */
 	public static final int DEFAULT_PORT = 9418;
@@ -93,6 +110,16 @@ public class Daemon {
 
 	private PackConfig packConfig;
 
+	private int maxConnections;
+
+	private int maxQueuedConnections;
+
+	private ThreadPoolExecutor workers;
+
+	private final AtomicInteger activeConnections = new AtomicInteger();
+
+	private final AtomicInteger queuedConnections = new AtomicInteger();
+
 	/** Configure a daemon to listen on any available network port. */
 	public Daemon() {
 		this(null);
@@ -257,6 +284,69 @@ public void setPackConfig(PackConfig pc) {
 		this.packConfig = pc;
 	}
 
+	/**
+	 * @return maximum number of clients served concurrently; 0 if unlimited.
+	 * @see #setMaxConnections(int)
+	 */
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * Set the maximum number of clients served at the same time.
+	 * <p>
+	 * Each connection being served holds a worker thread, and the state of
+	 * the service it is executing (e.g. the object graph of a pack being
+	 * generated). Limiting the number of workers bounds the resources used by
+	 * the daemon when a large number of clients connect at once.
+	 * <p>
+	 * The limit is applied when the daemon is started.
+	 *
+	 * @param max
+	 *            maximum number of concurrently executing services. 0 (the
+	 *            default) or a negative value permits an unlimited number of
+	 *            connections.
+	 */
+	public void setMaxConnections(final int max) {
+		maxConnections = Math.max(0, max);
+	}
+
+	/**
+	 * @return maximum number of clients waiting for a free worker.
+	 * @see #setMaxQueuedConnections(int)
+	 */
+	public int getMaxQueuedConnections() {
+		return maxQueuedConnections;
+	}
+
+	/**
+	 * Set the number of clients that may wait for a worker to become free.
+	 * <p>
+	 * Only used if {@link #setMaxConnections(int)} limits the number of
+	 * workers. Once all workers are busy, new connections wait in a queue of
+	 * this size. A connection arriving when the queue is also full is
+	 * rejected with an error message.
+	 * <p>
+	 * The limit is applied when the daemon is started.
+	 *
+	 * @param max
+	 *            number of connections allowed to wait. 0 (the default)
+	 *            rejects a client immediately if no worker is available.
+	 */
+	public void setMaxQueuedConnections(final int max) {
+		maxQueuedConnections = Math.max(0, max);
+	}
+
+	/** @return number of clients currently being served. */
+	public int getActiveConnections() {
+		return activeConnections.get();
+	}
+
+	/** @return number of accepted clients waiting for a free worker. */
+	public int getQueuedConnections() {
+		return queuedConnections.get();
+	}
+
 	/**
 	 * Start this daemon on a background thread.
 	 *
@@ -275,6 +365,7 @@ public synchronized void start() throws IOException {
 		myAddress = (InetSocketAddress) listenSock.getLocalSocketAddress();
 
 		run = true;
+		workers = newWorkerPool();
 		acceptThread = new Thread(processors, "Git-Daemon-Accept") {
 			public void run() {
 				while (isRunning()) {
@@ -293,6 +384,8 @@ public void run() {
 					//
 				} finally {
 					synchronized (Daemon.this) {
+						// Clients already accepted are allowed to finish.
+						workers.shutdown();
 						acceptThread = null;
 					}
 				}
@@ -314,6 +407,34 @@ public synchronized void stop() {
 		}
 	}
 
+	private ThreadPoolExecutor newWorkerPool() {
+		final int max;
+		final BlockingQueue<Runnable> queue;
+		if (0 < maxConnections) {
+			max = maxConnections;
+			if (0 < maxQueuedConnections)
+				queue = new ArrayBlockingQueue<Runnable>(maxQueuedConnections);
+			else
+				queue = new SynchronousQueue<Runnable>();
+		} else {
+			max = Integer.MAX_VALUE;
+			queue = new SynchronousQueue<Runnable>();
+		}
+
+		// With a bounded pool all workers must be core threads, otherwise
+		// the executor prefers to queue clients rather than start a worker.
+		final int core = 0 < maxConnections ? max : 0;
+		return new ThreadPoolExecutor(core, max, 60, TimeUnit.SECONDS, queue,
+				new ThreadFactory() {
+					private final AtomicInteger cnt = new AtomicInteger();
+
+					public Thread newThread(Runnable r) {
+						return new Thread(processors, r, "Git-Daemon-Worker-"
+								+ cnt.incrementAndGet());
+					}
+				});
+	}
+
 	private void startClient(final Socket s) {
 		final DaemonClient dc = new DaemonClient(this);
 
@@ -321,27 +442,60 @@ private void startClient(final Socket s) {
 		if (peer instanceof InetSocketAddress)
 			dc.setRemoteAddress(((InetSocketAddress) peer).getAddress());
 
-		new Thread(processors, "Git-Daemon-Client " + peer.toString()) {
-			public void run() {
-				try {
-					dc.execute(s);
-				} catch (IOException e) {
-					// Ignore unexpected IO exceptions from clients
-					e.printStackTrace();
-				} finally {
-					try {
-						s.getInputStream().close();
-					} catch (IOException e) {
-						// Ignore close exceptions
-					}
+		queuedConnections.incrementAndGet();
+		try {
+			workers.execute(new Runnable() {
+				public void run() {
+					queuedConnections.decrementAndGet();
+					activeConnections.incrementAndGet();
+
+					final Thread me = Thread.currentThread();
+					final String workerName = me.getName();
+					me.setName("Git-Daemon-Client " + peer.toString());
 					try {
-						s.getOutputStream().close();
+						dc.execute(s);
 					} catch (IOException e) {
-						// Ignore close exceptions
+						// Ignore unexpected IO exceptions from clients
+						e.printStackTrace();
+					} finally {
+						close(s);
+						me.setName(workerName);
+						activeConnections.decrementAndGet();
 					}
 				}
-			}
-		}.start();
+			});
+		} catch (RejectedExecutionException tooBusy) {
+			queuedConnections.decrementAndGet();
+			reject(s);
+		}
+	}
+
+	private static void reject(final Socket s) {
+		try {
+			// Clients report an ERR line in place of the advertisement
+			// as a remote error, so the user knows why it failed.
+			final PacketLineOut pckOut = new PacketLineOut(s.getOutputStream());
+			pckOut.writeString("ERR " + JGitText.get().daemonTooManyConnections
+					+ "\n");
+			pckOut.flush();
+		} catch (IOException e) {
+			// Ignore, the client is being dropped anyway.
+		} finally {
+			close(s);
+		}
+	}
+
+	private static void close(final Socket s) {
+		try {
+			s.getInputStream().close();
+		} catch (IOException e) {
+			// Ignore close exceptions
+		}
+		try {
+			s.getOutputStream().close();
+		} catch (IOException e) {
+			// Ignore close exceptions
+		}
 	}
 
 	synchronized DaemonService matchService(final String cmd) {
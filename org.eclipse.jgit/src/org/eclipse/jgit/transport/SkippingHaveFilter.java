@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import java.io.IOException;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+
+/**
+ * Selects have lines by skipping exponentially more commits along a history.
+ * <p>
+ * Sending every commit in date order costs one have line per commit until a
+ * common commit is found, which can be many rounds of negotiation when the
+ * local repository has diverged a lot from the remote. This filter instead
+ * sends the tips, and then lets through fewer and fewer of their ancestors:
+ * after each commit sent the number of commits skipped before the next one
+ * grows by half, so a common commit <i>n</i> commits deep is reached after
+ * about log(<i>n</i>) have lines. The remote may pick a slightly older common
+ * base than a full walk would find, in exchange for far fewer rounds.
+ * <p>
+ * Commits which are already known to be common are never sent, as decided by
+ * the filter this one wraps. Their ancestors are not given a skip count, since
+ * the walk carries the common flag to them.
+ * <p>
+ * The filter keeps state for each commit it sees, so an instance must only be
+ * used with a single walk. Clones start out without any state.
+ */
+class SkippingHaveFilter extends RevFilter {
+	private final RevFilter filter;
+
+	private final RevFlag common;
+
+	private final ObjectIdSubclassMap<Entry> entries;
+
+	/**
+	 * Create a skipping filter.
+	 *
+	 * @param filter
+	 *            the filter deciding if a commit may be sent at all.
+	 * @param common
+	 *            flag marking commits the remote is known to have.
+	 */
+	SkippingHaveFilter(final RevFilter filter, final RevFlag common) {
+		this.filter = filter;
+		this.common = common;
+		this.entries = new ObjectIdSubclassMap<Entry>();
+	}
+
+	@Override
+	public boolean include(final RevWalk walker, final RevCommit c)
+			throws MissingObjectException, IncorrectObjectTypeException,
+			IOException {
+		final boolean send = filter.include(walker, c);
+		final Entry e = get(c);
+		e.popped = true;
+
+		if (!c.has(common)) {
+			// Once a commit is sent its parents start a longer run of
+			// skipped commits, otherwise they continue the current run.
+			final int originalTtl;
+			final int ttl;
+			if (e.ttl == 0) {
+				originalTtl = e.originalTtl * 3 / 2 + 1;
+				ttl = originalTtl;
+			} else {
+				originalTtl = e.originalTtl;
+				ttl = e.ttl - 1;
+			}
+
+			for (final RevCommit p : c.getParents()) {
+				final Entry pe = get(p);
+				if (!pe.popped && pe.originalTtl < originalTtl) {
+					pe.originalTtl = originalTtl;
+					pe.ttl = ttl;
+				}
+			}
+		}
+		return send && e.ttl == 0;
+	}
+
+	@Override
+	public RevFilter clone() {
+		return new SkippingHaveFilter(filter.clone(), common);
+	}
+
+	private Entry get(final AnyObjectId id) {
+		Entry e = entries.get(id);
+		if (e == null) {
+			e = new Entry(id);
+			entries.add(e);
+		}
+		return e;
+	}
+
+	private static class Entry extends ObjectId {
+		/** Commits to skip in a row, starting with this one. */
+		int ttl;
+
+		/** The run length {@link #ttl} started from. */
+		int originalTtl;
+
+		/** True once the walk has produced this commit. */
+		boolean popped;
+
+		Entry(final AnyObjectId id) {
+			super(id);
+		}
+	}
+}
@@ -49,6 +49,7 @@
 import java.io.OutputStream;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -58,17 +59,20 @@
 import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.PackProtocolException;
+import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.Config.SectionParser;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevFlag;
 import org.eclipse.jgit.revwalk.RevFlagSet;
 import org.eclipse.jgit.revwalk.RevObject;
 import org.eclipse.jgit.revwalk.RevTag;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.CommitGraph;
 import org.eclipse.jgit.storage.pack.PackConfig;
 import org.eclipse.jgit.storage.pack.PackWriter;
 import org.eclipse.jgit.transport.BasePackFetchConnection.MultiAck;
@@ -79,6 +83,12 @@
 
 /**
  * Implements the server side of a fetch connection, transmitting objects.
+ * <p>
+ * The work done while negotiating with a client can be bounded through
+ * {@code uploadpack.maxHaves}, the number of have lines examined, and
+ * {@code uploadpack.maxWalkDepth}, the number of commits walked from each want
+ * when deciding if the client has sent enough have lines. Both are unlimited
+ * by default.
  */
 public class UploadPack {
 	static final String OPTION_INCLUDE_TAG = BasePackFetchConnection.OPTION_INCLUDE_TAG;
@@ -170,6 +180,23 @@ public class UploadPack {
 
 	private MultiAck multiAck = MultiAck.OFF;
 
+	/** Number of have lines examined; 0 if not limited. */
+	private int maxHaves;
+
+	/** Number of commits walked per want when giving up; 0 if not limited. */
+	private int maxWalkDepth;
+
+	/** Commit-graph of {@link #db}; null if it has none. */
+	private CommitGraph graph;
+
+	private boolean graphLoaded;
+
+	private int negotiationRounds;
+
+	private int havesReceived;
+
+	private int commitsWalked;
+
 	/**
 	 * Create a new pack upload for an open repository.
 	 *
@@ -192,6 +219,27 @@ public UploadPack(final Repository copyFrom) {
 		SAVE.add(WANT);
 		SAVE.add(PEER_HAS);
 		refFilter = RefFilter.DEFAULT;
+
+		final UploadConfig cfg = db.getConfig().get(UploadConfig.KEY);
+		maxHaves = cfg.maxHaves;
+		maxWalkDepth = cfg.maxWalkDepth;
+	}
+
+	private static class UploadConfig {
+		static final SectionParser<UploadConfig> KEY = new SectionParser<UploadConfig>() {
+			public UploadConfig parse(final Config cfg) {
+				return new UploadConfig(cfg);
+			}
+		};
+
+		final int maxHaves;
+
+		final int maxWalkDepth;
+
+		UploadConfig(final Config config) {
+			maxHaves = config.getInt("uploadpack", "maxhaves", 0);
+			maxWalkDepth = config.getInt("uploadpack", "maxwalkdepth", 0);
+		}
 	}
 
 	/** @return the repository this upload is reading from. */
@@ -262,6 +310,70 @@ public void setRefFilter(final RefFilter refFilter) {
 		this.refFilter = refFilter != null ? refFilter : RefFilter.DEFAULT;
 	}
 
+	/** @return maximum number of have lines examined; 0 if unlimited. */
+	public int getMaxHaves() {
+		return maxHaves;
+	}
+
+	/**
+	 * Set the maximum number of have lines to examine.
+	 * <p>
+	 * Have lines the client sends beyond this limit are not looked up. Once
+	 * the limit is reached and at least one common object has been found the
+	 * client is told the server is ready to send the pack, which may then be
+	 * larger than a full negotiation would have made it.
+	 *
+	 * @param max
+	 *            maximum number of have lines; 0 or less for no limit.
+	 */
+	public void setMaxHaves(final int max) {
+		maxHaves = Math.max(0, max);
+	}
+
+	/**
+	 * @return maximum number of commits walked from each want when deciding
+	 *         whether to give up negotiating; 0 if unlimited.
+	 */
+	public int getMaxWalkDepth() {
+		return maxWalkDepth;
+	}
+
+	/**
+	 * Set the maximum number of commits to walk from each want.
+	 * <p>
+	 * After each common object found, the history of the wants not yet known
+	 * to reach a common object is walked to decide if negotiation can stop. A
+	 * want whose walk exceeds this limit is treated as not reaching one, so
+	 * negotiation continues until the client stops sending have lines.
+	 *
+	 * @param max
+	 *            maximum number of commits; 0 or less for no limit.
+	 */
+	public void setMaxWalkDepth(final int max) {
+		maxWalkDepth = Math.max(0, max);
+	}
+
+	/**
+	 * @return number of negotiation rounds, that is blocks of have lines ended
+	 *         by a flush or done, received from the client.
+	 */
+	public int getNegotiationRounds() {
+		return negotiationRounds;
+	}
+
+	/** @return number of have lines received from the client. */
+	public int getHavesReceived() {
+		return havesReceived;
+	}
+
+	/**
+	 * @return number of commits walked while deciding whether to give up
+	 *         negotiating.
+	 */
+	public int getCommitsWalked() {
+		return commitsWalked;
+	}
+
 	/**
 	 * Set the configuration used by the pack generator.
 	 *
@@ -445,6 +557,7 @@ private boolean negotiate() throws IOException {
 			}
 
 			if (line == PacketLineIn.END) {
+				negotiationRounds++;
 				if (commonBase.isEmpty() || multiAck != MultiAck.OFF)
 					pckOut.writeString("NAK\n");
 				if (!biDirectionalPipe)
@@ -453,7 +566,8 @@ private boolean negotiate() throws IOException {
 
 			} else if (line.startsWith("have ") && line.length() == 45) {
 				final ObjectId id = ObjectId.fromString(line.substring(5));
-				if (matchHave(id)) {
+				havesReceived++;
+				if (!isHaveLimitReached() && matchHave(id)) {
 					// Both sides have the same object; let the client know.
 					//
 					last = id;
@@ -485,6 +599,7 @@ private boolean negotiate() throws IOException {
 				}
 
 			} else if (line.equals("done")) {
+				negotiationRounds++;
 				if (commonBase.isEmpty())
 					pckOut.writeString("NAK\n");
 
@@ -524,7 +639,16 @@ private void addCommonBase(final RevObject o) {
 		}
 	}
 
+	private boolean isHaveLimitReached() {
+		return 0 < maxHaves && maxHaves < havesReceived;
+	}
+
 	private boolean okToGiveUp() throws PackProtocolException {
+		if (isHaveLimitReached()) {
+			// Stop looking at the client's history. Any common object
+			// lets the pack omit something, so declare we are ready.
+			return !commonBase.isEmpty();
+		}
 		if (okToGiveUp == null)
 			okToGiveUp = Boolean.valueOf(okToGiveUpImp());
 		return okToGiveUp.booleanValue();
@@ -535,10 +659,16 @@ private boolean okToGiveUpImp() throws PackProtocolException {
 			return false;
 
 		try {
+			if (!graphLoaded) {
+				graph = walk.getObjectReader().getCommitGraph();
+				graphLoaded = true;
+			}
+			final GraphCommon gc = graph != null ? new GraphCommon() : null;
 			for (final Iterator<RevCommit> i = wantCommits.iterator(); i
 					.hasNext();) {
 				final RevCommit want = i.next();
-				if (wantSatisfied(want))
+				final int pos = gc != null ? graph.findGraphPosition(want) : -1;
+				if (0 <= pos ? gc.reaches(pos) : wantSatisfied(want))
 					i.remove();
 			}
 		} catch (IOException e) {
@@ -550,10 +680,11 @@ private boolean okToGiveUpImp() throws PackProtocolException {
 	private boolean wantSatisfied(final RevCommit want) throws IOException {
 		walk.resetRetain(SAVE);
 		walk.markStart(want);
-		for (;;) {
+		for (int n = 0;; n++) {
 			final RevCommit c = walk.next();
-			if (c == null)
+			if (c == null || (0 < maxWalkDepth && maxWalkDepth <= n))
 				break;
+			commitsWalked++;
 			if (c.has(PEER_HAS)) {
 				addCommonBase(c);
 				return true;
@@ -562,6 +693,67 @@ private boolean wantSatisfied(final RevCommit want) throws IOException {
 		return false;
 	}
 
+	/**
+	 * The common commits within the commit-graph.
+	 * <p>
+	 * A walk from a want in the graph can only reach commits in the graph, and
+	 * never needs to go below the lowest generation of the common commits, as
+	 * no commit of a lower generation can be an ancestor of one of them. Such
+	 * a walk reads only the graph, not the commits themselves.
+	 */
+	private class GraphCommon {
+		private final BitSet positions = new BitSet();
+
+		private int minGeneration = Integer.MAX_VALUE;
+
+		GraphCommon() {
+			for (final RevObject o : commonBase) {
+				if (!(o instanceof RevCommit))
+					continue;
+				final int pos = graph.findGraphPosition(o);
+				if (0 <= pos) {
+					positions.set(pos);
+					minGeneration = Math.min(minGeneration, graph
+							.getGeneration(pos));
+				}
+			}
+		}
+
+		boolean reaches(final int want) throws IOException {
+			if (positions.isEmpty())
+				return false;
+
+			final BitSet seen = new BitSet();
+			int[] stack = new int[16];
+			int n = 0;
+			int walked = 0;
+			stack[n++] = want;
+			seen.set(want);
+			while (0 < n) {
+				final int pos = stack[--n];
+				if (0 < maxWalkDepth && maxWalkDepth <= walked)
+					return false;
+				walked++;
+				commitsWalked++;
+				if (positions.get(pos))
+					return true;
+
+				for (final int p : graph.getParents(pos)) {
+					if (seen.get(p) || graph.getGeneration(p) < minGeneration)
+						continue;
+					seen.set(p);
+					if (stack.length == n) {
+						final int[] s = new int[n * 2];
+						System.arraycopy(stack, 0, s, 0, n);
+						stack = s;
+					}
+					stack[n++] = p;
+				}
+			}
+			return false;
+		}
+	}
+
 	private void sendPack() throws IOException {
 		final boolean sideband = options.contains(OPTION_SIDE_BAND)
 				|| options.contains(OPTION_SIDE_BAND_64K);
@@ -104,6 +104,24 @@ public FileTreeIterator(final File root, FS fs) {
 		init(entries());
 	}
 
+	/**
+	 * Create a new iterator over entries the caller has already read.
+	 *
+	 * @param root
+	 *            the starting directory. This directory should correspond to
+	 *            the root of the repository.
+	 * @param fs
+	 *            the file system abstraction which will be necessary to
+	 *            perform certain file system operations.
+	 * @param entries
+	 *            the entries of {@code root}, in any order.
+	 */
+	protected FileTreeIterator(final File root, FS fs, final Entry[] entries) {
+		directory = root;
+		this.fs = fs;
+		init(entries);
+	}
+
 	/**
 	 * Create a new iterator to traverse a subdirectory.
 	 *
@@ -123,6 +141,28 @@ protected FileTreeIterator(final FileTreeIterator p, final File root, FS fs) {
 		init(entries());
 	}
 
+	/**
+	 * Create a new iterator over subdirectory entries already read.
+	 *
+	 * @param p
+	 *            the parent iterator we were created from.
+	 * @param root
+	 *            the subdirectory. This should be a directory contained within
+	 *            the parent directory.
+	 * @param fs
+	 *            the file system abstraction which will be necessary to
+	 *            perform certain file system operations.
+	 * @param entries
+	 *            the entries of {@code root}, in any order.
+	 */
+	protected FileTreeIterator(final FileTreeIterator p, final File root,
+			FS fs, final Entry[] entries) {
+		super(p);
+		directory = root;
+		this.fs = fs;
+		init(entries);
+	}
+
 	@Override
 	public AbstractTreeIterator createSubtreeIterator(final ObjectReader reader)
 			throws IncorrectObjectTypeException, IOException {
@@ -130,6 +170,10 @@ public AbstractTreeIterator createSubtreeIterator(final ObjectReader reader)
 	}
 
 	private Entry[] entries() {
+		return entries(directory, fs);
+	}
+
+	static Entry[] entries(final File directory, final FS fs) {
 		final File[] all = directory.listFiles();
 		if (all == null)
 			return EOF;
@@ -151,6 +195,18 @@ static public class FileEntry extends Entry {
 
 		private long lastModified;
 
+		private boolean statusKnown;
+
+		private long lastStatusChange;
+
+		private int device;
+
+		private int inode;
+
+		private int userId;
+
+		private int groupId;
+
 		FileEntry(final File f, FS fs) {
 			file = f;
 
@@ -165,6 +221,14 @@ static public class FileEntry extends Entry {
 				mode = FileMode.REGULAR_FILE;
 		}
 
+		FileEntry(final File f, final FileMode mode, final long length,
+				final long lastModified) {
+			this.file = f;
+			this.mode = mode;
+			this.length = length;
+			this.lastModified = lastModified;
+		}
+
 		@Override
 		public FileMode getMode() {
 			return mode;
@@ -189,6 +253,46 @@ public long getLastModified() {
 			return lastModified;
 		}
 
+		void setStatus(final long ctime, final int dev, final int ino,
+				final int uid, final int gid) {
+			statusKnown = true;
+			lastStatusChange = ctime;
+			device = dev;
+			inode = ino;
+			userId = uid;
+			groupId = gid;
+		}
+
+		@Override
+		public boolean isStatusKnown() {
+			return statusKnown;
+		}
+
+		@Override
+		public long getLastStatusChange() {
+			return lastStatusChange;
+		}
+
+		@Override
+		public int getDevice() {
+			return device;
+		}
+
+		@Override
+		public int getInode() {
+			return inode;
+		}
+
+		@Override
+		public int getUserId() {
+			return userId;
+		}
+
+		@Override
+		public int getGroupId() {
+			return groupId;
+		}
+
 		@Override
 		public InputStream openInputStream() throws IOException {
 			return new FileInputStream(file);
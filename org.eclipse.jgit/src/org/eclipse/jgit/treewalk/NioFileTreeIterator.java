@@ -0,0 +1,385 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.treewalk;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.util.FS;
+
+/**
+ * Working directory iterator reading file attributes in a single pass.
+ * <p>
+ * {@link FileTreeIterator} asks the file system for each attribute of an entry
+ * separately, costing several stat calls per file. When running on a Java 7
+ * or later JVM this iterator lists each directory with
+ * {@code java.nio.file.DirectoryStream} and reads the type, size, modification
+ * time and (if the file system supports the execute bit) permissions of each
+ * entry with a single {@code Files.readAttributes} call. The NIO.2 API is
+ * accessed through reflection, as this library is compiled for Java 5.
+ * <p>
+ * If the file system supports the {@code unix} attribute view, the same call
+ * also reads the status change time, device, inode and owner of the entry, so
+ * that {@link #isModified(org.eclipse.jgit.dircache.DirCacheEntry, boolean, boolean, FS)}
+ * can compare them with the index like C git does.
+ * <p>
+ * On older JVMs, or for any entry whose attributes cannot be read this way,
+ * the iterator falls back to the behavior of {@link FileTreeIterator}.
+ * <p>
+ * Modification times reported through NIO.2 may have a finer resolution than
+ * those reported by {@link File#lastModified()}.
+ */
+public class NioFileTreeIterator extends FileTreeIterator {
+	private static final Method toPath;
+
+	private static final Method newDirectoryStream;
+
+	private static final Method getFileName;
+
+	private static final Method readAttributes;
+
+	private static final Method readAttributeMap;
+
+	private static final Class<?> basicAttributes;
+
+	private static final Class<?> posixAttributes;
+
+	private static final Method isDirectory;
+
+	private static final Method size;
+
+	private static final Method lastModifiedTime;
+
+	private static final Method toMillis;
+
+	private static final Method permissions;
+
+	private static final Object ownerExecute;
+
+	private static final Object noLinkOptions;
+
+	/** Attributes read through the "unix" view, in a single call. */
+	private static final String UNIX_ATTRIBUTES = "unix:isDirectory,mode,size,"
+			+ "lastModifiedTime,ctime,dev,ino,uid,gid";
+
+	/** False once the file system was found not to support the "unix" view. */
+	private static volatile boolean unixView = true;
+
+	static {
+		final Class<?> path = needClass("java.nio.file.Path");
+		final Class<?> files = needClass("java.nio.file.Files");
+		final Class<?> linkOption = needClass("java.nio.file.LinkOption");
+		final Class<?> fileTime = needClass("java.nio.file.attribute.FileTime");
+		final Class<?> perm;
+		perm = needClass("java.nio.file.attribute.PosixFilePermission");
+		basicAttributes = needClass("java.nio.file.attribute.BasicFileAttributes");
+		posixAttributes = needClass("java.nio.file.attribute.PosixFileAttributes");
+
+		if (path != null && files != null && linkOption != null
+				&& fileTime != null && perm != null && basicAttributes != null
+				&& posixAttributes != null) {
+			final Class<?> linkOptions = Array.newInstance(linkOption, 0)
+					.getClass();
+			toPath = needMethod(File.class, "toPath");
+			newDirectoryStream = needMethod(files, "newDirectoryStream", path);
+			getFileName = needMethod(path, "getFileName");
+			readAttributes = needMethod(files, "readAttributes", path,
+					Class.class, linkOptions);
+			readAttributeMap = needMethod(files, "readAttributes", path,
+					String.class, linkOptions);
+			isDirectory = needMethod(basicAttributes, "isDirectory");
+			size = needMethod(basicAttributes, "size");
+			lastModifiedTime = needMethod(basicAttributes, "lastModifiedTime");
+			toMillis = needMethod(fileTime, "toMillis");
+			permissions = needMethod(posixAttributes, "permissions");
+			ownerExecute = needConstant(perm, "OWNER_EXECUTE");
+			noLinkOptions = Array.newInstance(linkOption, 0);
+		} else {
+			toPath = null;
+			newDirectoryStream = null;
+			getFileName = null;
+			readAttributes = null;
+			readAttributeMap = null;
+			isDirectory = null;
+			size = null;
+			lastModifiedTime = null;
+			toMillis = null;
+			permissions = null;
+			ownerExecute = null;
+			noLinkOptions = null;
+		}
+	}
+
+	private static Class<?> needClass(final String name) {
+		try {
+			return Class.forName(name);
+		} catch (ClassNotFoundException e) {
+			return null;
+		} catch (SecurityException e) {
+			return null;
+		}
+	}
+
+	private static Method needMethod(final Class<?> on, final String name,
+			final Class<?>... args) {
+		try {
+			return on.getMethod(name, args);
+		} catch (SecurityException e) {
+			return null;
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	private static Object needConstant(final Class<?> on, final String name) {
+		try {
+			return on.getField(name).get(null);
+		} catch (SecurityException e) {
+			return null;
+		} catch (NoSuchFieldException e) {
+			return null;
+		} catch (IllegalAccessException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if the running JVM supports single pass attribute reading;
+	 *         false if this iterator behaves like {@link FileTreeIterator}.
+	 */
+	public static boolean isAvailable() {
+		return toPath != null && newDirectoryStream != null
+				&& getFileName != null && readAttributes != null
+				&& isDirectory != null && size != null
+				&& lastModifiedTime != null && toMillis != null
+				&& permissions != null && ownerExecute != null;
+	}
+
+	/**
+	 * Create a new iterator to traverse the work tree and its children.
+	 *
+	 * @param repo
+	 *            the repository whose working tree will be scanned.
+	 */
+	public NioFileTreeIterator(Repository repo) {
+		this(repo.getWorkTree(), repo.getFS());
+		initRootIterator(repo);
+	}
+
+	/**
+	 * Create a new iterator to traverse the given directory and its children.
+	 *
+	 * @param root
+	 *            the starting directory. This directory should correspond to
+	 *            the root of the repository.
+	 * @param fs
+	 *            the file system abstraction which will be necessary to
+	 *            perform certain file system operations.
+	 */
+	public NioFileTreeIterator(final File root, FS fs) {
+		super(root, fs, readEntries(root, fs));
+	}
+
+	/**
+	 * Create a new iterator to traverse a subdirectory.
+	 *
+	 * @param p
+	 *            the parent iterator we were created from.
+	 * @param root
+	 *            the subdirectory. This should be a directory contained within
+	 *            the parent directory.
+	 * @param fs
+	 *            the file system abstraction which will be necessary to
+	 *            perform certain file system operations.
+	 */
+	protected NioFileTreeIterator(final NioFileTreeIterator p,
+			final File root, FS fs) {
+		super(p, root, fs, readEntries(root, fs));
+	}
+
+	@Override
+	public AbstractTreeIterator createSubtreeIterator(final ObjectReader reader)
+			throws IncorrectObjectTypeException, IOException {
+		return new NioFileTreeIterator(this, ((FileEntry) current()).file, fs);
+	}
+
+	private static Entry[] readEntries(final File directory, final FS fs) {
+		if (!isAvailable())
+			return entries(directory, fs);
+
+		final Object stream;
+		try {
+			stream = invoke(newDirectoryStream, null, invoke(toPath, directory));
+		} catch (InvocationTargetException notListable) {
+			return entries(directory, fs);
+		}
+
+		final List<Entry> r = new ArrayList<Entry>();
+		try {
+			for (Object path : (Iterable<?>) stream)
+				r.add(newEntry(directory, fs, path));
+		} catch (RuntimeException iteratorFailed) {
+			// DirectoryIteratorException wraps an IOException while
+			// reading the directory. Let java.io try again.
+			//
+			return entries(directory, fs);
+		} finally {
+			try {
+				((Closeable) stream).close();
+			} catch (IOException err) {
+				// Ignore close failures, the listing is complete.
+			}
+		}
+		return r.toArray(new Entry[r.size()]);
+	}
+
+	private static Entry newEntry(final File directory, final FS fs,
+			final Object path) {
+		final boolean exec = fs.supportsExecute();
+		final File f;
+		final Object attrs;
+		try {
+			f = new File(directory, invoke(getFileName, path).toString());
+		} catch (InvocationTargetException e) {
+			throw new Error(e);
+		}
+		if (readAttributeMap != null && unixView) {
+			try {
+				return newEntry(f, exec, (Map<?, ?>) invoke(readAttributeMap,
+						null, path, UNIX_ATTRIBUTES, noLinkOptions));
+			} catch (InvocationTargetException e) {
+				final Throwable cause = e.getCause();
+				if (!(cause instanceof UnsupportedOperationException)
+						&& !(cause instanceof IllegalArgumentException))
+					return new FileEntry(f, fs);
+				// The file system has no "unix" view; use the POSIX
+				// attributes, without the inode information.
+				//
+				unixView = false;
+			}
+		}
+		try {
+			attrs = invoke(readAttributes, null, path, exec ? posixAttributes
+					: basicAttributes, noLinkOptions);
+		} catch (InvocationTargetException e) {
+			// The entry is a dangling link, was deleted after we listed
+			// the directory, or has no POSIX view. Use the slow path.
+			//
+			return new FileEntry(f, fs);
+		}
+
+		try {
+			final FileMode mode;
+			if (((Boolean) invoke(isDirectory, attrs)).booleanValue()) {
+				if (new File(f, Constants.DOT_GIT).isDirectory())
+					mode = FileMode.GITLINK;
+				else
+					mode = FileMode.TREE;
+			} else if (exec
+					&& ((Set<?>) invoke(permissions, attrs))
+							.contains(ownerExecute))
+				mode = FileMode.EXECUTABLE_FILE;
+			else
+				mode = FileMode.REGULAR_FILE;
+
+			final long length = ((Long) invoke(size, attrs)).longValue();
+			final Object mtime = invoke(lastModifiedTime, attrs);
+			final long lastModified = ((Long) invoke(toMillis, mtime))
+					.longValue();
+			return new FileEntry(f, mode, length, lastModified);
+		} catch (InvocationTargetException e) {
+			throw new Error(e);
+		}
+	}
+
+	private static Entry newEntry(final File f, final boolean exec,
+			final Map<?, ?> attrs) throws InvocationTargetException {
+		final FileMode mode;
+		if (((Boolean) attrs.get("isDirectory")).booleanValue()) {
+			if (new File(f, Constants.DOT_GIT).isDirectory())
+				mode = FileMode.GITLINK;
+			else
+				mode = FileMode.TREE;
+		} else if (exec
+				&& (((Integer) attrs.get("mode")).intValue() & 0100) != 0)
+			mode = FileMode.EXECUTABLE_FILE;
+		else
+			mode = FileMode.REGULAR_FILE;
+
+		final long length = ((Long) attrs.get("size")).longValue();
+		final long lastModified = ((Long) invoke(toMillis, attrs
+				.get("lastModifiedTime"))).longValue();
+		final FileEntry e = new FileEntry(f, mode, length, lastModified);
+		e.setStatus(((Long) invoke(toMillis, attrs.get("ctime"))).longValue(),
+				(int) ((Long) attrs.get("dev")).longValue(),
+				(int) ((Long) attrs.get("ino")).longValue(),
+				((Integer) attrs.get("uid")).intValue(),
+				((Integer) attrs.get("gid")).intValue());
+		return e;
+	}
+
+	private static Object invoke(final Method m, final Object on,
+			final Object... args) throws InvocationTargetException {
+		try {
+			return m.invoke(on, args);
+		} catch (IllegalArgumentException e) {
+			throw new Error(e);
+		} catch (IllegalAccessException e) {
+			throw new Error(e);
+		}
+	}
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.treewalk;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.UntrackedCache;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.util.FS;
+import org.eclipse.jgit.util.IO;
+
+/**
+ * Working directory iterator reusing directory listings cached in the index.
+ * <p>
+ * A directory whose modification time and ignore rules are unchanged since it
+ * was recorded in the {@link UntrackedCache} is not listed again. Its entries
+ * are the recorded names which are not ignored, plus the paths of the index
+ * within it, and the ignore rules are not evaluated for the recorded names.
+ * Directories which cannot be served from the cache are listed as
+ * {@link FileTreeIterator} does, and their listing is recorded.
+ * <p>
+ * A listing is only recorded if the directory was last modified long enough
+ * before it was listed, so that any later modification changes its
+ * modification time even on file systems with a coarse timestamp resolution.
+ * <p>
+ * Callers should store the cache back into the index if
+ * {@link #isCacheModified()} returns true after the walk.
+ */
+public class UntrackedCacheIterator extends FileTreeIterator {
+	/**
+	 * Minimum age of a directory's modification time, in milliseconds, for its
+	 * listing to be recorded.
+	 */
+	private static final long RACY_MARGIN = 2000;
+
+	/** State shared by all iterators of the same walk. */
+	private static class State {
+		final DirCache index;
+
+		final UntrackedCache cache;
+
+		boolean modified;
+
+		State(DirCache index, UntrackedCache cache) {
+			this.index = index;
+			this.cache = cache;
+		}
+	}
+
+	/** Entries of a directory, and how they were obtained. */
+	private static class Listing {
+		final Entry[] entries;
+
+		/** Names known not to be ignored; null if the directory was listed. */
+		final Set<String> notIgnored;
+
+		long lastModified;
+
+		ObjectId ignoreId;
+
+		Listing(Entry[] entries, Set<String> notIgnored) {
+			this.entries = entries;
+			this.notIgnored = notIgnored;
+		}
+	}
+
+	private final State state;
+
+	/** Path of this directory relative to the working tree. */
+	private final String dirPath;
+
+	private final Set<String> notIgnored;
+
+	/**
+	 * Create a new iterator to traverse the work tree and its children.
+	 *
+	 * @param repo
+	 *            the repository whose working tree will be scanned.
+	 * @param index
+	 *            the index, whose paths are included in cached listings.
+	 * @param cache
+	 *            the cached listings; updated by the iterator.
+	 * @throws IOException
+	 *             the repository's ignore rule files cannot be read.
+	 */
+	public UntrackedCacheIterator(Repository repo, DirCache index,
+			UntrackedCache cache) throws IOException {
+		this(repo, init(repo, new State(index, cache)));
+	}
+
+	private UntrackedCacheIterator(Repository repo, State state)
+			throws IOException {
+		this(repo, state, list(state, repo.getWorkTree(), "", repo.getFS()));
+	}
+
+	private UntrackedCacheIterator(Repository repo, State state, Listing l)
+			throws IOException {
+		super(repo.getWorkTree(), repo.getFS(), l.entries);
+		initRootIterator(repo);
+		this.state = state;
+		this.dirPath = "";
+		this.notIgnored = l.notIgnored;
+		record(l);
+	}
+
+	private UntrackedCacheIterator(UntrackedCacheIterator p, File root,
+			String dirPath, Listing l) throws IOException {
+		super(p, root, p.fs, l.entries);
+		this.state = p.state;
+		this.dirPath = dirPath;
+		this.notIgnored = l.notIgnored;
+		record(l);
+	}
+
+	private static State init(Repository repo, State state)
+			throws IOException {
+		final ObjectId excludeId = ignoreId(new File(repo.getDirectory(),
+				"info/exclude"));
+		if (!excludeId.equals(state.cache.getExcludeId())) {
+			state.cache.reset(excludeId);
+			state.modified = true;
+		}
+		return state;
+	}
+
+	/**
+	 * @return true if the cache was modified by this iterator or any of its
+	 *         subtree iterators.
+	 */
+	public boolean isCacheModified() {
+		return state.modified;
+	}
+
+	/** @return the cache used and updated by this iterator. */
+	public UntrackedCache getCache() {
+		return state.cache;
+	}
+
+	@Override
+	public AbstractTreeIterator createSubtreeIterator(final ObjectReader reader)
+			throws IncorrectObjectTypeException, IOException {
+		final File dir = ((FileEntry) current()).file;
+		final String name = current().getName();
+		final String path = dirPath.length() == 0 ? name : dirPath + "/" + name;
+		return new UntrackedCacheIterator(this, dir, path, list(state, dir,
+				path, fs));
+	}
+
+	@Override
+	public boolean isEntryIgnored() throws IOException {
+		if (notIgnored != null && notIgnored.contains(current().getName()))
+			return false;
+		return super.isEntryIgnored();
+	}
+
+	private void record(Listing l) throws IOException {
+		if (l.notIgnored != null)
+			return;
+		String[] names = null;
+		if (0 < l.lastModified) {
+			final List<String> list = getNotIgnoredNames();
+			names = list.toArray(new String[list.size()]);
+		}
+		if (state.cache.put(dirPath, new UntrackedCache.Directory(
+				l.lastModified, l.ignoreId, names)))
+			state.modified = true;
+	}
+
+	private static Listing list(State state, File dir, String path, FS fs)
+			throws IOException {
+		final long now = System.currentTimeMillis();
+		final long lastModified = dir.lastModified();
+		final ObjectId ignoreId = ignoreId(new File(dir,
+				Constants.DOT_GIT_IGNORE));
+
+		final UntrackedCache.Directory d = state.cache.get(path);
+		if (d == null || !d.getIgnoreId().equals(ignoreId)) {
+			// Listings below this directory were recorded with other
+			// ignore rules, or nothing is known about the rules they
+			// were recorded with.
+			if (state.cache.removeWithin(path))
+				state.modified = true;
+		} else if (d.getNames() != null
+				&& d.getLastModified() == lastModified)
+			return cached(state, dir, path, fs, d.getNames());
+
+		final Listing l = new Listing(entries(dir, fs), null);
+		l.lastModified = RACY_MARGIN <= now - lastModified ? lastModified : 0;
+		l.ignoreId = ignoreId;
+		return l;
+	}
+
+	private static Listing cached(State state, File dir, String path, FS fs,
+			String[] recorded) {
+		final Set<String> notIgnored = new HashSet<String>();
+		for (String name : recorded) {
+			if (name.endsWith("/"))
+				notIgnored.add(name.substring(0, name.length() - 1));
+			else
+				notIgnored.add(name);
+		}
+		final Set<String> names = new HashSet<String>(notIgnored);
+		tracked(state.index, path, names);
+
+		final List<Entry> r = new ArrayList<Entry>(names.size());
+		for (String name : names) {
+			final File f = new File(dir, name);
+			final FileEntry e = new FileEntry(f, fs);
+			if (e.getMode() != FileMode.TREE && e.getMode() != FileMode.GITLINK
+					&& e.getLastModified() == 0 && !f.exists())
+				continue;
+			r.add(e);
+		}
+		return new Listing(r.toArray(new Entry[r.size()]), Collections
+				.unmodifiableSet(notIgnored));
+	}
+
+	/**
+	 * Add the names of the index paths directly within a directory.
+	 *
+	 * @param index
+	 *            the index.
+	 * @param path
+	 *            the directory.
+	 * @param names
+	 *            receives the names.
+	 */
+	private static void tracked(DirCache index, String path, Set<String> names) {
+		final String prefix = path.length() == 0 ? "" : path + "/";
+		int i = index.findEntry(prefix);
+		if (i < 0)
+			i = -(i + 1);
+		final int cnt = index.getEntryCount();
+		while (i < cnt) {
+			final String p = index.getEntry(i).getPathString();
+			if (!p.startsWith(prefix))
+				break;
+			final int slash = p.indexOf('/', prefix.length());
+			if (slash < 0) {
+				names.add(p.substring(prefix.length()));
+				i = index.nextEntry(i);
+			} else {
+				names.add(p.substring(prefix.length(), slash));
+				// Skip the subdirectory; '0' follows '/' in the sort order.
+				i = index.findEntry(p.substring(0, slash) + "0");
+				if (i < 0)
+					i = -(i + 1);
+			}
+		}
+	}
+
+	private static ObjectId ignoreId(File file) throws IOException {
+		if (!file.isFile())
+			return ObjectId.zeroId();
+		return new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, IO
+				.readFully(file));
+	}
+}
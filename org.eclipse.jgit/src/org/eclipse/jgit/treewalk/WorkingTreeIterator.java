@@ -55,9 +55,11 @@
 import java.nio.charset.CharsetEncoder;
 import java.security.MessageDigest;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 
 import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.dircache.DirCache;
@@ -367,6 +369,39 @@ protected boolean isEntryIgnored(final int pLen) throws IOException {
 		return false;
 	}
 
+	/**
+	 * Determine the entries of this iterator which are not ignored.
+	 * <p>
+	 * The ignore rules are evaluated for every entry; the current entry of
+	 * the iterator is not changed.
+	 *
+	 * @return names of the entries not ignored by an ignore rule, in
+	 *         iteration order. Names of directories end with '/'.
+	 * @throws IOException
+	 *             a relevant ignore rule file exists but cannot be read.
+	 */
+	protected List<String> getNotIgnoredNames() throws IOException {
+		final List<String> r = new ArrayList<String>(entryCnt);
+		final int save = ptr;
+		try {
+			for (ptr = 0; ptr < entryCnt; ptr++) {
+				parseEntry();
+				if (!isEntryIgnored(pathLen)) {
+					final String name = entries[ptr].getName();
+					if (FileMode.TREE.equals(mode))
+						r.add(name + "/");
+					else
+						r.add(name);
+				}
+			}
+		} finally {
+			ptr = save;
+			if (!eof())
+				parseEntry();
+		}
+		return r;
+	}
+
 	private IgnoreNode getIgnoreNode() throws IOException {
 		if (ignoreNode instanceof PerDirectoryIgnoreNode)
 			ignoreNode = ((PerDirectoryIgnoreNode) ignoreNode).load();
@@ -503,8 +538,9 @@ public boolean isModified(DirCacheEntry entry, boolean forceContentCheck,
 		if (cacheLastModified % 1000 == 0)
 			fileLastModified = fileLastModified - fileLastModified % 1000;
 
-		if (fileLastModified != cacheLastModified) {
-			// The file is dirty by timestamps
+		if (fileLastModified != cacheLastModified
+				|| isStatusChanged(entry, current())) {
+			// The file is dirty by timestamps or other status information
 			if (forceContentCheck) {
 				// But we are told to look at content even though timestamps
 				// tell us about modification
@@ -527,6 +563,50 @@ public boolean isModified(DirCacheEntry entry, boolean forceContentCheck,
 		}
 	}
 
+	private static boolean isStatusChanged(DirCacheEntry entry, Entry e) {
+		if (!e.isStatusKnown() || !isStatusKnown(entry))
+			return false;
+
+		long cacheLastChange = entry.getLastStatusChange();
+		long fileLastChange = e.getLastStatusChange();
+		if (cacheLastChange % 1000 == 0)
+			fileLastChange = fileLastChange - fileLastChange % 1000;
+		return cacheLastChange != fileLastChange
+				|| entry.getDevice() != e.getDevice()
+				|| entry.getInode() != e.getInode()
+				|| entry.getUserId() != e.getUserId()
+				|| entry.getGroupId() != e.getGroupId();
+	}
+
+	private static boolean isStatusKnown(DirCacheEntry entry) {
+		// Writers which do not record the file status leave the inode 0,
+		// or -1 in the case of GitIndex. Other fields, like the user and
+		// group ids, are legitimately 0 for files owned by root.
+		final int ino = entry.getInode();
+		return ino != 0 && ino != -1;
+	}
+
+	/**
+	 * Store the file status information of the current entry in an index
+	 * entry.
+	 * <p>
+	 * Copies the length and last modification time, and the status change
+	 * time, device, inode, user and group ids if this iterator knows them.
+	 *
+	 * @param entry
+	 *            the index entry to update.
+	 */
+	public void copyStatusTo(DirCacheEntry entry) {
+		final Entry e = current();
+		entry.setLength((int) e.getLength());
+		entry.setLastModified(e.getLastModified());
+		entry.setLastStatusChange(e.getLastStatusChange());
+		entry.setDevice(e.getDevice());
+		entry.setInode(e.getInode());
+		entry.setUserId(e.getUserId());
+		entry.setGroupId(e.getGroupId());
+	}
+
 	/**
 	 * Compares the entries content with the content in the filesystem.
 	 * Unsmudges the entry when it is detected that it is clean.
@@ -622,6 +702,54 @@ public String toString() {
 		 */
 		public abstract long getLastModified();
 
+		/**
+		 * Determine if the file status information of this entry is known.
+		 * <p>
+		 * The status change time, device, inode, user and group ids are only
+		 * compared with the index if they are known for both the entry and
+		 * the index. Implementations which cannot obtain them efficiently
+		 * return false, and 0 for each of them.
+		 *
+		 * @return true if the values returned by
+		 *         {@link #getLastStatusChange()}, {@link #getDevice()},
+		 *         {@link #getInode()}, {@link #getUserId()} and
+		 *         {@link #getGroupId()} describe the file.
+		 */
+		public boolean isStatusKnown() {
+			return false;
+		}
+
+		/**
+		 * @return time since the epoch (in ms) of the last change of the
+		 *         file's inode ({@code ctime}); 0 if unknown.
+		 */
+		public long getLastStatusChange() {
+			return 0;
+		}
+
+		/**
+		 * @return lower 32 bits of the device number of the file system
+		 *         holding this entry; 0 if unknown.
+		 */
+		public int getDevice() {
+			return 0;
+		}
+
+		/** @return lower 32 bits of the inode number; 0 if unknown. */
+		public int getInode() {
+			return 0;
+		}
+
+		/** @return id of the user owning this entry; 0 if unknown. */
+		public int getUserId() {
+			return 0;
+		}
+
+		/** @return id of the group owning this entry; 0 if unknown. */
+		public int getGroupId() {
+			return 0;
+		}
+
 		/**
 		 * Get the name of this entry within its directory.
 		 * <p>
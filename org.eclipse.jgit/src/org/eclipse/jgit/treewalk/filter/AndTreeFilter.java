@@ -46,6 +46,7 @@
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Set;
 
 import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
@@ -114,6 +115,27 @@ public static TreeFilter create(final Collection<TreeFilter> list) {
 		return new List(subfilters);
 	}
 
+	/**
+	 * Find the paths a combination of filters requires a difference in.
+	 * <p>
+	 * This is known if one filter limits the walk to paths, and another filter
+	 * (possibly the same one) requires a difference.
+	 */
+	private static Set<String> getChangedPaths(final TreeFilter[] filters) {
+		boolean diff = false;
+		Set<String> paths = null;
+		for (final TreeFilter f : filters) {
+			Set<String> p = f.getChangedPaths();
+			if (p != null || f == ANY_DIFF)
+				diff = true;
+			else
+				p = PathFilterGroup.getPaths(f);
+			if (paths == null)
+				paths = p;
+		}
+		return diff ? paths : null;
+	}
+
 	private static class Binary extends AndTreeFilter {
 		private final TreeFilter a;
 
@@ -136,6 +158,11 @@ public boolean shouldBeRecursive() {
 			return a.shouldBeRecursive() || b.shouldBeRecursive();
 		}
 
+		@Override
+		public Set<String> getChangedPaths() {
+			return AndTreeFilter.getChangedPaths(new TreeFilter[] { a, b });
+		}
+
 		@Override
 		public TreeFilter clone() {
 			return new Binary(a.clone(), b.clone());
@@ -173,6 +200,11 @@ public boolean shouldBeRecursive() {
 			return false;
 		}
 
+		@Override
+		public Set<String> getChangedPaths() {
+			return AndTreeFilter.getChangedPaths(subfilters);
+		}
+
 		@Override
 		public TreeFilter clone() {
 			final TreeFilter[] s = new TreeFilter[subfilters.length];
@@ -46,7 +46,10 @@
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.errors.StopWalkException;
@@ -110,6 +113,28 @@ public static TreeFilter create(final Collection<PathFilter> paths) {
 		return create(p);
 	}
 
+	/**
+	 * Get the paths of a path filter.
+	 *
+	 * @param f
+	 *            a filter.
+	 * @return the paths an entry must be at or below to be included by the
+	 *         filter; null if the filter is not a path filter.
+	 */
+	static Set<String> getPaths(final TreeFilter f) {
+		if (f instanceof PathFilter)
+			return Collections.singleton(((PathFilter) f).pathStr);
+		if (f instanceof Single)
+			return Collections.singleton(((Single) f).path.pathStr);
+		if (f instanceof Group) {
+			final Set<String> r = new HashSet<String>();
+			for (PathFilter p : ((Group) f).paths)
+				r.add(p.pathStr);
+			return r;
+		}
+		return null;
+	}
+
 	private static TreeFilter create(final PathFilter[] p) {
 		if (p.length == 1)
 			return new Single(p[0]);
@@ -44,6 +44,7 @@
 package org.eclipse.jgit.treewalk.filter;
 
 import java.io.IOException;
+import java.util.Set;
 
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
@@ -203,6 +204,21 @@ public abstract boolean include(TreeWalk walker)
 	 */
 	public abstract boolean shouldBeRecursive();
 
+	/**
+	 * Get the paths in which a difference must be found, if known.
+	 * <p>
+	 * If a set is returned, this filter only includes entries which differ
+	 * between the trees of the walk and which are located at or below one of
+	 * these paths. A revision walk can then skip comparing the trees of
+	 * commits known not to modify any of the paths.
+	 *
+	 * @return the paths; null if they are not known, or if the filter may
+	 *         include other entries.
+	 */
+	public Set<String> getChangedPaths() {
+		return null;
+	}
+
 	/**
 	 * Clone this tree filter, including its parameters.
 	 * <p>
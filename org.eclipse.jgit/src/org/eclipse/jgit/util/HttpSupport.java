@@ -113,6 +113,9 @@ public class HttpSupport {
 	/** The {@code Range} header. */
 	public static final String HDR_RANGE = "Range";
 
+	/** The {@code Retry-After} header. */
+	public static final String HDR_RETRY_AFTER = "Retry-After";
+
 	/** The {@code Accept-Encoding} header. */
 	public static final String HDR_ACCEPT_ENCODING = "Accept-Encoding";
 
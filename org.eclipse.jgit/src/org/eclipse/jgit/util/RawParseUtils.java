@@ -155,6 +155,8 @@ public static int formatBase10(final byte[] b, int o, int value) {
 			return o;
 		}
 		final boolean isneg = value < 0;
+		if (isneg)
+			value = -value;
 		while (value != 0) {
 			b[--o] = base10byte[value % 10];
 			value /= 10;
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.util;
+
+import java.nio.charset.Charset;
+
+import org.eclipse.jgit.lib.PersonIdent;
+
+/**
+ * An identity line located within a raw byte buffer.
+ * <p>
+ * Unlike {@link PersonIdent} the name and email address are not decoded, only
+ * their positions within the buffer are recorded. An instance can be filled
+ * again and again, so filters examining the identities of many commits need
+ * not allocate any objects to do so.
+ */
+public final class RawPersonIdent {
+	private final MutableInteger ptrout = new MutableInteger();
+
+	private byte[] buffer;
+
+	private int nameStart;
+
+	private int nameEnd;
+
+	private int emailStart;
+
+	private int emailEnd;
+
+	private long when;
+
+	private int tzOffset;
+
+	/**
+	 * Locate the fields of an identity line.
+	 * <p>
+	 * When passing in a value for <code>nameB</code> callers should use the
+	 * return value of {@link RawParseUtils#author(byte[], int)} or
+	 * {@link RawParseUtils#committer(byte[], int)}, as these methods provide
+	 * the proper position within the buffer.
+	 *
+	 * @param raw
+	 *            the buffer to parse character data from.
+	 * @param nameB
+	 *            first position of the identity information.
+	 * @return true if the line is a valid identity, and this instance now
+	 *         describes it; false if it is malformed, in the same cases as
+	 *         {@link RawParseUtils#parsePersonIdent(byte[], int)} returns null.
+	 */
+	public boolean parse(final byte[] raw, final int nameB) {
+		final int emailB = RawParseUtils.nextLF(raw, nameB, '<');
+		final int emailE = RawParseUtils.nextLF(raw, emailB, '>');
+		if (emailB <= nameB + 1 || // No name
+				emailB >= raw.length || // No email start
+				raw[emailB] == '\n' ||
+				emailE >= raw.length - 1 || // No email end or no date
+				raw[emailE] == '\n')
+			return false;
+
+		final long t = RawParseUtils.parseLongBase10(raw, emailE + 1, ptrout);
+		final int whenE = ptrout.value;
+		if (whenE >= raw.length || // No trailing timezone
+				raw[whenE] == '\n')
+			return false;
+
+		buffer = raw;
+		nameStart = nameB;
+		nameEnd = emailB - 2;
+		emailStart = emailB;
+		emailEnd = emailE - 1;
+		when = t;
+		tzOffset = RawParseUtils.parseTimeZoneOffset(raw, whenE);
+		return true;
+	}
+
+	/** @return the buffer last parsed. This is <b>NOT A COPY</b>. */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	/** @return position of the first byte of the name. */
+	public int getNameStart() {
+		return nameStart;
+	}
+
+	/** @return position after the last byte of the name. */
+	public int getNameEnd() {
+		return nameEnd;
+	}
+
+	/** @return position of the first byte of the email address. */
+	public int getEmailStart() {
+		return emailStart;
+	}
+
+	/** @return position after the last byte of the email address. */
+	public int getEmailEnd() {
+		return emailEnd;
+	}
+
+	/** @return time of the identity, in seconds since the epoch. */
+	public long getWhen() {
+		return when;
+	}
+
+	/** @return time zone offset of the identity, in minutes. */
+	public int getTimeZoneOffset() {
+		return tzOffset;
+	}
+
+	/**
+	 * Decode this identity.
+	 *
+	 * @return a new identity holding the decoded name and email address, in
+	 *         the character set of the buffer.
+	 */
+	public PersonIdent toPersonIdent() {
+		final Charset cs = RawParseUtils.parseEncoding(buffer);
+		final String name = RawParseUtils.decode(cs, buffer, nameStart, nameEnd);
+		final String email = RawParseUtils.decode(cs, buffer, emailStart,
+				emailEnd);
+		return new PersonIdent(name, email, when * 1000L, tzOffset);
+	}
+}